@@ -0,0 +1,89 @@
+package de.otto.synapse.checkpoint.aws;
+
+import de.otto.synapse.channel.ChannelPosition;
+import de.otto.synapse.checkpoint.ChannelPositionCheckpointStore;
+import de.otto.synapse.checkpoint.ChannelPositionCodec;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Optional;
+
+/**
+ * A {@link ChannelPositionCheckpointStore} that is storing checkpoints as S3 objects, one object per channel.
+ * <p>
+ *     S3 is replacing objects atomically, so readers are always seeing a complete checkpoint. Because every commit
+ *     is a PUT request, checkpoints should be committed every few seconds instead of every few messages.
+ * </p>
+ * <p>
+ *     A missing object means that there is no checkpoint of the channel. All other errors, like missing permissions
+ *     or a missing bucket, are propagated, so consumers are not silently starting without their checkpoint.
+ * </p>
+ */
+@ThreadSafe
+public class S3ChannelPositionCheckpointStore implements ChannelPositionCheckpointStore {
+
+    private static final String CHECKPOINT_OBJECT_EXTENSION = ".checkpoint";
+
+    private final S3Client s3Client;
+    private final String bucketName;
+    private final String keyPrefix;
+
+    /**
+     * @param s3Client the S3 client
+     * @param bucketName the bucket used to store the checkpoints
+     * @param keyPrefix prefix of the object keys, for example {@code "checkpoints/my-service/"}
+     */
+    public S3ChannelPositionCheckpointStore(final @Nonnull S3Client s3Client,
+                                            final @Nonnull String bucketName,
+                                            final @Nonnull String keyPrefix) {
+        this.s3Client = s3Client;
+        this.bucketName = bucketName;
+        this.keyPrefix = keyPrefix;
+    }
+
+    @Override
+    public void commit(final @Nonnull String channelName,
+                       final @Nonnull ChannelPosition channelPosition) {
+        s3Client.putObject(PutObjectRequest.builder()
+                        .bucket(bucketName)
+                        .key(objectKey(channelName))
+                        .build(),
+                RequestBody.fromBytes(ChannelPositionCodec.encode(channelPosition)));
+    }
+
+    @Nonnull
+    @Override
+    public Optional<ChannelPosition> getCheckpoint(final @Nonnull String channelName) {
+        final GetObjectRequest request = GetObjectRequest.builder()
+                .bucket(bucketName)
+                .key(objectKey(channelName))
+                .build();
+        try (ResponseInputStream<GetObjectResponse> in = s3Client.getObject(request)) {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+            return Optional.of(ChannelPositionCodec.decode(bytes.toByteArray()));
+        } catch (final NoSuchKeyException e) {
+            return Optional.empty();
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private String objectKey(final String channelName) {
+        return keyPrefix + channelName + CHECKPOINT_OBJECT_EXTENSION;
+    }
+}
@@ -4,6 +4,7 @@ import de.otto.synapse.channel.ChannelPosition;
 import de.otto.synapse.consumer.DefaultMessageConsumer;
 import de.otto.synapse.endpoint.receiver.MessageLogReceiverEndpoint;
 import de.otto.synapse.endpoint.receiver.MessageLogReceiverEndpointFactory;
+import de.otto.synapse.endpoint.receiver.aws.KinesisMessageLogReceiverEndpoint;
 import de.otto.synapse.eventsource.EventSource;
 import de.otto.synapse.eventsource.EventSourceBuilder;
 import de.otto.synapse.state.StateRepository;
@@ -12,6 +13,7 @@ import org.slf4j.LoggerFactory;
 
 import java.time.Clock;
 
+import static de.otto.synapse.endpoint.receiver.aws.KinesisReadQuota.Priority.BACKGROUND;
 import static java.time.Instant.now;
 
 public class CompactionService {
@@ -51,6 +53,10 @@ public class CompactionService {
 
         LOG.info("Start loading entries into inMemoryCache from snapshot");
         final MessageLogReceiverEndpoint messageLog = messageLogReceiverEndpointFactory.create(channelName);
+        if (messageLog instanceof KinesisMessageLogReceiverEndpoint) {
+            // compactions are only using the read quota of the shards that is not needed by live EventSources:
+            ((KinesisMessageLogReceiverEndpoint) messageLog).setReadPriority(BACKGROUND);
+        }
         final EventSource compactingKinesisEventSource = eventSourceBuilder.buildEventSource(messageLog);
         compactingKinesisEventSource.register(
                 new DefaultMessageConsumer<>(".*", String.class, stateRepository)
@@ -21,6 +21,7 @@ import static java.time.format.DateTimeFormatter.ofPattern;
 
 public final class SnapshotFileHelper {
     public static final String COMPACTION_FILE_EXTENSION = ".json.zip";
+    public static final String STATE_SNAPSHOT_FILE_EXTENSION = ".state.gz";
     private static final Logger LOG = LoggerFactory.getLogger(SnapshotFileHelper.class);
     private static final int ONE_MB = 1024 * 1024;
     private static final DateTimeFormatter dateTimeFormatter = ofPattern("yyyy-MM-dd'T'HH-mmX").withZone(ZoneOffset.UTC);
@@ -102,6 +103,10 @@ public final class SnapshotFileHelper {
         return format("compaction-%s-snapshot-", channelName);
     }
 
+    public static String getStateSnapshotFileNamePrefix(String snapshotName) {
+        return format("state-%s-snapshot-", snapshotName);
+    }
+
     public static Instant getSnapshotTimestamp(String filename) {
         Pattern pattern = Pattern.compile(".*-snapshot-(.*)-[0-9]*.json.zip");
         Matcher matcher = pattern.matcher(filename);
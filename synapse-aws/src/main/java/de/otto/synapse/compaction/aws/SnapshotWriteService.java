@@ -93,10 +93,11 @@ public class SnapshotWriteService {
             jGenerator.writeArrayFieldStart(DATA_FIELD_NAME);
 
             ProgressLogger processedLogger = new ProgressLogger(LOG, stateRepository.size());
-            stateRepository.keySet().forEach((key) -> {
+            // the CompactionService has finished consuming the channel, so there are no concurrent writers and
+            // the entries can be streamed without the bookkeeping of a StateSnapshot:
+            stateRepository.forEach((key, entry) -> {
                 try {
                     processedLogger.incrementAndLog();
-                    String entry = stateRepository.get(key).get();
                     if (!("".equals(entry))) {
                         jGenerator.writeStartObject();
                         jGenerator.writeStringField(key, entry);
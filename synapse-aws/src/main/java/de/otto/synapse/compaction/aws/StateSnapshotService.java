@@ -0,0 +1,294 @@
+package de.otto.synapse.compaction.aws;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.otto.synapse.channel.ChannelPosition;
+import de.otto.synapse.checkpoint.ChannelPositionCodec;
+import de.otto.synapse.configuration.aws.SnapshotProperties;
+import de.otto.synapse.helper.s3.S3Helper;
+import de.otto.synapse.logging.ProgressLogger;
+import de.otto.synapse.state.StateRepository;
+import de.otto.synapse.state.StateSnapshot;
+import org.slf4j.Logger;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import javax.annotation.Nonnull;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Optional;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static de.otto.synapse.compaction.aws.SnapshotFileHelper.*;
+import static java.time.format.DateTimeFormatter.ofPattern;
+import static java.util.Comparator.comparing;
+import static java.util.Comparator.reverseOrder;
+import static java.util.stream.Collectors.toList;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Writes and reads snapshots of the application state contained in a {@link StateRepository}, together with the
+ * {@link ChannelPosition} reflected by the state.
+ * <p>
+ *     In contrast to the snapshots created by the {@link CompactionService}, state snapshots contain the state after
+ *     all {@link de.otto.synapse.consumer.MessageConsumer consumers} have been applied. Loading a state snapshot
+ *     therefore does not require to replay the messages of the channel.
+ * </p>
+ * <p>
+ *     Snapshots are gzipped binary files: a header containing the ChannelPosition is followed by length-prefixed
+ *     keys and values. Values are encoded using the configured {@link ObjectMapper}, so a binary format like Smile
+ *     can be used by passing an ObjectMapper with a {@code SmileFactory}.
+ * </p>
+ *
+ * @param <V> the type of the values of the StateRepository
+ */
+public class StateSnapshotService<V> {
+
+    private static final Logger LOG = getLogger(StateSnapshotService.class);
+
+    private static final DateTimeFormatter dateTimeFormatter = ofPattern("yyyy-MM-dd'T'HH-mmX").withZone(ZoneOffset.UTC);
+
+    private static final int MAGIC = 0x53594e53;
+    private static final int VERSION = 1;
+    private static final int END_OF_ENTRIES = -1;
+    private static final int NUM_STATE_SNAPSHOTS_TO_KEEP = 3;
+
+    private final S3Helper s3Helper;
+    private final String snapshotBucketName;
+    private final ObjectMapper objectMapper;
+    private final Class<V> valueType;
+
+    public StateSnapshotService(final @Nonnull S3Client s3Client,
+                                final @Nonnull SnapshotProperties properties,
+                                final @Nonnull ObjectMapper objectMapper,
+                                final @Nonnull Class<V> valueType) {
+        this.s3Helper = new S3Helper(s3Client);
+        this.snapshotBucketName = properties.getBucketName();
+        this.objectMapper = objectMapper;
+        this.valueType = valueType;
+    }
+
+    /**
+     * Writes a snapshot of the repository to S3. After the snapshot was uploaded, older state snapshots of the
+     * same name are deleted, except for the latest {@value #NUM_STATE_SNAPSHOTS_TO_KEEP}.
+     * <p>
+     *     The caller is responsible to pass a ChannelPosition that is not ahead of the state of the repository.
+     *     Writes to the repository may continue while the snapshot is written: the snapshot is written from a
+     *     {@link StateRepository#snapshot(java.util.function.Supplier) consistent view} of the repository that is
+     *     opened together with the position. Messages following the position may therefore be applied to the state
+     *     a second time when consumption is resumed at the position.
+     * </p>
+     *
+     * @param snapshotName the name of the snapshot, typically the name of the channel
+     * @param position the ChannelPosition reflected by the repository
+     * @param stateRepository the repository
+     * @return the name of the snapshot file
+     * @throws IOException if writing the snapshot failed
+     */
+    public String writeStateSnapshot(final String snapshotName,
+                                     final ChannelPosition position,
+                                     final StateRepository<V> stateRepository) throws IOException {
+        try (StateSnapshot<V> snapshot = stateRepository.snapshot(() -> position)) {
+            return writeStateSnapshot(snapshotName, snapshot);
+        }
+    }
+
+    /**
+     * Writes a {@link StateSnapshot} to S3, together with its {@link StateSnapshot#getChannelPosition() position}.
+     * After the snapshot was uploaded, older state snapshots of the same name are deleted, except for the latest
+     * {@value #NUM_STATE_SNAPSHOTS_TO_KEEP}. The StateSnapshot is not closed by this method.
+     *
+     * @param snapshotName the name of the snapshot, typically the name of the channel
+     * @param snapshot the StateSnapshot, opened together with the ChannelPosition reflected by its entries
+     * @return the name of the snapshot file
+     * @throws IOException if writing the snapshot failed
+     * @throws IllegalArgumentException if the StateSnapshot was opened without a ChannelPosition
+     */
+    public String writeStateSnapshot(final String snapshotName,
+                                     final StateSnapshot<V> snapshot) throws IOException {
+        final File snapshotFile = createStateSnapshot(snapshotName, snapshot);
+        try {
+            LOG.info("Finished creating state snapshot file: {}", snapshotFile.getAbsolutePath());
+            s3Helper.upload(snapshotBucketName, snapshotFile);
+            LOG.info("Finished uploading state snapshot file to s3");
+        } finally {
+            deleteFile(snapshotFile);
+        }
+        try {
+            deleteOlderStateSnapshots(snapshotName);
+        } catch (final RuntimeException e) {
+            LOG.warn("Failed to delete older state snapshots of {}: {}", snapshotName, e.getMessage());
+        }
+        return snapshotFile.getName();
+    }
+
+    /**
+     * Deletes the state snapshots of the given name from S3, except for the latest
+     * {@value #NUM_STATE_SNAPSHOTS_TO_KEEP}.
+     *
+     * @param snapshotName the name of the snapshot, typically the name of the channel
+     */
+    public void deleteOlderStateSnapshots(final String snapshotName) {
+        final List<String> olderSnapshots = listStateSnapshots(snapshotName)
+                .stream()
+                .skip(NUM_STATE_SNAPSHOTS_TO_KEEP)
+                .map(S3Object::key)
+                .collect(toList());
+        if (!olderSnapshots.isEmpty()) {
+            LOG.info("Deleting older state snapshots {}", olderSnapshots);
+            s3Helper.deleteObjects(snapshotBucketName, olderSnapshots);
+        }
+    }
+
+    /**
+     * Downloads the latest snapshot from S3 and loads it into the repository. Existing entries of the repository
+     * are removed before the entries of the snapshot are loaded. If loading the snapshot fails, the failure is
+     * logged and the next-older state snapshot is loaded instead. The repository is cleared if a snapshot could
+     * not be loaded, so it never contains a partially loaded state.
+     *
+     * @param snapshotName the name of the snapshot, typically the name of the channel
+     * @param stateRepository the repository
+     * @return the ChannelPosition reflected by the loaded state, or empty if there is no snapshot that could be
+     *         loaded
+     */
+    public Optional<ChannelPosition> loadStateSnapshot(final String snapshotName,
+                                                       final StateRepository<V> stateRepository) {
+        final List<S3Object> stateSnapshots = listStateSnapshots(snapshotName);
+        if (stateSnapshots.isEmpty()) {
+            LOG.warn("No state snapshot found.");
+            return Optional.empty();
+        }
+        for (final S3Object stateSnapshot : stateSnapshots) {
+            try {
+                final Optional<File> snapshotFile = retrieveStateSnapshot(snapshotName, stateSnapshot);
+                if (snapshotFile.isPresent()) {
+                    return Optional.of(readStateSnapshot(snapshotFile.get(), stateRepository));
+                }
+            } catch (final IOException | RuntimeException e) {
+                LOG.error("Failed to load state snapshot " + stateSnapshot.key() + ": " + e.getMessage(), e);
+            }
+        }
+        LOG.warn("None of the {} state snapshots of {} could be loaded.", stateSnapshots.size(), snapshotName);
+        return Optional.empty();
+    }
+
+    File createStateSnapshot(final String snapshotName,
+                             final ChannelPosition position,
+                             final StateRepository<V> stateRepository) throws IOException {
+        try (StateSnapshot<V> snapshot = stateRepository.snapshot(() -> position)) {
+            return createStateSnapshot(snapshotName, snapshot);
+        }
+    }
+
+    File createStateSnapshot(final String snapshotName,
+                             final StateSnapshot<V> snapshot) throws IOException {
+        final ChannelPosition position = snapshot.getChannelPosition().orElseThrow(() ->
+                new IllegalArgumentException("StateSnapshot was opened without a ChannelPosition"));
+        final File snapshotFile = File.createTempFile(
+                getStateSnapshotFileNamePrefix(snapshotName) + dateTimeFormatter.format(Instant.now()) + "-",
+                STATE_SNAPSHOT_FILE_EXTENSION);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(snapshotFile))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            ChannelPositionCodec.write(position, out);
+            final ProgressLogger progressLogger = new ProgressLogger(LOG, snapshot.size());
+            snapshot.forEach((key, value) -> {
+                try {
+                    progressLogger.incrementAndLog();
+                    writeBytes(key.getBytes(StandardCharsets.UTF_8), out);
+                    writeBytes(objectMapper.writeValueAsBytes(value), out);
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            out.writeInt(END_OF_ENTRIES);
+        } catch (final IOException | RuntimeException e) {
+            deleteFile(snapshotFile);
+            throw e;
+        }
+        return snapshotFile;
+    }
+
+    ChannelPosition readStateSnapshot(final File snapshotFile,
+                                      final StateRepository<V> stateRepository) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(snapshotFile))))) {
+            stateRepository.clear();
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Unsupported state snapshot format: " + snapshotFile.getName());
+            }
+            final ChannelPosition position = ChannelPositionCodec.read(in);
+            long count = 0;
+            byte[] key;
+            while ((key = readBytes(in)) != null) {
+                stateRepository.put(new String(key, StandardCharsets.UTF_8), objectMapper.readValue(readBytes(in), valueType));
+                ++count;
+            }
+            LOG.info("Loaded {} entries from state snapshot {} at position {}", count, snapshotFile.getName(), position);
+            return position;
+        } catch (final IOException | RuntimeException e) {
+            stateRepository.clear();
+            throw e;
+        }
+    }
+
+    private Optional<File> retrieveStateSnapshot(final String snapshotName,
+                                                 final S3Object s3Object) {
+        final String snapshotKey = s3Object.key();
+        final Path snapshotFile = getTempFile(snapshotKey);
+        if (existsAndHasSize(snapshotFile, s3Object.size())) {
+            LOG.info("State snapshot on disk is same as in S3, keep it and use it: {}", snapshotFile.toAbsolutePath().toString());
+            return Optional.of(snapshotFile.toFile());
+        }
+        removeTempFiles(getStateSnapshotFileNamePrefix(snapshotName) + "*" + STATE_SNAPSHOT_FILE_EXTENSION);
+        LOG.info("Downloading state snapshot file to {}", snapshotFile.toAbsolutePath().toString());
+        return s3Helper.download(snapshotBucketName, snapshotKey, snapshotFile)
+                ? Optional.of(snapshotFile.toFile())
+                : Optional.empty();
+    }
+
+    /**
+     * Returns the state snapshots of the given name, latest first.
+     */
+    private List<S3Object> listStateSnapshots(final String snapshotName) {
+        return s3Helper.listAll(snapshotBucketName)
+                .stream()
+                .filter(o -> o.key().startsWith(getStateSnapshotFileNamePrefix(snapshotName)))
+                .filter(o -> o.key().endsWith(STATE_SNAPSHOT_FILE_EXTENSION))
+                .sorted(comparing(S3Object::lastModified, reverseOrder()))
+                .collect(toList());
+    }
+
+    private static void writeBytes(final byte[] bytes, final DataOutputStream out) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(final DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length == END_OF_ENTRIES) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static void deleteFile(final File file) {
+        if (!file.delete()) {
+            LOG.error("failed to delete state snapshot {}", file.getName());
+        }
+    }
+}
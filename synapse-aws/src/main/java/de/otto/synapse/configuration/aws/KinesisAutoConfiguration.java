@@ -4,22 +4,37 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import de.otto.synapse.configuration.SynapseAutoConfiguration;
 import de.otto.synapse.endpoint.MessageInterceptorRegistry;
 import de.otto.synapse.endpoint.receiver.MessageLogReceiverEndpointFactory;
+import de.otto.synapse.endpoint.receiver.aws.KinesisFanOutMessageLogReceiverEndpointFactory;
+import de.otto.synapse.endpoint.receiver.aws.KinesisLeasedMessageLogReceiverEndpointFactory;
 import de.otto.synapse.endpoint.receiver.aws.KinesisMessageLogReceiverEndpointFactory;
+import de.otto.synapse.endpoint.receiver.aws.KinesisReadQuota;
 import de.otto.synapse.endpoint.sender.MessageSenderEndpointFactory;
 import de.otto.synapse.endpoint.sender.aws.KinesisMessageSenderEndpointFactory;
+import de.otto.synapse.executor.SynapseExecutor;
+import de.otto.synapse.lease.ShardLeaseStore;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
+import org.springframework.context.annotation.Primary;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
 import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
 import software.amazon.awssdk.core.retry.RetryPolicy;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
 
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.UUID;
+
 import static software.amazon.awssdk.core.retry.RetryPolicy.defaultRetryPolicy;
 
 @Configuration
@@ -54,21 +69,110 @@ public class KinesisAutoConfiguration {
                 .build();
     }
 
+    /**
+     * The {@link KinesisReadQuota} shared by all readers of Kinesis shards created by the message log factories. The
+     * bean is the {@link KinesisReadQuota#defaultReadQuota() default read quota}, so readers created before or outside
+     * of the application context are pacing their reads using the same quota, and the metrics of all readers are
+     * available from the bean. If the bean is replaced, readers created outside of the application context are still
+     * using the default read quota.
+     */
+    @Bean
+    @ConditionalOnMissingBean(KinesisReadQuota.class)
+    public KinesisReadQuota kinesisReadQuota() {
+        return KinesisReadQuota.defaultReadQuota();
+    }
+
+    /**
+     * Factory for Kinesis message senders. Batches of messages are sent as KPL aggregated records, if
+     * {@code synapse.aws.kinesis.sender.aggregate-records=true}.
+     */
     @Bean
     @ConditionalOnMissingBean(name = "messageLogSenderEndpointFactory")
     public MessageSenderEndpointFactory messageLogSenderEndpointFactory(final MessageInterceptorRegistry registry,
                                                                         final ObjectMapper objectMapper,
-                                                                        final KinesisAsyncClient kinesisClient) {
-        return new KinesisMessageSenderEndpointFactory(registry, objectMapper, kinesisClient);
+                                                                        final KinesisAsyncClient kinesisClient,
+                                                                        final @Value("${synapse.aws.kinesis.sender.aggregate-records:false}") boolean aggregateRecords) {
+        return new KinesisMessageSenderEndpointFactory(registry, objectMapper, kinesisClient, aggregateRecords);
     }
 
     @Bean
+    @Primary
     @ConditionalOnMissingBean(name = "messageLogReceiverEndpointFactory")
     public MessageLogReceiverEndpointFactory messageLogReceiverEndpointFactory(final MessageInterceptorRegistry interceptorRegistry,
                                                                                final ObjectMapper objectMapper,
                                                                                final KinesisAsyncClient kinesisClient,
-                                                                               final ApplicationEventPublisher eventPublisher) {
-        return new KinesisMessageLogReceiverEndpointFactory(interceptorRegistry, kinesisClient, objectMapper, eventPublisher);
+                                                                               final ApplicationEventPublisher eventPublisher,
+                                                                               final SynapseExecutor synapseExecutor,
+                                                                               final KinesisReadQuota readQuota) {
+        return new KinesisMessageLogReceiverEndpointFactory(interceptorRegistry, kinesisClient, objectMapper, eventPublisher, Clock.systemDefaultZone(), synapseExecutor, readQuota);
+    }
+
+    /**
+     * Factory for {@link de.otto.synapse.endpoint.receiver.aws.KinesisFanOutMessageLogReceiverEndpoint enhanced fan-out}
+     * message logs, available if {@code synapse.aws.kinesis.fan-out.consumer-name} is configured.
+     * <p>
+     *     EventSources are using the factory, if it is selected by
+     *     {@code @EnableEventSource(messageLogReceiverEndpointFactory = "kinesisFanOutMessageLogReceiverEndpointFactory")}.
+     * </p>
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "synapse.aws.kinesis.fan-out", name = "consumer-name")
+    @ConditionalOnMissingBean(name = "kinesisFanOutMessageLogReceiverEndpointFactory")
+    public MessageLogReceiverEndpointFactory kinesisFanOutMessageLogReceiverEndpointFactory(final MessageInterceptorRegistry interceptorRegistry,
+                                                                                           final ObjectMapper objectMapper,
+                                                                                           final KinesisAsyncClient kinesisClient,
+                                                                                           final ApplicationEventPublisher eventPublisher,
+                                                                                           final SynapseExecutor synapseExecutor,
+                                                                                           final @Value("${synapse.aws.kinesis.fan-out.consumer-name}") String consumerName) {
+        return new KinesisFanOutMessageLogReceiverEndpointFactory(interceptorRegistry, kinesisClient, objectMapper, eventPublisher, consumerName, Clock.systemDefaultZone(), synapseExecutor);
+    }
+
+    /**
+     * Factory for message logs that are only consuming the shards leased by this instance of the service, available
+     * if {@code synapse.aws.kinesis.leases.enabled=true} and a {@link ShardLeaseStore} is configured.
+     * <p>
+     *     The owner of the leases defaults to the hostname, followed by a random UUID. Leases are expiring after
+     *     {@code synapse.aws.kinesis.leases.lease-duration-seconds}, if they are not renewed.
+     * </p>
+     * <p>
+     *     EventSources are using the factory, if it is selected by
+     *     {@code @EnableEventSource(messageLogReceiverEndpointFactory = "kinesisLeasedMessageLogReceiverEndpointFactory")}.
+     * </p>
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "synapse.aws.kinesis.leases", name = "enabled", havingValue = "true")
+    @ConditionalOnBean(ShardLeaseStore.class)
+    @ConditionalOnMissingBean(name = "kinesisLeasedMessageLogReceiverEndpointFactory")
+    public MessageLogReceiverEndpointFactory kinesisLeasedMessageLogReceiverEndpointFactory(final MessageInterceptorRegistry interceptorRegistry,
+                                                                                          final ObjectMapper objectMapper,
+                                                                                          final KinesisAsyncClient kinesisClient,
+                                                                                          final ApplicationEventPublisher eventPublisher,
+                                                                                          final SynapseExecutor synapseExecutor,
+                                                                                          final KinesisReadQuota readQuota,
+                                                                                          final ShardLeaseStore leaseStore,
+                                                                                          final @Value("${synapse.aws.kinesis.leases.owner-id:}") String ownerId,
+                                                                                          final @Value("${synapse.aws.kinesis.leases.lease-duration-seconds:30}") long leaseDurationSeconds) {
+        return new KinesisLeasedMessageLogReceiverEndpointFactory(
+                interceptorRegistry,
+                kinesisClient,
+                objectMapper,
+                eventPublisher,
+                leaseStore,
+                ownerId.isEmpty() ? defaultLeaseOwnerId() : ownerId,
+                Duration.ofSeconds(leaseDurationSeconds),
+                Clock.systemDefaultZone(),
+                synapseExecutor,
+                readQuota);
+    }
+
+    private static String defaultLeaseOwnerId() {
+        String hostName;
+        try {
+            hostName = InetAddress.getLocalHost().getHostName();
+        } catch (final UnknownHostException e) {
+            hostName = "unknown-host";
+        }
+        return hostName + "-" + UUID.randomUUID();
     }
 
 }
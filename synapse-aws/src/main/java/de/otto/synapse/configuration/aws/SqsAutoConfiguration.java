@@ -7,6 +7,7 @@ import de.otto.synapse.endpoint.receiver.MessageQueueReceiverEndpointFactory;
 import de.otto.synapse.endpoint.receiver.aws.SqsMessageQueueReceiverEndpoint;
 import de.otto.synapse.endpoint.sender.MessageSenderEndpointFactory;
 import de.otto.synapse.endpoint.sender.aws.SqsMessageSenderEndpointFactory;
+import de.otto.synapse.executor.SynapseExecutor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
@@ -54,10 +55,11 @@ public class SqsAutoConfiguration {
     public MessageQueueReceiverEndpointFactory messageQueueReceiverEndpointFactory(final MessageInterceptorRegistry registry,
                                                                                    final ObjectMapper objectMapper,
                                                                                    final SqsAsyncClient sqsAsyncClient,
-                                                                                   final ApplicationEventPublisher eventPublisher) {
+                                                                                   final ApplicationEventPublisher eventPublisher,
+                                                                                   final SynapseExecutor synapseExecutor) {
 
         return (String channelName) -> {
-            final SqsMessageQueueReceiverEndpoint endpoint = new SqsMessageQueueReceiverEndpoint(channelName, sqsAsyncClient, objectMapper, eventPublisher);
+            final SqsMessageQueueReceiverEndpoint endpoint = new SqsMessageQueueReceiverEndpoint(channelName, sqsAsyncClient, objectMapper, eventPublisher, synapseExecutor);
             endpoint.registerInterceptorsFrom(registry);
             return endpoint;
         };
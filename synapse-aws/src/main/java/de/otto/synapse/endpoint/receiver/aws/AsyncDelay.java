@@ -0,0 +1,43 @@
+package de.otto.synapse.endpoint.receiver.aws;
+
+import de.otto.synapse.executor.ChannelExecutor;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+
+/**
+ * Non-blocking delays of asynchronous Kinesis requests.
+ * <p>
+ *     Delays are scheduled using the {@link ChannelExecutor} of the reader, so pending delays are cancelled when the
+ *     executor is shut down. Dependent stages are executed by a thread of the executor.
+ * </p>
+ */
+final class AsyncDelay {
+
+    private AsyncDelay() {
+    }
+
+    /**
+     * Returns a future that is completed after the given delay. Cancelling the future is cancelling the delay.
+     *
+     * @param delay the delay
+     * @param executor the executor of the channel
+     * @return future completed after the delay, or completed exceptionally if the executor is shut down
+     */
+    static CompletableFuture<Void> delay(final Duration delay,
+                                         final ChannelExecutor executor) {
+        if (delay.isZero() || delay.isNegative()) {
+            return completedFuture(null);
+        }
+        try {
+            return executor.schedule(() -> {}, delay);
+        } catch (final RejectedExecutionException e) {
+            final CompletableFuture<Void> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+    }
+}
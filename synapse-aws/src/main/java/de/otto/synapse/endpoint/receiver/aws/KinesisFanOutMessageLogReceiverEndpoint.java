@@ -0,0 +1,260 @@
+package de.otto.synapse.endpoint.receiver.aws;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import de.otto.synapse.channel.ChannelPosition;
+import de.otto.synapse.channel.ShardPosition;
+import de.otto.synapse.endpoint.receiver.AbstractMessageLogReceiverEndpoint;
+import de.otto.synapse.executor.ChannelExecutor;
+import de.otto.synapse.executor.SynapseExecutor;
+import org.slf4j.Logger;
+import org.springframework.context.ApplicationEventPublisher;
+import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
+
+import javax.annotation.Nonnull;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static de.otto.synapse.channel.ChannelPosition.channelPosition;
+import static de.otto.synapse.info.MessageReceiverStatus.FAILED;
+import static de.otto.synapse.info.MessageReceiverStatus.FINISHED;
+import static de.otto.synapse.info.MessageReceiverStatus.RUNNING;
+import static de.otto.synapse.info.MessageReceiverStatus.STARTED;
+import static de.otto.synapse.info.MessageReceiverStatus.STARTING;
+import static de.otto.synapse.logging.LogHelper.info;
+import static java.util.stream.Collectors.toList;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * A {@link de.otto.synapse.endpoint.receiver.MessageLogReceiverEndpoint} for Kinesis streams that is using an
+ * enhanced fan-out consumer instead of polling the shards of the stream.
+ * <p>
+ *     Records are pushed by Kinesis over HTTP/2 as soon as they are available, so the latency is much lower than
+ *     polling {@code GetRecords} once per second. Every enhanced fan-out consumer has its own read throughput of
+ *     2 MB/s per shard, instead of sharing the throughput with all other consumers of the stream.
+ * </p>
+ * <p>
+ *     The consumer is registered at the stream using the {@code consumerName}, if it does not yet exist. All
+ *     instances of a service should use the same consumer name. Registered consumers are charged by AWS, and are not
+ *     deregistered by Synapse. The registration is awaited asynchronously, so {@link #consumeUntil} is not blocking
+ *     the calling thread until the consumer is active.
+ * </p>
+ * <p>
+ *     Shards are consumed in the order of their lineage: closed parent shards are drained before their children
+ *     are subscribed. No thread is blocked while waiting for the records of a shard.
+ * </p>
+ */
+public class KinesisFanOutMessageLogReceiverEndpoint extends AbstractMessageLogReceiverEndpoint {
+
+    private static final Logger LOG = getLogger(KinesisFanOutMessageLogReceiverEndpoint.class);
+
+    private final String consumerName;
+    private final KinesisAsyncClient kinesisClient;
+    private final Clock clock;
+    private final SynapseExecutor synapseExecutor;
+    private final AtomicBoolean stopSignal = new AtomicBoolean(false);
+    private volatile LineageConsumption currentConsumption;
+
+    public KinesisFanOutMessageLogReceiverEndpoint(final @Nonnull String channelName,
+                                                   final @Nonnull String consumerName,
+                                                   final @Nonnull KinesisAsyncClient kinesisClient,
+                                                   final @Nonnull ObjectMapper objectMapper,
+                                                   final ApplicationEventPublisher eventPublisher,
+                                                   final @Nonnull Clock clock,
+                                                   final @Nonnull SynapseExecutor synapseExecutor) {
+        super(channelName, objectMapper, eventPublisher);
+        this.consumerName = consumerName;
+        this.kinesisClient = kinesisClient;
+        this.clock = clock;
+        this.synapseExecutor = synapseExecutor;
+    }
+
+    public String getConsumerName() {
+        return consumerName;
+    }
+
+    @Nonnull
+    @Override
+    public CompletableFuture<ChannelPosition> consumeUntil(final @Nonnull ChannelPosition startFrom,
+                                                           final @Nonnull Instant until) {
+        publishEvent(STARTING, "Subscribing to Kinesis shards.", null);
+        final long t1 = System.currentTimeMillis();
+        return new KinesisStreamInfoProvider(kinesisClient)
+                .getStreamInfoAsync(getChannelName())
+                .thenCompose(streamInfo -> new KinesisStreamConsumerRegistration(kinesisClient, synapseExecutor.forChannel(getChannelName()))
+                        .registerConsumerAsync(streamInfo.getArn(), consumerName)
+                        .thenCompose(consumerArn -> consumeShards(streamInfo, consumerArn, startFrom, until)))
+                .exceptionally(throwable -> {
+                    LOG.error("Failed to consume from Kinesis stream {}: {}", getChannelName(), throwable.getMessage());
+                    publishEvent(FAILED, "Failed to consume messages from Kinesis: " + throwable.getMessage(), null);
+                    stop();
+                    throw new RuntimeException(throwable.getMessage(), throwable);
+                })
+                .thenApply(channelPosition -> {
+                    final long t2 = System.currentTimeMillis();
+                    info(LOG, ImmutableMap.of("runtime", (t2 - t1)), "Consume events from Kinesis", null);
+                    publishEvent(FINISHED, "Finished consuming messages from Kinesis", null);
+                    return channelPosition;
+                });
+    }
+
+    @Override
+    public void stop() {
+        LOG.info("Channel {} received stop signal.", getChannelName());
+        stopSignal.set(true);
+        final LineageConsumption consumption = this.currentConsumption;
+        if (consumption != null) {
+            consumption.stop();
+        }
+    }
+
+    private CompletableFuture<ChannelPosition> consumeShards(final KinesisStreamInfo streamInfo,
+                                                             final String consumerArn,
+                                                             final ChannelPosition startFrom,
+                                                             final Instant until) {
+        final List<String> openShards = streamInfo.getShardInfo()
+                .stream()
+                .filter(KinesisShardInfo::isOpen)
+                .map(KinesisShardInfo::getShardName)
+                .collect(toList());
+        publishEvent(STARTED, "Received shards from Kinesis.", null);
+        final KinesisShardResponseConsumer consumer = new KinesisShardResponseConsumer(openShards, getInterceptorChain(), getMessageDispatcher(),
+                durationBehind -> publishEvent(RUNNING, "Reading from kinesis shard.", durationBehind));
+        final LineageConsumption consumption = new LineageConsumption(new KinesisShardLineage(streamInfo), consumerArn, startFrom, until, consumer);
+        this.currentConsumption = consumption;
+        // the endpoint may have been stopped while the consumer was registered:
+        if (stopSignal.get()) {
+            consumption.stop();
+        }
+        return consumption.start();
+    }
+
+    /**
+     * A single call of {@link #consumeUntil(ChannelPosition, Instant)}, subscribing to the shards of the stream as
+     * soon as all parents of the shards are drained.
+     * <p>
+     *     If a shard is closed by a split or merge of shards, the stream is described again and the children of the
+     *     shard are subscribed after all of their parents are drained.
+     * </p>
+     */
+    private final class LineageConsumption {
+
+        private final String consumerArn;
+        private final ChannelPosition startFrom;
+        private final Instant until;
+        private final KinesisShardResponseConsumer consumer;
+        private final ChannelExecutor executor = synapseExecutor.forChannel(getChannelName());
+        private final CompletableFuture<ChannelPosition> result = new CompletableFuture<>();
+        private final Map<String, ShardPosition> shardPositions = new LinkedHashMap<>();
+        private final Set<String> finishedShards = new HashSet<>();
+        private final Set<String> startedShards = new HashSet<>();
+        private final Map<String, KinesisShardSubscription> runningSubscriptions = new HashMap<>();
+        private KinesisShardLineage shardLineage;
+        private int pendingDiscoveries = 0;
+        private boolean stopped = false;
+
+        private LineageConsumption(final KinesisShardLineage shardLineage,
+                                   final String consumerArn,
+                                   final ChannelPosition startFrom,
+                                   final Instant until,
+                                   final KinesisShardResponseConsumer consumer) {
+            this.shardLineage = shardLineage;
+            this.consumerArn = consumerArn;
+            this.startFrom = startFrom;
+            this.until = until;
+            this.consumer = consumer;
+        }
+
+        private synchronized CompletableFuture<ChannelPosition> start() {
+            if (stopped) {
+                result.complete(startFrom);
+                return result;
+            }
+            finishedShards.addAll(shardLineage.drainedShards(startFrom));
+            subscribeReadyShards();
+            completeIfDone();
+            return result;
+        }
+
+        private synchronized void subscribeReadyShards() {
+            if (stopped || result.isDone()) {
+                return;
+            }
+            final List<String> readyShards = shardLineage.readyShards(finishedShards, startedShards);
+            // registered before the first subscription is started, so a subscription completing immediately is not
+            // completing the result before all ready shards are subscribed:
+            startedShards.addAll(readyShards);
+            readyShards.forEach(shardName -> runningSubscriptions.put(shardName, new KinesisShardSubscription(kinesisClient, getChannelName(), consumerArn, shardName, executor, clock)));
+            readyShards.forEach(shardName -> {
+                final KinesisShardSubscription subscription = runningSubscriptions.get(shardName);
+                subscription.consumeUntil(startFrom.shard(shardName), until, consumer)
+                        .whenComplete((shardPosition, throwable) -> shardCompleted(subscription, shardPosition, throwable));
+            });
+        }
+
+        private synchronized void shardCompleted(final KinesisShardSubscription subscription,
+                                                 final ShardPosition shardPosition,
+                                                 final Throwable throwable) {
+            runningSubscriptions.remove(subscription.getShardName());
+            if (throwable != null) {
+                fail(throwable);
+                return;
+            }
+            shardPositions.put(subscription.getShardName(), shardPosition);
+            if (subscription.isShardClosed()) {
+                finishedShards.add(subscription.getShardName());
+                if (!stopped && until.isAfter(Instant.now(clock))) {
+                    // children of the closed shard may have been created after the stream was described:
+                    discoverChildShards();
+                }
+            }
+            completeIfDone();
+        }
+
+        private void discoverChildShards() {
+            ++pendingDiscoveries;
+            new KinesisStreamInfoProvider(kinesisClient)
+                    .getStreamInfoAsync(getChannelName())
+                    .whenComplete(this::childShardsDiscovered);
+        }
+
+        private synchronized void childShardsDiscovered(final KinesisStreamInfo streamInfo,
+                                                        final Throwable throwable) {
+            --pendingDiscoveries;
+            if (throwable != null) {
+                fail(throwable);
+                return;
+            }
+            shardLineage = new KinesisShardLineage(streamInfo);
+            subscribeReadyShards();
+            completeIfDone();
+        }
+
+        private void completeIfDone() {
+            if (runningSubscriptions.isEmpty() && pendingDiscoveries == 0 && !result.isDone()) {
+                result.complete(channelPosition(ImmutableList.copyOf(shardPositions.values())));
+            }
+        }
+
+        private void fail(final Throwable throwable) {
+            // completed before the other subscriptions are stopped, so the result is not completed by these:
+            result.completeExceptionally(throwable);
+            stop();
+        }
+
+        private synchronized void stop() {
+            stopped = true;
+            ImmutableList.copyOf(runningSubscriptions.values()).forEach(KinesisShardSubscription::stop);
+        }
+    }
+
+}
@@ -0,0 +1,54 @@
+package de.otto.synapse.endpoint.receiver.aws;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.otto.synapse.endpoint.MessageInterceptorRegistry;
+import de.otto.synapse.endpoint.receiver.MessageLogReceiverEndpoint;
+import de.otto.synapse.endpoint.receiver.MessageLogReceiverEndpointFactory;
+import de.otto.synapse.executor.SynapseExecutor;
+import org.springframework.context.ApplicationEventPublisher;
+import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
+
+import javax.annotation.Nonnull;
+import java.time.Clock;
+
+/**
+ * Factory used to create {@link KinesisFanOutMessageLogReceiverEndpoint enhanced fan-out} message logs.
+ * <p>
+ *     All endpoints created by the factory are using the same {@code consumerName} to register at the
+ *     Kinesis streams.
+ * </p>
+ */
+public class KinesisFanOutMessageLogReceiverEndpointFactory implements MessageLogReceiverEndpointFactory {
+
+    private final MessageInterceptorRegistry interceptorRegistry;
+    private final KinesisAsyncClient kinesisClient;
+    private final ObjectMapper objectMapper;
+    private final ApplicationEventPublisher eventPublisher;
+    private final String consumerName;
+    private final Clock clock;
+    private final SynapseExecutor synapseExecutor;
+
+    public KinesisFanOutMessageLogReceiverEndpointFactory(final MessageInterceptorRegistry interceptorRegistry,
+                                                          final KinesisAsyncClient kinesisClient,
+                                                          final ObjectMapper objectMapper,
+                                                          final ApplicationEventPublisher eventPublisher,
+                                                          final String consumerName,
+                                                          final Clock clock,
+                                                          final SynapseExecutor synapseExecutor) {
+        this.interceptorRegistry = interceptorRegistry;
+        this.kinesisClient = kinesisClient;
+        this.objectMapper = objectMapper;
+        this.eventPublisher = eventPublisher;
+        this.consumerName = consumerName;
+        this.clock = clock;
+        this.synapseExecutor = synapseExecutor;
+    }
+
+    @Override
+    public MessageLogReceiverEndpoint create(@Nonnull String channelName) {
+        final MessageLogReceiverEndpoint messageLog = new KinesisFanOutMessageLogReceiverEndpoint(channelName, consumerName, kinesisClient, objectMapper, eventPublisher, clock, synapseExecutor);
+        messageLog.registerInterceptorsFrom(interceptorRegistry);
+        return messageLog;
+    }
+
+}
@@ -0,0 +1,82 @@
+package de.otto.synapse.endpoint.receiver.aws;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.otto.synapse.endpoint.MessageInterceptorRegistry;
+import de.otto.synapse.endpoint.receiver.MessageLogReceiverEndpoint;
+import de.otto.synapse.endpoint.receiver.MessageLogReceiverEndpointFactory;
+import de.otto.synapse.executor.SynapseExecutor;
+import de.otto.synapse.lease.ShardLeaseCoordinator;
+import de.otto.synapse.lease.ShardLeaseStore;
+import org.springframework.context.ApplicationEventPublisher;
+import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
+
+import javax.annotation.Nonnull;
+import java.time.Clock;
+import java.time.Duration;
+
+import static de.otto.synapse.endpoint.receiver.aws.KinesisReadQuota.defaultReadQuota;
+
+/**
+ * Factory used to create {@link KinesisMessageLogReceiverEndpoint message logs} that are only consuming the shards
+ * leased by this instance of the service.
+ * <p>
+ *     All instances of the service must use the same {@link ShardLeaseStore}, and a different {@code ownerId}. The
+ *     shards of every channel are distributed evenly across all running instances.
+ * </p>
+ */
+public class KinesisLeasedMessageLogReceiverEndpointFactory implements MessageLogReceiverEndpointFactory {
+
+    private final MessageInterceptorRegistry interceptorRegistry;
+    private final KinesisAsyncClient kinesisClient;
+    private final ObjectMapper objectMapper;
+    private final ApplicationEventPublisher eventPublisher;
+    private final ShardLeaseStore leaseStore;
+    private final String ownerId;
+    private final Duration leaseDuration;
+    private final Clock clock;
+    private final SynapseExecutor synapseExecutor;
+    private final KinesisReadQuota readQuota;
+
+    public KinesisLeasedMessageLogReceiverEndpointFactory(final MessageInterceptorRegistry interceptorRegistry,
+                                                          final KinesisAsyncClient kinesisClient,
+                                                          final ObjectMapper objectMapper,
+                                                          final ApplicationEventPublisher eventPublisher,
+                                                          final ShardLeaseStore leaseStore,
+                                                          final String ownerId,
+                                                          final Duration leaseDuration,
+                                                          final Clock clock,
+                                                          final SynapseExecutor synapseExecutor) {
+        this(interceptorRegistry, kinesisClient, objectMapper, eventPublisher, leaseStore, ownerId, leaseDuration, clock, synapseExecutor, defaultReadQuota());
+    }
+
+    public KinesisLeasedMessageLogReceiverEndpointFactory(final MessageInterceptorRegistry interceptorRegistry,
+                                                          final KinesisAsyncClient kinesisClient,
+                                                          final ObjectMapper objectMapper,
+                                                          final ApplicationEventPublisher eventPublisher,
+                                                          final ShardLeaseStore leaseStore,
+                                                          final String ownerId,
+                                                          final Duration leaseDuration,
+                                                          final Clock clock,
+                                                          final SynapseExecutor synapseExecutor,
+                                                          final KinesisReadQuota readQuota) {
+        this.interceptorRegistry = interceptorRegistry;
+        this.kinesisClient = kinesisClient;
+        this.objectMapper = objectMapper;
+        this.eventPublisher = eventPublisher;
+        this.leaseStore = leaseStore;
+        this.ownerId = ownerId;
+        this.leaseDuration = leaseDuration;
+        this.clock = clock;
+        this.synapseExecutor = synapseExecutor;
+        this.readQuota = readQuota;
+    }
+
+    @Override
+    public MessageLogReceiverEndpoint create(@Nonnull String channelName) {
+        final ShardLeaseCoordinator leaseCoordinator = new ShardLeaseCoordinator(channelName, leaseStore, ownerId, leaseDuration, clock);
+        final MessageLogReceiverEndpoint messageLog = new KinesisMessageLogReceiverEndpoint(channelName, kinesisClient, objectMapper, eventPublisher, clock, synapseExecutor, leaseCoordinator, readQuota);
+        messageLog.registerInterceptorsFrom(interceptorRegistry);
+        return messageLog;
+    }
+
+}
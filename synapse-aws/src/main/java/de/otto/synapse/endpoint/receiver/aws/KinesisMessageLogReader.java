@@ -1,33 +1,45 @@
 package de.otto.synapse.endpoint.receiver.aws;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.collect.ImmutableList;
 import de.otto.synapse.channel.ChannelPosition;
 import de.otto.synapse.channel.ShardPosition;
+import de.otto.synapse.endpoint.receiver.aws.KinesisReadQuota.Priority;
+import de.otto.synapse.executor.ChannelExecutor;
+import de.otto.synapse.executor.SynapseExecutor;
+import de.otto.synapse.lease.ShardLeaseCoordinator;
 import org.slf4j.Logger;
 import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
 import software.amazon.awssdk.services.kinesis.model.DescribeStreamRequest;
 import software.amazon.awssdk.services.kinesis.model.DescribeStreamResponse;
 import software.amazon.awssdk.services.kinesis.model.Shard;
 
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.time.Clock;
+import java.time.Duration;
 import java.time.Instant;
-import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.Consumer;
 
 import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import static de.otto.synapse.channel.ChannelPosition.channelPosition;
+import static de.otto.synapse.endpoint.receiver.aws.KinesisReadQuota.Priority.LIVE;
+import static de.otto.synapse.endpoint.receiver.aws.KinesisReadQuota.defaultReadQuota;
+import static de.otto.synapse.endpoint.receiver.aws.KinesisShardIterator.FETCH_RECORDS_LIMIT;
+import static de.otto.synapse.endpoint.receiver.aws.KinesisShardIterator.kinesisShardIterator;
 import static java.util.Objects.isNull;
-import static java.util.concurrent.CompletableFuture.supplyAsync;
-import static java.util.concurrent.Executors.newFixedThreadPool;
-import static java.util.concurrent.Executors.newSingleThreadExecutor;
-import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.concurrent.CompletableFuture.completedFuture;
 import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toSet;
 import static org.slf4j.LoggerFactory.getLogger;
@@ -39,23 +51,112 @@ public class KinesisMessageLogReader {
     private final String channelName;
     private final KinesisAsyncClient kinesisClient;
     private final Clock clock;
-    private List<KinesisShardReader> kinesisShardReaders;
-    private ExecutorService executorService;
+    private final SynapseExecutor synapseExecutor;
+    private final Duration shardDiscoveryInterval;
+    private final ShardLeaseCoordinator leaseCoordinator;
+    private final KinesisReadQuota readQuota;
+    private volatile Priority readPriority = LIVE;
+    private volatile List<KinesisShardReader> kinesisShardReaders;
+    private volatile KinesisShardLineage shardLineage;
+    private volatile LineageConsumption currentConsumption;
+    private volatile KinesisTimeSlicedBackfill currentBackfill;
+    private volatile ChannelExecutor executorService;
 
     public static final int SKIP_NEXT_PARTS = 8;
+    public static final Duration DEFAULT_SHARD_DISCOVERY_INTERVAL = Duration.ofMinutes(1);
 
     public KinesisMessageLogReader(final String channelName,
                                    final KinesisAsyncClient kinesisClient,
                                    final Clock clock) {
+        this(channelName, kinesisClient, clock, SynapseExecutor.defaultExecutor());
+    }
+
+    /**
+     * @param channelName the name of the Kinesis stream
+     * @param kinesisClient the client used to access the stream
+     * @param clock the clock used to determine when to stop reading
+     * @param synapseExecutor the executor used to read the shards of the stream
+     */
+    public KinesisMessageLogReader(final String channelName,
+                                   final KinesisAsyncClient kinesisClient,
+                                   final Clock clock,
+                                   final SynapseExecutor synapseExecutor) {
+        this(channelName, kinesisClient, clock, synapseExecutor, DEFAULT_SHARD_DISCOVERY_INTERVAL);
+    }
+
+    /**
+     * @param channelName the name of the Kinesis stream
+     * @param kinesisClient the client used to access the stream
+     * @param clock the clock used to determine when to stop reading
+     * @param synapseExecutor the executor used to read the shards of the stream
+     * @param shardDiscoveryInterval the interval in which the stream is described to discover new shards
+     */
+    public KinesisMessageLogReader(final String channelName,
+                                   final KinesisAsyncClient kinesisClient,
+                                   final Clock clock,
+                                   final SynapseExecutor synapseExecutor,
+                                   final Duration shardDiscoveryInterval) {
+        this(channelName, kinesisClient, clock, synapseExecutor, shardDiscoveryInterval, null);
+    }
+
+    /**
+     * @param channelName the name of the Kinesis stream
+     * @param kinesisClient the client used to access the stream
+     * @param clock the clock used to determine when to stop reading
+     * @param synapseExecutor the executor used to read the shards of the stream
+     * @param shardDiscoveryInterval the interval in which the stream is described to discover new shards
+     * @param leaseCoordinator the coordinator used to assign shards to the instances of the service, or null if all
+     *                         shards are consumed by every instance
+     */
+    public KinesisMessageLogReader(final String channelName,
+                                   final KinesisAsyncClient kinesisClient,
+                                   final Clock clock,
+                                   final SynapseExecutor synapseExecutor,
+                                   final Duration shardDiscoveryInterval,
+                                   final @Nullable ShardLeaseCoordinator leaseCoordinator) {
+        this(channelName, kinesisClient, clock, synapseExecutor, shardDiscoveryInterval, leaseCoordinator, defaultReadQuota());
+    }
+
+    /**
+     * @param channelName the name of the Kinesis stream
+     * @param kinesisClient the client used to access the stream
+     * @param clock the clock used to determine when to stop reading
+     * @param synapseExecutor the executor used to read the shards of the stream
+     * @param shardDiscoveryInterval the interval in which the stream is described to discover new shards
+     * @param leaseCoordinator the coordinator used to assign shards to the instances of the service, or null if all
+     *                         shards are consumed by every instance
+     * @param readQuota the read quota shared with the other readers of the stream
+     */
+    public KinesisMessageLogReader(final String channelName,
+                                   final KinesisAsyncClient kinesisClient,
+                                   final Clock clock,
+                                   final SynapseExecutor synapseExecutor,
+                                   final Duration shardDiscoveryInterval,
+                                   final @Nullable ShardLeaseCoordinator leaseCoordinator,
+                                   final @Nonnull KinesisReadQuota readQuota) {
         this.channelName = channelName;
         this.kinesisClient = kinesisClient;
         this.clock = clock;
+        this.synapseExecutor = synapseExecutor;
+        this.shardDiscoveryInterval = shardDiscoveryInterval;
+        this.leaseCoordinator = leaseCoordinator;
+        this.readQuota = readQuota;
     }
 
     public String getChannelName() {
         return channelName;
     }
 
+    /**
+     * Sets the priority of this reader when acquiring the {@link KinesisReadQuota} shared with the other readers of
+     * the stream. Must be set before the stream is read.
+     *
+     * @param readPriority the priority, {@link Priority#LIVE} by default
+     */
+    public void setReadPriority(final @Nonnull Priority readPriority) {
+        this.readPriority = readPriority;
+    }
+
     public List<String> getOpenShards() {
         if (isNull(executorService)) {
             initExecutorService();
@@ -65,62 +166,90 @@ public class KinesisMessageLogReader {
                 .collect(toList());
     }
 
+    /**
+     * Returns an iterator of the open shards of the stream, blocking the calling thread until the stream is
+     * described and the shard iterators are received.
+     *
+     * @param channelPosition the position to start from
+     * @return KinesisMessageLogIterator
+     * @deprecated use {@link #getMessageLogIteratorAsync(ChannelPosition)}
+     */
+    @Deprecated
     public KinesisMessageLogIterator getMessageLogIterator(final ChannelPosition channelPosition) {
-        if (isNull(executorService)) {
-            initExecutorService();
-        }
         try {
-            final List<CompletableFuture<KinesisShardIterator>> futureShardPositions = kinesisShardReaders
-                    .stream()
-                    .map(shardReader -> supplyAsync(
-                            () -> new KinesisShardIterator(kinesisClient, channelName, channelPosition.shard(shardReader.getShardName())),
-                            executorService))
-                    .collect(toList());
-            return new KinesisMessageLogIterator(futureShardPositions
-                    .stream()
-                    .map(CompletableFuture::join)
-                    .collect(toList()));
-        } catch (final RuntimeException e) {
-            shutdownExecutor();
+            return getMessageLogIteratorAsync(channelPosition).join();
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
             throw e;
         }
     }
 
+    /**
+     * Returns an iterator of the open shards of the stream without blocking the calling thread. The stream is
+     * described on first use, and the iterators of the shards are requested concurrently.
+     *
+     * @param channelPosition the position to start from
+     * @return future KinesisMessageLogIterator
+     */
+    public CompletableFuture<KinesisMessageLogIterator> getMessageLogIteratorAsync(final ChannelPosition channelPosition) {
+        return initExecutorServiceAsync()
+                .thenCompose(ignored -> {
+                    final List<CompletableFuture<KinesisShardIterator>> futureShardIterators = kinesisShardReaders
+                            .stream()
+                            .map(shardReader -> kinesisShardIterator(kinesisClient, channelName, channelPosition.shard(shardReader.getShardName()), FETCH_RECORDS_LIMIT, readQuota, readPriority, executorService))
+                            .collect(toList());
+                    return allOf(futureShardIterators).thenApply(x -> new KinesisMessageLogIterator(futureShardIterators
+                            .stream()
+                            .map(CompletableFuture::join)
+                            .collect(toList())));
+                })
+                .whenComplete((ignored, throwable) -> {
+                    if (throwable != null) {
+                        shutdownExecutor();
+                    }
+                });
+    }
+
     public CompletableFuture<KinesisMessageLogResponse> read(final KinesisMessageLogIterator iterator) {
         if (isNull(executorService)) {
             initExecutorService();
         }
         try {
-
-            final List<CompletableFuture<KinesisShardResponse>> futureShardPositions = kinesisShardReaders
+            final List<CompletableFuture<KinesisShardResponse>> futureShardResponses = kinesisShardReaders
                     .stream()
-                    .map(shardReader -> supplyAsync(
-                            () -> {
-                                final KinesisShardIterator shardIterator = iterator.getShardIterator(shardReader.getShardName());
-                                return fetchNext(shardIterator, SKIP_NEXT_PARTS);
-                            },
-                            executorService))
+                    .map(shardReader -> fetchNext(iterator.getShardIterator(shardReader.getShardName()), SKIP_NEXT_PARTS))
                     .collect(toList());
-            return supplyAsync(() -> new KinesisMessageLogResponse(channelName, futureShardPositions
+            // combine the responses when all shards are completed, instead of blocking another thread:
+            return allOf(futureShardResponses).thenApply(ignored -> new KinesisMessageLogResponse(channelName, futureShardResponses
                     .stream()
                     .map(CompletableFuture::join)
-                    .collect(toImmutableList())), executorService);
+                    .collect(toImmutableList())));
         } catch (final RuntimeException e) {
             shutdownExecutor();
             throw e;
         }
     }
 
-    private KinesisShardResponse fetchNext(final KinesisShardIterator shardIterator, int skipNextParts) {
+    private CompletableFuture<KinesisShardResponse> fetchNext(final KinesisShardIterator shardIterator, final int skipNextParts) {
         final String id = shardIterator.getId();
-        final KinesisShardResponse shardResponse = shardIterator.next();
-        if(shardResponse.getMessages().isEmpty() && !shardIterator.isPoison() && !Objects.equals(shardIterator.getId(), id) && skipNextParts > 0) {
-            return fetchNext(shardIterator, --skipNextParts);
-        }
-        return shardResponse;
+        return shardIterator.nextAsync().thenCompose(shardResponse -> {
+            if (shardResponse.getMessages().isEmpty() && !shardIterator.isPoison() && !Objects.equals(shardIterator.getId(), id) && skipNextParts > 0) {
+                return fetchNext(shardIterator, skipNextParts - 1);
+            }
+            return completedFuture(shardResponse);
+        });
     }
 
     /**
+     * Consumes the shards of the stream, until the {@code until} timestamp is reached or the reader is stopped.
+     * <p>
+     *     Shards are consumed in the order of their lineage: closed parent shards are drained before their children
+     *     are consumed. If a shard is closed while it is consumed, the stream is described again and the children of
+     *     the shard are consumed afterwards. New shards are also discovered every {@code shardDiscoveryInterval}.
+     * </p>
+     *
      * @deprecated to be removed soon
      */
     public CompletableFuture<ChannelPosition> consumeUntil(final ChannelPosition startFrom,
@@ -130,20 +259,12 @@ public class KinesisMessageLogReader {
             initExecutorService();
         }
         try {
-            final List<CompletableFuture<ShardPosition>> futureShardPositions = kinesisShardReaders
-                    .stream()
-                    .map(shard -> shard.consumeUntil(startFrom.shard(shard.getShardName()), until, consumer))
-                    .collect(toList());
-            // don't chain futureShardPositions with CompletableFuture::join as lazy execution will prevent threads from
-            // running in parallel
-            return supplyAsync(() -> channelPosition(futureShardPositions
-                    .stream()
-                    .map(CompletableFuture::join)
-                    .collect(toList()))
-            ).exceptionally((throwable -> {
-                shutdownExecutor();
-                throw new RuntimeException(throwable.getMessage(), throwable);
-            }));
+            currentConsumption = new LineageConsumption(startFrom, until, consumer);
+            return currentConsumption.start()
+                    .exceptionally((throwable -> {
+                        shutdownExecutor();
+                        throw new RuntimeException(throwable.getMessage(), throwable);
+                    }));
         } catch (final RuntimeException e) {
             shutdownExecutor();
             throw e;
@@ -151,24 +272,46 @@ public class KinesisMessageLogReader {
     }
 
     private void initExecutorService() {
-        final Set<String> openShards = retrieveAllOpenShards();
-        if (openShards.isEmpty()) {
-            this.executorService = newSingleThreadExecutor();
-        } else {
-            this.executorService = newFixedThreadPool(
-                    openShards.size() + 1,
-                    new ThreadFactoryBuilder().setNameFormat("kinesis-message-log-%d").build()
-            );
-        }
-        this.kinesisShardReaders = openShards
+        initExecutorService(retrieveStreamInfo());
+    }
+
+    /**
+     * Describes the stream without blocking the calling thread, if the executor is not yet initialized.
+     */
+    private CompletableFuture<Void> initExecutorServiceAsync() {
+        if (isNull(executorService)) {
+            return new KinesisStreamInfoProvider(kinesisClient)
+                    .getStreamInfoAsync(channelName)
+                    .thenAccept(this::initExecutorService);
+        }
+        return completedFuture(null);
+    }
+
+    private synchronized void initExecutorService(final KinesisStreamInfo streamInfo) {
+        if (!isNull(executorService)) {
+            // initialized concurrently:
+            return;
+        }
+        final ChannelExecutor executor = synapseExecutor.forChannel(channelName);
+        this.shardLineage = new KinesisShardLineage(streamInfo);
+        this.kinesisShardReaders = new CopyOnWriteArrayList<>(openShardsOf(streamInfo)
                 .stream()
-                .map(shardName -> new KinesisShardReader(channelName, shardName, kinesisClient, executorService, clock))
-                .collect(toList());
+                .map(shardName -> new KinesisShardReader(channelName, shardName, kinesisClient, executor, clock, readQuota, readPriority))
+                .collect(toList()));
+        // assigned last, so the readers are visible to every thread that is seeing the executor:
+        this.executorService = executor;
     }
 
-    private Set<String> retrieveAllOpenShards() {
-        return new KinesisStreamInfoProvider(kinesisClient)
-                .getStreamInfo(channelName)
+    private static <T> CompletableFuture<Void> allOf(final List<CompletableFuture<T>> futures) {
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+    }
+
+    private KinesisStreamInfo retrieveStreamInfo() {
+        return new KinesisStreamInfoProvider(kinesisClient).getStreamInfo(channelName);
+    }
+
+    private static Set<String> openShardsOf(final KinesisStreamInfo streamInfo) {
+        return streamInfo
                 .getShardInfo()
                 .stream()
                 .filter(KinesisShardInfo::isOpen)
@@ -176,12 +319,23 @@ public class KinesisMessageLogReader {
                 .collect(toImmutableSet());
     }
 
+    private KinesisShardReader shardReader(final String shardName) {
+        return kinesisShardReaders
+                .stream()
+                .filter(reader -> reader.getShardName().equals(shardName))
+                .findAny()
+                .orElseGet(() -> {
+                    final KinesisShardReader reader = new KinesisShardReader(channelName, shardName, kinesisClient, executorService, clock, readQuota, readPriority);
+                    kinesisShardReaders.add(reader);
+                    return reader;
+                });
+    }
 
     private void shutdownExecutor() {
         if (executorService != null) {
             executorService.shutdownNow();
             try {
-                boolean allThreadsSafelyTerminated = executorService.awaitTermination(30, SECONDS);
+                boolean allThreadsSafelyTerminated = executorService.awaitTermination(Duration.ofSeconds(30));
                 if (!allThreadsSafelyTerminated) {
                     LOG.error("Kinesis Thread for stream {} is still running", getChannelName());
                 }
@@ -193,8 +347,58 @@ public class KinesisMessageLogReader {
         }
     }
 
+    /**
+     * Reads all shards of the stream, that have records arriving between {@code from} and {@code until}, using
+     * {@code slicesPerShard} concurrent iterators per shard.
+     * <p>
+     *     The records are consumed out of order, so the consumer must be thread-safe and must not depend on the
+     *     order of records. This is intended for backfill jobs; use {@link #consumeUntil(ChannelPosition, Instant,
+     *     Consumer)} to consume the stream in order.
+     * </p>
+     *
+     * @param from the arrival timestamp of the first record
+     * @param until records arriving at or after this timestamp are not consumed
+     * @param slicesPerShard the number of iterators reading a shard concurrently
+     * @param consumer the consumer of the responses
+     * @return future positions of the last consumed record of every slice
+     * @see KinesisTimeSlicedBackfill
+     */
+    public CompletableFuture<ImmutableList<ShardPosition>> backfill(final Instant from,
+                                                                    final Instant until,
+                                                                    final int slicesPerShard,
+                                                                    final Consumer<KinesisShardResponse> consumer) {
+        // the executor of the reader is initialized when the stream is described; the backfill is created upfront, so
+        // it can be stopped while the stream is described:
+        final ChannelExecutor executor = isNull(executorService) ? synapseExecutor.forChannel(channelName) : executorService;
+        final KinesisTimeSlicedBackfill backfill = new KinesisTimeSlicedBackfill(kinesisClient, channelName, executor, readQuota);
+        this.currentBackfill = backfill;
+        return new KinesisStreamInfoProvider(kinesisClient)
+                .getStreamInfoAsync(channelName)
+                .thenCompose(streamInfo -> {
+                    initExecutorService(streamInfo);
+                    // closed shards are included, because their records may still be in the retention period:
+                    final List<CompletableFuture<ImmutableList<ShardPosition>>> futurePositions = streamInfo
+                            .getShardInfo()
+                            .stream()
+                            .map(shardInfo -> backfill.backfill(shardInfo.getShardName(), from, until, slicesPerShard, consumer))
+                            .collect(toList());
+                    return allOf(futurePositions).thenApply(ignored -> futurePositions
+                            .stream()
+                            .flatMap(positions -> positions.join().stream())
+                            .collect(toImmutableList()));
+                });
+    }
+
     public void stop() {
         LOG.info("Channel {} received stop signal.", getChannelName());
+        final LineageConsumption consumption = this.currentConsumption;
+        if (consumption != null) {
+            consumption.stop();
+        }
+        final KinesisTimeSlicedBackfill backfill = this.currentBackfill;
+        if (backfill != null) {
+            backfill.stop();
+        }
         this.kinesisShardReaders.forEach(KinesisShardReader::stop);
     }
 
@@ -205,4 +409,226 @@ public class KinesisMessageLogReader {
         }
         return kinesisShardReaders;
     }
+
+    /**
+     * A single call of {@link #consumeUntil(ChannelPosition, Instant, Consumer)}, starting the readers of the shards
+     * as soon as all parents of the shards are drained.
+     * <p>
+     *     If a {@link ShardLeaseCoordinator} is configured, only shards leased by this instance are consumed, starting
+     *     at the checkpoint of the lease. Leases are balanced three times per lease duration, and readers of shards
+     *     whose lease was lost are stopped.
+     * </p>
+     */
+    private final class LineageConsumption {
+
+        private final ChannelPosition startFrom;
+        private final Instant until;
+        private final Consumer<KinesisShardResponse> consumer;
+        private final CompletableFuture<ChannelPosition> result = new CompletableFuture<>();
+        private final Map<String, ShardPosition> shardPositions = new LinkedHashMap<>();
+        private final Set<String> finishedShards = new HashSet<>();
+        private final Set<String> startedShards = new HashSet<>();
+        private final Map<String, KinesisShardReader> runningReaders = new HashMap<>();
+        private volatile boolean stopped = false;
+        private boolean refreshingLineage = false;
+        private boolean lineageRefreshRequested = false;
+        private Instant lastDiscovery;
+        private CompletableFuture<Void> discovery;
+
+        private LineageConsumption(final ChannelPosition startFrom,
+                                   final Instant until,
+                                   final Consumer<KinesisShardResponse> consumer) {
+            this.startFrom = startFrom;
+            this.until = until;
+            this.consumer = leaseCoordinator != null
+                    ? response -> {
+                        consumer.accept(response);
+                        leaseCoordinator.checkpoint(response.getShardPosition());
+                    }
+                    : consumer;
+        }
+
+        private CompletableFuture<ChannelPosition> start() {
+            balanceLeases();
+            synchronized (this) {
+                lastDiscovery = Instant.now(clock);
+                finishedShards.addAll(shardLineage.drainedShards(startFrom));
+                startReadyShards();
+                completeIfDone();
+                if (!result.isDone() && until.isAfter(Instant.now(clock))) {
+                    final Duration interval = leaseCoordinator != null
+                            ? Duration.ofMillis(Math.min(shardDiscoveryInterval.toMillis(), leaseCoordinator.getLeaseDuration().toMillis() / 3))
+                            : shardDiscoveryInterval;
+                    discovery = executorService.scheduleWithFixedDelay(this::discoverShards, interval, interval);
+                }
+            }
+            return result;
+        }
+
+        private synchronized void startReadyShards() {
+            if (stopped || result.isDone()) {
+                return;
+            }
+            final List<String> readyShards = shardLineage.readyShards(finishedShards, startedShards)
+                    .stream()
+                    .filter(shardName -> leaseCoordinator == null || leaseCoordinator.getOwnedShards().contains(shardName))
+                    .collect(toList());
+            // registered before the first reader is started, so a reader completing immediately is not completing
+            // the result before all ready shards are started:
+            startedShards.addAll(readyShards);
+            readyShards.forEach(shardName -> runningReaders.put(shardName, shardReader(shardName)));
+            readyShards.forEach(shardName -> {
+                final KinesisShardReader reader = runningReaders.get(shardName);
+                final ShardPosition shardStartFrom = leaseCoordinator != null
+                        ? leaseCoordinator.getCheckpoint(shardName).orElse(startFrom.shard(shardName))
+                        : startFrom.shard(shardName);
+                reader.consumeUntil(shardStartFrom, until, consumer)
+                        .whenComplete((shardPosition, throwable) -> shardCompleted(reader, shardPosition, throwable));
+            });
+        }
+
+        private synchronized void shardCompleted(final KinesisShardReader reader,
+                                                 final ShardPosition shardPosition,
+                                                 final Throwable throwable) {
+            runningReaders.remove(reader.getShardName());
+            if (throwable != null) {
+                finish();
+                result.completeExceptionally(throwable);
+                return;
+            }
+            shardPositions.put(reader.getShardName(), shardPosition);
+            if (reader.isShardClosed()) {
+                finishedShards.add(reader.getShardName());
+                if (leaseCoordinator != null) {
+                    leaseCoordinator.finish(shardPosition);
+                }
+                if (!reader.isStopping() && until.isAfter(Instant.now(clock))) {
+                    // children of the closed shard may have been created after the stream was described. They are
+                    // started when the stream is described again:
+                    refreshLineage();
+                }
+            } else if (leaseCoordinator != null && !leaseCoordinator.getOwnedShards().contains(reader.getShardName())) {
+                // the lease was lost: the reader is replaced if the lease is acquired again.
+                startedShards.remove(reader.getShardName());
+                kinesisShardReaders.remove(reader);
+            }
+            completeIfDone();
+        }
+
+        private void discoverShards() {
+            if (result.isDone()) {
+                return;
+            }
+            try {
+                synchronized (this) {
+                    final Instant now = Instant.now(clock);
+                    if (leaseCoordinator == null || !lastDiscovery.plus(shardDiscoveryInterval).isAfter(now)) {
+                        lastDiscovery = now;
+                        refreshLineage();
+                    }
+                }
+                balanceLeases();
+                synchronized (this) {
+                    startReadyShards();
+                    completeIfDone();
+                }
+            } catch (final RuntimeException e) {
+                LOG.warn("Failed to discover shards of channel {}: {}", channelName, e.getMessage());
+            }
+        }
+
+        /**
+         * Describes the stream without blocking the calling thread. The lineage is replaced, and ready shards are
+         * started, when the description is received. If the lineage is requested to be refreshed while the stream is
+         * described, the stream is described again afterwards, as the pending description may be outdated.
+         * <p>
+         *     The description is processed by the executor of the channel, not by the thread of the Kinesis client,
+         *     because leases are balanced afterwards.
+         * </p>
+         */
+        private void refreshLineage() {
+            if (refreshingLineage) {
+                lineageRefreshRequested = true;
+                return;
+            }
+            refreshingLineage = true;
+            new KinesisStreamInfoProvider(kinesisClient)
+                    .getStreamInfoAsync(channelName)
+                    .whenCompleteAsync(this::lineageRefreshed, executorService);
+        }
+
+        private void lineageRefreshed(final KinesisStreamInfo streamInfo,
+                                      final Throwable throwable) {
+            if (throwable != null) {
+                LOG.warn("Failed to discover shards of channel {}: {}", channelName, throwable.getMessage());
+            } else {
+                shardLineage = new KinesisShardLineage(streamInfo);
+            }
+            try {
+                balanceLeases();
+            } catch (final RuntimeException e) {
+                LOG.warn("Failed to balance leases of channel {}: {}", channelName, e.getMessage());
+            }
+            synchronized (this) {
+                // cleared not before ready shards are started, so the consumption is not completed in the meantime:
+                refreshingLineage = false;
+                if (lineageRefreshRequested && !stopped && !result.isDone()) {
+                    lineageRefreshRequested = false;
+                    refreshLineage();
+                }
+                try {
+                    startReadyShards();
+                } catch (final RuntimeException e) {
+                    LOG.warn("Failed to start shards of channel {}: {}", channelName, e.getMessage());
+                }
+                completeIfDone();
+            }
+        }
+
+        /**
+         * Balances the leases of the channel and stops the readers of shards whose lease was lost. The lease store is
+         * accessed without holding the monitor of the consumption, so completing readers are not blocked by the I/O.
+         * Must not be called while holding the monitor.
+         */
+        private void balanceLeases() {
+            if (leaseCoordinator != null && !stopped) {
+                final Set<String> ownedShards = leaseCoordinator.balance(shardLineage.getShardNames());
+                final Set<String> leasedFinishedShards = leaseCoordinator.getFinishedShards();
+                synchronized (this) {
+                    finishedShards.addAll(leasedFinishedShards);
+                    runningReaders.forEach((shardName, reader) -> {
+                        if (!ownedShards.contains(shardName)) {
+                            LOG.info("Stopping reader of shard {}/{}: lease was lost", channelName, shardName);
+                            reader.stop();
+                        }
+                    });
+                }
+            }
+        }
+
+        private void completeIfDone() {
+            // while the stream is described, children of closed shards may be about to be started:
+            final boolean done = runningReaders.isEmpty()
+                    && (stopped || !refreshingLineage)
+                    && (leaseCoordinator == null || stopped || !until.isAfter(Instant.now(clock)));
+            if (done && !result.isDone()) {
+                finish();
+                result.complete(channelPosition(ImmutableList.copyOf(shardPositions.values())));
+            }
+        }
+
+        private synchronized void stop() {
+            stopped = true;
+            completeIfDone();
+        }
+
+        private void finish() {
+            if (discovery != null) {
+                discovery.cancel(false);
+            }
+            if (leaseCoordinator != null) {
+                leaseCoordinator.releaseAll();
+            }
+        }
+    }
 }
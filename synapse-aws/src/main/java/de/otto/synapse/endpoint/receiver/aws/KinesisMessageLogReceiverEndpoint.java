@@ -3,28 +3,24 @@ package de.otto.synapse.endpoint.receiver.aws;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableMap;
-import de.otto.synapse.channel.ChannelDurationBehind;
 import de.otto.synapse.channel.ChannelPosition;
-import de.otto.synapse.consumer.MessageDispatcher;
-import de.otto.synapse.endpoint.InterceptorChain;
 import de.otto.synapse.endpoint.receiver.AbstractMessageLogReceiverEndpoint;
-import de.otto.synapse.message.Message;
+import de.otto.synapse.executor.SynapseExecutor;
+import de.otto.synapse.lease.ShardLeaseCoordinator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.ApplicationEventPublisher;
 import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.time.Clock;
 import java.time.Instant;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.atomic.AtomicReference;
-import java.util.function.Consumer;
 
-import static de.otto.synapse.channel.ChannelDurationBehind.copyOf;
-import static de.otto.synapse.channel.ChannelDurationBehind.unknown;
-import static de.otto.synapse.info.MessageReceiverNotification.builder;
+import static de.otto.synapse.endpoint.receiver.aws.KinesisMessageLogReader.DEFAULT_SHARD_DISCOVERY_INTERVAL;
+import static de.otto.synapse.endpoint.receiver.aws.KinesisReadQuota.defaultReadQuota;
 import static de.otto.synapse.info.MessageReceiverStatus.*;
 import static de.otto.synapse.logging.LogHelper.info;
 
@@ -32,71 +28,61 @@ public class KinesisMessageLogReceiverEndpoint extends AbstractMessageLogReceive
 
     private static final Logger LOG = LoggerFactory.getLogger(KinesisMessageLogReceiverEndpoint.class);
 
+    private final KinesisMessageLogReader kinesisMessageLogReader;
 
-    private static class KinesisShardResponseConsumer implements Consumer<KinesisShardResponse> {
-        private final AtomicReference<ChannelDurationBehind> channelDurationBehind = new AtomicReference<>();
-        private final InterceptorChain interceptorChain;
-        private final MessageDispatcher messageDispatcher;
-        private final ApplicationEventPublisher eventPublisher;
 
-        private KinesisShardResponseConsumer(final List<String> shardNames,
-                                             final InterceptorChain interceptorChain,
-                                             final MessageDispatcher messageDispatcher,
+    public KinesisMessageLogReceiverEndpoint(final String channelName,
+                                             final KinesisAsyncClient kinesisClient,
+                                             final ObjectMapper objectMapper,
                                              final ApplicationEventPublisher eventPublisher) {
-            this.interceptorChain = interceptorChain;
-            this.messageDispatcher = messageDispatcher;
-            this.eventPublisher = eventPublisher;
-            channelDurationBehind.set(unknown(shardNames));
-        }
-
-        @Override
-        public void accept(KinesisShardResponse response) {
-            response.getMessages().forEach(message -> {
-                try {
-                    final Message<String> interceptedMessage = interceptorChain.intercept(message);
-                    if (interceptedMessage != null) {
-                        messageDispatcher.accept(message);
-                    }
-                } catch (final Exception e) {
-                    LOG.error("Error processing message: " + e.getMessage(), e);
-                }
-            });
-            channelDurationBehind.updateAndGet(behind -> copyOf(behind)
-                    .with(response.getShardName(), response.getDurationBehind())
-                    .build());
-
-            if (eventPublisher != null) {
-                eventPublisher.publishEvent(builder()
-                        .withChannelName(response.getChannelName())
-                        .withChannelDurationBehind(channelDurationBehind.get())
-                        .withStatus(RUNNING)
-                        .withMessage("Reading from kinesis shard.")
-                        .build());
-            }
-
-        }
-
+        this(channelName, kinesisClient, objectMapper, eventPublisher, Clock.systemDefaultZone());
     }
 
-    private final KinesisMessageLogReader kinesisMessageLogReader;
-    private final ApplicationEventPublisher eventPublisher;
+    public KinesisMessageLogReceiverEndpoint(final String channelName,
+                                             final KinesisAsyncClient kinesisClient,
+                                             final ObjectMapper objectMapper,
+                                             final ApplicationEventPublisher eventPublisher,
+                                             final Clock clock) {
+        this(channelName, kinesisClient, objectMapper, eventPublisher, clock, SynapseExecutor.defaultExecutor());
+    }
 
+    public KinesisMessageLogReceiverEndpoint(final String channelName,
+                                             final KinesisAsyncClient kinesisClient,
+                                             final ObjectMapper objectMapper,
+                                             final ApplicationEventPublisher eventPublisher,
+                                             final Clock clock,
+                                             final SynapseExecutor synapseExecutor) {
+        this(channelName, kinesisClient, objectMapper, eventPublisher, clock, synapseExecutor, null);
+    }
 
+    /**
+     * Creates a message log that is only consuming the shards leased by the {@code leaseCoordinator}, so the shards
+     * of the stream are distributed across all instances of the service.
+     */
     public KinesisMessageLogReceiverEndpoint(final String channelName,
                                              final KinesisAsyncClient kinesisClient,
                                              final ObjectMapper objectMapper,
-                                             final ApplicationEventPublisher eventPublisher) {
-        this(channelName, kinesisClient, objectMapper, eventPublisher, Clock.systemDefaultZone());
+                                             final ApplicationEventPublisher eventPublisher,
+                                             final Clock clock,
+                                             final SynapseExecutor synapseExecutor,
+                                             final @Nullable ShardLeaseCoordinator leaseCoordinator) {
+        this(channelName, kinesisClient, objectMapper, eventPublisher, clock, synapseExecutor, leaseCoordinator, defaultReadQuota());
     }
 
+    /**
+     * Creates a message log that is pacing its reads using the given {@link KinesisReadQuota}, instead of the
+     * {@link KinesisReadQuota#defaultReadQuota() default read quota}.
+     */
     public KinesisMessageLogReceiverEndpoint(final String channelName,
                                              final KinesisAsyncClient kinesisClient,
                                              final ObjectMapper objectMapper,
                                              final ApplicationEventPublisher eventPublisher,
-                                             final Clock clock) {
+                                             final Clock clock,
+                                             final SynapseExecutor synapseExecutor,
+                                             final @Nullable ShardLeaseCoordinator leaseCoordinator,
+                                             final @Nonnull KinesisReadQuota readQuota) {
         super(channelName, objectMapper, eventPublisher);
-        this.eventPublisher = eventPublisher;
-        this.kinesisMessageLogReader = new KinesisMessageLogReader(channelName, kinesisClient, clock);
+        this.kinesisMessageLogReader = new KinesisMessageLogReader(channelName, kinesisClient, clock, synapseExecutor, DEFAULT_SHARD_DISCOVERY_INTERVAL, leaseCoordinator, readQuota);
     }
 
     @Override
@@ -110,7 +96,8 @@ public class KinesisMessageLogReceiverEndpoint extends AbstractMessageLogReceive
 
             publishEvent(STARTED, "Received shards from Kinesis.", null);
 
-            final KinesisShardResponseConsumer consumer = new KinesisShardResponseConsumer(shards, getInterceptorChain(), getMessageDispatcher(), eventPublisher);
+            final KinesisShardResponseConsumer consumer = new KinesisShardResponseConsumer(shards, getInterceptorChain(), getMessageDispatcher(),
+                    durationBehind -> publishEvent(RUNNING, "Reading from kinesis shard.", durationBehind));
 
             return kinesisMessageLogReader.consumeUntil(startFrom, until, consumer)
                     .exceptionally((throwable) -> {
@@ -137,6 +124,17 @@ public class KinesisMessageLogReceiverEndpoint extends AbstractMessageLogReceive
         }
     }
 
+    /**
+     * Sets the priority of this message log when acquiring the {@link KinesisReadQuota} shared with the other readers
+     * of the stream. Background jobs, like compactions, should use {@link KinesisReadQuota.Priority#BACKGROUND}, so
+     * live EventSources are not throttled. Must be set before the message log is consumed.
+     *
+     * @param readPriority the priority, {@link KinesisReadQuota.Priority#LIVE} by default
+     */
+    public void setReadPriority(final @Nonnull KinesisReadQuota.Priority readPriority) {
+        kinesisMessageLogReader.setReadPriority(readPriority);
+    }
+
     @Override
     public void stop() {
         LOG.info("Channel {} received stop signal.", getChannelName());
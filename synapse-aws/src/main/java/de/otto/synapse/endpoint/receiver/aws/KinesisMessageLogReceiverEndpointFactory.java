@@ -4,6 +4,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import de.otto.synapse.endpoint.MessageInterceptorRegistry;
 import de.otto.synapse.endpoint.receiver.MessageLogReceiverEndpoint;
 import de.otto.synapse.endpoint.receiver.MessageLogReceiverEndpointFactory;
+import de.otto.synapse.executor.SynapseExecutor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationEventPublisher;
 import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
@@ -11,6 +12,8 @@ import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
 import javax.annotation.Nonnull;
 import java.time.Clock;
 
+import static de.otto.synapse.endpoint.receiver.aws.KinesisReadQuota.defaultReadQuota;
+
 public class KinesisMessageLogReceiverEndpointFactory implements MessageLogReceiverEndpointFactory {
 
     private final MessageInterceptorRegistry interceptorRegistry;
@@ -18,6 +21,8 @@ public class KinesisMessageLogReceiverEndpointFactory implements MessageLogRecei
     private final ObjectMapper objectMapper;
     private final ApplicationEventPublisher eventPublisher;
     private final Clock clock;
+    private final SynapseExecutor synapseExecutor;
+    private final KinesisReadQuota readQuota;
 
     @Autowired
     public KinesisMessageLogReceiverEndpointFactory(final MessageInterceptorRegistry interceptorRegistry,
@@ -32,16 +37,37 @@ public class KinesisMessageLogReceiverEndpointFactory implements MessageLogRecei
                                                     final ObjectMapper objectMapper,
                                                     final ApplicationEventPublisher eventPublisher,
                                                     final Clock clock) {
+        this(interceptorRegistry, kinesisClient, objectMapper, eventPublisher, clock, SynapseExecutor.defaultExecutor());
+    }
+
+    public KinesisMessageLogReceiverEndpointFactory(final MessageInterceptorRegistry interceptorRegistry,
+                                                    final KinesisAsyncClient kinesisClient,
+                                                    final ObjectMapper objectMapper,
+                                                    final ApplicationEventPublisher eventPublisher,
+                                                    final Clock clock,
+                                                    final SynapseExecutor synapseExecutor) {
+        this(interceptorRegistry, kinesisClient, objectMapper, eventPublisher, clock, synapseExecutor, defaultReadQuota());
+    }
+
+    public KinesisMessageLogReceiverEndpointFactory(final MessageInterceptorRegistry interceptorRegistry,
+                                                    final KinesisAsyncClient kinesisClient,
+                                                    final ObjectMapper objectMapper,
+                                                    final ApplicationEventPublisher eventPublisher,
+                                                    final Clock clock,
+                                                    final SynapseExecutor synapseExecutor,
+                                                    final KinesisReadQuota readQuota) {
         this.interceptorRegistry = interceptorRegistry;
         this.kinesisClient = kinesisClient;
         this.objectMapper = objectMapper;
         this.eventPublisher = eventPublisher;
         this.clock = clock;
+        this.synapseExecutor = synapseExecutor;
+        this.readQuota = readQuota;
     }
 
     @Override
     public MessageLogReceiverEndpoint create(@Nonnull String channelName) {
-        final MessageLogReceiverEndpoint messageLog = new KinesisMessageLogReceiverEndpoint(channelName, kinesisClient, objectMapper, eventPublisher, clock);
+        final MessageLogReceiverEndpoint messageLog = new KinesisMessageLogReceiverEndpoint(channelName, kinesisClient, objectMapper, eventPublisher, clock, synapseExecutor, null, readQuota);
         messageLog.registerInterceptorsFrom(interceptorRegistry);
         return messageLog;
     }
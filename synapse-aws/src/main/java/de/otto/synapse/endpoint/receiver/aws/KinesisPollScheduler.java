@@ -0,0 +1,91 @@
+package de.otto.synapse.endpoint.receiver.aws;
+
+import javax.annotation.Nonnull;
+import java.time.Duration;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+/**
+ * Calculates the delay between two {@code GetRecords} calls of a {@link KinesisShardReader}.
+ * <p>
+ *     While the shard is behind the latest record by more than {@code catchUpThreshold}, or the previous response
+ *     was a full batch, the next call is issued as soon as the read quota of Kinesis (five calls per second and
+ *     shard) is permitting. After an empty response, the delay is doubled up to {@code maxIdleDelay}, so idle shards
+ *     are polled less frequently. Otherwise, the shard is polled once per {@code defaultDelay}.
+ * </p>
+ * <p>
+ *     Instances are not thread safe and must be used by a single shard reader.
+ * </p>
+ */
+class KinesisPollScheduler {
+
+    /** Kinesis is allowing five GetRecords calls per second and shard. */
+    static final Duration MIN_CALL_INTERVAL = Duration.ofMillis(200);
+    static final Duration DEFAULT_DELAY = Duration.ofSeconds(1);
+    static final Duration MAX_IDLE_DELAY = Duration.ofSeconds(5);
+    static final Duration CATCH_UP_THRESHOLD = Duration.ofSeconds(10);
+
+    private final Duration minCallInterval;
+    private final Duration defaultDelay;
+    private final Duration maxIdleDelay;
+    private final Duration catchUpThreshold;
+    private int emptyResponses = 0;
+    private boolean catchingUp = false;
+
+    KinesisPollScheduler() {
+        this(MIN_CALL_INTERVAL, DEFAULT_DELAY, MAX_IDLE_DELAY, CATCH_UP_THRESHOLD);
+    }
+
+    KinesisPollScheduler(final Duration minCallInterval,
+                         final Duration defaultDelay,
+                         final Duration maxIdleDelay,
+                         final Duration catchUpThreshold) {
+        this.minCallInterval = minCallInterval;
+        this.defaultDelay = defaultDelay;
+        this.maxIdleDelay = maxIdleDelay;
+        this.catchUpThreshold = catchUpThreshold;
+    }
+
+    /**
+     * Returns the time to wait after the given response, before the next {@code GetRecords} call is issued.
+     *
+     * @param response the response of the previous call
+     * @param fetchRecordLimit the maximum number of records returned by a single call
+     * @return delay
+     */
+    @Nonnull
+    Duration delayAfter(final @Nonnull KinesisShardResponse response,
+                        final int fetchRecordLimit) {
+        // compared with the number of records, as aggregated records are de-aggregated into several messages:
+        final int numberOfRecords = response.getNumberOfRecords();
+        if (numberOfRecords >= fetchRecordLimit || response.getDurationBehind().compareTo(catchUpThreshold) >= 0) {
+            // empty responses are possible while far behind, for example after a gap in the stream:
+            emptyResponses = 0;
+            catchingUp = true;
+            return remainingCallInterval(response);
+        }
+        catchingUp = false;
+        if (numberOfRecords == 0) {
+            ++emptyResponses;
+            final long backOffMillis = defaultDelay.toMillis() << min(emptyResponses - 1, 16);
+            return Duration.ofMillis(min(backOffMillis, maxIdleDelay.toMillis()));
+        }
+        emptyResponses = 0;
+        return defaultDelay;
+    }
+
+    /**
+     * Returns true, if the last response passed to {@link #delayAfter(KinesisShardResponse, int)} was a full batch
+     * or the shard is behind, so the next records should be fetched as fast as possible.
+     *
+     * @return boolean
+     */
+    boolean isCatchingUp() {
+        return catchingUp;
+    }
+
+    private Duration remainingCallInterval(final KinesisShardResponse response) {
+        return Duration.ofMillis(max(0, minCallInterval.toMillis() - response.getRuntime()));
+    }
+}
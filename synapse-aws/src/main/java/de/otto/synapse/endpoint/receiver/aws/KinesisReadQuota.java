@@ -0,0 +1,253 @@
+package de.otto.synapse.endpoint.receiver.aws;
+
+import com.google.common.collect.ImmutableList;
+import de.otto.synapse.executor.ChannelExecutor;
+import de.otto.synapse.executor.SynapseExecutor;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static de.otto.synapse.endpoint.receiver.aws.AsyncDelay.delay;
+import static java.util.Comparator.comparing;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+
+/**
+ * The read quota of Kinesis shards, shared by all {@link KinesisShardIterator KinesisShardIterators} of the process.
+ * <p>
+ *     Kinesis is limiting reads to {@value #CALLS_PER_SECOND} {@code GetRecords} calls and {@value #BYTES_PER_SECOND}
+ *     bytes per second and shard, for all consumers of a stream. If EventSources, compactions and replays are reading
+ *     the same shard independently, they are exceeding the limits and are throttled by Kinesis. The KinesisReadQuota
+ *     is a token bucket per shard for calls and bytes, so the reads of all iterators are paced before they are
+ *     throttled.
+ * </p>
+ * <p>
+ *     {@link Priority#BACKGROUND Background} reads, like compactions, only use the capacity that is not needed by
+ *     {@link Priority#LIVE live} consumers: they are waiting until the bucket is filled above a reserve.
+ * </p>
+ * <p>
+ *     Waiting for the quota is not blocking any thread.
+ * </p>
+ * <p>
+ *     The {@link #getMetrics() metrics} of the reads, like the record limit chosen by the iterators and the size of
+ *     the responses, are available per shard. The auto-configuration exposes the {@link #defaultReadQuota() default
+ *     read quota} as {@code kinesisReadQuota} bean, and synapse-edison reports the metrics as status details.
+ * </p>
+ */
+@ThreadSafe
+public class KinesisReadQuota {
+
+    public static final int CALLS_PER_SECOND = 5;
+    public static final long BYTES_PER_SECOND = 2 * 1024 * 1024;
+    /** The fraction of the capacity of a shard that is reserved for live consumers. */
+    static final double BACKGROUND_RESERVE = 0.5;
+
+    private static KinesisReadQuota defaultReadQuota;
+
+    public enum Priority {
+        /** Consumers that are keeping up with a stream, like EventSources. */
+        LIVE,
+        /** Consumers that are reading a stream in the background, like compactions or replays. */
+        BACKGROUND
+    }
+
+    private final double callsPerSecond;
+    private final double bytesPerSecond;
+    private final LongSupplier nanoTime;
+    private final Map<String, ShardBucket> buckets = new ConcurrentHashMap<>();
+
+    public KinesisReadQuota() {
+        this(CALLS_PER_SECOND, BYTES_PER_SECOND);
+    }
+
+    public KinesisReadQuota(final int callsPerSecond,
+                            final long bytesPerSecond) {
+        this(callsPerSecond, bytesPerSecond, System::nanoTime);
+    }
+
+    KinesisReadQuota(final int callsPerSecond,
+                     final long bytesPerSecond,
+                     final LongSupplier nanoTime) {
+        this.callsPerSecond = callsPerSecond;
+        this.bytesPerSecond = bytesPerSecond;
+        this.nanoTime = nanoTime;
+    }
+
+    /**
+     * Returns the KinesisReadQuota shared by all components that are not configured with a KinesisReadQuota.
+     *
+     * @return default KinesisReadQuota
+     */
+    @Nonnull
+    public static synchronized KinesisReadQuota defaultReadQuota() {
+        if (defaultReadQuota == null) {
+            defaultReadQuota = new KinesisReadQuota();
+        }
+        return defaultReadQuota;
+    }
+
+    /**
+     * Acquires a {@code GetRecords} call from the quota of a shard.
+     *
+     * @param channelName the name of the stream
+     * @param shardName the name of the shard
+     * @param priority the priority of the reader
+     * @return future that is completed, when the call may be issued
+     */
+    @Nonnull
+    public CompletableFuture<Void> acquire(final @Nonnull String channelName,
+                                           final @Nonnull String shardName,
+                                           final @Nonnull Priority priority) {
+        return acquire(channelName, shardName, priority, SynapseExecutor.defaultExecutor().forChannel(channelName));
+    }
+
+    /**
+     * Acquires a {@code GetRecords} call from the quota of a shard, waiting for the quota using the given executor.
+     *
+     * @param channelName the name of the stream
+     * @param shardName the name of the shard
+     * @param priority the priority of the reader
+     * @param executor the executor of the reader, used to wait until the quota is refilled
+     * @return future that is completed, when the call may be issued
+     */
+    @Nonnull
+    public CompletableFuture<Void> acquire(final @Nonnull String channelName,
+                                           final @Nonnull String shardName,
+                                           final @Nonnull Priority priority,
+                                           final @Nonnull ChannelExecutor executor) {
+        final Duration wait = bucketOf(channelName, shardName).tryAcquire(priority);
+        return wait.isZero()
+                ? completedFuture(null)
+                : delay(wait, executor).thenCompose(ignored -> acquire(channelName, shardName, priority, executor));
+    }
+
+    /**
+     * Records the bytes returned by a {@code GetRecords} call. Large responses are delaying the next calls to the
+     * shard, until the bytes are refilled.
+     *
+     * @param channelName the name of the stream
+     * @param shardName the name of the shard
+     * @param bytes the number of bytes returned
+     */
+    public void consumed(final @Nonnull String channelName,
+                         final @Nonnull String shardName,
+                         final long bytes) {
+        bucketOf(channelName, shardName).consume(bytes);
+    }
+
+    /**
+     * Records that a call to the shard was throttled by Kinesis, so all readers of the shard are waiting until the
+     * calls are refilled.
+     *
+     * @param channelName the name of the stream
+     * @param shardName the name of the shard
+     */
+    public void throttled(final @Nonnull String channelName,
+                          final @Nonnull String shardName) {
+        bucketOf(channelName, shardName).drain();
+    }
+
+    /**
+     * Records the {@code limit} of the {@code GetRecords} requests chosen by a reader of the shard.
+     *
+     * @param channelName the name of the stream
+     * @param shardName the name of the shard
+     * @param recordLimit the limit of the next requests
+     * @param averageRecordBytes the moving average of the size of the records
+     */
+    public void recordLimit(final @Nonnull String channelName,
+                            final @Nonnull String shardName,
+                            final int recordLimit,
+                            final long averageRecordBytes) {
+        bucketOf(channelName, shardName).recordLimit(recordLimit, averageRecordBytes);
+    }
+
+    /**
+     * Returns the metrics of all shards read using this quota, ordered by channel and shard name.
+     *
+     * @return list of metrics
+     */
+    @Nonnull
+    public ImmutableList<KinesisShardReadMetrics> getMetrics() {
+        return buckets.values()
+                .stream()
+                .map(ShardBucket::metrics)
+                .sorted(comparing(KinesisShardReadMetrics::getChannelName).thenComparing(KinesisShardReadMetrics::getShardName))
+                .collect(toImmutableList());
+    }
+
+    private ShardBucket bucketOf(final String channelName, final String shardName) {
+        return buckets.computeIfAbsent(channelName + "/" + shardName, key -> new ShardBucket(channelName, shardName));
+    }
+
+    private final class ShardBucket {
+        private final String channelName;
+        private final String shardName;
+        private double calls = callsPerSecond;
+        private double bytes = bytesPerSecond;
+        private long lastRefill = nanoTime.getAsLong();
+        private int recordLimit;
+        private long averageRecordBytes;
+        private long lastResponseBytes;
+        private long throttledCalls;
+
+        private ShardBucket(final String channelName, final String shardName) {
+            this.channelName = channelName;
+            this.shardName = shardName;
+        }
+
+        /**
+         * Takes a call from the bucket, if the bucket is filled above the threshold of the priority.
+         *
+         * @return zero, if the call was taken, or the duration until the bucket is refilled
+         */
+        private synchronized Duration tryAcquire(final Priority priority) {
+            refill();
+            final double reserve = priority == Priority.BACKGROUND ? BACKGROUND_RESERVE : 0.0;
+            final double requiredCalls = 1.0 + reserve * callsPerSecond;
+            final double requiredBytes = reserve * bytesPerSecond;
+            if (calls >= requiredCalls && bytes >= requiredBytes) {
+                calls -= 1.0;
+                return Duration.ZERO;
+            }
+            final double waitSeconds = Math.max(
+                    (requiredCalls - calls) / callsPerSecond,
+                    (requiredBytes - bytes) / bytesPerSecond);
+            return Duration.ofMillis(Math.max(1L, (long) Math.ceil(waitSeconds * 1000)));
+        }
+
+        private synchronized void consume(final long consumedBytes) {
+            refill();
+            bytes -= consumedBytes;
+            lastResponseBytes = consumedBytes;
+        }
+
+        private synchronized void drain() {
+            refill();
+            calls = Math.min(calls, 0.0);
+            throttledCalls++;
+        }
+
+        private synchronized void recordLimit(final int recordLimit, final long averageRecordBytes) {
+            this.recordLimit = recordLimit;
+            this.averageRecordBytes = averageRecordBytes;
+        }
+
+        private synchronized KinesisShardReadMetrics metrics() {
+            return new KinesisShardReadMetrics(channelName, shardName, recordLimit, averageRecordBytes, lastResponseBytes, throttledCalls);
+        }
+
+        private void refill() {
+            final long now = nanoTime.getAsLong();
+            final double elapsedSeconds = (now - lastRefill) / 1_000_000_000.0;
+            lastRefill = now;
+            calls = Math.min(callsPerSecond, calls + elapsedSeconds * callsPerSecond);
+            bytes = Math.min(bytesPerSecond, bytes + elapsedSeconds * bytesPerSecond);
+        }
+    }
+}
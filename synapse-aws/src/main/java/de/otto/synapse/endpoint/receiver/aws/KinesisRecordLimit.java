@@ -0,0 +1,77 @@
+package de.otto.synapse.endpoint.receiver.aws;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+/**
+ * The {@code limit} of the {@code GetRecords} requests of a shard, tuned from the observed size of the records.
+ * <p>
+ *     The limit is chosen, so a response is about {@value #TARGET_RESPONSE_BYTES} bytes: the bytes that can be read
+ *     from a shard per second. Shards with large records are fetched in small batches, instead of hitting the
+ *     response limit of 10 MB, which would block all reads of the shard for the next seconds. Shards with small
+ *     records are fetched using the configured maximum.
+ * </p>
+ * <p>
+ *     If a request is throttled, the limit is halved, and increased by 10% with every successful response.
+ * </p>
+ */
+@ThreadSafe
+final class KinesisRecordLimit {
+
+    static final long TARGET_RESPONSE_BYTES = KinesisReadQuota.BYTES_PER_SECOND;
+    /** Weight of the latest response in the moving average of the record size. */
+    static final double SMOOTHING_FACTOR = 0.2;
+
+    private final int maxLimit;
+    private double averageRecordBytes = 0.0;
+    private int throttlingLimit;
+    private int limit;
+
+    KinesisRecordLimit(final int maxLimit) {
+        this.maxLimit = maxLimit;
+        this.throttlingLimit = maxLimit;
+        this.limit = maxLimit;
+    }
+
+    synchronized int get() {
+        return limit;
+    }
+
+    synchronized long getAverageRecordBytes() {
+        return Math.round(averageRecordBytes);
+    }
+
+    /**
+     * Updates the limit from a successful response.
+     *
+     * @param records the number of records of the response
+     * @param bytes the size of the records of the response
+     */
+    synchronized void responded(final int records, final long bytes) {
+        if (records > 0) {
+            final double recordBytes = (double) bytes / records;
+            averageRecordBytes = averageRecordBytes == 0.0
+                    ? recordBytes
+                    : SMOOTHING_FACTOR * recordBytes + (1.0 - SMOOTHING_FACTOR) * averageRecordBytes;
+        }
+        throttlingLimit = min(maxLimit, throttlingLimit + max(1, throttlingLimit / 10));
+        update();
+    }
+
+    /**
+     * Halves the limit after a request was throttled.
+     */
+    synchronized void throttled() {
+        throttlingLimit = max(1, limit / 2);
+        update();
+    }
+
+    private void update() {
+        final long sizeLimit = averageRecordBytes > 0.0
+                ? (long) (TARGET_RESPONSE_BYTES / averageRecordBytes)
+                : maxLimit;
+        limit = (int) max(1, min(sizeLimit, min(throttlingLimit, maxLimit)));
+    }
+}
@@ -1,14 +1,33 @@
 package de.otto.synapse.endpoint.receiver.aws;
 
+import javax.annotation.Nullable;
 import java.util.Objects;
+import java.util.Optional;
 
 public class KinesisShardInfo {
     private final String shardName;
     private final boolean open;
+    private final String parentShardName;
+    private final String adjacentParentShardName;
 
     public KinesisShardInfo(final String shardName, final boolean open) {
+        this(shardName, open, null, null);
+    }
+
+    /**
+     * @param shardName the id of the shard
+     * @param open true, if the shard is open, false if it was closed by a split or merge of shards
+     * @param parentShardName the id of the parent shard, or null if the shard has no parent
+     * @param adjacentParentShardName the id of the second parent of a merged shard, or null
+     */
+    public KinesisShardInfo(final String shardName,
+                            final boolean open,
+                            final @Nullable String parentShardName,
+                            final @Nullable String adjacentParentShardName) {
         this.shardName = shardName;
         this.open = open;
+        this.parentShardName = parentShardName;
+        this.adjacentParentShardName = adjacentParentShardName;
     }
 
     public String getShardName() {
@@ -19,18 +38,28 @@ public class KinesisShardInfo {
         return open;
     }
 
+    public Optional<String> getParentShardName() {
+        return Optional.ofNullable(parentShardName);
+    }
+
+    public Optional<String> getAdjacentParentShardName() {
+        return Optional.ofNullable(adjacentParentShardName);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         KinesisShardInfo that = (KinesisShardInfo) o;
         return open == that.open &&
-                Objects.equals(shardName, that.shardName);
+                Objects.equals(shardName, that.shardName) &&
+                Objects.equals(parentShardName, that.parentShardName) &&
+                Objects.equals(adjacentParentShardName, that.adjacentParentShardName);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(shardName, open);
+        return Objects.hash(shardName, open, parentShardName, adjacentParentShardName);
     }
 
     @Override
@@ -38,6 +67,8 @@ public class KinesisShardInfo {
         return "KinesisShardInfo{" +
                 "shardName='" + shardName + '\'' +
                 ", open=" + open +
+                ", parentShardName='" + parentShardName + '\'' +
+                ", adjacentParentShardName='" + adjacentParentShardName + '\'' +
                 '}';
     }
 }
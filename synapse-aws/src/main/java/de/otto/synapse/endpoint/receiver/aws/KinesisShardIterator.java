@@ -4,23 +4,31 @@ import com.google.common.base.Stopwatch;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
 import de.otto.synapse.channel.ShardPosition;
+import de.otto.synapse.endpoint.receiver.aws.KinesisReadQuota.Priority;
+import de.otto.synapse.executor.ChannelExecutor;
+import de.otto.synapse.executor.SynapseExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.retry.RetryCallback;
-import org.springframework.retry.RetryContext;
-import org.springframework.retry.backoff.ExponentialBackOffPolicy;
-import org.springframework.retry.listener.RetryListenerSupport;
-import org.springframework.retry.policy.SimpleRetryPolicy;
-import org.springframework.retry.support.RetryTemplate;
 import software.amazon.awssdk.core.exception.SdkClientException;
 import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
 import software.amazon.awssdk.services.kinesis.model.*;
 
 import javax.annotation.Nonnull;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 
 import static de.otto.synapse.channel.ShardPosition.fromPosition;
+import static de.otto.synapse.endpoint.receiver.aws.AsyncDelay.delay;
+import static de.otto.synapse.endpoint.receiver.aws.KinesisReadQuota.Priority.LIVE;
+import static de.otto.synapse.endpoint.receiver.aws.KinesisReadQuota.defaultReadQuota;
 import static de.otto.synapse.logging.LogHelper.warn;
+import static de.otto.synapse.message.aws.KinesisRecordAggregation.lastConsumedSubRecordOf;
+import static de.otto.synapse.message.aws.KinesisRecordAggregation.sequenceNumberOf;
+import static de.otto.synapse.message.aws.KinesisRecordAggregation.subSequenceNumberOf;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static software.amazon.awssdk.services.kinesis.model.ShardIteratorType.*;
 
@@ -28,7 +36,7 @@ import static software.amazon.awssdk.services.kinesis.model.ShardIteratorType.*;
  * A helper class used to retrieve and traverse Kinesis Shards.
  * <p>
  *     <em>Caution:</em> Creating a KinesisShardIterator is an expensive operation, so instances should be
- *     reused and messages should be read continuously using by calling {@link #next()} should be preferred.
+ *     reused and messages should be read continuously using by calling {@link #nextAsync()} should be preferred.
  *     Creating a KinesisShardIterator too often may result in a {@link ProvisionedThroughputExceededException}
  *     coming from the Amazon Kinesis SDK as described
  *     {@link KinesisAsyncClient#getShardIterator(GetShardIteratorRequest) here}.
@@ -45,34 +53,139 @@ public class KinesisShardIterator {
     private static final int RETRY_BACK_OFF_POLICY_INITIAL_INTERVAL = 1000;
     private static final int RETRY_BACK_OFF_POLICY_MAX_INTERVAL = 64000;
     private static final double RETRY_BACK_OFF_POLICY_MULTIPLIER = 2.0;
+    /** Responses larger than this are not followed by a prefetch, so at most two large responses are in memory. */
+    static final long PREFETCH_MEMORY_LIMIT_BYTES = 5 * 1024 * 1024;
 
     private final KinesisAsyncClient kinesisClient;
     private final String channelName;
-    private String id;
-    private ShardPosition shardPosition;
+    private volatile String id;
+    private volatile ShardPosition shardPosition;
     private final int fetchRecordLimit;
-    private final RetryTemplate retryTemplate;
+    private final KinesisRecordLimit recordLimit;
+    private final KinesisReadQuota readQuota;
+    private final Priority priority;
+    private final ChannelExecutor executor;
     private final AtomicBoolean stopSignal = new AtomicBoolean(false);
+    private volatile CompletableFuture<GetRecordsResponse> prefetchedResponse;
+    private volatile Stopwatch prefetchStopwatch;
+    private volatile int prefetchRecordLimit;
+    private volatile int lastRecordLimit;
+    private volatile long lastResponseBytes;
+    private volatile ShardPosition lastConsumedSubRecord;
 
+    /**
+     * Creates a KinesisShardIterator, blocking the calling thread until the iterator is received from Kinesis.
+     *
+     * @param kinesisClient the client used to access the stream
+     * @param channelName the name of the stream
+     * @param shardPosition the position to start from
+     * @deprecated use {@link #kinesisShardIterator(KinesisAsyncClient, String, ShardPosition, int)}
+     */
+    @Deprecated
     public KinesisShardIterator(final @Nonnull KinesisAsyncClient kinesisClient,
                                 final @Nonnull String channelName,
                                 final @Nonnull ShardPosition shardPosition) {
         this(kinesisClient, channelName, shardPosition, FETCH_RECORDS_LIMIT);
     }
 
+    /**
+     * Creates a KinesisShardIterator, blocking the calling thread until the iterator is received from Kinesis.
+     *
+     * @param kinesisClient the client used to access the stream
+     * @param channelName the name of the stream
+     * @param shardPosition the position to start from
+     * @param fetchRecordLimit the maximum number of records fetched per request
+     * @deprecated use {@link #kinesisShardIterator(KinesisAsyncClient, String, ShardPosition, int)}
+     */
+    @Deprecated
     public KinesisShardIterator(final @Nonnull KinesisAsyncClient kinesisClient,
                                 final @Nonnull String channelName,
                                 final @Nonnull ShardPosition shardPosition,
                                 final int fetchRecordLimit) {
+        this(kinesisClient, channelName, shardPosition, fetchRecordLimit, defaultReadQuota(), LIVE, SynapseExecutor.defaultExecutor().forChannel(channelName), kinesisClient
+                .getShardIterator(buildIteratorShardRequest(channelName, shardPosition))
+                .join()
+                .shardIterator());
+    }
+
+    private KinesisShardIterator(final KinesisAsyncClient kinesisClient,
+                                 final String channelName,
+                                 final ShardPosition shardPosition,
+                                 final int fetchRecordLimit,
+                                 final KinesisReadQuota readQuota,
+                                 final Priority priority,
+                                 final ChannelExecutor executor,
+                                 final String id) {
         this.kinesisClient = kinesisClient;
         this.fetchRecordLimit = fetchRecordLimit;
-        this.retryTemplate = createRetryTemplate();
+        this.recordLimit = new KinesisRecordLimit(fetchRecordLimit);
+        this.lastRecordLimit = fetchRecordLimit;
+        this.readQuota = readQuota;
+        this.priority = priority;
+        this.executor = executor;
         this.channelName = channelName;
         this.shardPosition = shardPosition;
-        this.id = kinesisClient
-                .getShardIterator(buildIteratorShardRequest(shardPosition))
-                .join()
-                .shardIterator();
+        this.lastConsumedSubRecord = lastConsumedSubRecordOf(shardPosition).orElse(null);
+        this.id = id;
+    }
+
+    /**
+     * Creates a KinesisShardIterator without blocking the calling thread.
+     *
+     * @param kinesisClient the client used to access the stream
+     * @param channelName the name of the stream
+     * @param shardPosition the position to start from
+     * @param fetchRecordLimit the maximum number of records fetched per request
+     * @return future KinesisShardIterator
+     */
+    public static CompletableFuture<KinesisShardIterator> kinesisShardIterator(final @Nonnull KinesisAsyncClient kinesisClient,
+                                                                               final @Nonnull String channelName,
+                                                                               final @Nonnull ShardPosition shardPosition,
+                                                                               final int fetchRecordLimit) {
+        return kinesisShardIterator(kinesisClient, channelName, shardPosition, fetchRecordLimit, defaultReadQuota(), LIVE);
+    }
+
+    /**
+     * Creates a KinesisShardIterator without blocking the calling thread.
+     *
+     * @param kinesisClient the client used to access the stream
+     * @param channelName the name of the stream
+     * @param shardPosition the position to start from
+     * @param fetchRecordLimit the maximum number of records fetched per request
+     * @param readQuota the read quota shared with other readers of the shard
+     * @param priority the priority of the iterator when acquiring the read quota
+     * @return future KinesisShardIterator
+     */
+    public static CompletableFuture<KinesisShardIterator> kinesisShardIterator(final @Nonnull KinesisAsyncClient kinesisClient,
+                                                                               final @Nonnull String channelName,
+                                                                               final @Nonnull ShardPosition shardPosition,
+                                                                               final int fetchRecordLimit,
+                                                                               final @Nonnull KinesisReadQuota readQuota,
+                                                                               final @Nonnull Priority priority) {
+        return kinesisShardIterator(kinesisClient, channelName, shardPosition, fetchRecordLimit, readQuota, priority, SynapseExecutor.defaultExecutor().forChannel(channelName));
+    }
+
+    /**
+     * Creates a KinesisShardIterator without blocking the calling thread.
+     *
+     * @param kinesisClient the client used to access the stream
+     * @param channelName the name of the stream
+     * @param shardPosition the position to start from
+     * @param fetchRecordLimit the maximum number of records fetched per request
+     * @param readQuota the read quota shared with other readers of the shard
+     * @param priority the priority of the iterator when acquiring the read quota
+     * @param executor the executor of the reader, used to wait for the read quota and to back off after failures
+     * @return future KinesisShardIterator
+     */
+    public static CompletableFuture<KinesisShardIterator> kinesisShardIterator(final @Nonnull KinesisAsyncClient kinesisClient,
+                                                                               final @Nonnull String channelName,
+                                                                               final @Nonnull ShardPosition shardPosition,
+                                                                               final int fetchRecordLimit,
+                                                                               final @Nonnull KinesisReadQuota readQuota,
+                                                                               final @Nonnull Priority priority,
+                                                                               final @Nonnull ChannelExecutor executor) {
+        return call(() -> kinesisClient.getShardIterator(buildIteratorShardRequest(channelName, shardPosition)))
+                .thenApply(response -> new KinesisShardIterator(kinesisClient, channelName, shardPosition, fetchRecordLimit, readQuota, priority, executor, response.shardIterator()));
     }
 
     public String getId() {
@@ -88,6 +201,16 @@ public class KinesisShardIterator {
         return fetchRecordLimit;
     }
 
+    /**
+     * Returns the {@code limit} of the {@code GetRecords} request of the latest response. The limit is tuned from the
+     * size of the records, and is at most {@link #getFetchRecordLimit()}.
+     *
+     * @return record limit
+     */
+    public int getRecordLimit() {
+        return lastRecordLimit;
+    }
+
     /**
      * The shard iterator has returned an id that is matching {@link #POISON_SHARD_ITER}.
      * <p>
@@ -101,29 +224,189 @@ public class KinesisShardIterator {
      * @return true if the iterator is poisonous, false otherwise.
      */
     boolean isPoison() {
-        return this.id.equals(POISON_SHARD_ITER);
+        return POISON_SHARD_ITER.equals(this.id);
+    }
+
+    /**
+     * The shard was closed by a split or merge of shards, and all records of the shard have been read.
+     *
+     * @return true if there are no more records in the shard, false otherwise.
+     */
+    public boolean isClosed() {
+        return this.id == null;
     }
 
     public void stop() {
         stopSignal.set(true);
+        cancelPrefetch();
+    }
+
+    /**
+     * Asynchronously issues the {@code GetRecords} request of the next call to {@link #nextAsync()}, so the records are
+     * fetched while the current response is consumed.
+     * <p>
+     *     At most one request is prefetched. No request is issued, if the shard is closed, or if the previous
+     *     response exceeded {@link #PREFETCH_MEMORY_LIMIT_BYTES}.
+     * </p>
+     *
+     * @return true if a request was issued, false otherwise
+     */
+    public boolean prefetch() {
+        if (prefetchedResponse != null
+                || id == null
+                || isPoison()
+                || stopSignal.get()
+                || lastResponseBytes > PREFETCH_MEMORY_LIMIT_BYTES) {
+            return false;
+        }
+        prefetchStopwatch = Stopwatch.createStarted();
+        prefetchRecordLimit = recordLimit.get();
+        prefetchedResponse = getRecords(prefetchRecordLimit);
+        return true;
+    }
+
+    /**
+     * Cancels a prefetched request, if any. The next call to {@link #nextAsync()} is fetching the records again.
+     */
+    public void cancelPrefetch() {
+        final CompletableFuture<GetRecordsResponse> prefetched = this.prefetchedResponse;
+        if (prefetched != null) {
+            prefetched.cancel(false);
+            this.prefetchedResponse = null;
+        }
     }
 
+    /**
+     * Fetches the next records of the shard, blocking the calling thread until the records are received.
+     *
+     * @return KinesisShardResponse
+     * @deprecated use {@link #nextAsync()}
+     */
+    @Deprecated
     public KinesisShardResponse next() {
         try {
-            final Stopwatch stopwatch = Stopwatch.createStarted();
-            final GetRecordsResponse recordsResponse = retryTemplate.execute((RetryCallback<GetRecordsResponse, Throwable>) context -> {
-                if (stopSignal.get()) {
-                    context.setExhaustedOnly();
+            return nextAsync().join();
+        } catch (final CompletionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Fetches the next records of the shard without blocking the calling thread.
+     * <p>
+     *     Retryable failures are retried with an exponential back-off, up to {@code 16} attempts or until the
+     *     iterator is {@link #stop() stopped}. At most one call may be outstanding at a time.
+     * </p>
+     *
+     * @return future KinesisShardResponse
+     */
+    public CompletableFuture<KinesisShardResponse> nextAsync() {
+        final CompletableFuture<GetRecordsResponse> prefetched = this.prefetchedResponse;
+        final CompletableFuture<KinesisShardResponse> result = new CompletableFuture<>();
+        if (prefetched == null) {
+            fetch(result, Stopwatch.createStarted(), 1);
+        } else {
+            this.prefetchedResponse = null;
+            final Stopwatch stopwatch = this.prefetchStopwatch;
+            final int limit = this.prefetchRecordLimit;
+            prefetched.whenComplete((response, throwable) -> {
+                if (throwable == null) {
+                    // the runtime is measured from the start of the prefetch, so the read quota is still respected:
+                    complete(result, response, stopwatch, limit);
+                } else {
+                    LOG.warn("Prefetching records from shard {} failed: {}. Retrying.", shardPosition.shardName(), throwable.getMessage());
+                    fetch(result, Stopwatch.createStarted(), 1);
                 }
-                return tryNext();
             });
-            return new KinesisShardResponse(channelName, shardPosition, recordsResponse, stopwatch.elapsed(MILLISECONDS));
-        } catch (Throwable t) {
-            throw new RuntimeException(t);
+        }
+        return result;
+    }
+
+    private void fetch(final CompletableFuture<KinesisShardResponse> result,
+                       final Stopwatch stopwatch,
+                       final int attempt) {
+        final int limit = recordLimit.get();
+        getRecords(limit).whenComplete((response, throwable) -> {
+            if (throwable == null) {
+                complete(result, response, stopwatch, limit);
+                return;
+            }
+            final Throwable cause = unwrap(throwable);
+            if (stopSignal.get() || !isRetryable(cause) || attempt >= RETRY_MAX_ATTEMPTS) {
+                result.completeExceptionally(cause);
+            } else if (cause instanceof ProvisionedThroughputExceededException) {
+                // the read quota of the shard is drained, so the next call is paced by the quota instead of backing off:
+                LOG.warn("Reading from shard {} was throttled. Retrying after the read quota is refilled.", shardPosition.shardName());
+                readQuota.throttled(channelName, shardPosition.shardName());
+                recordLimit.throttled();
+                reportRecordLimit();
+                fetch(result, stopwatch, attempt + 1);
+            } else {
+                warn(
+                        LOG,
+                        ImmutableMap.of("retryCount", attempt, "errorMessage", Strings.nullToEmpty(cause.getMessage())),
+                        "fail to iterate on shard", null);
+                delay(backOff(attempt), executor).whenComplete((ignored, t) -> fetch(result, stopwatch, attempt + 1));
+            }
+        });
+    }
+
+    /**
+     * Issues a {@code GetRecords} request, as soon as the read quota of the shard is available.
+     */
+    private CompletableFuture<GetRecordsResponse> getRecords(final int limit) {
+        final String shardName = shardPosition.shardName();
+        return readQuota.acquire(channelName, shardName, priority, executor)
+                .thenCompose(ignored -> call(() -> kinesisClient.getRecords(buildGetRecordsRequest(limit))))
+                .thenApply(response -> {
+                    readQuota.consumed(channelName, shardName, bytesOf(response));
+                    return response;
+                });
+    }
+
+    private void complete(final CompletableFuture<KinesisShardResponse> result,
+                          final GetRecordsResponse response,
+                          final Stopwatch stopwatch,
+                          final int limit) {
+        try {
+            lastRecordLimit = limit;
+            apply(response);
+            result.complete(skipConsumedSubRecords(new KinesisShardResponse(channelName, shardPosition, response, stopwatch.elapsed(MILLISECONDS))));
+        } catch (final RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    private static Duration backOff(final int attempt) {
+        final double interval = RETRY_BACK_OFF_POLICY_INITIAL_INTERVAL * Math.pow(RETRY_BACK_OFF_POLICY_MULTIPLIER, attempt - 1);
+        return Duration.ofMillis((long) Math.min(interval, RETRY_BACK_OFF_POLICY_MAX_INTERVAL));
+    }
+
+    private static boolean isRetryable(final Throwable throwable) {
+        return throwable instanceof KinesisException || throwable instanceof SdkClientException;
+    }
+
+    private static Throwable unwrap(final Throwable throwable) {
+        return (throwable instanceof CompletionException || throwable instanceof ExecutionException) && throwable.getCause() != null
+                ? throwable.getCause()
+                : throwable;
+    }
+
+    /**
+     * Calls an asynchronous client method, converting exceptions thrown by the client into failed futures.
+     */
+    private static <T> CompletableFuture<T> call(final Supplier<CompletableFuture<T>> asyncCall) {
+        try {
+            return asyncCall.get();
+        } catch (final RuntimeException e) {
+            final CompletableFuture<T> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
         }
     }
 
-    private GetShardIteratorRequest buildIteratorShardRequest(final ShardPosition shardPosition) {
+    private static GetShardIteratorRequest buildIteratorShardRequest(final String channelName,
+                                                                     final ShardPosition shardPosition) {
         final GetShardIteratorRequest.Builder shardRequestBuilder = GetShardIteratorRequest
                 .builder()
                 .shardId(shardPosition.shardName())
@@ -134,12 +417,13 @@ public class KinesisShardIterator {
                 shardRequestBuilder.shardIteratorType(TRIM_HORIZON);
                 break;
             case POSITION:
-                shardRequestBuilder.shardIteratorType(AFTER_SEQUENCE_NUMBER);
-                shardRequestBuilder.startingSequenceNumber(shardPosition.position());
+                // positions in the middle of an aggregated record are resumed by reading the record again:
+                shardRequestBuilder.shardIteratorType(subSequenceNumberOf(shardPosition.position()) >= 0 ? AT_SEQUENCE_NUMBER : AFTER_SEQUENCE_NUMBER);
+                shardRequestBuilder.startingSequenceNumber(sequenceNumberOf(shardPosition.position()));
                 break;
             case AT_POSITION:
                 shardRequestBuilder.shardIteratorType(AT_SEQUENCE_NUMBER);
-                shardRequestBuilder.startingSequenceNumber(shardPosition.position());
+                shardRequestBuilder.startingSequenceNumber(sequenceNumberOf(shardPosition.position()));
                 break;
             case TIMESTAMP:
                 shardRequestBuilder
@@ -150,12 +434,23 @@ public class KinesisShardIterator {
         return shardRequestBuilder.build();
     }
 
-    private GetRecordsResponse tryNext() {
-        GetRecordsResponse response = kinesisClient.getRecords(GetRecordsRequest.builder()
+    private KinesisShardResponse skipConsumedSubRecords(final KinesisShardResponse response) {
+        if (lastConsumedSubRecord == null || response.getMessages().isEmpty()) {
+            return response;
+        }
+        final ShardPosition lastConsumed = this.lastConsumedSubRecord;
+        this.lastConsumedSubRecord = null;
+        return response.withoutAggregatedMessagesUntil(lastConsumed);
+    }
+
+    private GetRecordsRequest buildGetRecordsRequest(final int limit) {
+        return GetRecordsRequest.builder()
                 .shardIterator(id)
-                .limit(fetchRecordLimit)
-                .build())
-                .join();
+                .limit(limit)
+                .build();
+    }
+
+    private void apply(final GetRecordsResponse response) {
         this.id = response.nextShardIterator();
         LOG.debug("next() with id " + this.id + " returned " + response.records().size() + " records");
         if (!response.records().isEmpty()) {
@@ -164,37 +459,21 @@ public class KinesisShardIterator {
                     response.records().get(response.records().size()-1).sequenceNumber()
             );
         }
-        return response;
+        this.lastResponseBytes = bytesOf(response);
+        recordLimit.responded(response.records().size(), lastResponseBytes);
+        reportRecordLimit();
     }
 
-    private RetryTemplate createRetryTemplate() {
-        SimpleRetryPolicy retryPolicy = new SimpleRetryPolicy(
-                RETRY_MAX_ATTEMPTS,
-                ImmutableMap.of(KinesisException.class, true,
-                        SdkClientException.class, true));
-
-        ExponentialBackOffPolicy backOffPolicy = new ExponentialBackOffPolicy();
-        backOffPolicy.setInitialInterval(RETRY_BACK_OFF_POLICY_INITIAL_INTERVAL);
-        backOffPolicy.setMaxInterval(RETRY_BACK_OFF_POLICY_MAX_INTERVAL);
-        backOffPolicy.setMultiplier(RETRY_BACK_OFF_POLICY_MULTIPLIER);
-
-        RetryTemplate template = new RetryTemplate();
-        template.registerListener(new LogRetryListener());
-        template.setRetryPolicy(retryPolicy);
-        template.setBackOffPolicy(backOffPolicy);
-
-        return template;
+    private void reportRecordLimit() {
+        readQuota.recordLimit(channelName, shardPosition.shardName(), recordLimit.get(), recordLimit.getAverageRecordBytes());
     }
 
-    class LogRetryListener extends RetryListenerSupport {
-        @Override
-        public <T, E extends Throwable> void onError(RetryContext context, RetryCallback<T, E> callback, Throwable t) {
-
-            warn(
-                    LOG,
-                    ImmutableMap.of("retryCount", context.getRetryCount(), "errorMessage", Strings.nullToEmpty(t.getMessage())),
-                    "fail to iterate on shard", null);
-        }
+    private static long bytesOf(final GetRecordsResponse response) {
+        return response.records()
+                .stream()
+                .filter(record -> record.data() != null)
+                .mapToLong(record -> record.data().asByteBuffer().remaining())
+                .sum();
     }
 
 }
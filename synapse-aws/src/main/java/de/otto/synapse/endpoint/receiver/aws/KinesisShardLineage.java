@@ -0,0 +1,108 @@
+package de.otto.synapse.endpoint.receiver.aws;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import de.otto.synapse.channel.ChannelPosition;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+/**
+ * The parent-child relationships of the shards of a Kinesis stream, as a result of splitting or merging shards.
+ * <p>
+ *     Records with the same partition key may be contained in a parent shard and its children. To keep the order of
+ *     these records, a shard must not be consumed before all of its parents are drained.
+ * </p>
+ */
+class KinesisShardLineage {
+
+    private final Map<String, KinesisShardInfo> shards = new LinkedHashMap<>();
+
+    KinesisShardLineage(final @Nonnull KinesisStreamInfo streamInfo) {
+        streamInfo.getShardInfo().forEach(shard -> shards.put(shard.getShardName(), shard));
+    }
+
+    /**
+     * Returns the names of all shards of the stream, in the order returned by Kinesis.
+     *
+     * @return list of shard names
+     */
+    @Nonnull
+    ImmutableList<String> getShardNames() {
+        return ImmutableList.copyOf(shards.keySet());
+    }
+
+    /**
+     * Returns the names of the closed shards that were already drained, before consumption was started at the
+     * given position.
+     * <p>
+     *     A closed shard is drained, if the position is already containing one of its descendants: children are only
+     *     consumed after their parents were drained. Positions of earlier versions only contained open shards, so
+     *     closed parents of these shards are drained as well.
+     * </p>
+     *
+     * @param startFrom the position where the consumption is started
+     * @return set of shard names
+     */
+    @Nonnull
+    ImmutableSet<String> drainedShards(final @Nonnull ChannelPosition startFrom) {
+        final Set<String> drained = new HashSet<>();
+        startFrom.shards().forEach(shardName -> drained.addAll(ancestorsOf(shardName)));
+        return shards.values()
+                .stream()
+                .filter(shard -> !shard.isOpen())
+                .map(KinesisShardInfo::getShardName)
+                .filter(drained::contains)
+                .collect(ImmutableSet.toImmutableSet());
+    }
+
+    /**
+     * Returns the names of the shards that are ready to be consumed: all parents of the shard are drained, or no
+     * longer known to Kinesis because the retention period has expired.
+     *
+     * @param finished the names of the drained shards
+     * @param started the names of the shards already being consumed
+     * @return list of shard names
+     */
+    @Nonnull
+    ImmutableList<String> readyShards(final @Nonnull Collection<String> finished,
+                                      final @Nonnull Collection<String> started) {
+        return shards.values()
+                .stream()
+                .filter(shard -> !finished.contains(shard.getShardName()) && !started.contains(shard.getShardName()))
+                .filter(shard -> parentsOf(shard).allMatch(parent -> finished.contains(parent) || !shards.containsKey(parent)))
+                .map(KinesisShardInfo::getShardName)
+                .collect(toImmutableList());
+    }
+
+    private Set<String> ancestorsOf(final String shardName) {
+        final Set<String> ancestors = new HashSet<>();
+        final Deque<String> pending = new ArrayDeque<>();
+        pending.add(shardName);
+        while (!pending.isEmpty()) {
+            final KinesisShardInfo shard = shards.get(pending.poll());
+            if (shard != null) {
+                parentsOf(shard)
+                        .filter(ancestors::add)
+                        .forEach(pending::add);
+            }
+        }
+        return ancestors;
+    }
+
+    private static Stream<String> parentsOf(final KinesisShardInfo shard) {
+        return Stream.of(shard.getParentShardName(), shard.getAdjacentParentShardName())
+                .filter(Optional::isPresent)
+                .map(Optional::get);
+    }
+}
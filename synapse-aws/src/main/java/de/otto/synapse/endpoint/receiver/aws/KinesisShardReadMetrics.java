@@ -0,0 +1,98 @@
+package de.otto.synapse.endpoint.receiver.aws;
+
+import javax.annotation.concurrent.Immutable;
+import java.util.Objects;
+
+/**
+ * Metrics about the reads of a Kinesis shard, collected by the {@link KinesisReadQuota}.
+ */
+@Immutable
+public final class KinesisShardReadMetrics {
+
+    private final String channelName;
+    private final String shardName;
+    private final int recordLimit;
+    private final long averageRecordBytes;
+    private final long lastResponseBytes;
+    private final long throttledCalls;
+
+    public KinesisShardReadMetrics(final String channelName,
+                                   final String shardName,
+                                   final int recordLimit,
+                                   final long averageRecordBytes,
+                                   final long lastResponseBytes,
+                                   final long throttledCalls) {
+        this.channelName = channelName;
+        this.shardName = shardName;
+        this.recordLimit = recordLimit;
+        this.averageRecordBytes = averageRecordBytes;
+        this.lastResponseBytes = lastResponseBytes;
+        this.throttledCalls = throttledCalls;
+    }
+
+    public String getChannelName() {
+        return channelName;
+    }
+
+    public String getShardName() {
+        return shardName;
+    }
+
+    /**
+     * @return the {@code limit} of the latest {@code GetRecords} request, or 0 if not yet known
+     */
+    public int getRecordLimit() {
+        return recordLimit;
+    }
+
+    /**
+     * @return the moving average of the size of the records in bytes
+     */
+    public long getAverageRecordBytes() {
+        return averageRecordBytes;
+    }
+
+    /**
+     * @return the size of the records of the latest response in bytes
+     */
+    public long getLastResponseBytes() {
+        return lastResponseBytes;
+    }
+
+    /**
+     * @return the total number of calls throttled by Kinesis
+     */
+    public long getThrottledCalls() {
+        return throttledCalls;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        final KinesisShardReadMetrics that = (KinesisShardReadMetrics) o;
+        return recordLimit == that.recordLimit &&
+                averageRecordBytes == that.averageRecordBytes &&
+                lastResponseBytes == that.lastResponseBytes &&
+                throttledCalls == that.throttledCalls &&
+                Objects.equals(channelName, that.channelName) &&
+                Objects.equals(shardName, that.shardName);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(channelName, shardName, recordLimit, averageRecordBytes, lastResponseBytes, throttledCalls);
+    }
+
+    @Override
+    public String toString() {
+        return "KinesisShardReadMetrics{" +
+                "channelName='" + channelName + '\'' +
+                ", shardName='" + shardName + '\'' +
+                ", recordLimit=" + recordLimit +
+                ", averageRecordBytes=" + averageRecordBytes +
+                ", lastResponseBytes=" + lastResponseBytes +
+                ", throttledCalls=" + throttledCalls +
+                '}';
+    }
+}
@@ -1,6 +1,8 @@
 package de.otto.synapse.endpoint.receiver.aws;
 
 import de.otto.synapse.channel.ShardPosition;
+import de.otto.synapse.endpoint.receiver.aws.KinesisReadQuota.Priority;
+import de.otto.synapse.executor.ChannelExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
@@ -8,12 +10,19 @@ import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
 
 import javax.annotation.concurrent.ThreadSafe;
 import java.time.Clock;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 
+import static de.otto.synapse.endpoint.receiver.aws.KinesisReadQuota.Priority.LIVE;
+import static de.otto.synapse.endpoint.receiver.aws.KinesisReadQuota.defaultReadQuota;
+import static de.otto.synapse.endpoint.receiver.aws.KinesisShardIterator.FETCH_RECORDS_LIMIT;
+import static de.otto.synapse.endpoint.receiver.aws.KinesisShardIterator.kinesisShardIterator;
+
 /**
  * @deprecated to be removed soon
  */
@@ -24,20 +33,36 @@ public class KinesisShardReader {
     private final String shardName;
     private final String channelName;
     private final KinesisAsyncClient kinesisClient;
-    private final ExecutorService executorService;
+    private final ChannelExecutor executorService;
     private final Clock clock;
+    private final KinesisReadQuota readQuota;
+    private final Priority priority;
     private final AtomicBoolean stopSignal = new AtomicBoolean(false);
+    private final AtomicBoolean shardClosed = new AtomicBoolean(false);
+    private volatile CompletableFuture<Void> pendingDelay;
 
     public KinesisShardReader(final String channelName,
                               final String shardName,
                               final KinesisAsyncClient kinesisClient,
-                              final ExecutorService executorService,
+                              final ChannelExecutor executorService,
                               final Clock clock) {
+        this(channelName, shardName, kinesisClient, executorService, clock, defaultReadQuota(), LIVE);
+    }
+
+    public KinesisShardReader(final String channelName,
+                              final String shardName,
+                              final KinesisAsyncClient kinesisClient,
+                              final ChannelExecutor executorService,
+                              final Clock clock,
+                              final KinesisReadQuota readQuota,
+                              final Priority priority) {
         this.shardName = shardName;
         this.channelName = channelName;
         this.kinesisClient = kinesisClient;
         this.executorService = executorService;
         this.clock = clock;
+        this.readQuota = readQuota;
+        this.priority = priority;
     }
 
     public String getChannelName() {
@@ -48,64 +73,188 @@ public class KinesisShardReader {
         return shardName;
     }
 
+    /**
+     * Consumes the shard until the given instant, the shard is closed, or the reader is stopped.
+     * <p>
+     *     The shard is read without blocking a thread while waiting for responses, or for the next poll. Only the
+     *     consumption of responses is executed by the {@code executorService}.
+     * </p>
+     *
+     * @param startFrom the position to start from
+     * @param until the instant after which the consumption is finished
+     * @param responseConsumer the consumer of the responses
+     * @return future position of the last consumed record
+     */
     public CompletableFuture<ShardPosition> consumeUntil(final ShardPosition startFrom,
                                                          final Instant until,
                                                          final Consumer<KinesisShardResponse> responseConsumer) {
-
-        return CompletableFuture.supplyAsync(() -> {
-            MDC.put("channelName", channelName);
-            MDC.put("shardName", shardName);
-            LOG.info("Reading from channel={}, shard={}, position={}", channelName, shardName, startFrom);
-            try {
-                final KinesisShardIterator kinesisShardIterator = new KinesisShardIterator(kinesisClient, channelName, startFrom);
-                boolean stopRetrieval;
-                do {
-                /*
-                Poison-Pill injected by a test. This is helpful, if you want to write tests that should terminate
-                after a number of iterated shards.
-                 */
-                    if (kinesisShardIterator.isPoison()) {
-                        LOG.warn("Received Poison-Pill - This should only happen during tests!");
-                        break;
-                    }
-
-                    final KinesisShardResponse response = kinesisShardIterator.next();
-                    responseConsumer.accept(response);
-
-                    stopRetrieval = !until.isAfter(Instant.now(clock)) || isStopping() || waitABit();
-
-                } while (!stopRetrieval);
-                return kinesisShardIterator.getShardPosition();
-
-            } catch (final RuntimeException e) {
-                LOG.error("Failed to consume from Kinesis shard {}: {}", channelName, shardName, e.getMessage());
-                // Stop all shards and shutdown if this shard is failing:
-                stop();
-                throw e;
-            } finally {
-                MDC.remove("channelName");
-                MDC.remove("shardName");
+        final CompletableFuture<ShardPosition> result = new CompletableFuture<>();
+        LOG.info("Reading from channel={}, shard={}, position={}", channelName, shardName, startFrom);
+        kinesisShardIterator(kinesisClient, channelName, startFrom, FETCH_RECORDS_LIMIT, readQuota, priority, executorService).whenComplete((iterator, throwable) -> {
+            if (throwable != null) {
+                fail(result, null, throwable);
+            } else {
+                new ShardConsumption(iterator, until, responseConsumer, result).poll();
             }
-        }, executorService);
-    }
-
-    private boolean waitABit() {
-        try {
-            /*Wait one second as documented by amazon: https://docs.aws.amazon.com/kinesis/latest/APIReference/API_GetRecords.html*/
-            Thread.sleep(1000);
-        } catch (InterruptedException e) {
-            LOG.warn("Thread got interrupted");
-            return true;
-        }
-        return false;
+        });
+        return result;
     }
 
     public void stop() {
         LOG.info("Shard {} received stop signal.", shardName);
         stopSignal.set(true);
+        final CompletableFuture<Void> delay = this.pendingDelay;
+        if (delay != null) {
+            delay.cancel(false);
+        }
     }
 
     public boolean isStopping() {
         return stopSignal.get();
     }
+
+    /**
+     * Returns true, if the shard was closed by a split or merge of shards, and all records of the shard were
+     * consumed.
+     *
+     * @return boolean
+     */
+    public boolean isShardClosed() {
+        return shardClosed.get();
+    }
+
+    private void fail(final CompletableFuture<ShardPosition> result,
+                      final KinesisShardIterator iterator,
+                      final Throwable throwable) {
+        final Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+                ? throwable.getCause()
+                : throwable;
+        LOG.error("Failed to consume from Kinesis shard {} of channel {}: {}", shardName, channelName, cause.getMessage());
+        // Stop all shards and shutdown if this shard is failing:
+        stop();
+        if (iterator != null) {
+            iterator.cancelPrefetch();
+        }
+        result.completeExceptionally(cause);
+    }
+
+    /**
+     * The state of a single call to {@link #consumeUntil(ShardPosition, Instant, Consumer)}.
+     * <p>
+     *     Every step is either waiting for a future without blocking, or dispatched to the executor, so at most one
+     *     step is running at a time.
+     * </p>
+     */
+    private final class ShardConsumption {
+        private final KinesisShardIterator iterator;
+        private final Instant until;
+        private final Consumer<KinesisShardResponse> responseConsumer;
+        private final CompletableFuture<ShardPosition> result;
+        private final KinesisPollScheduler pollScheduler = new KinesisPollScheduler();
+
+        private ShardConsumption(final KinesisShardIterator iterator,
+                                 final Instant until,
+                                 final Consumer<KinesisShardResponse> responseConsumer,
+                                 final CompletableFuture<ShardPosition> result) {
+            this.iterator = iterator;
+            this.until = until;
+            this.responseConsumer = responseConsumer;
+            this.result = result;
+        }
+
+        private void poll() {
+            /*
+            Poison-Pill injected by a test. This is helpful, if you want to write tests that should terminate
+            after a number of iterated shards.
+             */
+            if (iterator.isPoison()) {
+                LOG.warn("Received Poison-Pill - This should only happen during tests!");
+                finish();
+                return;
+            }
+            iterator.nextAsync().whenComplete((response, throwable) -> {
+                if (throwable != null) {
+                    fail(result, iterator, throwable);
+                } else {
+                    dispatch(() -> consume(response));
+                }
+            });
+        }
+
+        private void consume(final KinesisShardResponse response) {
+            if (iterator.isClosed()) {
+                LOG.info("Shard {} of channel {} is closed and all records are consumed.", shardName, channelName);
+                shardClosed.set(true);
+                responseConsumer.accept(response);
+                finish();
+                return;
+            }
+            final Duration delay = pollScheduler.delayAfter(response, iterator.getRecordLimit());
+            if (pollScheduler.isCatchingUp()) {
+                // fetch the next records while the current response is consumed:
+                waitFor(delay, () -> {
+                    if (!isStopping()) {
+                        iterator.prefetch();
+                    }
+                    responseConsumer.accept(response);
+                    continueOrFinish();
+                });
+            } else {
+                responseConsumer.accept(response);
+                if (isFinished()) {
+                    finish();
+                } else {
+                    waitFor(delay, this::continueOrFinish);
+                }
+            }
+        }
+
+        private void continueOrFinish() {
+            if (isFinished()) {
+                finish();
+            } else {
+                poll();
+            }
+        }
+
+        private boolean isFinished() {
+            return !until.isAfter(Instant.now(clock)) || isStopping();
+        }
+
+        /*Respect the read quota documented by amazon: https://docs.aws.amazon.com/kinesis/latest/APIReference/API_GetRecords.html*/
+        private void waitFor(final Duration delay, final Runnable next) {
+            final CompletableFuture<Void> delayed = AsyncDelay.delay(delay, executorService);
+            pendingDelay = delayed;
+            if (isStopping()) {
+                delayed.cancel(false);
+            }
+            delayed.whenComplete((ignored, throwable) -> dispatch(next));
+        }
+
+        private void dispatch(final Runnable step) {
+            try {
+                executorService.execute(() -> {
+                    MDC.put("channelName", channelName);
+                    MDC.put("shardName", shardName);
+                    try {
+                        step.run();
+                    } catch (final RuntimeException e) {
+                        fail(result, iterator, e);
+                    } finally {
+                        MDC.remove("channelName");
+                        MDC.remove("shardName");
+                    }
+                });
+            } catch (final RejectedExecutionException e) {
+                LOG.warn("Executor of shard {} was shut down. Stopped consumption.", shardName);
+                finish();
+            }
+        }
+
+        private void finish() {
+            pendingDelay = null;
+            iterator.cancelPrefetch();
+            result.complete(iterator.getShardPosition());
+        }
+    }
 }
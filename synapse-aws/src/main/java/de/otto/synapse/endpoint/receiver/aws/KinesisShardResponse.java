@@ -3,12 +3,15 @@ package de.otto.synapse.endpoint.receiver.aws;
 import de.otto.synapse.channel.ShardPosition;
 import de.otto.synapse.message.Message;
 import software.amazon.awssdk.services.kinesis.model.GetRecordsResponse;
+import software.amazon.awssdk.services.kinesis.model.Record;
 
 import java.time.Duration;
 import java.util.List;
 import java.util.Objects;
 
-import static de.otto.synapse.message.aws.KinesisMessage.kinesisMessage;
+import static de.otto.synapse.message.aws.KinesisMessage.kinesisMessages;
+import static de.otto.synapse.message.aws.KinesisRecordAggregation.sequenceNumberOf;
+import static de.otto.synapse.message.aws.KinesisRecordAggregation.subSequenceNumberOf;
 import static java.time.Duration.ofMillis;
 import static java.util.stream.Collectors.toList;
 
@@ -18,19 +21,70 @@ public class KinesisShardResponse {
     private final long runtime;
     private final ShardPosition shardPosition;
     private final List<Message<String>> messages;
+    private final int numberOfRecords;
 
     public KinesisShardResponse(final String channelName,
                                 final ShardPosition shardPosition,
                                 final GetRecordsResponse recordsResponse,
                                 final long runtime) {
+        this(channelName, shardPosition, ofMillis(recordsResponse.millisBehindLatest()), recordsResponse.records(), runtime);
+    }
+
+    public KinesisShardResponse(final String channelName,
+                                final ShardPosition shardPosition,
+                                final Duration durationBehind,
+                                final List<Record> records,
+                                final long runtime) {
+        this(channelName, shardPosition, durationBehind, runtime, records
+                .stream()
+                .flatMap(record -> kinesisMessages(shardPosition.shardName(), record).stream())
+                .collect(toList()), records.size());
+    }
+
+    private KinesisShardResponse(final String channelName,
+                                 final ShardPosition shardPosition,
+                                 final Duration durationBehind,
+                                 final long runtime,
+                                 final List<Message<String>> messages,
+                                 final int numberOfRecords) {
         this.channelName = channelName;
         this.shardPosition = shardPosition;
         this.runtime = runtime;
-        this.durationBehind = ofMillis(recordsResponse.millisBehindLatest());
-        this.messages = recordsResponse.records()
+        this.durationBehind = durationBehind;
+        this.messages = messages;
+        this.numberOfRecords = numberOfRecords;
+    }
+
+    /**
+     * Returns a copy of this response without the messages of an aggregated record, that are located at or before
+     * the given position in the middle of the aggregated record.
+     *
+     * @param position the position of the last consumed message of an aggregated record
+     * @return KinesisShardResponse
+     */
+    KinesisShardResponse withoutAggregatedMessagesUntil(final ShardPosition position) {
+        final String sequenceNumber = sequenceNumberOf(position.position());
+        final int subSequenceNumber = subSequenceNumberOf(position.position());
+        return new KinesisShardResponse(channelName, shardPosition, durationBehind, runtime, messages
                 .stream()
-                .map(record -> kinesisMessage(shardPosition.shardName(), record))
-                .collect(toList());
+                .filter(message -> !message.getHeader().getShardPosition()
+                        .map(ShardPosition::position)
+                        .filter(messagePosition -> sequenceNumberOf(messagePosition).equals(sequenceNumber))
+                        .map(messagePosition -> subSequenceNumberOf(messagePosition))
+                        .filter(subSequence -> subSequence >= 0 && subSequence <= subSequenceNumber)
+                        .isPresent())
+                .collect(toList()), numberOfRecords);
+    }
+
+    /**
+     * Returns a copy of this response with the given messages and position.
+     *
+     * @param messages the messages of the copy
+     * @param shardPosition the position of the last message
+     * @return KinesisShardResponse
+     */
+    KinesisShardResponse withMessages(final List<Message<String>> messages, final ShardPosition shardPosition) {
+        return new KinesisShardResponse(channelName, shardPosition, durationBehind, runtime, messages, numberOfRecords);
     }
 
     public String getChannelName() {
@@ -57,12 +111,23 @@ public class KinesisShardResponse {
         return messages;
     }
 
+    /**
+     * Returns the number of Kinesis records returned by the {@code GetRecords} call. Aggregated records are counted
+     * once, so the number may be lower than the number of {@link #getMessages() messages}.
+     *
+     * @return number of records
+     */
+    public int getNumberOfRecords() {
+        return numberOfRecords;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         KinesisShardResponse response = (KinesisShardResponse) o;
         return runtime == response.runtime &&
+                numberOfRecords == response.numberOfRecords &&
                 Objects.equals(channelName, response.channelName) &&
                 Objects.equals(durationBehind, response.durationBehind) &&
                 Objects.equals(shardPosition, response.shardPosition) &&
@@ -72,7 +137,7 @@ public class KinesisShardResponse {
     @Override
     public int hashCode() {
 
-        return Objects.hash(channelName, durationBehind, runtime, shardPosition, messages);
+        return Objects.hash(channelName, durationBehind, runtime, shardPosition, messages, numberOfRecords);
     }
 
     @Override
@@ -83,6 +148,7 @@ public class KinesisShardResponse {
                 ", runtime=" + runtime +
                 ", shardPosition=" + shardPosition +
                 ", messages=" + messages +
+                ", numberOfRecords=" + numberOfRecords +
                 '}';
     }
 }
@@ -0,0 +1,57 @@
+package de.otto.synapse.endpoint.receiver.aws;
+
+import de.otto.synapse.channel.ChannelDurationBehind;
+import de.otto.synapse.consumer.MessageDispatcher;
+import de.otto.synapse.endpoint.InterceptorChain;
+import de.otto.synapse.message.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import static de.otto.synapse.channel.ChannelDurationBehind.copyOf;
+import static de.otto.synapse.channel.ChannelDurationBehind.unknown;
+
+/**
+ * Consumes the {@link KinesisShardResponse responses} of the shards of a Kinesis stream: messages are intercepted and
+ * dispatched, and the {@link ChannelDurationBehind} of the channel is published after every response.
+ */
+class KinesisShardResponseConsumer implements Consumer<KinesisShardResponse> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(KinesisShardResponseConsumer.class);
+
+    private final AtomicReference<ChannelDurationBehind> channelDurationBehind = new AtomicReference<>();
+    private final InterceptorChain interceptorChain;
+    private final MessageDispatcher messageDispatcher;
+    private final Consumer<ChannelDurationBehind> durationBehindPublisher;
+
+    KinesisShardResponseConsumer(final List<String> shardNames,
+                                 final InterceptorChain interceptorChain,
+                                 final MessageDispatcher messageDispatcher,
+                                 final Consumer<ChannelDurationBehind> durationBehindPublisher) {
+        this.interceptorChain = interceptorChain;
+        this.messageDispatcher = messageDispatcher;
+        this.durationBehindPublisher = durationBehindPublisher;
+        channelDurationBehind.set(unknown(shardNames));
+    }
+
+    @Override
+    public void accept(KinesisShardResponse response) {
+        response.getMessages().forEach(message -> {
+            try {
+                final Message<String> interceptedMessage = interceptorChain.intercept(message);
+                if (interceptedMessage != null) {
+                    messageDispatcher.accept(message);
+                }
+            } catch (final Exception e) {
+                LOG.error("Error processing message: " + e.getMessage(), e);
+            }
+        });
+        durationBehindPublisher.accept(channelDurationBehind.updateAndGet(behind -> copyOf(behind)
+                .with(response.getShardName(), response.getDurationBehind())
+                .build()));
+    }
+
+}
@@ -0,0 +1,505 @@
+package de.otto.synapse.endpoint.receiver.aws;
+
+import de.otto.synapse.channel.ShardPosition;
+import de.otto.synapse.executor.ChannelExecutor;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.MDC;
+import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
+import software.amazon.awssdk.services.kinesis.model.InvalidArgumentException;
+import software.amazon.awssdk.services.kinesis.model.Record;
+import software.amazon.awssdk.services.kinesis.model.ResourceNotFoundException;
+import software.amazon.awssdk.services.kinesis.model.StartingPosition;
+import software.amazon.awssdk.services.kinesis.model.SubscribeToShardEvent;
+import software.amazon.awssdk.services.kinesis.model.SubscribeToShardEventStream;
+import software.amazon.awssdk.services.kinesis.model.SubscribeToShardRequest;
+import software.amazon.awssdk.services.kinesis.model.SubscribeToShardResponseHandler;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import static de.otto.synapse.channel.ShardPosition.fromPosition;
+import static de.otto.synapse.message.aws.KinesisRecordAggregation.lastConsumedSubRecordOf;
+import static de.otto.synapse.message.aws.KinesisRecordAggregation.sequenceNumberOf;
+import static de.otto.synapse.message.aws.KinesisRecordAggregation.subSequenceNumberOf;
+import static java.lang.Math.min;
+import static java.time.Duration.ofMillis;
+import static org.slf4j.LoggerFactory.getLogger;
+import static software.amazon.awssdk.services.kinesis.model.ShardIteratorType.AFTER_SEQUENCE_NUMBER;
+import static software.amazon.awssdk.services.kinesis.model.ShardIteratorType.AT_SEQUENCE_NUMBER;
+import static software.amazon.awssdk.services.kinesis.model.ShardIteratorType.AT_TIMESTAMP;
+import static software.amazon.awssdk.services.kinesis.model.ShardIteratorType.TRIM_HORIZON;
+
+/**
+ * Consumes a single shard of a Kinesis stream using an enhanced fan-out consumer.
+ * <p>
+ *     Records are pushed by Kinesis using {@link KinesisAsyncClient#subscribeToShard}, so there is no need to poll
+ *     the shard. A subscription is terminated by Kinesis after five minutes; the shard is subscribed again at the
+ *     last continuation sequence number, until the {@code until} timestamp is reached, the shard is closed, or the
+ *     subscription is {@link #stop() stopped}.
+ * </p>
+ * <p>
+ *     The consumption is driven by the callbacks of the subscription, so no thread is blocked while waiting for
+ *     events. Only the consumption of events is executed by the {@code executor}. The next event of a subscription is
+ *     requested after the previous event was consumed, so the consumer is never overwhelmed by the stream. Failed
+ *     subscriptions are retried after an exponential back-off, that is awaited using an {@link AsyncDelay}.
+ * </p>
+ */
+@ThreadSafe
+public class KinesisShardSubscription {
+
+    private static final Logger LOG = getLogger(KinesisShardSubscription.class);
+
+    private static final Object COMPLETED = new Object();
+    private static final int MAX_RETRIES = 8;
+    private static final long INITIAL_BACK_OFF_MILLIS = 1000;
+    private static final long MAX_BACK_OFF_MILLIS = 30000;
+
+    private final KinesisAsyncClient kinesisClient;
+    private final String channelName;
+    private final String consumerArn;
+    private final String shardName;
+    private final ChannelExecutor executor;
+    private final Clock clock;
+    private final Duration pollInterval;
+    private final AtomicBoolean stopSignal = new AtomicBoolean(false);
+    private final AtomicBoolean shardClosed = new AtomicBoolean(false);
+    private volatile ShardConsumption currentConsumption;
+
+    public KinesisShardSubscription(final @Nonnull KinesisAsyncClient kinesisClient,
+                                    final @Nonnull String channelName,
+                                    final @Nonnull String consumerArn,
+                                    final @Nonnull String shardName,
+                                    final @Nonnull ChannelExecutor executor,
+                                    final @Nonnull Clock clock) {
+        this(kinesisClient, channelName, consumerArn, shardName, executor, clock, Duration.ofSeconds(1));
+    }
+
+    /**
+     * @param pollInterval the interval in which the {@code until} timestamp is checked while no events are received
+     */
+    KinesisShardSubscription(final KinesisAsyncClient kinesisClient,
+                             final String channelName,
+                             final String consumerArn,
+                             final String shardName,
+                             final ChannelExecutor executor,
+                             final Clock clock,
+                             final Duration pollInterval) {
+        this.kinesisClient = kinesisClient;
+        this.channelName = channelName;
+        this.consumerArn = consumerArn;
+        this.shardName = shardName;
+        this.executor = executor;
+        this.clock = clock;
+        this.pollInterval = pollInterval;
+    }
+
+    public String getShardName() {
+        return shardName;
+    }
+
+    /**
+     * Consumes the shard, starting at the given position, until the {@code until} timestamp is reached, the shard
+     * is closed, or the subscription is stopped.
+     *
+     * @param startFrom the position to start from
+     * @param until the arrival timestamp until which the shard is consumed
+     * @param responseConsumer the consumer of the responses
+     * @return future position of the last consumed record
+     */
+    public CompletableFuture<ShardPosition> consumeUntil(final @Nonnull ShardPosition startFrom,
+                                                         final @Nonnull Instant until,
+                                                         final @Nonnull Consumer<KinesisShardResponse> responseConsumer) {
+        LOG.info("Subscribing to channel={}, shard={}, position={}", channelName, shardName, startFrom);
+        final ShardConsumption consumption = new ShardConsumption(startFrom, until, responseConsumer);
+        this.currentConsumption = consumption;
+        consumption.start();
+        return consumption.result;
+    }
+
+    public void stop() {
+        LOG.info("Shard {} received stop signal.", shardName);
+        stopSignal.set(true);
+        final ShardConsumption consumption = this.currentConsumption;
+        if (consumption != null) {
+            consumption.finishIfIdle();
+        }
+    }
+
+    public boolean isStopping() {
+        return stopSignal.get();
+    }
+
+    /**
+     * Returns true, if the shard was closed by a split or merge of shards, and all records of the shard were
+     * consumed.
+     *
+     * @return boolean
+     */
+    public boolean isShardClosed() {
+        return shardClosed.get();
+    }
+
+    private StartingPosition startingPositionOf(final ShardPosition shardPosition) {
+        final StartingPosition.Builder builder = StartingPosition.builder();
+        switch (shardPosition.startFrom()) {
+            case HORIZON:
+                builder.type(TRIM_HORIZON);
+                break;
+            case POSITION:
+                // positions in the middle of an aggregated record are resumed by reading the record again:
+                builder.type(subSequenceNumberOf(shardPosition.position()) >= 0 ? AT_SEQUENCE_NUMBER : AFTER_SEQUENCE_NUMBER)
+                        .sequenceNumber(sequenceNumberOf(shardPosition.position()));
+                break;
+            case AT_POSITION:
+                builder.type(AT_SEQUENCE_NUMBER).sequenceNumber(sequenceNumberOf(shardPosition.position()));
+                break;
+            case TIMESTAMP:
+                builder.type(AT_TIMESTAMP).timestamp(shardPosition.timestamp());
+                break;
+        }
+        return builder.build();
+    }
+
+    private static Throwable unwrap(final Throwable throwable) {
+        return throwable instanceof CompletionException && throwable.getCause() != null
+                ? throwable.getCause()
+                : throwable;
+    }
+
+    private static boolean isRetryable(final Throwable throwable) {
+        return !(throwable instanceof ResourceNotFoundException || throwable instanceof InvalidArgumentException);
+    }
+
+    private static Duration backOffOf(final int failures) {
+        return ofMillis(min(INITIAL_BACK_OFF_MILLIS << (failures - 1), MAX_BACK_OFF_MILLIS));
+    }
+
+    /**
+     * The state of a single call to {@link #consumeUntil(ShardPosition, Instant, Consumer)}.
+     * <p>
+     *     At most one event is consumed at a time: the next event is only requested after the previous event was
+     *     consumed, and a terminated subscription is only replaced after the event in progress was consumed.
+     * </p>
+     */
+    private final class ShardConsumption {
+        private final Instant until;
+        private final Consumer<KinesisShardResponse> responseConsumer;
+        private final CompletableFuture<ShardPosition> result = new CompletableFuture<>();
+        private ShardPosition position;
+        private ShardPosition lastConsumedSubRecord;
+        private ShardSubscriber subscriber;
+        private boolean consuming = false;
+        private int failures = 0;
+        private volatile CompletableFuture<Void> tick;
+
+        private ShardConsumption(final ShardPosition startFrom,
+                                 final Instant until,
+                                 final Consumer<KinesisShardResponse> responseConsumer) {
+            this.until = until;
+            this.responseConsumer = responseConsumer;
+            this.position = startFrom;
+            this.lastConsumedSubRecord = lastConsumedSubRecordOf(startFrom).orElse(null);
+        }
+
+        private void start() {
+            if (isFinished()) {
+                finish();
+                return;
+            }
+            scheduleTick();
+            subscribe(Duration.ZERO);
+        }
+
+        /**
+         * Checks the {@code until} timestamp and the stop signal every {@code pollInterval}, as there may be no
+         * events if the stream is idle.
+         */
+        private void scheduleTick() {
+            final CompletableFuture<Void> tick = AsyncDelay.delay(pollInterval, executor);
+            this.tick = tick;
+            tick.thenRun(() -> {
+                if (!result.isDone()) {
+                    if (isFinished()) {
+                        finishIfIdle();
+                    } else {
+                        scheduleTick();
+                    }
+                }
+            });
+        }
+
+        private void subscribe(final Duration backOff) {
+            final ShardSubscriber subscriber;
+            final SubscribeToShardRequest request;
+            synchronized (this) {
+                if (result.isDone()) {
+                    return;
+                }
+                subscriber = new ShardSubscriber(this, AsyncDelay.delay(backOff, executor));
+                this.subscriber = subscriber;
+                request = SubscribeToShardRequest.builder()
+                        .consumerARN(consumerArn)
+                        .shardId(shardName)
+                        .startingPosition(startingPositionOf(position))
+                        .build();
+            }
+            subscriber.delay
+                    .thenCompose(ignored -> kinesisClient.subscribeToShard(
+                            request,
+                            SubscribeToShardResponseHandler.builder()
+                                    .subscriber(() -> subscriber)
+                                    .build()))
+                    .whenComplete((ignored, throwable) -> terminated(subscriber, throwable));
+        }
+
+        private void received(final ShardSubscriber subscriber, final SubscribeToShardEvent event) {
+            synchronized (this) {
+                if (result.isDone() || subscriber != this.subscriber) {
+                    return;
+                }
+                consuming = true;
+            }
+            dispatch(() -> consume(subscriber, event));
+        }
+
+        private void consume(final ShardSubscriber subscriber, final SubscribeToShardEvent event) {
+            final KinesisShardResponse response;
+            synchronized (this) {
+                failures = 0;
+                position = positionAfter(position, event);
+                final KinesisShardResponse shardResponse = new KinesisShardResponse(
+                        channelName,
+                        position,
+                        ofMillis(event.millisBehindLatest() != null ? event.millisBehindLatest() : 0L),
+                        event.records(),
+                        System.currentTimeMillis() - subscriber.requested);
+                if (lastConsumedSubRecord != null && !shardResponse.getMessages().isEmpty()) {
+                    response = shardResponse.withoutAggregatedMessagesUntil(lastConsumedSubRecord);
+                    lastConsumedSubRecord = null;
+                } else {
+                    response = shardResponse;
+                }
+            }
+            responseConsumer.accept(response);
+            if (event.continuationSequenceNumber() == null) {
+                LOG.info("Shard {} of channel {} is closed and all records are consumed.", shardName, channelName);
+                shardClosed.set(true);
+                finish();
+                return;
+            }
+            final Object termination;
+            synchronized (this) {
+                consuming = false;
+                termination = subscriber.termination;
+            }
+            if (isFinished()) {
+                finish();
+            } else if (termination != null) {
+                resubscribe(termination);
+            } else {
+                subscriber.requestNext();
+            }
+        }
+
+        /**
+         * Called when a subscription is completed or failed. If an event is currently consumed, the subscription is
+         * replaced after the event was consumed.
+         */
+        private void terminated(final ShardSubscriber subscriber, final Throwable throwable) {
+            final Object termination = throwable != null ? unwrap(throwable) : COMPLETED;
+            synchronized (this) {
+                if (result.isDone() || subscriber != this.subscriber || subscriber.termination != null) {
+                    return;
+                }
+                subscriber.termination = termination;
+                if (consuming) {
+                    return;
+                }
+            }
+            resubscribe(termination);
+        }
+
+        private void resubscribe(final Object termination) {
+            if (isFinished()) {
+                finish();
+            } else if (termination == COMPLETED) {
+                LOG.debug("Subscription of shard {} completed. Subscribing again", shardName);
+                subscribe(Duration.ZERO);
+            } else if (termination instanceof CancellationException) {
+                finish();
+            } else {
+                final Throwable throwable = (Throwable) termination;
+                final int failures;
+                synchronized (this) {
+                    failures = ++this.failures;
+                }
+                if (!isRetryable(throwable) || failures > MAX_RETRIES) {
+                    fail(new IllegalStateException(throwable.getMessage(), throwable));
+                } else {
+                    LOG.warn("Subscription of shard {} failed: {}. Retrying ({}/{})", shardName, throwable.getMessage(), failures, MAX_RETRIES);
+                    subscribe(backOffOf(failures));
+                }
+            }
+        }
+
+        private boolean isFinished() {
+            return !until.isAfter(Instant.now(clock)) || isStopping();
+        }
+
+        /**
+         * Finishes the consumption, unless an event is currently consumed: the consumption is finished after the
+         * event, so the returned position is not behind the consumed records.
+         */
+        private void finishIfIdle() {
+            synchronized (this) {
+                if (consuming || result.isDone()) {
+                    return;
+                }
+            }
+            finish();
+        }
+
+        private void dispatch(final Runnable step) {
+            try {
+                executor.execute(() -> {
+                    MDC.put("channelName", channelName);
+                    MDC.put("shardName", shardName);
+                    try {
+                        step.run();
+                    } catch (final RuntimeException e) {
+                        fail(e);
+                    } finally {
+                        MDC.remove("channelName");
+                        MDC.remove("shardName");
+                    }
+                });
+            } catch (final RejectedExecutionException e) {
+                LOG.warn("Executor of shard {} was shut down. Stopped consumption.", shardName);
+                synchronized (this) {
+                    consuming = false;
+                }
+                finish();
+            }
+        }
+
+        private void finish() {
+            final ShardPosition position = cancel();
+            result.complete(position);
+        }
+
+        private void fail(final Throwable throwable) {
+            LOG.error("Failed to consume from Kinesis shard {}/{}: {}", channelName, shardName, throwable.getMessage());
+            stopSignal.set(true);
+            cancel();
+            result.completeExceptionally(throwable);
+        }
+
+        private ShardPosition cancel() {
+            final ShardSubscriber subscriber;
+            final ShardPosition position;
+            synchronized (this) {
+                subscriber = this.subscriber;
+                position = this.position;
+                this.subscriber = null;
+            }
+            final CompletableFuture<Void> tick = this.tick;
+            if (tick != null) {
+                tick.cancel(false);
+            }
+            if (subscriber != null) {
+                subscriber.cancel();
+            }
+            return position;
+        }
+
+        private ShardPosition positionAfter(final ShardPosition position, final SubscribeToShardEvent event) {
+            if (event.continuationSequenceNumber() != null) {
+                return fromPosition(shardName, event.continuationSequenceNumber());
+            }
+            final List<Record> records = event.records();
+            return records.isEmpty()
+                    ? position
+                    : fromPosition(shardName, records.get(records.size() - 1).sequenceNumber());
+        }
+    }
+
+    /**
+     * Subscriber of a single subscription, handing over the received events to the {@link ShardConsumption}.
+     */
+    private static final class ShardSubscriber implements Subscriber<SubscribeToShardEventStream> {
+
+        private final ShardConsumption consumption;
+        /** The back-off before the shard is subscribed. */
+        private final CompletableFuture<Void> delay;
+        private volatile Subscription subscription;
+        private volatile boolean cancelled = false;
+        private volatile long requested = System.currentTimeMillis();
+        /** COMPLETED or the failure of a terminated subscription, guarded by the consumption. */
+        private Object termination;
+
+        private ShardSubscriber(final ShardConsumption consumption,
+                                final CompletableFuture<Void> delay) {
+            this.consumption = consumption;
+            this.delay = delay;
+        }
+
+        @Override
+        public void onSubscribe(final Subscription subscription) {
+            this.subscription = subscription;
+            if (cancelled) {
+                subscription.cancel();
+            } else {
+                requested = System.currentTimeMillis();
+                subscription.request(1);
+            }
+        }
+
+        @Override
+        public void onNext(final SubscribeToShardEventStream event) {
+            if (event instanceof SubscribeToShardEvent) {
+                consumption.received(this, (SubscribeToShardEvent) event);
+            } else {
+                requestNext();
+            }
+        }
+
+        @Override
+        public void onError(final Throwable throwable) {
+            consumption.terminated(this, throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            consumption.terminated(this, null);
+        }
+
+        void requestNext() {
+            final Subscription subscription = this.subscription;
+            if (subscription != null && !cancelled) {
+                requested = System.currentTimeMillis();
+                subscription.request(1);
+            }
+        }
+
+        void cancel() {
+            cancelled = true;
+            delay.cancel(false);
+            final Subscription subscription = this.subscription;
+            if (subscription != null) {
+                subscription.cancel();
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package de.otto.synapse.endpoint.receiver.aws;
+
+import de.otto.synapse.executor.ChannelExecutor;
+import de.otto.synapse.executor.SynapseExecutor;
+import org.slf4j.Logger;
+import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
+import software.amazon.awssdk.services.kinesis.model.ConsumerStatus;
+import software.amazon.awssdk.services.kinesis.model.DescribeStreamConsumerRequest;
+import software.amazon.awssdk.services.kinesis.model.DescribeStreamConsumerResponse;
+import software.amazon.awssdk.services.kinesis.model.RegisterStreamConsumerRequest;
+import software.amazon.awssdk.services.kinesis.model.ResourceInUseException;
+import software.amazon.awssdk.services.kinesis.model.ResourceNotFoundException;
+
+import javax.annotation.Nonnull;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static java.lang.String.format;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Registers enhanced fan-out consumers of Kinesis streams.
+ * <p>
+ *     A registered consumer has a dedicated read throughput of 2 MB/s per shard, and is identified by the consumer
+ *     ARN used to {@link KinesisAsyncClient#subscribeToShard subscribe} to the shards of the stream. Consumers are
+ *     registered once and reused after restarts; a stream supports up to 20 consumers.
+ * </p>
+ */
+public class KinesisStreamConsumerRegistration {
+
+    private static final Logger LOG = getLogger(KinesisStreamConsumerRegistration.class);
+
+    private final KinesisAsyncClient kinesisClient;
+    private final Duration pollInterval;
+    private final Duration maxWaitTime;
+    private final ChannelExecutor executor;
+
+    public KinesisStreamConsumerRegistration(final @Nonnull KinesisAsyncClient kinesisClient) {
+        this(kinesisClient, SynapseExecutor.defaultExecutor().forChannel(""));
+    }
+
+    /**
+     * @param kinesisClient the client used to register the consumers
+     * @param executor the executor used to wait between two polls of the status of a consumer
+     */
+    public KinesisStreamConsumerRegistration(final @Nonnull KinesisAsyncClient kinesisClient,
+                                             final @Nonnull ChannelExecutor executor) {
+        this(kinesisClient, Duration.ofSeconds(2), Duration.ofMinutes(2), executor);
+    }
+
+    KinesisStreamConsumerRegistration(final KinesisAsyncClient kinesisClient,
+                                      final Duration pollInterval,
+                                      final Duration maxWaitTime,
+                                      final ChannelExecutor executor) {
+        this.kinesisClient = kinesisClient;
+        this.pollInterval = pollInterval;
+        this.maxWaitTime = maxWaitTime;
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the ARN of the consumer of the stream, registering the consumer if it does not yet exist. The method
+     * is blocking until the consumer is active.
+     *
+     * @param streamArn the ARN of the Kinesis stream
+     * @param consumerName the name of the consumer
+     * @return consumer ARN
+     * @throws IllegalStateException if the consumer does not become active in time
+     * @see #registerConsumerAsync(String, String)
+     */
+    @Nonnull
+    public String registerConsumer(final @Nonnull String streamArn,
+                                   final @Nonnull String consumerName) {
+        try {
+            return registerConsumerAsync(streamArn, consumerName).join();
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the future ARN of the consumer of the stream, registering the consumer if it does not yet exist. The
+     * future is completed as soon as the consumer is active. The status of the consumer is polled using an
+     * {@link AsyncDelay}, so no thread is blocked while waiting for the consumer.
+     *
+     * @param streamArn the ARN of the Kinesis stream
+     * @param consumerName the name of the consumer
+     * @return future consumer ARN, completed exceptionally with an IllegalStateException if the consumer does not
+     *         become active in time
+     */
+    @Nonnull
+    public CompletableFuture<String> registerConsumerAsync(final @Nonnull String streamArn,
+                                                           final @Nonnull String consumerName) {
+        return awaitActiveConsumer(streamArn, consumerName, System.nanoTime() + maxWaitTime.toNanos());
+    }
+
+    private CompletableFuture<String> awaitActiveConsumer(final String streamArn,
+                                                          final String consumerName,
+                                                          final long deadline) {
+        return describe(streamArn, consumerName).thenCompose(response -> {
+            final ConsumerStatus status = response
+                    .map(r -> r.consumerDescription().consumerStatus())
+                    .orElse(null);
+            if (status == ConsumerStatus.ACTIVE) {
+                return completedFuture(response.get().consumerDescription().consumerARN());
+            }
+            final CompletableFuture<Void> registered = response.isPresent()
+                    ? completedFuture(null)
+                    : register(streamArn, consumerName);
+            return registered.thenCompose(ignored -> {
+                if (System.nanoTime() > deadline) {
+                    throw new IllegalStateException(format("Consumer %s of stream %s is not active: %s", consumerName, streamArn, status));
+                }
+                LOG.info("Waiting for consumer {} of stream {} to become active. Current status: {}", consumerName, streamArn, status);
+                return AsyncDelay.delay(pollInterval, executor).thenCompose(x -> awaitActiveConsumer(streamArn, consumerName, deadline));
+            });
+        });
+    }
+
+    private CompletableFuture<Void> register(final String streamArn, final String consumerName) {
+        LOG.info("Registering enhanced fan-out consumer {} of stream {}", consumerName, streamArn);
+        return kinesisClient.registerStreamConsumer(RegisterStreamConsumerRequest.builder()
+                .streamARN(streamArn)
+                .consumerName(consumerName)
+                .build())
+                .handle((ignored, throwable) -> {
+                    // the consumer may have been registered concurrently by another instance of the service:
+                    if (throwable != null && !(unwrap(throwable) instanceof ResourceInUseException)) {
+                        throw new CompletionException(unwrap(throwable));
+                    }
+                    return null;
+                });
+    }
+
+    /**
+     * Describes the consumer, or returns empty if the consumer does not exist.
+     */
+    private CompletableFuture<Optional<DescribeStreamConsumerResponse>> describe(final String streamArn,
+                                                                                 final String consumerName) {
+        return kinesisClient.describeStreamConsumer(DescribeStreamConsumerRequest.builder()
+                .streamARN(streamArn)
+                .consumerName(consumerName)
+                .build())
+                .handle((response, throwable) -> {
+                    if (throwable == null) {
+                        return Optional.of(response);
+                    }
+                    if (unwrap(throwable) instanceof ResourceNotFoundException) {
+                        return Optional.empty();
+                    }
+                    throw new CompletionException(unwrap(throwable));
+                });
+    }
+
+    private static Throwable unwrap(final Throwable throwable) {
+        return throwable instanceof CompletionException && throwable.getCause() != null
+                ? throwable.getCause()
+                : throwable;
+    }
+}
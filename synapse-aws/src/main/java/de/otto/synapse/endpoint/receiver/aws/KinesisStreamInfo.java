@@ -106,6 +106,14 @@ public class KinesisStreamInfo {
             return this;
         }
 
+        public Builder withShard(final String shardName,
+                                 final boolean open,
+                                 final String parentShardName,
+                                 final String adjacentParentShardName) {
+            shardInfo.add(new KinesisShardInfo(shardName, open, parentShardName, adjacentParentShardName));
+            return this;
+        }
+
         public KinesisStreamInfo build() {
             return new KinesisStreamInfo(this);
         }
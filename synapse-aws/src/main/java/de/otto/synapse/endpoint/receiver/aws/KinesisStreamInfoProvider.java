@@ -8,6 +8,8 @@ import software.amazon.awssdk.services.kinesis.model.DescribeStreamResponse;
 import software.amazon.awssdk.services.kinesis.model.ResourceNotFoundException;
 import software.amazon.awssdk.services.kinesis.model.Shard;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static de.otto.synapse.endpoint.receiver.aws.KinesisStreamInfo.builder;
@@ -24,38 +26,73 @@ public class KinesisStreamInfoProvider {
     }
 
     /**
-     * Returns stream information for the given Kinesis stream.
+     * Returns stream information for the given Kinesis stream, blocking the calling thread until the stream is
+     * described.
      *
      * @param channelName the name of the stream
      * @return KinesisStreamInfo
      * @throws IllegalArgumentException if the stream does not exist
+     * @see #getStreamInfoAsync(String)
      */
     public KinesisStreamInfo getStreamInfo(final String channelName) {
-
         try {
+            return getStreamInfoAsync(channelName).join();
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
 
-            final DescribeStreamRequest request = DescribeStreamRequest.builder().streamName(channelName).build();
-
-            DescribeStreamResponse response = kinesisAsyncClient.describeStream(request).join();
-
-            final KinesisStreamInfo.Builder streamInfoBuilder = builder()
-                    .withChannelName(channelName)
-                    .withArn(response.streamDescription().streamARN());
-
-            String lastSeenShardId = addShardInfoFromResponse(response, streamInfoBuilder);
+    /**
+     * Returns stream information for the given Kinesis stream without blocking the calling thread. Streams with
+     * more shards than returned by a single {@code DescribeStream} request are described page by page.
+     *
+     * @param channelName the name of the stream
+     * @return future KinesisStreamInfo, completed exceptionally with an IllegalArgumentException if the stream does
+     *         not exist
+     */
+    public CompletableFuture<KinesisStreamInfo> getStreamInfoAsync(final String channelName) {
+        final KinesisStreamInfo.Builder streamInfoBuilder = builder().withChannelName(channelName);
+        return describeShards(DescribeStreamRequest.builder().streamName(channelName).build(), streamInfoBuilder)
+                .handle((ignored, throwable) -> {
+                    if (throwable == null) {
+                        return streamInfoBuilder.build();
+                    }
+                    final Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+                            ? throwable.getCause()
+                            : throwable;
+                    if (cause instanceof ResourceNotFoundException) {
+                        throw new IllegalArgumentException(format("Kinesis channel %s does not exist: %s", channelName, cause.getMessage()));
+                    }
+                    throw new CompletionException(cause);
+                });
+    }
 
-            while (response.streamDescription().hasMoreShards()) {
-                response = kinesisAsyncClient.describeStream(DescribeStreamRequest.builder()
-                        .streamName(channelName)
-                        .exclusiveStartShardId(lastSeenShardId)
-                        .build())
-                        .join();
-                lastSeenShardId = addShardInfoFromResponse(response, streamInfoBuilder);
+    private CompletableFuture<Void> describeShards(final DescribeStreamRequest request,
+                                                   final KinesisStreamInfo.Builder streamInfoBuilder) {
+        return describeStream(request).thenCompose(response -> {
+            if (request.exclusiveStartShardId() == null) {
+                streamInfoBuilder.withArn(response.streamDescription().streamARN());
             }
+            final String lastSeenShardId = addShardInfoFromResponse(response, streamInfoBuilder);
+            return response.streamDescription().hasMoreShards()
+                    ? describeShards(request.toBuilder().exclusiveStartShardId(lastSeenShardId).build(), streamInfoBuilder)
+                    : CompletableFuture.<Void>completedFuture(null);
+        });
+    }
 
-            return streamInfoBuilder.build();
-        } catch (final ResourceNotFoundException e) {
-            throw new IllegalArgumentException(format("Kinesis channel %s does not exist: %s", channelName, e.getMessage()));
+    /**
+     * Describes the stream, converting exceptions thrown by the client into failed futures.
+     */
+    private CompletableFuture<DescribeStreamResponse> describeStream(final DescribeStreamRequest request) {
+        try {
+            return kinesisAsyncClient.describeStream(request);
+        } catch (final RuntimeException e) {
+            final CompletableFuture<DescribeStreamResponse> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
         }
     }
 
@@ -67,7 +104,7 @@ public class KinesisStreamInfoProvider {
                 .stream()
                 .forEach(shard -> {
                     lastShardId.set(shard.shardId());
-                    streamInfoBuilder.withShard(shard.shardId(), isShardOpen(shard));
+                    streamInfoBuilder.withShard(shard.shardId(), isShardOpen(shard), shard.parentShardId(), shard.adjacentParentShardId());
                 });
         return lastShardId.get();
     }
@@ -76,7 +113,7 @@ public class KinesisStreamInfoProvider {
         if (shard.sequenceNumberRange().endingSequenceNumber() == null) {
             return true;
         } else {
-            LOG.warn("Shard with id {} is closed. Cannot retrieve data.", shard.shardId());
+            LOG.info("Shard with id {} is closed. Remaining records are consumed before its child shards.", shard.shardId());
             return false;
         }
     }
@@ -0,0 +1,245 @@
+package de.otto.synapse.endpoint.receiver.aws;
+
+import com.google.common.collect.ImmutableList;
+import de.otto.synapse.channel.ShardPosition;
+import de.otto.synapse.executor.ChannelExecutor;
+import de.otto.synapse.message.Message;
+import org.slf4j.Logger;
+import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import java.math.BigInteger;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static de.otto.synapse.channel.ShardPosition.fromPosition;
+import static de.otto.synapse.channel.ShardPosition.fromTimestamp;
+import static de.otto.synapse.endpoint.receiver.aws.KinesisReadQuota.Priority.BACKGROUND;
+import static de.otto.synapse.endpoint.receiver.aws.KinesisShardIterator.FETCH_RECORDS_LIMIT;
+import static de.otto.synapse.endpoint.receiver.aws.KinesisShardIterator.kinesisShardIterator;
+import static de.otto.synapse.message.aws.KinesisRecordAggregation.sequenceNumberOf;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.stream.Collectors.toList;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Reads the records of a Kinesis shard in a time range, using multiple iterators concurrently.
+ * <p>
+ *     The time range is split into slices of equal length. Every slice is read by an {@code AT_TIMESTAMP} iterator,
+ *     starting at the beginning of the slice, and is stopped at the first sequence number of the next slice. So
+ *     every record is consumed exactly once, but the records of different slices are consumed concurrently and
+ *     out of order. The consumer must be thread-safe, and must not depend on the order of the records.
+ * </p>
+ * <p>
+ *     Every response is dispatched with the position of the slice, that is the position of the last record of the
+ *     response. The iterators are reading with {@link KinesisReadQuota.Priority#BACKGROUND background} priority, so
+ *     the number of iterators reading a shard concurrently is limited by the {@link KinesisReadQuota}.
+ * </p>
+ */
+@ThreadSafe
+public class KinesisTimeSlicedBackfill {
+
+    private static final Logger LOG = getLogger(KinesisTimeSlicedBackfill.class);
+
+    private final KinesisAsyncClient kinesisClient;
+    private final String channelName;
+    private final ChannelExecutor executor;
+    private final KinesisReadQuota readQuota;
+    private final AtomicBoolean stopSignal = new AtomicBoolean(false);
+
+    /**
+     * @param kinesisClient the client used to access the stream
+     * @param channelName the name of the stream
+     * @param executor the executor used to consume the responses and to wait for the read quota
+     * @param readQuota the read quota shared with other readers of the stream
+     */
+    public KinesisTimeSlicedBackfill(final @Nonnull KinesisAsyncClient kinesisClient,
+                                     final @Nonnull String channelName,
+                                     final @Nonnull ChannelExecutor executor,
+                                     final @Nonnull KinesisReadQuota readQuota) {
+        this.kinesisClient = kinesisClient;
+        this.channelName = channelName;
+        this.executor = executor;
+        this.readQuota = readQuota;
+    }
+
+    /**
+     * Reads the records of a shard, that have arrived between {@code from} and {@code until}.
+     *
+     * @param shardName the name of the shard
+     * @param from the arrival timestamp of the first record
+     * @param until records arriving at or after this timestamp are not consumed
+     * @param numberOfSlices the number of slices read concurrently
+     * @param consumer the consumer of the responses
+     * @return future positions of the last consumed record of every slice, completed when all slices are consumed
+     */
+    public CompletableFuture<ImmutableList<ShardPosition>> backfill(final @Nonnull String shardName,
+                                                                    final @Nonnull Instant from,
+                                                                    final @Nonnull Instant until,
+                                                                    final int numberOfSlices,
+                                                                    final @Nonnull Consumer<KinesisShardResponse> consumer) {
+        checkArgument(numberOfSlices > 0, "numberOfSlices must be greater than 0");
+        checkArgument(from.isBefore(until), "from must be before until");
+        LOG.info("Backfilling shard {} of channel {} from {} until {} using {} slices", shardName, channelName, from, until, numberOfSlices);
+        final Duration sliceDuration = Duration.between(from, until).dividedBy(numberOfSlices);
+        final List<Slice> slices = new ArrayList<>();
+        CompletableFuture<Optional<String>> nextSliceStart = completedFuture(Optional.empty());
+        // created in reverse order, so every slice knows where the next slice starts:
+        for (int i = numberOfSlices - 1; i >= 0; --i) {
+            final Slice slice = new Slice(shardName, from.plus(sliceDuration.multipliedBy(i)), until, nextSliceStart, consumer);
+            slices.add(0, slice);
+            nextSliceStart = slice.firstSequenceNumber;
+        }
+        slices.forEach(Slice::start);
+        final List<CompletableFuture<ShardPosition>> positions = slices.stream().map(slice -> slice.result).collect(toList());
+        return CompletableFuture.allOf(positions.toArray(new CompletableFuture<?>[0]))
+                .thenApply(ignored -> positions.stream().map(CompletableFuture::join).collect(toImmutableList()));
+    }
+
+    /**
+     * Stops all slices after the current responses are consumed.
+     */
+    public void stop() {
+        LOG.info("Backfill of channel {} received stop signal.", channelName);
+        stopSignal.set(true);
+    }
+
+    public boolean isStopping() {
+        return stopSignal.get();
+    }
+
+    private final class Slice {
+        private final String shardName;
+        private final Instant start;
+        private final Instant until;
+        private final CompletableFuture<Optional<String>> nextSliceStart;
+        private final Consumer<KinesisShardResponse> consumer;
+        /** The sequence number of the first record at or after the start of the slice, or empty if there is none. */
+        private final CompletableFuture<Optional<String>> firstSequenceNumber = new CompletableFuture<>();
+        private final CompletableFuture<ShardPosition> result = new CompletableFuture<>();
+        private volatile ShardPosition position;
+
+        private Slice(final String shardName,
+                      final Instant start,
+                      final Instant until,
+                      final CompletableFuture<Optional<String>> nextSliceStart,
+                      final Consumer<KinesisShardResponse> consumer) {
+            this.shardName = shardName;
+            this.start = start;
+            this.until = until;
+            this.nextSliceStart = nextSliceStart;
+            this.consumer = consumer;
+            this.position = fromTimestamp(shardName, start);
+        }
+
+        private void start() {
+            kinesisShardIterator(kinesisClient, channelName, position, FETCH_RECORDS_LIMIT, readQuota, BACKGROUND, executor)
+                    .whenComplete((iterator, throwable) -> {
+                        if (throwable != null) {
+                            fail(throwable);
+                        } else {
+                            poll(iterator);
+                        }
+                    });
+        }
+
+        private void poll(final KinesisShardIterator iterator) {
+            iterator.nextAsync().whenComplete((response, throwable) -> {
+                if (throwable != null) {
+                    fail(throwable);
+                    return;
+                }
+                final boolean endOfShard = isEndOfShard(iterator, response);
+                if (!response.getMessages().isEmpty()) {
+                    firstSequenceNumber.complete(Optional.of(sequenceNumberOf(positionOf(response.getMessages().get(0)))));
+                } else if (endOfShard) {
+                    firstSequenceNumber.complete(Optional.empty());
+                }
+                // the messages of the response can only be dispatched, if it is known where the next slice starts:
+                nextSliceStart.whenComplete((nextStart, t) -> {
+                    if (t != null) {
+                        fail(t);
+                    } else {
+                        dispatch(() -> consume(iterator, response, endOfShard, nextStart));
+                    }
+                });
+            });
+        }
+
+        private void consume(final KinesisShardIterator iterator,
+                             final KinesisShardResponse response,
+                             final boolean endOfShard,
+                             final Optional<String> nextStart) {
+            final List<Message<String>> messages = response.getMessages()
+                    .stream()
+                    .filter(message -> isInSlice(message, nextStart))
+                    .collect(toList());
+            if (!messages.isEmpty()) {
+                position = fromPosition(shardName, positionOf(messages.get(messages.size() - 1)));
+                consumer.accept(response.withMessages(messages, position));
+            }
+            if (messages.size() < response.getMessages().size() || endOfShard || isStopping()) {
+                finish(iterator);
+            } else {
+                poll(iterator);
+            }
+        }
+
+        private boolean isInSlice(final Message<String> message, final Optional<String> nextStart) {
+            final BigInteger sequenceNumber = new BigInteger(sequenceNumberOf(positionOf(message)));
+            return message.getHeader().getArrivalTimestamp().isBefore(until)
+                    && nextStart.map(BigInteger::new).map(next -> sequenceNumber.compareTo(next) < 0).orElse(true);
+        }
+
+        private boolean isEndOfShard(final KinesisShardIterator iterator, final KinesisShardResponse response) {
+            return iterator.isClosed() || iterator.isPoison() || response.getDurationBehind().isZero();
+        }
+
+        private void dispatch(final Runnable step) {
+            try {
+                executor.execute(() -> {
+                    try {
+                        step.run();
+                    } catch (final RuntimeException e) {
+                        fail(e);
+                    }
+                });
+            } catch (final RejectedExecutionException e) {
+                fail(e);
+            }
+        }
+
+        private void finish(final KinesisShardIterator iterator) {
+            iterator.cancelPrefetch();
+            firstSequenceNumber.complete(Optional.empty());
+            LOG.info("Finished slice of shard {} starting at {}: {}", shardName, start, position);
+            result.complete(position);
+        }
+
+        private void fail(final Throwable throwable) {
+            final Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+                    ? throwable.getCause()
+                    : throwable;
+            LOG.error("Failed to backfill shard {} of channel {} starting at {}: {}", shardName, channelName, start, cause.getMessage());
+            firstSequenceNumber.completeExceptionally(cause);
+            result.completeExceptionally(cause);
+        }
+
+        private String positionOf(final Message<String> message) {
+            return message.getHeader().getShardPosition()
+                    .map(ShardPosition::position)
+                    .orElseThrow(() -> new IllegalStateException("Message of shard " + shardName + " without position"));
+        }
+    }
+}
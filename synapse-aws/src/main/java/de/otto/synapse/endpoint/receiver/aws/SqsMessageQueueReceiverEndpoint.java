@@ -4,6 +4,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableMap;
 import de.otto.synapse.endpoint.receiver.AbstractMessageReceiverEndpoint;
 import de.otto.synapse.endpoint.receiver.MessageQueueReceiverEndpoint;
+import de.otto.synapse.executor.SynapseExecutor;
 import de.otto.synapse.message.Message;
 import org.slf4j.Logger;
 import org.springframework.context.ApplicationEventPublisher;
@@ -41,14 +42,24 @@ public class SqsMessageQueueReceiverEndpoint extends AbstractMessageReceiverEndp
     @Nonnull
     private final SqsAsyncClient sqsAsyncClient;
     private final String queueUrl;
+    private final SynapseExecutor synapseExecutor;
     private final AtomicBoolean stopSignal = new AtomicBoolean(false);
 
     public SqsMessageQueueReceiverEndpoint(final @Nonnull String channelName,
                                            final @Nonnull SqsAsyncClient sqsAsyncClient,
                                            final @Nonnull ObjectMapper objectMapper,
                                            final @Nullable ApplicationEventPublisher eventPublisher) {
+        this(channelName, sqsAsyncClient, objectMapper, eventPublisher, SynapseExecutor.defaultExecutor());
+    }
+
+    public SqsMessageQueueReceiverEndpoint(final @Nonnull String channelName,
+                                           final @Nonnull SqsAsyncClient sqsAsyncClient,
+                                           final @Nonnull ObjectMapper objectMapper,
+                                           final @Nullable ApplicationEventPublisher eventPublisher,
+                                           final @Nonnull SynapseExecutor synapseExecutor) {
         super(channelName, objectMapper, eventPublisher);
         this.sqsAsyncClient = sqsAsyncClient;
+        this.synapseExecutor = synapseExecutor;
         try {
             this.queueUrl = sqsAsyncClient.getQueueUrl(GetQueueUrlRequest
                     .builder()
@@ -68,7 +79,7 @@ public class SqsMessageQueueReceiverEndpoint extends AbstractMessageReceiverEndp
                 LOG.debug("Sending receiveMessage request...");
                 receiveAndProcess();
             } while (!stopSignal.get());
-        });
+        }, synapseExecutor.forChannel(getChannelName()));
     }
 
     private void receiveAndProcess() {
@@ -2,34 +2,87 @@ package de.otto.synapse.endpoint.sender.aws;
 
 import de.otto.synapse.endpoint.sender.AbstractMessageSenderEndpoint;
 import de.otto.synapse.message.Message;
+import de.otto.synapse.message.aws.KinesisRecordAggregation;
 import de.otto.synapse.translator.MessageTranslator;
+import org.slf4j.Logger;
 import software.amazon.awssdk.core.SdkBytes;
 import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
+import software.amazon.awssdk.services.kinesis.model.DescribeStreamRequest;
+import software.amazon.awssdk.services.kinesis.model.HashKeyRange;
 import software.amazon.awssdk.services.kinesis.model.PutRecordsRequest;
 import software.amazon.awssdk.services.kinesis.model.PutRecordsRequestEntry;
+import software.amazon.awssdk.services.kinesis.model.Shard;
 
 import javax.annotation.Nonnull;
+import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Stream;
 
 import static com.google.common.collect.Lists.partition;
+import static com.google.common.hash.Hashing.md5;
+import static de.otto.synapse.message.aws.KinesisRecordAggregation.MAX_AGGREGATED_RECORD_BYTES;
+import static de.otto.synapse.message.aws.KinesisRecordAggregation.aggregate;
+import static de.otto.synapse.message.aws.KinesisRecordAggregation.aggregatedSizeOf;
+import static de.otto.synapse.message.aws.KinesisRecordAggregation.aggregationOverhead;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.emptyList;
 import static java.util.concurrent.CompletableFuture.allOf;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.groupingBy;
 import static java.util.stream.Collectors.toCollection;
+import static java.util.stream.Collectors.toList;
+import static org.slf4j.LoggerFactory.getLogger;
 
+/**
+ * A {@link de.otto.synapse.endpoint.sender.MessageSenderEndpoint} that is sending messages to a Kinesis stream.
+ * <p>
+ *     If {@code aggregateRecords} is enabled, batches of messages are packed into records of the
+ *     {@link KinesisRecordAggregation KPL aggregation format}, so many small messages are sent using a single
+ *     Kinesis record. Only messages whose partition keys are hashed to the same shard are aggregated, so the order
+ *     of messages per key is maintained. The hash key ranges of the shards are refreshed asynchronously every minute,
+ *     and batches are aggregated using the last known ranges in the meantime. Until the ranges are known, messages
+ *     are only aggregated with messages having the same partition key.
+ * </p>
+ */
 public class KinesisMessageSender extends AbstractMessageSenderEndpoint {
 
+    private static final Logger LOG = getLogger(KinesisMessageSender.class);
+
     private static final int PUT_RECORDS_BATCH_SIZE = 500;
+    private static final long SHARD_HASH_KEY_RANGES_TTL_NANOS = SECONDS.toNanos(60);
 
     private final KinesisAsyncClient kinesisAsyncClient;
+    private final boolean aggregateRecords;
+    private final AtomicBoolean refreshingShardHashKeyRanges = new AtomicBoolean();
+    private volatile List<HashKeyRange> shardHashKeyRanges = emptyList();
+    private volatile long nextShardHashKeyRangesRefresh = System.nanoTime();
 
     public KinesisMessageSender(final String channelName,
                                 final MessageTranslator<String> messageTranslator,
                                 final KinesisAsyncClient kinesisClient) {
+        this(channelName, messageTranslator, kinesisClient, false);
+    }
+
+    /**
+     * @param channelName the name of the Kinesis stream
+     * @param messageTranslator the translator used to translate the payload of messages
+     * @param kinesisClient the client used to access the stream
+     * @param aggregateRecords true, if batches of messages are sent as KPL aggregated records
+     */
+    public KinesisMessageSender(final String channelName,
+                                final MessageTranslator<String> messageTranslator,
+                                final KinesisAsyncClient kinesisClient,
+                                final boolean aggregateRecords) {
         super(channelName, messageTranslator);
         this.kinesisAsyncClient = kinesisClient;
+        this.aggregateRecords = aggregateRecords;
     }
 
     @Override
@@ -56,12 +109,114 @@ public class KinesisMessageSender extends AbstractMessageSenderEndpoint {
                 .build();
     }
 
-    private ArrayList<PutRecordsRequestEntry> createPutRecordRequestEntries(final @Nonnull Stream<Message<String>> messageStream) {
+    private List<PutRecordsRequestEntry> createPutRecordRequestEntries(final @Nonnull Stream<Message<String>> messageStream) {
+        if (aggregateRecords) {
+            return createAggregatedPutRecordRequestEntries(messageStream.collect(toList()));
+        }
         return messageStream
                 .map(entry -> requestEntryFor(entry.getKey(), entry.getPayload()))
                 .collect(toCollection(ArrayList::new));
     }
 
+    private List<PutRecordsRequestEntry> createAggregatedPutRecordRequestEntries(final List<Message<String>> messages) {
+        final List<HashKeyRange> hashKeyRanges = shardHashKeyRanges();
+        // messages are grouped by shard, or by partition key if the shards are unknown:
+        final Map<Object, List<Message<String>>> messagesPerShard = messages
+                .stream()
+                .collect(groupingBy(message -> shardOf(message.getKey(), hashKeyRanges), LinkedHashMap::new, toList()));
+        final List<PutRecordsRequestEntry> entries = new ArrayList<>();
+        messagesPerShard.values().forEach(shardMessages -> {
+            final List<Message<String>> aggregate = new ArrayList<>();
+            int aggregateBytes = aggregationOverhead();
+            for (final Message<String> message : shardMessages) {
+                final int messageBytes = aggregatedSizeOf(message);
+                if (!aggregate.isEmpty() && aggregateBytes + messageBytes > MAX_AGGREGATED_RECORD_BYTES) {
+                    entries.add(requestEntryFor(aggregate));
+                    aggregate.clear();
+                    aggregateBytes = aggregationOverhead();
+                }
+                aggregate.add(message);
+                aggregateBytes += messageBytes;
+            }
+            if (!aggregate.isEmpty()) {
+                entries.add(requestEntryFor(aggregate));
+            }
+        });
+        return entries;
+    }
+
+    private PutRecordsRequestEntry requestEntryFor(final List<Message<String>> messages) {
+        if (messages.size() == 1) {
+            return requestEntryFor(messages.get(0).getKey(), messages.get(0).getPayload());
+        }
+        return PutRecordsRequestEntry.builder()
+                .partitionKey(messages.get(0).getKey())
+                .data(aggregate(messages))
+                .build();
+    }
+
+    private static Object shardOf(final String partitionKey, final List<HashKeyRange> hashKeyRanges) {
+        if (hashKeyRanges.isEmpty()) {
+            return partitionKey;
+        }
+        final BigInteger hashKey = new BigInteger(1, md5().hashString(partitionKey, UTF_8).asBytes());
+        return hashKeyRanges
+                .stream()
+                .filter(range -> hashKey.compareTo(new BigInteger(range.startingHashKey())) >= 0
+                        && hashKey.compareTo(new BigInteger(range.endingHashKey())) <= 0)
+                .findFirst()
+                .<Object>map(HashKeyRange::startingHashKey)
+                .orElse(partitionKey);
+    }
+
+    /**
+     * Returns the last known hash key ranges of the open shards, and starts refreshing the ranges in the background,
+     * if they are outdated. Sending messages is never waiting for the ranges.
+     *
+     * @return hash key ranges, or an empty list if the ranges are not yet known
+     */
+    private List<HashKeyRange> shardHashKeyRanges() {
+        if (System.nanoTime() - nextShardHashKeyRangesRefresh >= 0 && refreshingShardHashKeyRanges.compareAndSet(false, true)) {
+            CompletableFuture<List<HashKeyRange>> refresh;
+            try {
+                refresh = describeShardHashKeyRanges(null, new ArrayList<>());
+            } catch (final RuntimeException e) {
+                refresh = new CompletableFuture<>();
+                refresh.completeExceptionally(e);
+            }
+            refresh.whenComplete((hashKeyRanges, throwable) -> {
+                if (throwable != null) {
+                    LOG.warn("Unable to describe shards of channel {}. Aggregating messages using the last known shards: {}", getChannelName(), throwable.getMessage());
+                } else {
+                    shardHashKeyRanges = hashKeyRanges;
+                }
+                nextShardHashKeyRangesRefresh = System.nanoTime() + SHARD_HASH_KEY_RANGES_TTL_NANOS;
+                refreshingShardHashKeyRanges.set(false);
+            });
+        }
+        return shardHashKeyRanges;
+    }
+
+    private CompletableFuture<List<HashKeyRange>> describeShardHashKeyRanges(final String exclusiveStartShardId,
+                                                                             final List<HashKeyRange> hashKeyRanges) {
+        return kinesisAsyncClient.describeStream(DescribeStreamRequest.builder()
+                .streamName(getChannelName())
+                .exclusiveStartShardId(exclusiveStartShardId)
+                .build())
+                .thenCompose(response -> {
+                    final List<Shard> shards = response.streamDescription().shards();
+                    shards.stream()
+                            .filter(shard -> shard.sequenceNumberRange() == null || shard.sequenceNumberRange().endingSequenceNumber() == null)
+                            .map(Shard::hashKeyRange)
+                            .filter(Objects::nonNull)
+                            .forEach(hashKeyRanges::add);
+                    final String lastShardId = shards.isEmpty() ? null : shards.get(shards.size() - 1).shardId();
+                    return response.streamDescription().hasMoreShards() && lastShardId != null
+                            ? describeShardHashKeyRanges(lastShardId, hashKeyRanges)
+                            : completedFuture(hashKeyRanges);
+                });
+    }
+
     private PutRecordsRequestEntry requestEntryFor(final String key,
                                                    final String payload) {
         final SdkBytes sdkBytesPayload = payload != null
@@ -23,11 +23,26 @@ public class KinesisMessageSenderEndpointFactory implements MessageSenderEndpoin
     private final MessageTranslator<String> messageTranslator;
     private final KinesisAsyncClient kinesisClient;
     private final ImmutableSet<String> kinesisChannels;
+    private final boolean aggregateRecords;
 
     public KinesisMessageSenderEndpointFactory(final MessageInterceptorRegistry registry,
                                                final ObjectMapper objectMapper,
                                                final KinesisAsyncClient kinesisClient) {
+        this(registry, objectMapper, kinesisClient, false);
+    }
+
+    /**
+     * @param registry the registry used to register interceptors at the created senders
+     * @param objectMapper the ObjectMapper used to translate the payload of messages
+     * @param kinesisClient the client used to access the Kinesis streams
+     * @param aggregateRecords true, if batches of messages are sent as KPL aggregated records
+     */
+    public KinesisMessageSenderEndpointFactory(final MessageInterceptorRegistry registry,
+                                               final ObjectMapper objectMapper,
+                                               final KinesisAsyncClient kinesisClient,
+                                               final boolean aggregateRecords) {
         this.registry = registry;
+        this.aggregateRecords = aggregateRecords;
         this.messageTranslator = new JsonStringMessageTranslator(objectMapper);
         this.kinesisClient = kinesisClient;
         this.kinesisChannels = ImmutableSet.copyOf(kinesisClient
@@ -42,7 +57,7 @@ public class KinesisMessageSenderEndpointFactory implements MessageSenderEndpoin
 
     @Override
     public MessageSenderEndpoint create(final @Nonnull String channelName) {
-        final MessageSenderEndpoint messageSender = new KinesisMessageSender(channelName, messageTranslator, kinesisClient);
+        final MessageSenderEndpoint messageSender = new KinesisMessageSender(channelName, messageTranslator, kinesisClient, aggregateRecords);
         messageSender.registerInterceptorsFrom(registry);
         return messageSender;
     }
@@ -0,0 +1,204 @@
+package de.otto.synapse.eventsource.aws;
+
+import de.otto.synapse.channel.ChannelPosition;
+import de.otto.synapse.compaction.aws.StateSnapshotService;
+import de.otto.synapse.consumer.PositionTrackingMessageConsumer;
+import de.otto.synapse.endpoint.receiver.MessageLogReceiverEndpoint;
+import de.otto.synapse.eventsource.AbstractEventSource;
+import de.otto.synapse.eventsource.DefaultEventSource;
+import de.otto.synapse.executor.SynapseExecutor;
+import de.otto.synapse.messagestore.MessageStore;
+import de.otto.synapse.messagestore.MessageStoreFactory;
+import de.otto.synapse.messagestore.PositionTrackingMessageStore;
+import de.otto.synapse.state.StateRepository;
+import de.otto.synapse.state.StateSnapshot;
+import org.slf4j.Logger;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * An {@link de.otto.synapse.eventsource.EventSource} that is restoring the application state from a state snapshot
+ * written by a {@link StateSnapshotService}, instead of replaying the messages of the channel.
+ * <p>
+ *     If a state snapshot is available, it is loaded directly into the {@link StateRepository} and the
+ *     {@link MessageLogReceiverEndpoint} is consumed starting at the ChannelPosition stored in the snapshot. Otherwise,
+ *     the EventSource behaves like a {@link DefaultEventSource}, using a {@link MessageStore} created by the
+ *     {@code messageStoreFactory}.
+ * </p>
+ * <p>
+ *     While consuming, a new state snapshot is written every {@code snapshotInterval}, and when consumption has
+ *     finished. The ChannelPosition of a state snapshot is tracked by a {@link PositionTrackingMessageConsumer} that
+ *     is registered after all other consumers. The position is determined and the state snapshot is opened
+ *     between two messages, so the state is consistent with the position.
+ * </p>
+ * <p>
+ *     If the latest state snapshot can not be loaded, older state snapshots are tried, before the EventSource is
+ *     falling back to the MessageStore. The state snapshot is loaded asynchronously, so failures are reported by
+ *     the future returned by {@link #consumeUntil(Instant)}.
+ * </p>
+ * <p>
+ *     The state repository must only be fed by messages from this EventSource, as the stored ChannelPosition
+ *     is only valid for a single channel.
+ * </p>
+ *
+ * @param <V> the type of the values of the StateRepository
+ */
+public class StateSnapshotEventSource<V> extends AbstractEventSource {
+
+    private static final Logger LOG = getLogger(StateSnapshotEventSource.class);
+
+    private final StateRepository<V> stateRepository;
+    private final StateSnapshotService<V> stateSnapshotService;
+    private final Duration snapshotInterval;
+    private final MessageStoreFactory<? extends MessageStore> messageStoreFactory;
+    private final PositionTrackingMessageConsumer positionTracker = new PositionTrackingMessageConsumer();
+    private final AtomicBoolean positionTrackerRegistered = new AtomicBoolean(false);
+
+    /**
+     * Creates a StateSnapshotEventSource.
+     *
+     * @param stateRepository the repository containing the state derived from the messages of the channel
+     * @param stateSnapshotService service used to load and write state snapshots
+     * @param snapshotInterval interval used to periodically write state snapshots while consuming, or null if
+     *                         state snapshots should only be written when consumption has finished
+     * @param messageStoreFactory factory used to create the MessageStore, if there is no state snapshot
+     * @param messageLog the MessageLogReceiverEndpoint
+     */
+    public StateSnapshotEventSource(final @Nonnull StateRepository<V> stateRepository,
+                                    final @Nonnull StateSnapshotService<V> stateSnapshotService,
+                                    final Duration snapshotInterval,
+                                    final @Nonnull MessageStoreFactory<? extends MessageStore> messageStoreFactory,
+                                    final @Nonnull MessageLogReceiverEndpoint messageLog) {
+        this(stateRepository, stateSnapshotService, snapshotInterval, messageStoreFactory, messageLog, SynapseExecutor.defaultExecutor());
+    }
+
+    /**
+     * Creates a StateSnapshotEventSource.
+     *
+     * @param stateRepository the repository containing the state derived from the messages of the channel
+     * @param stateSnapshotService service used to load and write state snapshots
+     * @param snapshotInterval interval used to periodically write state snapshots while consuming, or null if
+     *                         state snapshots should only be written when consumption has finished
+     * @param messageStoreFactory factory used to create the MessageStore, if there is no state snapshot
+     * @param messageLog the MessageLogReceiverEndpoint
+     * @param synapseExecutor the SynapseExecutor used to replay the snapshot and to write state snapshots
+     */
+    public StateSnapshotEventSource(final @Nonnull StateRepository<V> stateRepository,
+                                    final @Nonnull StateSnapshotService<V> stateSnapshotService,
+                                    final Duration snapshotInterval,
+                                    final @Nonnull MessageStoreFactory<? extends MessageStore> messageStoreFactory,
+                                    final @Nonnull MessageLogReceiverEndpoint messageLog,
+                                    final @Nonnull SynapseExecutor synapseExecutor) {
+        super(messageLog, synapseExecutor);
+        this.stateRepository = stateRepository;
+        this.stateSnapshotService = stateSnapshotService;
+        this.snapshotInterval = snapshotInterval;
+        this.messageStoreFactory = messageStoreFactory;
+    }
+
+    @Nonnull
+    @Override
+    public CompletableFuture<ChannelPosition> consumeUntil(final @Nonnull Instant until) {
+        if (positionTrackerRegistered.compareAndSet(false, true)) {
+            // registered as the last consumer, so the position is updated after the message was applied to the state:
+            register(positionTracker);
+        }
+        final CompletableFuture<ChannelPosition> futurePosition = CompletableFuture
+                .supplyAsync(this::loadStateSnapshot, getSynapseExecutor().forChannel(getChannelName()))
+                .thenCompose(snapshotPosition -> {
+                    if (snapshotPosition.isPresent()) {
+                        LOG.info("Restored state of EventSource {} from state snapshot with {} entries. Resuming at {}", getChannelName(), stateRepository.size(), snapshotPosition.get());
+                        positionTracker.startAt(snapshotPosition.get());
+                        return getMessageLogReceiverEndpoint().consumeUntil(snapshotPosition.get(), until);
+                    } else {
+                        LOG.info("No state snapshot available for EventSource {}. Loading snapshot.", getChannelName());
+                        final MessageStore messageStore = new PositionTrackingMessageStore(messageStoreFactory.createMessageStoreFor(getChannelName()), positionTracker);
+                        return new DefaultEventSource(messageStore, getMessageLogReceiverEndpoint(), getSynapseExecutor()).consumeUntil(until);
+                    }
+                });
+        final CompletableFuture<Void> scheduledSnapshots = scheduleStateSnapshots();
+        return futurePosition.whenComplete((channelPosition, throwable) -> {
+            if (scheduledSnapshots != null) {
+                scheduledSnapshots.cancel(false);
+            }
+        }).thenApply(channelPosition -> {
+            if (channelPosition != null) {
+                // consumption has finished, so the state is not modified anymore and reflects the channelPosition:
+                try (StateSnapshot<V> snapshot = stateRepository.snapshot(() -> channelPosition)) {
+                    writeStateSnapshot(snapshot);
+                }
+            }
+            return channelPosition;
+        });
+    }
+
+    /**
+     * Returns the ChannelPosition reflected by the current state of the repository.
+     *
+     * @return ChannelPosition, or empty, if the initial snapshot has not yet been consumed completely
+     */
+    public Optional<ChannelPosition> getCurrentChannelPosition() {
+        return positionTracker.getCurrentPosition();
+    }
+
+    /**
+     * Writes a state snapshot, if the current ChannelPosition is known.
+     * <p>
+     *     The position is determined and the snapshot of the state is opened between two messages, so the state
+     *     snapshot reflects exactly the messages up to the position. Consumption continues while the snapshot is
+     *     written.
+     * </p>
+     *
+     * @return the name of the state snapshot, or empty if no snapshot was written
+     */
+    public Optional<String> writeStateSnapshot() {
+        if (!positionTracker.isStarted()) {
+            LOG.info("Skipping state snapshot of EventSource {}: initial snapshot not yet consumed", getChannelName());
+            return Optional.empty();
+        }
+        try (StateSnapshot<V> snapshot = getMessageDispatcher().betweenMessages(() ->
+                stateRepository.snapshot(() -> positionTracker.getCurrentPosition().orElse(null)))) {
+            return writeStateSnapshot(snapshot);
+        }
+    }
+
+    private Optional<String> writeStateSnapshot(final StateSnapshot<V> snapshot) {
+        try {
+            return Optional.of(stateSnapshotService.writeStateSnapshot(getChannelName(), snapshot));
+        } catch (final IOException | RuntimeException e) {
+            LOG.error("Failed to write state snapshot of EventSource " + getChannelName() + ": " + e.getMessage(), e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Loads the latest state snapshot that can be loaded. Failures are logged, so the EventSource is falling back
+     * to the MessageStore instead.
+     */
+    private Optional<ChannelPosition> loadStateSnapshot() {
+        try {
+            return stateSnapshotService.loadStateSnapshot(getChannelName(), stateRepository);
+        } catch (final RuntimeException e) {
+            LOG.error("Failed to load state snapshot of EventSource " + getChannelName() + ": " + e.getMessage(), e);
+            stateRepository.clear();
+            return Optional.empty();
+        }
+    }
+
+    private CompletableFuture<Void> scheduleStateSnapshots() {
+        if (snapshotInterval == null) {
+            return null;
+        }
+        return getSynapseExecutor()
+                .forChannel(getChannelName())
+                .scheduleWithFixedDelay(this::writeStateSnapshot, snapshotInterval, snapshotInterval);
+    }
+}
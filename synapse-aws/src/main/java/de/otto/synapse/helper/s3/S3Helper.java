@@ -99,6 +99,20 @@ public class S3Helper {
         }
     }
 
+    public void deleteObjects(final String bucketName,
+                              final List<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        final DeleteObjectsResponse deleteObjectsResponse = s3Client.deleteObjects(DeleteObjectsRequest.builder()
+                .bucket(bucketName)
+                .delete(builder()
+                        .objects(keys.stream().map(key -> ObjectIdentifier.builder().key(key).build()).collect(toList()))
+                        .build())
+                .build());
+        LOG.debug("deleteObjects {} in bucket {}: {}", keys, bucketName, deleteObjectsResponse);
+    }
+
     public List<String> listAllFiles(final String bucketName) {
         return listAll(bucketName)
                 .stream()
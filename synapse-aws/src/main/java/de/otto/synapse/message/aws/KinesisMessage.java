@@ -5,14 +5,16 @@ import software.amazon.awssdk.core.SdkBytes;
 import software.amazon.awssdk.services.kinesis.model.Record;
 
 import javax.annotation.Nonnull;
-import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.function.Function;
 
 import static de.otto.synapse.channel.ShardPosition.fromPosition;
 import static de.otto.synapse.message.Header.responseHeader;
 import static de.otto.synapse.message.Message.message;
-import static java.nio.ByteBuffer.allocateDirect;
+import static de.otto.synapse.message.aws.KinesisRecordAggregation.deaggregate;
+import static de.otto.synapse.message.aws.KinesisRecordAggregation.isAggregated;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.singletonList;
 
 public class KinesisMessage {
 
@@ -38,4 +40,19 @@ public class KinesisMessage {
                 SDK_BYTES_STRING.apply(record.data()));
     }
 
+    /**
+     * Converts a Kinesis record into messages. Records aggregated by the Kinesis Producer Library are converted
+     * into one message per user record, other records into a single message.
+     *
+     * @param shard the name of the shard
+     * @param record the Kinesis record
+     * @return list of messages
+     */
+    public static List<Message<String>> kinesisMessages(final @Nonnull String shard,
+                                                        final @Nonnull Record record) {
+        return isAggregated(record.data())
+                ? deaggregate(shard, record)
+                : singletonList(kinesisMessage(shard, record));
+    }
+
 }
@@ -0,0 +1,327 @@
+package de.otto.synapse.message.aws;
+
+import com.google.common.collect.ImmutableList;
+import de.otto.synapse.channel.ShardPosition;
+import de.otto.synapse.channel.StartFrom;
+import de.otto.synapse.message.Message;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.kinesis.model.Record;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static de.otto.synapse.channel.ShardPosition.fromPosition;
+import static de.otto.synapse.message.Header.responseHeader;
+import static de.otto.synapse.message.Message.message;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Support for the record aggregation format of the Kinesis Producer Library (KPL).
+ * <p>
+ *     An aggregated record is packing many user records into a single Kinesis record: the four magic bytes
+ *     {@code F3 89 9A C2}, followed by a protobuf-encoded {@code AggregatedRecord} and the MD5 checksum of the
+ *     protobuf message. Records that are not matching this format, or whose checksum is invalid, are not
+ *     aggregated.
+ * </p>
+ * <p>
+ *     The messages of an aggregated record are sharing the sequence number of the record. All but the last message
+ *     are positioned at {@code <sequenceNumber>:<subSequenceNumber>}, so the consumption of a shard can be resumed
+ *     in the middle of an aggregated record. The last message is positioned at the sequence number of the record.
+ * </p>
+ */
+public final class KinesisRecordAggregation {
+
+    /**
+     * The maximum size of an aggregated record, as used by the KPL by default.
+     */
+    public static final int MAX_AGGREGATED_RECORD_BYTES = 51200;
+
+    private static final byte[] MAGIC = {(byte) 0xF3, (byte) 0x89, (byte) 0x9A, (byte) 0xC2};
+    private static final int DIGEST_LENGTH = 16;
+    private static final char SUB_SEQUENCE_SEPARATOR = ':';
+
+    private static final int PARTITION_KEY_TABLE = 1;
+    private static final int RECORDS = 3;
+    private static final int PARTITION_KEY_INDEX = 1;
+    private static final int DATA = 3;
+
+    private static final int WIRE_TYPE_VARINT = 0;
+    private static final int WIRE_TYPE_FIXED64 = 1;
+    private static final int WIRE_TYPE_LENGTH_DELIMITED = 2;
+    private static final int WIRE_TYPE_FIXED32 = 5;
+
+    private KinesisRecordAggregation() {
+    }
+
+    /**
+     * Returns true, if the data is a valid KPL aggregated record.
+     *
+     * @param data the data of a Kinesis record
+     * @return boolean
+     */
+    public static boolean isAggregated(final @Nullable SdkBytes data) {
+        if (data == null) {
+            return false;
+        }
+        final byte[] bytes = data.asByteArray();
+        if (bytes.length <= MAGIC.length + DIGEST_LENGTH || !Arrays.equals(Arrays.copyOf(bytes, MAGIC.length), MAGIC)) {
+            return false;
+        }
+        final byte[] protobuf = Arrays.copyOfRange(bytes, MAGIC.length, bytes.length - DIGEST_LENGTH);
+        final byte[] digest = Arrays.copyOfRange(bytes, bytes.length - DIGEST_LENGTH, bytes.length);
+        return Arrays.equals(md5(protobuf), digest);
+    }
+
+    /**
+     * Converts an aggregated Kinesis record into messages, one message per user record.
+     *
+     * @param shard the name of the shard
+     * @param record the aggregated record
+     * @return list of messages in the order of the user records
+     * @throws IllegalArgumentException if the record is not a valid aggregated record
+     */
+    @Nonnull
+    public static List<Message<String>> deaggregate(final @Nonnull String shard,
+                                                    final @Nonnull Record record) {
+        if (!isAggregated(record.data())) {
+            throw new IllegalArgumentException("Record " + record.sequenceNumber() + " is not a KPL aggregated record");
+        }
+        final byte[] bytes = record.data().asByteArray();
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes, MAGIC.length, bytes.length - MAGIC.length - DIGEST_LENGTH);
+        final List<String> partitionKeys = new ArrayList<>();
+        final List<Long> userRecordKeyIndexes = new ArrayList<>();
+        final List<byte[]> userRecordData = new ArrayList<>();
+        while (buffer.hasRemaining()) {
+            final long tag = readVarint(buffer);
+            final int field = (int) (tag >>> 3);
+            final int wireType = (int) (tag & 0x07);
+            if (field == PARTITION_KEY_TABLE && wireType == WIRE_TYPE_LENGTH_DELIMITED) {
+                partitionKeys.add(new String(readBytes(buffer), UTF_8));
+            } else if (field == RECORDS && wireType == WIRE_TYPE_LENGTH_DELIMITED) {
+                final ByteBuffer userRecord = ByteBuffer.wrap(readBytes(buffer));
+                long partitionKeyIndex = 0;
+                byte[] data = new byte[0];
+                while (userRecord.hasRemaining()) {
+                    final long userRecordTag = readVarint(userRecord);
+                    final int userRecordField = (int) (userRecordTag >>> 3);
+                    final int userRecordWireType = (int) (userRecordTag & 0x07);
+                    if (userRecordField == PARTITION_KEY_INDEX && userRecordWireType == WIRE_TYPE_VARINT) {
+                        partitionKeyIndex = readVarint(userRecord);
+                    } else if (userRecordField == DATA && userRecordWireType == WIRE_TYPE_LENGTH_DELIMITED) {
+                        data = readBytes(userRecord);
+                    } else {
+                        skipField(userRecord, userRecordWireType);
+                    }
+                }
+                userRecordKeyIndexes.add(partitionKeyIndex);
+                userRecordData.add(data);
+            } else {
+                skipField(buffer, wireType);
+            }
+        }
+
+        final ImmutableList.Builder<Message<String>> messages = ImmutableList.builder();
+        for (int i = 0; i < userRecordKeyIndexes.size(); i++) {
+            final long partitionKeyIndex = userRecordKeyIndexes.get(i);
+            if (partitionKeyIndex >= partitionKeys.size()) {
+                throw new IllegalArgumentException("Record " + record.sequenceNumber() + " is referencing an unknown partition key");
+            }
+            final String position = i < userRecordKeyIndexes.size() - 1
+                    ? subRecordPosition(record.sequenceNumber(), i)
+                    : record.sequenceNumber();
+            final byte[] data = userRecordData.get(i);
+            messages.add(message(
+                    partitionKeys.get((int) partitionKeyIndex),
+                    responseHeader(fromPosition(shard, position), record.approximateArrivalTimestamp()),
+                    data.length > 0 ? new String(data, UTF_8) : null));
+        }
+        return messages.build();
+    }
+
+    /**
+     * Packs the messages into a single KPL aggregated record.
+     * <p>
+     *     The record is routed to a shard by its partition key, so the partition keys of all messages must be
+     *     hashed to the same shard to keep the order of messages per key.
+     * </p>
+     *
+     * @param messages the messages
+     * @return the data of the aggregated record
+     */
+    @Nonnull
+    public static SdkBytes aggregate(final @Nonnull List<Message<String>> messages) {
+        final Map<String, Integer> partitionKeyIndexes = new LinkedHashMap<>();
+        final ByteArrayOutputStream userRecords = new ByteArrayOutputStream();
+        for (final Message<String> message : messages) {
+            final Integer partitionKeyIndex = partitionKeyIndexes.computeIfAbsent(message.getKey(), key -> partitionKeyIndexes.size());
+            final ByteArrayOutputStream userRecord = new ByteArrayOutputStream();
+            writeVarint(userRecord, tag(PARTITION_KEY_INDEX, WIRE_TYPE_VARINT));
+            writeVarint(userRecord, partitionKeyIndex);
+            writeBytes(userRecord, DATA, message.getPayload() != null ? message.getPayload().getBytes(UTF_8) : new byte[0]);
+            writeBytes(userRecords, RECORDS, userRecord.toByteArray());
+        }
+        final ByteArrayOutputStream protobuf = new ByteArrayOutputStream();
+        partitionKeyIndexes.keySet().forEach(key -> writeBytes(protobuf, PARTITION_KEY_TABLE, key.getBytes(UTF_8)));
+        final byte[] userRecordBytes = userRecords.toByteArray();
+        protobuf.write(userRecordBytes, 0, userRecordBytes.length);
+
+        final byte[] protobufBytes = protobuf.toByteArray();
+        final ByteArrayOutputStream aggregated = new ByteArrayOutputStream(MAGIC.length + protobufBytes.length + DIGEST_LENGTH);
+        aggregated.write(MAGIC, 0, MAGIC.length);
+        aggregated.write(protobufBytes, 0, protobufBytes.length);
+        final byte[] digest = md5(protobufBytes);
+        aggregated.write(digest, 0, digest.length);
+        return SdkBytes.fromByteArray(aggregated.toByteArray());
+    }
+
+    /**
+     * Returns the number of bytes a message is adding to an aggregated record.
+     *
+     * @param message the message
+     * @return estimated size in bytes
+     */
+    public static int aggregatedSizeOf(final @Nonnull Message<String> message) {
+        final int keyBytes = message.getKey().getBytes(UTF_8).length;
+        final int payloadBytes = message.getPayload() != null ? message.getPayload().getBytes(UTF_8).length : 0;
+        // key and user record, each with up to 16 bytes of tags and lengths:
+        return keyBytes + payloadBytes + 32;
+    }
+
+    /**
+     * Returns the overhead of an aggregated record, that is independent of the aggregated messages.
+     *
+     * @return size in bytes
+     */
+    public static int aggregationOverhead() {
+        return MAGIC.length + DIGEST_LENGTH;
+    }
+
+    /**
+     * Returns the sequence number of a position, ignoring the sub-sequence number of a message of an aggregated
+     * record.
+     *
+     * @param position the position of a message
+     * @return sequence number
+     */
+    @Nonnull
+    public static String sequenceNumberOf(final @Nonnull String position) {
+        final int separator = position.indexOf(SUB_SEQUENCE_SEPARATOR);
+        return separator >= 0 ? position.substring(0, separator) : position;
+    }
+
+    /**
+     * Returns the sub-sequence number of a message of an aggregated record.
+     *
+     * @param position the position of a message
+     * @return sub-sequence number, or -1 if the position is not the position of a message in the middle of an
+     * aggregated record
+     */
+    public static int subSequenceNumberOf(final @Nonnull String position) {
+        final int separator = position.indexOf(SUB_SEQUENCE_SEPARATOR);
+        return separator >= 0 ? Integer.parseInt(position.substring(separator + 1)) : -1;
+    }
+
+    /**
+     * Returns the position of the last message of an aggregated record that was already consumed, if the
+     * consumption of a shard is resumed in the middle of an aggregated record.
+     * <p>
+     *     The aggregated record must be read again, starting at its sequence number, and the messages up to the
+     *     returned position must be skipped.
+     * </p>
+     *
+     * @param shardPosition the position where the consumption of the shard is resumed
+     * @return optional position of the last consumed message of an aggregated record
+     */
+    @Nonnull
+    public static Optional<ShardPosition> lastConsumedSubRecordOf(final @Nonnull ShardPosition shardPosition) {
+        if (shardPosition.startFrom() != StartFrom.POSITION && shardPosition.startFrom() != StartFrom.AT_POSITION) {
+            return Optional.empty();
+        }
+        final int subSequenceNumber = subSequenceNumberOf(shardPosition.position());
+        final int lastConsumed = shardPosition.startFrom() == StartFrom.POSITION ? subSequenceNumber : subSequenceNumber - 1;
+        return lastConsumed >= 0
+                ? Optional.of(fromPosition(shardPosition.shardName(), subRecordPosition(sequenceNumberOf(shardPosition.position()), lastConsumed)))
+                : Optional.empty();
+    }
+
+    private static String subRecordPosition(final String sequenceNumber, final int subSequenceNumber) {
+        return sequenceNumber + SUB_SEQUENCE_SEPARATOR + subSequenceNumber;
+    }
+
+    private static long tag(final int field, final int wireType) {
+        return (field << 3) | wireType;
+    }
+
+    private static void writeBytes(final ByteArrayOutputStream out, final int field, final byte[] bytes) {
+        writeVarint(out, tag(field, WIRE_TYPE_LENGTH_DELIMITED));
+        writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static void writeVarint(final ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(final ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint in aggregated record");
+    }
+
+    private static byte[] readBytes(final ByteBuffer buffer) {
+        final long length = readVarint(buffer);
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Malformed length in aggregated record");
+        }
+        final byte[] bytes = new byte[(int) length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static void skipField(final ByteBuffer buffer, final int wireType) {
+        switch (wireType) {
+            case WIRE_TYPE_VARINT:
+                readVarint(buffer);
+                break;
+            case WIRE_TYPE_FIXED64:
+                buffer.position(buffer.position() + 8);
+                break;
+            case WIRE_TYPE_LENGTH_DELIMITED:
+                readBytes(buffer);
+                break;
+            case WIRE_TYPE_FIXED32:
+                buffer.position(buffer.position() + 4);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported wire type " + wireType + " in aggregated record");
+        }
+    }
+
+    private static byte[] md5(final byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("MD5").digest(bytes);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package de.otto.synapse.checkpoint.aws;
+
+import de.otto.synapse.channel.ChannelPosition;
+import de.otto.synapse.testsupport.LocalS3Client;
+import org.junit.Test;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CreateBucketRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.util.Optional;
+
+import static de.otto.synapse.channel.ChannelPosition.channelPosition;
+import static de.otto.synapse.channel.ShardPosition.fromHorizon;
+import static de.otto.synapse.channel.ShardPosition.fromPosition;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class S3ChannelPositionCheckpointStoreTest {
+
+    @Test
+    public void shouldCommitAndReadCheckpoint() {
+        // given
+        final LocalS3Client s3Client = new LocalS3Client();
+        s3Client.createBucket(CreateBucketRequest.builder().bucket("some-bucket").build());
+        final S3ChannelPositionCheckpointStore store = new S3ChannelPositionCheckpointStore(s3Client, "some-bucket", "checkpoints/");
+        final ChannelPosition position = channelPosition(fromPosition("shard-1", "42"), fromHorizon("shard-2"));
+
+        // when
+        store.commit("some-channel", position);
+
+        // then
+        assertThat(store.getCheckpoint("some-channel"), is(Optional.of(position)));
+    }
+
+    @Test
+    public void shouldReplaceCheckpoint() {
+        // given
+        final LocalS3Client s3Client = new LocalS3Client();
+        s3Client.createBucket(CreateBucketRequest.builder().bucket("some-bucket").build());
+        final S3ChannelPositionCheckpointStore store = new S3ChannelPositionCheckpointStore(s3Client, "some-bucket", "checkpoints/");
+        store.commit("some-channel", channelPosition(fromPosition("shard-1", "1")));
+
+        // when
+        store.commit("some-channel", channelPosition(fromPosition("shard-1", "2")));
+
+        // then
+        assertThat(store.getCheckpoint("some-channel"), is(Optional.of(channelPosition(fromPosition("shard-1", "2")))));
+    }
+
+    @Test
+    public void shouldReturnEmptyCheckpointIfObjectDoesNotExist() {
+        // given
+        final S3Client s3Client = mock(S3Client.class);
+        when(s3Client.getObject(any(GetObjectRequest.class))).thenThrow(NoSuchKeyException.class);
+        final S3ChannelPositionCheckpointStore store = new S3ChannelPositionCheckpointStore(s3Client, "some-bucket", "checkpoints/");
+
+        // when
+        final Optional<ChannelPosition> checkpoint = store.getCheckpoint("some-channel");
+
+        // then
+        assertThat(checkpoint.isPresent(), is(false));
+    }
+
+    @Test(expected = S3Exception.class)
+    public void shouldPropagateOtherErrorsWhenReadingCheckpoint() {
+        // given
+        final S3Client s3Client = mock(S3Client.class);
+        when(s3Client.getObject(any(GetObjectRequest.class))).thenThrow(S3Exception.class);
+        final S3ChannelPositionCheckpointStore store = new S3ChannelPositionCheckpointStore(s3Client, "some-bucket", "checkpoints/");
+
+        // when
+        store.getCheckpoint("some-channel");
+    }
+}
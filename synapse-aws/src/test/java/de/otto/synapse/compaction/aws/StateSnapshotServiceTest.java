@@ -0,0 +1,248 @@
+package de.otto.synapse.compaction.aws;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.otto.synapse.channel.ChannelPosition;
+import de.otto.synapse.state.ConcurrentHashMapStateRepository;
+import de.otto.synapse.state.StateRepository;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Optional;
+
+import static de.otto.synapse.channel.ChannelPosition.channelPosition;
+import static de.otto.synapse.channel.ShardPosition.fromHorizon;
+import static de.otto.synapse.channel.ShardPosition.fromPosition;
+import static de.otto.synapse.channel.ShardPosition.fromTimestamp;
+import static de.otto.synapse.compaction.aws.SnapshotServiceTestUtils.snapshotProperties;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.Collections.emptyList;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class StateSnapshotServiceTest {
+
+    private static final String CHANNEL_NAME = "teststream";
+
+    private S3Client s3Client;
+    private StateSnapshotService<SomePojo> testee;
+    private File uploadedFile;
+
+    @Before
+    public void setUp() throws Exception {
+        s3Client = mock(S3Client.class);
+        testee = new StateSnapshotService<>(s3Client, snapshotProperties(), new ObjectMapper(), SomePojo.class);
+        uploadedFile = File.createTempFile("uploaded-state-snapshot", ".tmp");
+    }
+
+    @After
+    public void tearDown() {
+        uploadedFile.delete();
+        SnapshotFileHelper.removeTempFiles("state-" + CHANNEL_NAME + "-snapshot-*");
+    }
+
+    @Test
+    public void shouldWriteAndLoadStateSnapshot() throws Exception {
+        // given
+        final StateRepository<SomePojo> stateRepository = new ConcurrentHashMapStateRepository<>();
+        stateRepository.put("first", new SomePojo("foo", 1));
+        stateRepository.put("second", new SomePojo("bär", 2));
+        final ChannelPosition position = channelPosition(
+                fromPosition("shard-1", "4711"),
+                fromHorizon("shard-2"),
+                fromTimestamp("shard-3", Instant.ofEpochMilli(42)));
+        mockS3Upload();
+        final String fileName = testee.writeStateSnapshot(CHANNEL_NAME, position, stateRepository);
+        mockS3Download(fileName);
+
+        // when
+        final StateRepository<SomePojo> loadedRepository = new ConcurrentHashMapStateRepository<>();
+        loadedRepository.put("stale", new SomePojo("stale", 0));
+        final Optional<ChannelPosition> loadedPosition = testee.loadStateSnapshot(CHANNEL_NAME, loadedRepository);
+
+        // then
+        assertThat(fileName, startsWith("state-" + CHANNEL_NAME + "-snapshot-"));
+        assertThat(loadedPosition, is(Optional.of(position)));
+        assertThat(loadedRepository.size(), is(2L));
+        assertThat(loadedRepository.get("first"), is(Optional.of(new SomePojo("foo", 1))));
+        assertThat(loadedRepository.get("second"), is(Optional.of(new SomePojo("bär", 2))));
+    }
+
+    @Test
+    public void shouldReturnEmptyPositionWithoutStateSnapshot() {
+        // given
+        when(s3Client.listObjectsV2(any(ListObjectsV2Request.class))).thenReturn(ListObjectsV2Response.builder().keyCount(0).contents(emptyList()).build());
+        final StateRepository<SomePojo> stateRepository = new ConcurrentHashMapStateRepository<>();
+        stateRepository.put("existing", new SomePojo("foo", 1));
+
+        // when
+        final Optional<ChannelPosition> position = testee.loadStateSnapshot(CHANNEL_NAME, stateRepository);
+
+        // then
+        assertThat(position, is(Optional.empty()));
+        assertThat(stateRepository.size(), is(1L));
+    }
+
+    @Test
+    public void shouldDeleteOlderStateSnapshotsAfterUpload() throws Exception {
+        // given
+        mockS3Upload();
+        when(s3Client.listObjectsV2(any(ListObjectsV2Request.class))).thenReturn(ListObjectsV2Response.builder()
+                .keyCount(6)
+                .contents(
+                        someStateSnapshot(1), someStateSnapshot(5), someStateSnapshot(3),
+                        someStateSnapshot(4), someStateSnapshot(2),
+                        S3Object.builder().key("compaction-" + CHANNEL_NAME + "-snapshot-0.json.zip").lastModified(Instant.ofEpochSecond(0)).build())
+                .build());
+        when(s3Client.deleteObjects(any(DeleteObjectsRequest.class))).thenReturn(DeleteObjectsResponse.builder().build());
+
+        // when
+        testee.writeStateSnapshot(CHANNEL_NAME, channelPosition(fromPosition("shard-1", "42")), new ConcurrentHashMapStateRepository<>());
+
+        // then
+        final ArgumentCaptor<DeleteObjectsRequest> request = ArgumentCaptor.forClass(DeleteObjectsRequest.class);
+        verify(s3Client).deleteObjects(request.capture());
+        assertThat(request.getValue().delete().objects().stream().map(ObjectIdentifier::key).collect(toList()),
+                contains(someStateSnapshot(2).key(), someStateSnapshot(1).key()));
+    }
+
+    @Test
+    public void shouldNotDeleteLatestStateSnapshots() {
+        // given
+        when(s3Client.listObjectsV2(any(ListObjectsV2Request.class))).thenReturn(ListObjectsV2Response.builder()
+                .keyCount(3)
+                .contents(someStateSnapshot(1), someStateSnapshot(2), someStateSnapshot(3))
+                .build());
+
+        // when
+        testee.deleteOlderStateSnapshots(CHANNEL_NAME);
+
+        // then
+        verify(s3Client, never()).deleteObjects(any(DeleteObjectsRequest.class));
+    }
+
+    @Test
+    public void shouldClearRepositoryIfLoadingStateSnapshotFails() throws Exception {
+        // given
+        Files.write(uploadedFile.toPath(), "not a state snapshot".getBytes());
+        mockS3Download("state-" + CHANNEL_NAME + "-snapshot-2019-01-01T00-00Z-1.state.gz");
+        final StateRepository<SomePojo> stateRepository = new ConcurrentHashMapStateRepository<>();
+        stateRepository.put("stale", new SomePojo("stale", 0));
+
+        // when
+        final Optional<ChannelPosition> position = testee.loadStateSnapshot(CHANNEL_NAME, stateRepository);
+
+        // then
+        assertThat(position, is(Optional.empty()));
+        assertThat(stateRepository.size(), is(0L));
+    }
+
+    @Test
+    public void shouldLoadOlderStateSnapshotIfLatestStateSnapshotCanNotBeLoaded() throws Exception {
+        // given
+        final StateRepository<SomePojo> stateRepository = new ConcurrentHashMapStateRepository<>();
+        stateRepository.put("first", new SomePojo("foo", 1));
+        final ChannelPosition position = channelPosition(fromPosition("shard-1", "42"));
+        mockS3Upload();
+        testee.writeStateSnapshot(CHANNEL_NAME, position, stateRepository);
+        final S3Object brokenSnapshot = someStateSnapshot(2).toBuilder().size(3L).build();
+        final S3Object olderSnapshot = someStateSnapshot(1).toBuilder().size(uploadedFile.length()).build();
+        when(s3Client.listObjectsV2(any(ListObjectsV2Request.class))).thenReturn(ListObjectsV2Response.builder()
+                .keyCount(2)
+                .contents(olderSnapshot, brokenSnapshot)
+                .build());
+        when(s3Client.getObject(any(GetObjectRequest.class), any(Path.class))).thenAnswer(invocation -> {
+            if (invocation.<GetObjectRequest>getArgument(0).key().equals(brokenSnapshot.key())) {
+                Files.write(invocation.<Path>getArgument(1), "bad".getBytes());
+            } else {
+                Files.copy(uploadedFile.toPath(), invocation.<Path>getArgument(1), REPLACE_EXISTING);
+            }
+            return GetObjectResponse.builder().build();
+        });
+
+        // when
+        final StateRepository<SomePojo> loadedRepository = new ConcurrentHashMapStateRepository<>();
+        final Optional<ChannelPosition> loadedPosition = testee.loadStateSnapshot(CHANNEL_NAME, loadedRepository);
+
+        // then
+        assertThat(loadedPosition, is(Optional.of(position)));
+        assertThat(loadedRepository.get("first"), is(Optional.of(new SomePojo("foo", 1))));
+    }
+
+    private static S3Object someStateSnapshot(final int minute) {
+        return S3Object.builder()
+                .key("state-" + CHANNEL_NAME + "-snapshot-2019-01-01T00-0" + minute + "Z-1" + SnapshotFileHelper.STATE_SNAPSHOT_FILE_EXTENSION)
+                .lastModified(Instant.ofEpochSecond(60 * minute))
+                .build();
+    }
+
+    private void mockS3Upload() {
+        when(s3Client.putObject(any(PutObjectRequest.class), any(Path.class))).thenAnswer(invocation -> {
+            Files.copy(invocation.<Path>getArgument(1), uploadedFile.toPath(), REPLACE_EXISTING);
+            return PutObjectResponse.builder().build();
+        });
+    }
+
+    private void mockS3Download(final String fileName) {
+        final S3Object s3Object = S3Object.builder()
+                .key(fileName)
+                .size(uploadedFile.length())
+                .lastModified(Instant.now())
+                .build();
+        when(s3Client.listObjectsV2(any(ListObjectsV2Request.class))).thenReturn(ListObjectsV2Response.builder().keyCount(1).contents(s3Object).build());
+        when(s3Client.getObject(any(GetObjectRequest.class), any(Path.class))).thenAnswer(invocation -> {
+            Files.copy(uploadedFile.toPath(), invocation.<Path>getArgument(1), REPLACE_EXISTING);
+            return GetObjectResponse.builder().build();
+        });
+    }
+
+    public static class SomePojo {
+        public String name;
+        public int count;
+
+        public SomePojo() {
+        }
+
+        SomePojo(final String name, final int count) {
+            this.name = name;
+            this.count = count;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            final SomePojo that = (SomePojo) o;
+            return count == that.count && name.equals(that.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode() * 31 + count;
+        }
+    }
+}
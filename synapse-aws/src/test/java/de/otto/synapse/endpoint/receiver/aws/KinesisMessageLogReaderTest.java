@@ -3,6 +3,11 @@ package de.otto.synapse.endpoint.receiver.aws;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableList;
 import de.otto.synapse.channel.ChannelPosition;
+import de.otto.synapse.executor.SynapseExecutor;
+import de.otto.synapse.lease.InMemoryShardLeaseStore;
+import de.otto.synapse.lease.ShardLease;
+import de.otto.synapse.lease.ShardLeaseCoordinator;
+import de.otto.synapse.lease.ShardLeaseStore;
 import de.otto.synapse.message.Message;
 import de.otto.synapse.testsupport.TestClock;
 import org.junit.Test;
@@ -18,6 +23,8 @@ import software.amazon.awssdk.services.kinesis.model.*;
 
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.List;
 import java.util.Set;
@@ -33,9 +40,12 @@ import static de.otto.synapse.channel.ChannelPosition.channelPosition;
 import static de.otto.synapse.channel.ChannelPosition.fromHorizon;
 import static de.otto.synapse.channel.ShardPosition.fromPosition;
 import static de.otto.synapse.endpoint.receiver.aws.KinesisShardIterator.POISON_SHARD_ITER;
+import static de.otto.synapse.lease.ShardLease.unownedLease;
 import static java.time.Duration.ofMillis;
+import static java.time.Duration.ofMinutes;
 import static java.util.Collections.emptyList;
 import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toSet;
 import static org.hamcrest.Matchers.*;
 import static org.hamcrest.core.IsNull.nullValue;
@@ -208,6 +218,25 @@ public class KinesisMessageLogReaderTest {
         assertThat(messages, is(empty()));
     }
 
+    @Test
+    public void shouldReadUsingTheGivenReadQuota() throws ExecutionException, InterruptedException {
+        // given
+        describeStreamResponse(
+                ImmutableList.of(
+                        someShard("shard1", true)));
+        describeRecordsForShard("shard1", true);
+        final KinesisReadQuota readQuota = new KinesisReadQuota();
+
+        logReader = new KinesisMessageLogReader("channelName", kinesisClient, clock, SynapseExecutor.defaultExecutor(), ofMinutes(1), null, readQuota);
+
+        // when
+        logReader.consumeUntil(fromHorizon(), Instant.MAX, responseConsumer).get();
+
+        // then
+        assertThat(readQuota.getMetrics(), hasSize(1));
+        assertThat(readQuota.getMetrics().get(0).getShardName(), is("shard1"));
+    }
+
     @Test
     public void shouldIterateResponses() throws ExecutionException, InterruptedException {
         // given
@@ -219,7 +248,7 @@ public class KinesisMessageLogReaderTest {
         logReader = new KinesisMessageLogReader("channelName", kinesisClient, clock);
 
         // when
-        final KinesisMessageLogIterator iterator = logReader.getMessageLogIterator(fromHorizon());
+        final KinesisMessageLogIterator iterator = logReader.getMessageLogIteratorAsync(fromHorizon()).get();
         KinesisMessageLogResponse response = logReader.read(iterator).get();
         // then (skip empty records)
         // assertThat(response.getMessages(), hasSize(0));
@@ -412,6 +441,140 @@ public class KinesisMessageLogReaderTest {
         verify(responseConsumer, times(8)).accept(responseArgumentCaptor.capture());
     }
 
+    @Test
+    public void shouldDrainClosedParentShardBeforeConsumingChildShard() throws ExecutionException, InterruptedException {
+        // given
+        describeStreamResponse(
+                ImmutableList.of(
+                        someShard("parent", false),
+                        someChildShard("child", "parent")));
+        describeRecordsForClosedShard("parent");
+        describeRecordsForShard("child", true);
+
+        logReader = new KinesisMessageLogReader("channelName", kinesisClient, clock);
+
+        // when
+        final ChannelPosition position = logReader.consumeUntil(fromHorizon(), Instant.MAX, responseConsumer).get();
+
+        // then
+        verify(responseConsumer, times(5)).accept(responseArgumentCaptor.capture());
+        final List<String> shardNames = responseArgumentCaptor.getAllValues()
+                .stream()
+                .map(KinesisShardResponse::getShardName)
+                .collect(toList());
+        assertThat(shardNames, contains("parent", "child", "child", "child", "child"));
+        assertThat(position.shards(), containsInAnyOrder("parent", "child"));
+        assertThat(position.shard("parent"), is(fromPosition("parent", "parent-1")));
+    }
+
+    @Test
+    public void shouldConsumeChildShardsDescribedAfterParentShardIsClosed() throws Exception {
+        // given
+        final CompletableFuture<DescribeStreamResponse> pendingDescription = new CompletableFuture<>();
+        when(kinesisClient.describeStream(any(DescribeStreamRequest.class))).thenReturn(
+                completedFuture(createResponseForShards(ImmutableList.of(someShard("parent", false)), false)),
+                pendingDescription);
+        describeRecordsForClosedShard("parent");
+        describeRecordsForShard("child", true);
+
+        logReader = new KinesisMessageLogReader("channelName", kinesisClient, clock);
+
+        // when
+        final CompletableFuture<ChannelPosition> futurePosition = logReader.consumeUntil(fromHorizon(), Instant.MAX, responseConsumer);
+        verify(kinesisClient, timeout(10000).times(2)).describeStream(any(DescribeStreamRequest.class));
+        final boolean doneWhileDescribing = futurePosition.isDone();
+        pendingDescription.complete(createResponseForShards(ImmutableList.of(
+                someShard("parent", false),
+                someChildShard("child", "parent")), false));
+        final ChannelPosition position = futurePosition.get(10, TimeUnit.SECONDS);
+
+        // then
+        assertThat(doneWhileDescribing, is(false));
+        assertThat(position.shards(), containsInAnyOrder("parent", "child"));
+        verify(responseConsumer, times(5)).accept(any(KinesisShardResponse.class));
+    }
+
+    @Test
+    public void shouldNotConsumeClosedParentShardIfChildShardWasAlreadyConsumed() throws ExecutionException, InterruptedException {
+        // given
+        describeStreamResponse(
+                ImmutableList.of(
+                        someShard("parent", false),
+                        someChildShard("child", "parent")));
+        describeRecordsForShard("child", true);
+
+        logReader = new KinesisMessageLogReader("channelName", kinesisClient, clock);
+
+        // when
+        logReader.consumeUntil(channelPosition(fromPosition("child", "42")), Instant.MAX, responseConsumer).get();
+
+        // then
+        verify(kinesisClient, never()).getShardIterator(argThat((GetShardIteratorRequest request) -> request != null && request.shardId().equals("parent")));
+        verify(responseConsumer, times(4)).accept(any(KinesisShardResponse.class));
+    }
+
+    @Test
+    public void shouldOnlyConsumeLeasedShards() throws ExecutionException, InterruptedException, TimeoutException {
+        // given
+        describeStreamResponse(
+                ImmutableList.of(
+                        someShard("shard1", true),
+                        someShard("shard2", true)));
+        describeRecordsForShard("shard1", true);
+        final ShardLeaseStore leaseStore = new InMemoryShardLeaseStore();
+        leaseStore.compareAndSet(null, unownedLease("channelName", "shard2").withOwner("other-instance", Instant.now().plusSeconds(3600)));
+        final ShardLeaseCoordinator leaseCoordinator = new ShardLeaseCoordinator("channelName", leaseStore, "this-instance", Duration.ofSeconds(30), Clock.systemDefaultZone());
+
+        logReader = new KinesisMessageLogReader("channelName", kinesisClient, clock, SynapseExecutor.defaultExecutor(), ofMinutes(1), leaseCoordinator);
+
+        // when
+        final CompletableFuture<ChannelPosition> futurePosition = logReader.consumeUntil(fromHorizon(), Instant.MAX, responseConsumer);
+        verify(responseConsumer, timeout(10000).times(4)).accept(responseArgumentCaptor.capture());
+        logReader.stop();
+        futurePosition.get(10, TimeUnit.SECONDS);
+
+        // then
+        final Set<String> shardNames = responseArgumentCaptor.getAllValues()
+                .stream()
+                .map(KinesisShardResponse::getShardName)
+                .collect(toSet());
+        assertThat(shardNames, containsInAnyOrder("shard1"));
+        verify(kinesisClient, never()).getShardIterator(argThat((GetShardIteratorRequest request) -> request != null && request.shardId().equals("shard2")));
+        final ShardLease releasedLease = leaseStore.getLeases("channelName").stream()
+                .filter(lease -> lease.getShardName().equals("shard1"))
+                .findAny()
+                .get();
+        assertThat(releasedLease.getOwner().isPresent(), is(false));
+        assertThat(releasedLease.getCheckpoint().isPresent(), is(true));
+    }
+
+    private Shard someChildShard(String shardId, String parentShardId) {
+        return Shard.builder()
+                .shardId(shardId)
+                .parentShardId(parentShardId)
+                .sequenceNumberRange(SequenceNumberRange.builder()
+                        .startingSequenceNumber("2222")
+                        .build())
+                .build();
+    }
+
+    private void describeRecordsForClosedShard(final String shardName) {
+        when(kinesisClient
+                .getShardIterator(argThat((GetShardIteratorRequest req1) -> req1 != null && req1.shardId().equals(shardName))))
+                .thenReturn(completedFuture(GetShardIteratorResponse.builder().shardIterator(shardName + "-iter").build()));
+        final GetRecordsResponse lastResponse = GetRecordsResponse.builder()
+                .records(Record.builder()
+                        .partitionKey("last")
+                        .approximateArrivalTimestamp(clock.instant())
+                        .data(SdkBytes.fromByteArray("{}".getBytes(StandardCharsets.UTF_8)))
+                        .sequenceNumber(shardName + "-1")
+                        .build())
+                .millisBehindLatest(0L)
+                .build();
+        when(kinesisClient.getRecords(argThat((GetRecordsRequest req) -> isShardIter(shardName, req))))
+                .thenReturn(completedFuture(lastResponse));
+    }
+
     private Shard someShard(String shardId, boolean open) {
         return Shard.builder()
                 .shardId(shardId)
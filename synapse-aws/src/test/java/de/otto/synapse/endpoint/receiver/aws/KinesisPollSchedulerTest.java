@@ -0,0 +1,122 @@
+package de.otto.synapse.endpoint.receiver.aws;
+
+import org.junit.Test;
+import software.amazon.awssdk.services.kinesis.model.Record;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static de.otto.synapse.channel.ShardPosition.fromHorizon;
+import static de.otto.synapse.message.Message.message;
+import static de.otto.synapse.message.aws.KinesisRecordAggregation.aggregate;
+import static java.time.Duration.ofMillis;
+import static java.time.Duration.ofSeconds;
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class KinesisPollSchedulerTest {
+
+    private final KinesisPollScheduler scheduler = new KinesisPollScheduler();
+
+    @Test
+    public void shouldWaitDefaultDelayIfShardIsUpToDate() {
+        // when
+        final Duration delay = scheduler.delayAfter(response(10, ofMillis(0), 50), 100);
+
+        // then
+        assertThat(delay, is(ofSeconds(1)));
+    }
+
+    @Test
+    public void shouldOnlyRespectReadQuotaIfBatchIsFull() {
+        // when
+        final Duration delay = scheduler.delayAfter(response(100, ofMillis(0), 50), 100);
+
+        // then
+        assertThat(delay, is(ofMillis(150)));
+    }
+
+    @Test
+    public void shouldOnlyRespectReadQuotaIfShardIsBehind() {
+        // when
+        final Duration delay = scheduler.delayAfter(response(10, ofSeconds(60), 50), 100);
+
+        // then
+        assertThat(delay, is(ofMillis(150)));
+    }
+
+    @Test
+    public void shouldNotWaitIfCallTookLongerThanReadQuotaInterval() {
+        // when
+        final Duration delay = scheduler.delayAfter(response(0, ofSeconds(60), 500), 100);
+
+        // then
+        assertThat(delay, is(Duration.ZERO));
+    }
+
+    @Test
+    public void shouldBackOffExponentiallyOnEmptyResponses() {
+        // when
+        final List<Duration> delays = IntStream.range(0, 5)
+                .mapToObj(i -> scheduler.delayAfter(response(0, ofMillis(0), 50), 100))
+                .collect(toList());
+
+        // then
+        assertThat(delays.get(0), is(ofSeconds(1)));
+        assertThat(delays.get(1), is(ofSeconds(2)));
+        assertThat(delays.get(2), is(ofSeconds(4)));
+        assertThat(delays.get(3), is(ofSeconds(5)));
+        assertThat(delays.get(4), is(ofSeconds(5)));
+    }
+
+    @Test
+    public void shouldResetBackOffAfterNonEmptyResponse() {
+        // given
+        scheduler.delayAfter(response(0, ofMillis(0), 50), 100);
+        scheduler.delayAfter(response(0, ofMillis(0), 50), 100);
+        scheduler.delayAfter(response(1, ofMillis(0), 50), 100);
+
+        // when
+        final Duration delay = scheduler.delayAfter(response(0, ofMillis(0), 50), 100);
+
+        // then
+        assertThat(delay, is(ofSeconds(1)));
+    }
+
+    @Test
+    public void shouldNotCountDeaggregatedMessagesAsFullBatch() {
+        // given
+        final Record aggregatedRecord = Record.builder()
+                .sequenceNumber("42")
+                .partitionKey("some-key")
+                .data(aggregate(IntStream.range(0, 150)
+                        .mapToObj(i -> message(String.valueOf(i), "some payload"))
+                        .collect(toList())))
+                .approximateArrivalTimestamp(Instant.now())
+                .build();
+        final KinesisShardResponse response = new KinesisShardResponse("someChannel", fromHorizon("someShard"), ofMillis(0), singletonList(aggregatedRecord), 50);
+
+        // when
+        final Duration delay = scheduler.delayAfter(response, 100);
+
+        // then
+        assertThat(response.getMessages(), hasSize(150));
+        assertThat(delay, is(ofSeconds(1)));
+    }
+
+    private KinesisShardResponse response(final int numberOfRecords, final Duration durationBehind, final long runtime) {
+        final List<Record> records = IntStream.range(0, numberOfRecords)
+                .mapToObj(i -> Record.builder()
+                        .sequenceNumber(String.valueOf(i))
+                        .partitionKey(String.valueOf(i))
+                        .approximateArrivalTimestamp(Instant.now())
+                        .build())
+                .collect(toList());
+        return new KinesisShardResponse("someChannel", fromHorizon("someShard"), durationBehind, records, runtime);
+    }
+}
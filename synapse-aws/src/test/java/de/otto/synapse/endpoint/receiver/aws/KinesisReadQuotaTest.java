@@ -0,0 +1,116 @@
+package de.otto.synapse.endpoint.receiver.aws;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static de.otto.synapse.endpoint.receiver.aws.KinesisReadQuota.Priority.BACKGROUND;
+import static de.otto.synapse.endpoint.receiver.aws.KinesisReadQuota.Priority.LIVE;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class KinesisReadQuotaTest {
+
+    private final AtomicLong nanoTime = new AtomicLong();
+    private final KinesisReadQuota readQuota = new KinesisReadQuota(5, 1000, nanoTime::get);
+
+    @Test
+    public void shouldAcquireCallsUpToTheQuota() {
+        // given
+        for (int i = 0; i < 5; i++) {
+            assertThat(readQuota.acquire("someChannel", "someShard", LIVE).isDone(), is(true));
+        }
+
+        // when
+        final CompletableFuture<Void> sixthCall = readQuota.acquire("someChannel", "someShard", LIVE);
+
+        // then
+        assertThat(sixthCall.isDone(), is(false));
+        sixthCall.cancel(false);
+    }
+
+    @Test
+    public void shouldShareQuotaPerShard() {
+        // given
+        for (int i = 0; i < 5; i++) {
+            readQuota.acquire("someChannel", "someShard", LIVE);
+        }
+
+        // when
+        final CompletableFuture<Void> otherShard = readQuota.acquire("someChannel", "otherShard", LIVE);
+        final CompletableFuture<Void> otherChannel = readQuota.acquire("otherChannel", "someShard", LIVE);
+
+        // then
+        assertThat(otherShard.isDone(), is(true));
+        assertThat(otherChannel.isDone(), is(true));
+    }
+
+    @Test
+    public void shouldReserveQuotaForLiveReaders() {
+        // given
+        readQuota.acquire("someChannel", "someShard", LIVE);
+        readQuota.acquire("someChannel", "someShard", LIVE);
+
+        // when
+        final CompletableFuture<Void> backgroundCall = readQuota.acquire("someChannel", "someShard", BACKGROUND);
+        final CompletableFuture<Void> liveCall = readQuota.acquire("someChannel", "someShard", LIVE);
+
+        // then
+        assertThat(backgroundCall.isDone(), is(false));
+        assertThat(liveCall.isDone(), is(true));
+        backgroundCall.cancel(false);
+    }
+
+    @Test
+    public void shouldDelayCallsAfterLargeResponses() {
+        // given
+        readQuota.consumed("someChannel", "someShard", 3000);
+
+        // when
+        final CompletableFuture<Void> delayedCall = readQuota.acquire("someChannel", "someShard", LIVE);
+        nanoTime.addAndGet(SECONDS.toNanos(2));
+        final CompletableFuture<Void> refilledCall = readQuota.acquire("someChannel", "someShard", LIVE);
+
+        // then
+        assertThat(delayedCall.isDone(), is(false));
+        assertThat(refilledCall.isDone(), is(true));
+        delayedCall.cancel(false);
+    }
+
+    @Test
+    public void shouldDrainQuotaIfThrottled() {
+        // given
+        readQuota.throttled("someChannel", "someShard");
+
+        // when
+        final CompletableFuture<Void> throttledCall = readQuota.acquire("someChannel", "someShard", LIVE);
+        nanoTime.addAndGet(SECONDS.toNanos(1));
+        final CompletableFuture<Void> refilledCall = readQuota.acquire("someChannel", "someShard", LIVE);
+
+        // then
+        assertThat(throttledCall.isDone(), is(false));
+        assertThat(refilledCall.isDone(), is(true));
+        throttledCall.cancel(false);
+    }
+
+    @Test
+    public void shouldReportMetricsPerShard() {
+        // given
+        readQuota.consumed("someChannel", "someShard", 500);
+        readQuota.recordLimit("someChannel", "someShard", 42, 100);
+        readQuota.throttled("someChannel", "someShard");
+        readQuota.consumed("otherChannel", "someShard", 0);
+
+        // when
+        final ImmutableList<KinesisShardReadMetrics> metrics = readQuota.getMetrics();
+
+        // then
+        assertThat(metrics, contains(
+                new KinesisShardReadMetrics("otherChannel", "someShard", 0, 0, 0, 0),
+                new KinesisShardReadMetrics("someChannel", "someShard", 42, 100, 500, 1)));
+    }
+}
@@ -0,0 +1,75 @@
+package de.otto.synapse.endpoint.receiver.aws;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class KinesisRecordLimitTest {
+
+    @Test
+    public void shouldUseMaxLimitForSmallRecords() {
+        // given
+        final KinesisRecordLimit recordLimit = new KinesisRecordLimit(10000);
+
+        // when
+        recordLimit.responded(10000, 10000 * 200L);
+
+        // then
+        assertThat(recordLimit.get(), is(10000));
+        assertThat(recordLimit.getAverageRecordBytes(), is(200L));
+    }
+
+    @Test
+    public void shouldReduceLimitForLargeRecords() {
+        // given
+        final KinesisRecordLimit recordLimit = new KinesisRecordLimit(10000);
+
+        // when
+        recordLimit.responded(10, 10 * 512 * 1024L);
+
+        // then
+        assertThat(recordLimit.get(), is(4));
+    }
+
+    @Test
+    public void shouldUseMovingAverageOfRecordSize() {
+        // given
+        final KinesisRecordLimit recordLimit = new KinesisRecordLimit(10000);
+        recordLimit.responded(1, 1000);
+
+        // when
+        recordLimit.responded(1, 2000);
+
+        // then
+        assertThat(recordLimit.getAverageRecordBytes(), is(1200L));
+    }
+
+    @Test
+    public void shouldIgnoreEmptyResponses() {
+        // given
+        final KinesisRecordLimit recordLimit = new KinesisRecordLimit(10000);
+        recordLimit.responded(4, 4 * 512 * 1024L);
+
+        // when
+        recordLimit.responded(0, 0);
+
+        // then
+        assertThat(recordLimit.get(), is(4));
+    }
+
+    @Test
+    public void shouldHalveLimitIfThrottledAndRecoverAfterwards() {
+        // given
+        final KinesisRecordLimit recordLimit = new KinesisRecordLimit(1000);
+
+        // when
+        recordLimit.throttled();
+        final int throttledLimit = recordLimit.get();
+        recordLimit.responded(0, 0);
+
+        // then
+        assertThat(throttledLimit, is(500));
+        assertThat(recordLimit.get(), is(550));
+    }
+}
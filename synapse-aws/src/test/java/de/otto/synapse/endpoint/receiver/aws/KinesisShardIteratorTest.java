@@ -1,21 +1,28 @@
 package de.otto.synapse.endpoint.receiver.aws;
 
+import com.google.common.collect.ImmutableList;
 import de.otto.synapse.message.Message;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.junit.MockitoJUnitRunner;
 import org.mockito.stubbing.Answer;
+import software.amazon.awssdk.core.SdkBytes;
 import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
 import software.amazon.awssdk.services.kinesis.model.*;
 
 import java.time.Instant;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import static de.otto.synapse.channel.ShardPosition.*;
+import static de.otto.synapse.message.Message.message;
+import static de.otto.synapse.message.aws.KinesisRecordAggregation.aggregate;
 import static java.time.Instant.now;
 import static java.util.Collections.emptyList;
 import static java.util.concurrent.CompletableFuture.completedFuture;
 import static java.util.concurrent.CompletableFuture.supplyAsync;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.nullValue;
 import static org.hamcrest.core.Is.is;
@@ -23,6 +30,7 @@ import static org.junit.Assert.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 import static software.amazon.awssdk.services.kinesis.model.Record.builder;
+import static software.amazon.awssdk.services.kinesis.model.ShardIteratorType.AT_SEQUENCE_NUMBER;
 import static software.amazon.awssdk.services.kinesis.model.ShardIteratorType.TRIM_HORIZON;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -228,6 +236,37 @@ public class KinesisShardIteratorTest {
                 .build();
         verify(kinesisClient).getRecords(expectedRequest);
     }
+    @Test
+    public void shouldReduceRecordLimitForLargeRecords() {
+        // given
+        final SdkBytes largeData = SdkBytes.fromByteArray(new byte[256 * 1024]);
+        final GetRecordsResponse response = GetRecordsResponse.builder()
+                .records(
+                        builder().sequenceNumber("1").partitionKey("foo").approximateArrivalTimestamp(now()).data(largeData).build(),
+                        builder().sequenceNumber("2").partitionKey("foo").approximateArrivalTimestamp(now()).data(largeData).build())
+                .nextShardIterator("nextIteratorId")
+                .millisBehindLatest(42L)
+                .build();
+        final KinesisAsyncClient kinesisClient = someKinesisClient();
+        when(kinesisClient.getRecords(any(GetRecordsRequest.class))).thenReturn(completedFuture(response));
+        final KinesisShardIterator shardIterator = new KinesisShardIterator(kinesisClient, "", fromHorizon("someShard"));
+
+        // when
+        shardIterator.next();
+        shardIterator.next();
+
+        // then
+        verify(kinesisClient).getRecords(GetRecordsRequest.builder()
+                .shardIterator("someShardIterator")
+                .limit(KinesisShardIterator.FETCH_RECORDS_LIMIT)
+                .build());
+        verify(kinesisClient).getRecords(GetRecordsRequest.builder()
+                .shardIterator("nextIteratorId")
+                .limit(8)
+                .build());
+        assertThat(shardIterator.getRecordLimit(), is(8));
+    }
+
     @Test
     public void shouldIterateToNextId() {
         // given
@@ -273,6 +312,86 @@ public class KinesisShardIteratorTest {
         assertThat(shardIterator.getId(), is("nextIteratorId"));
     }
 
+    @Test
+    public void shouldNotBlockCallerWhileWaitingForRetry() throws Exception {
+        // given
+        GetRecordsResponse response = GetRecordsResponse.builder()
+                .records(emptyList())
+                .nextShardIterator("nextIteratorId")
+                .millisBehindLatest(42L)
+                .build();
+        final KinesisAsyncClient kinesisClient = someKinesisClient();
+        when(kinesisClient.getRecords(any(GetRecordsRequest.class)))
+                .thenThrow(KinesisException.builder().message("forced test exception").build())
+                .thenReturn(completedFuture(response));
+        final KinesisShardIterator shardIterator = new KinesisShardIterator(kinesisClient, "", fromHorizon("someShard"));
+
+        // when
+        final CompletableFuture<KinesisShardResponse> futureResponse = shardIterator.nextAsync();
+
+        // then
+        assertThat(futureResponse.isDone(), is(false));
+        futureResponse.get(10, TimeUnit.SECONDS);
+        verify(kinesisClient, times(2)).getRecords(any(GetRecordsRequest.class));
+        assertThat(shardIterator.getId(), is("nextIteratorId"));
+    }
+
+    @Test
+    public void shouldReturnPrefetchedResponse() {
+        // given
+        final GetRecordsResponse response = GetRecordsResponse.builder()
+                .records(builder()
+                        .sequenceNumber("someSeqNumber")
+                        .partitionKey("foo")
+                        .approximateArrivalTimestamp(now())
+                        .build())
+                .nextShardIterator("nextIteratorId")
+                .millisBehindLatest(42L)
+                .build();
+        final KinesisAsyncClient kinesisClient = someKinesisClient();
+        final CompletableFuture<GetRecordsResponse> futureResponse = new CompletableFuture<>();
+        when(kinesisClient.getRecords(any(GetRecordsRequest.class))).thenReturn(futureResponse);
+        final KinesisShardIterator shardIterator = new KinesisShardIterator(kinesisClient, "", fromHorizon("someShard"));
+
+        // when
+        final boolean prefetched = shardIterator.prefetch();
+        final boolean prefetchedAgain = shardIterator.prefetch();
+        futureResponse.complete(response);
+        final KinesisShardResponse fetchedResponse = shardIterator.next();
+
+        // then
+        assertThat(prefetched, is(true));
+        assertThat(prefetchedAgain, is(false));
+        assertThat(fetchedResponse.getShardPosition(), is(fromPosition("someShard", "someSeqNumber")));
+        assertThat(shardIterator.getId(), is("nextIteratorId"));
+        verify(kinesisClient, times(1)).getRecords(any(GetRecordsRequest.class));
+    }
+
+    @Test
+    public void shouldFetchAgainIfPrefetchFailed() {
+        // given
+        final GetRecordsResponse response = GetRecordsResponse.builder()
+                .records(emptyList())
+                .nextShardIterator("nextIteratorId")
+                .millisBehindLatest(42L)
+                .build();
+        final CompletableFuture<GetRecordsResponse> failedResponse = new CompletableFuture<>();
+        failedResponse.completeExceptionally(KinesisException.builder().message("forced test exception").build());
+        final KinesisAsyncClient kinesisClient = someKinesisClient();
+        when(kinesisClient.getRecords(any(GetRecordsRequest.class)))
+                .thenReturn(failedResponse)
+                .thenReturn(completedFuture(response));
+        final KinesisShardIterator shardIterator = new KinesisShardIterator(kinesisClient, "", fromHorizon("someShard"));
+
+        // when
+        shardIterator.prefetch();
+        shardIterator.next();
+
+        // then
+        verify(kinesisClient, times(2)).getRecords(any(GetRecordsRequest.class));
+        assertThat(shardIterator.getId(), is("nextIteratorId"));
+    }
+
     @Test(expected = RuntimeException.class)
     public void shouldThrowExceptionWhenStoppingInRetry() {
         // given
@@ -291,6 +410,37 @@ public class KinesisShardIteratorTest {
     }
 
 
+    @Test
+    public void shouldResumeInTheMiddleOfAggregatedRecord() {
+        // given
+        final Record record = Record.builder()
+                .sequenceNumber("42")
+                .approximateArrivalTimestamp(now())
+                .partitionKey("a")
+                .data(aggregate(ImmutableList.of(message("a", "first"), message("b", "second"), message("c", "third"))))
+                .build();
+        final KinesisAsyncClient kinesisClient = someKinesisClient();
+        when(kinesisClient.getRecords(any(GetRecordsRequest.class))).thenReturn(completedFuture(GetRecordsResponse.builder()
+                .records(record)
+                .nextShardIterator("nextShardIterator")
+                .millisBehindLatest(0L)
+                .build()));
+
+        // when
+        final KinesisShardIterator iterator = new KinesisShardIterator(kinesisClient, "", fromPosition("someShard", "42:0"));
+        final KinesisShardResponse shardResponse = iterator.next();
+
+        // then
+        verify(kinesisClient).getShardIterator(GetShardIteratorRequest.builder()
+                .shardId("someShard")
+                .streamName("")
+                .shardIteratorType(AT_SEQUENCE_NUMBER)
+                .startingSequenceNumber("42")
+                .build());
+        assertThat(shardResponse.getMessages().stream().map(Message::getKey).collect(toList()), contains("b", "c"));
+        assertThat(iterator.getShardPosition(), is(fromPosition("someShard", "42")));
+    }
+
     private static KinesisAsyncClient someKinesisClient() {
         final KinesisAsyncClient kinesisClient = mock(KinesisAsyncClient.class);
         when(kinesisClient.getShardIterator(any(GetShardIteratorRequest.class))).thenReturn(completedFuture(GetShardIteratorResponse
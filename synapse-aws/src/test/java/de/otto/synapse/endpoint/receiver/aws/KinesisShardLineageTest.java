@@ -0,0 +1,72 @@
+package de.otto.synapse.endpoint.receiver.aws;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+import java.util.List;
+
+import static com.google.common.collect.ImmutableList.of;
+import static de.otto.synapse.channel.ChannelPosition.channelPosition;
+import static de.otto.synapse.channel.ChannelPosition.fromHorizon;
+import static de.otto.synapse.channel.ShardPosition.fromPosition;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class KinesisShardLineageTest {
+
+    // shard0 was split into shard1 and shard2, which were merged into shard3:
+    private final KinesisShardLineage lineage = new KinesisShardLineage(new KinesisStreamInfo("someChannel", "someArn", of(
+            new KinesisShardInfo("shard0", false, null, null),
+            new KinesisShardInfo("shard1", false, "shard0", null),
+            new KinesisShardInfo("shard2", false, "shard0", null),
+            new KinesisShardInfo("shard3", true, "shard1", "shard2"),
+            new KinesisShardInfo("shard4", true, "expiredShard", null))));
+
+    @Test
+    public void shouldStartWithRootShardsAndShardsOfExpiredParents() {
+        // when
+        final List<String> readyShards = lineage.readyShards(ImmutableSet.of(), ImmutableSet.of());
+
+        // then
+        assertThat(readyShards, contains("shard0", "shard4"));
+    }
+
+    @Test
+    public void shouldReturnChildrenAfterParentIsFinished() {
+        // when
+        final List<String> readyShards = lineage.readyShards(ImmutableSet.of("shard0"), ImmutableSet.of("shard4"));
+
+        // then
+        assertThat(readyShards, contains("shard1", "shard2"));
+    }
+
+    @Test
+    public void shouldWaitForBothParentsOfMergedShard() {
+        // when
+        final List<String> readyShards = lineage.readyShards(ImmutableSet.of("shard0", "shard1"), ImmutableSet.of("shard2", "shard4"));
+
+        // then
+        assertThat(readyShards, is(empty()));
+    }
+
+    @Test
+    public void shouldDetermineDrainedAncestorsFromStartPosition() {
+        // when
+        final ImmutableSet<String> drainedShards = lineage.drainedShards(channelPosition(fromPosition("shard3", "42")));
+
+        // then
+        assertThat(drainedShards, containsInAnyOrder("shard0", "shard1", "shard2"));
+    }
+
+    @Test
+    public void shouldNotDrainShardsWhenStartingAtHorizon() {
+        // when
+        final ImmutableSet<String> drainedShards = lineage.drainedShards(fromHorizon());
+
+        // then
+        assertThat(drainedShards, is(empty()));
+    }
+}
@@ -1,6 +1,7 @@
 package de.otto.synapse.endpoint.receiver.aws;
 
 import de.otto.synapse.channel.ShardPosition;
+import de.otto.synapse.executor.ChannelExecutor;
 import de.otto.synapse.testsupport.TestClock;
 import org.junit.Before;
 import org.junit.Test;
@@ -13,21 +14,25 @@ import software.amazon.awssdk.services.kinesis.model.*;
 
 import java.time.Clock;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeoutException;
 import java.util.function.Consumer;
 
 import static de.otto.synapse.channel.ShardPosition.fromHorizon;
 import static de.otto.synapse.channel.ShardPosition.fromPosition;
 import static de.otto.synapse.channel.StartFrom.HORIZON;
+import static de.otto.synapse.endpoint.receiver.aws.KinesisReadQuota.Priority.LIVE;
+import static de.otto.synapse.executor.SynapseExecutor.defaultExecutor;
 import static java.time.Duration.ofMillis;
 import static java.time.Instant.now;
 import static java.time.temporal.ChronoUnit.SECONDS;
 import static java.util.Collections.emptyList;
 import static java.util.concurrent.CompletableFuture.completedFuture;
-import static java.util.concurrent.Executors.newSingleThreadExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
@@ -45,12 +50,12 @@ public class KinesisShardReaderTest {
 
     private Clock clock = TestClock.now();
     private KinesisShardReader kinesisShardReader;
-    private ExecutorService executorService;
+    private ChannelExecutor executorService;
 
     @Before
     public void setUp() {
-        executorService = newSingleThreadExecutor();
-        kinesisShardReader = new KinesisShardReader("someChannel", "someShard", kinesisClient, executorService, clock);
+        executorService = defaultExecutor().forChannel("someChannel");
+        kinesisShardReader = new KinesisShardReader("someChannel", "someShard", kinesisClient, executorService, clock, new KinesisReadQuota(), LIVE);
 
         GetShardIteratorResponse fakeResponse = GetShardIteratorResponse.builder()
                 .shardIterator("someShardIterator")
@@ -195,6 +200,55 @@ public class KinesisShardReaderTest {
         assertThat(shardPosition.position(), is("42"));
     }
 
+    @Test
+    public void shouldPrefetchNextRecordsWhileConsumingIfShardIsBehind() throws ExecutionException, InterruptedException {
+        // given
+        final GetRecordsResponse response = GetRecordsResponse.builder()
+                .records(Record.builder()
+                        .sequenceNumber("1")
+                        .approximateArrivalTimestamp(now())
+                        .partitionKey("first")
+                        .build())
+                .nextShardIterator("nextShardIterator")
+                .millisBehindLatest(60000L)
+                .build();
+        when(kinesisClient.getRecords(any(GetRecordsRequest.class))).thenReturn(completedFuture(response));
+        final List<Integer> getRecordsCallsWhileConsuming = new ArrayList<>();
+        final Consumer<KinesisShardResponse> countingConsumer = shardResponse -> {
+            getRecordsCallsWhileConsuming.add(mockingDetails(kinesisClient).getInvocations().stream()
+                    .filter(invocation -> invocation.getMethod().getName().equals("getRecords"))
+                    .mapToInt(invocation -> 1)
+                    .sum());
+            kinesisShardReader.stop();
+        };
+
+        // when
+        kinesisShardReader.consumeUntil(fromHorizon("someShard"), Instant.MAX, countingConsumer).get();
+
+        // then
+        assertThat(getRecordsCallsWhileConsuming, contains(2));
+    }
+
+    @Test
+    public void shouldFinishWithoutWaitingForNextPollWhenStopped() throws ExecutionException, InterruptedException, TimeoutException {
+        // given
+        GetRecordsResponse response = GetRecordsResponse.builder()
+                .records(emptyList())
+                .nextShardIterator("nextShardIterator")
+                .millisBehindLatest(0L)
+                .build();
+        when(kinesisClient.getRecords(any(GetRecordsRequest.class))).thenReturn(completedFuture(response));
+        final CompletableFuture<ShardPosition> futurePosition = kinesisShardReader.consumeUntil(fromPosition("someShard", "42"), Instant.MAX, consumer);
+        verify(consumer, timeout(2000)).accept(any(KinesisShardResponse.class));
+
+        // when
+        kinesisShardReader.stop();
+
+        // then
+        assertThat(futurePosition.get(500, MILLISECONDS), is(fromPosition("someShard", "42")));
+        verify(kinesisClient).getRecords(any(GetRecordsRequest.class));
+    }
+
     @Test(expected = ExecutionException.class)
     public void shouldPropagateException() throws ExecutionException, InterruptedException {
         // given
@@ -0,0 +1,261 @@
+package de.otto.synapse.endpoint.receiver.aws;
+
+import de.otto.synapse.channel.ShardPosition;
+import de.otto.synapse.executor.ChannelExecutor;
+import de.otto.synapse.message.Message;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.core.async.SdkPublisher;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
+import software.amazon.awssdk.services.kinesis.model.Record;
+import software.amazon.awssdk.services.kinesis.model.ResourceNotFoundException;
+import software.amazon.awssdk.services.kinesis.model.SubscribeToShardEvent;
+import software.amazon.awssdk.services.kinesis.model.SubscribeToShardEventStream;
+import software.amazon.awssdk.services.kinesis.model.SubscribeToShardRequest;
+import software.amazon.awssdk.services.kinesis.model.SubscribeToShardResponse;
+import software.amazon.awssdk.services.kinesis.model.SubscribeToShardResponseHandler;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static de.otto.synapse.channel.ShardPosition.fromHorizon;
+import static de.otto.synapse.channel.ShardPosition.fromPosition;
+import static de.otto.synapse.executor.SynapseExecutor.defaultExecutor;
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static software.amazon.awssdk.services.kinesis.model.ShardIteratorType.AFTER_SEQUENCE_NUMBER;
+import static software.amazon.awssdk.services.kinesis.model.ShardIteratorType.TRIM_HORIZON;
+
+@RunWith(MockitoJUnitRunner.class)
+public class KinesisShardSubscriptionTest {
+
+    @Mock
+    private KinesisAsyncClient kinesisClient;
+
+    private final Clock clock = Clock.systemDefaultZone();
+    private final ChannelExecutor executorService = defaultExecutor().forChannel("someChannel");
+
+    @After
+    public void tearDown() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void shouldConsumeRecordsOfSubscription() {
+        // given
+        final List<SubscribeToShardRequest> requests = new ArrayList<>();
+        when(kinesisClient.subscribeToShard(any(SubscribeToShardRequest.class), any(SubscribeToShardResponseHandler.class)))
+                .thenAnswer(invocation -> {
+                    requests.add(invocation.getArgument(0));
+                    return requests.size() == 1
+                            ? subscription(invocation.getArgument(1), event("1", "2"), event("3"))
+                            : idleSubscription(invocation.getArgument(1));
+                });
+        final KinesisShardSubscription subscription = someSubscription();
+        final List<String> sequenceNumbers = new ArrayList<>();
+
+        // when
+        final ShardPosition position = subscription.consumeUntil(fromHorizon("someShard"), Instant.now().plusMillis(200), response -> {
+            sequenceNumbers.addAll(response.getMessages().stream().map(Message::getKey).collect(toList()));
+        }).join();
+
+        // then
+        assertThat(sequenceNumbers, contains("1", "2", "3"));
+        assertThat(position, is(fromPosition("someShard", "3")));
+        assertThat(requests.get(0).startingPosition().type(), is(TRIM_HORIZON));
+        assertThat(requests.get(0).consumerARN(), is("someConsumerArn"));
+    }
+
+    @Test
+    public void shouldSubscribeAgainAfterSubscriptionIsCompleted() {
+        // given
+        final List<SubscribeToShardRequest> requests = new ArrayList<>();
+        when(kinesisClient.subscribeToShard(any(SubscribeToShardRequest.class), any(SubscribeToShardResponseHandler.class)))
+                .thenAnswer(invocation -> {
+                    requests.add(invocation.getArgument(0));
+                    switch (requests.size()) {
+                        case 1:
+                            return subscription(invocation.getArgument(1), event("1"));
+                        case 2:
+                            return subscription(invocation.getArgument(1), event("2"));
+                        default:
+                            return idleSubscription(invocation.getArgument(1));
+                    }
+                });
+        final KinesisShardSubscription subscription = someSubscription();
+        final List<String> sequenceNumbers = new ArrayList<>();
+
+        // when
+        subscription.consumeUntil(fromHorizon("someShard"), Instant.now().plusMillis(200), response -> {
+            sequenceNumbers.addAll(response.getMessages().stream().map(Message::getKey).collect(toList()));
+        }).join();
+
+        // then
+        assertThat(sequenceNumbers, contains("1", "2"));
+        assertThat(requests.get(1).startingPosition().type(), is(AFTER_SEQUENCE_NUMBER));
+        assertThat(requests.get(1).startingPosition().sequenceNumber(), is("1"));
+    }
+
+    @Test
+    public void shouldStopConsumptionWhenStopped() {
+        // given
+        when(kinesisClient.subscribeToShard(any(SubscribeToShardRequest.class), any(SubscribeToShardResponseHandler.class)))
+                .thenAnswer(invocation -> subscription(invocation.getArgument(1), event("1"), event("2")));
+        final KinesisShardSubscription subscription = someSubscription();
+        final List<String> sequenceNumbers = new ArrayList<>();
+
+        // when
+        final ShardPosition position = subscription.consumeUntil(fromHorizon("someShard"), Instant.MAX, response -> {
+            sequenceNumbers.addAll(response.getMessages().stream().map(Message::getKey).collect(toList()));
+            subscription.stop();
+        }).join();
+
+        // then
+        assertThat(sequenceNumbers, contains("1"));
+        assertThat(position, is(fromPosition("someShard", "1")));
+        verify(kinesisClient, times(1)).subscribeToShard(any(SubscribeToShardRequest.class), any(SubscribeToShardResponseHandler.class));
+    }
+
+    @Test
+    public void shouldFinishConsumptionIfShardIsClosed() {
+        // given
+        when(kinesisClient.subscribeToShard(any(SubscribeToShardRequest.class), any(SubscribeToShardResponseHandler.class)))
+                .thenAnswer(invocation -> subscription(invocation.getArgument(1), event("1"), lastEvent("2")));
+        final KinesisShardSubscription subscription = someSubscription();
+        final List<String> sequenceNumbers = new ArrayList<>();
+
+        // when
+        final ShardPosition position = subscription.consumeUntil(fromHorizon("someShard"), Instant.MAX, response -> {
+            sequenceNumbers.addAll(response.getMessages().stream().map(Message::getKey).collect(toList()));
+        }).join();
+
+        // then
+        assertThat(sequenceNumbers, contains("1", "2"));
+        assertThat(position, is(fromPosition("someShard", "2")));
+        assertThat(subscription.isShardClosed(), is(true));
+        verify(kinesisClient, times(1)).subscribeToShard(any(SubscribeToShardRequest.class), any(SubscribeToShardResponseHandler.class));
+    }
+
+    @Test
+    public void shouldFailIfShardDoesNotExist() {
+        // given
+        final CompletableFuture<Void> failed = new CompletableFuture<>();
+        failed.completeExceptionally(ResourceNotFoundException.builder().message("no such shard").build());
+        when(kinesisClient.subscribeToShard(any(SubscribeToShardRequest.class), any(SubscribeToShardResponseHandler.class)))
+                .thenReturn(failed);
+        final KinesisShardSubscription subscription = someSubscription();
+
+        // when
+        final CompletableFuture<ShardPosition> position = subscription.consumeUntil(fromHorizon("someShard"), Instant.MAX, response -> {});
+
+        // then
+        try {
+            position.join();
+        } catch (final CompletionException e) {
+            assertThat(e.getCause(), is(instanceOf(IllegalStateException.class)));
+            assertThat(subscription.isStopping(), is(true));
+            return;
+        }
+        throw new AssertionError("consumption should have failed");
+    }
+
+    private KinesisShardSubscription someSubscription() {
+        return new KinesisShardSubscription(kinesisClient, "someChannel", "someConsumerArn", "someShard", executorService, clock, Duration.ofMillis(10));
+    }
+
+    private static SubscribeToShardEvent event(final String... sequenceNumbers) {
+        final List<Record> records = asList(sequenceNumbers).stream()
+                .map(sequenceNumber -> Record.builder()
+                        .sequenceNumber(sequenceNumber)
+                        .partitionKey(sequenceNumber)
+                        .approximateArrivalTimestamp(Instant.now())
+                        .data(SdkBytes.fromUtf8String("{}"))
+                        .build())
+                .collect(toList());
+        return SubscribeToShardEvent.builder()
+                .records(records)
+                .millisBehindLatest(0L)
+                .continuationSequenceNumber(sequenceNumbers[sequenceNumbers.length - 1])
+                .build();
+    }
+
+    /**
+     * The last event of a closed shard, without a continuation sequence number.
+     */
+    private static SubscribeToShardEvent lastEvent(final String... sequenceNumbers) {
+        return event(sequenceNumbers).toBuilder()
+                .continuationSequenceNumber(null)
+                .build();
+    }
+
+    /**
+     * Simulates a subscription that is pushing the given events on request, and is completed afterwards.
+     */
+    private static CompletableFuture<Void> subscription(final SubscribeToShardResponseHandler handler,
+                                                        final SubscribeToShardEvent... events) {
+        final CompletableFuture<Void> completed = new CompletableFuture<>();
+        final Deque<SubscribeToShardEvent> pendingEvents = new ArrayDeque<>(asList(events));
+        final SdkPublisher<SubscribeToShardEventStream> publisher = new SdkPublisher<SubscribeToShardEventStream>() {
+            @Override
+            public void subscribe(final Subscriber<? super SubscribeToShardEventStream> subscriber) {
+                subscriber.onSubscribe(new Subscription() {
+                    @Override
+                    public void request(final long n) {
+                        final SubscribeToShardEvent event = pendingEvents.poll();
+                        if (event != null) {
+                            subscriber.onNext(event);
+                        } else if (!completed.isDone()) {
+                            subscriber.onComplete();
+                            completed.complete(null);
+                        }
+                    }
+
+                    @Override
+                    public void cancel() {
+                    }
+                });
+            }
+        };
+        handler.responseReceived(SubscribeToShardResponse.builder().build());
+        handler.onEventStream(publisher);
+        return completed;
+    }
+
+    /**
+     * Simulates a subscription that is not receiving any events.
+     */
+    private static CompletableFuture<Void> idleSubscription(final SubscribeToShardResponseHandler handler) {
+        handler.responseReceived(SubscribeToShardResponse.builder().build());
+        handler.onEventStream(subscriber -> subscriber.onSubscribe(new Subscription() {
+            @Override
+            public void request(final long n) {
+            }
+
+            @Override
+            public void cancel() {
+            }
+        }));
+        return new CompletableFuture<>();
+    }
+}
@@ -0,0 +1,114 @@
+package de.otto.synapse.endpoint.receiver.aws;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
+import software.amazon.awssdk.services.kinesis.model.ConsumerDescription;
+import software.amazon.awssdk.services.kinesis.model.ConsumerStatus;
+import software.amazon.awssdk.services.kinesis.model.DescribeStreamConsumerRequest;
+import software.amazon.awssdk.services.kinesis.model.DescribeStreamConsumerResponse;
+import software.amazon.awssdk.services.kinesis.model.RegisterStreamConsumerRequest;
+import software.amazon.awssdk.services.kinesis.model.RegisterStreamConsumerResponse;
+import software.amazon.awssdk.services.kinesis.model.ResourceNotFoundException;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+import static de.otto.synapse.executor.SynapseExecutor.defaultExecutor;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class KinesisStreamConsumerRegistrationTest {
+
+    @Mock
+    private KinesisAsyncClient kinesisClient;
+
+    @Test
+    public void shouldReturnArnOfActiveConsumer() {
+        // given
+        when(kinesisClient.describeStreamConsumer(any(DescribeStreamConsumerRequest.class)))
+                .thenReturn(completedFuture(describeResponse(ConsumerStatus.ACTIVE)));
+        final KinesisStreamConsumerRegistration registration = new KinesisStreamConsumerRegistration(kinesisClient, Duration.ofMillis(1), Duration.ofSeconds(1), defaultExecutor().forChannel("someChannel"));
+
+        // when
+        final String consumerArn = registration.registerConsumer("someStreamArn", "someConsumer");
+
+        // then
+        assertThat(consumerArn, is("someConsumerArn"));
+        verify(kinesisClient, never()).registerStreamConsumer(any(RegisterStreamConsumerRequest.class));
+    }
+
+    @Test
+    public void shouldRegisterMissingConsumerAndWaitUntilActive() {
+        // given
+        when(kinesisClient.describeStreamConsumer(any(DescribeStreamConsumerRequest.class)))
+                .thenReturn(failedFuture(ResourceNotFoundException.builder().message("not found").build()))
+                .thenReturn(completedFuture(describeResponse(ConsumerStatus.CREATING)))
+                .thenReturn(completedFuture(describeResponse(ConsumerStatus.ACTIVE)));
+        when(kinesisClient.registerStreamConsumer(any(RegisterStreamConsumerRequest.class)))
+                .thenReturn(completedFuture(RegisterStreamConsumerResponse.builder().build()));
+        final KinesisStreamConsumerRegistration registration = new KinesisStreamConsumerRegistration(kinesisClient, Duration.ofMillis(1), Duration.ofSeconds(1), defaultExecutor().forChannel("someChannel"));
+
+        // when
+        final String consumerArn = registration.registerConsumer("someStreamArn", "someConsumer");
+
+        // then
+        assertThat(consumerArn, is("someConsumerArn"));
+        verify(kinesisClient).registerStreamConsumer(RegisterStreamConsumerRequest.builder()
+                .streamARN("someStreamArn")
+                .consumerName("someConsumer")
+                .build());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldFailIfConsumerDoesNotBecomeActive() {
+        // given
+        when(kinesisClient.describeStreamConsumer(any(DescribeStreamConsumerRequest.class)))
+                .thenReturn(completedFuture(describeResponse(ConsumerStatus.CREATING)));
+        final KinesisStreamConsumerRegistration registration = new KinesisStreamConsumerRegistration(kinesisClient, Duration.ofMillis(1), Duration.ofMillis(20), defaultExecutor().forChannel("someChannel"));
+
+        // when
+        registration.registerConsumer("someStreamArn", "someConsumer");
+    }
+
+    @Test
+    public void shouldRegisterConsumerWithoutBlockingTheCallingThread() throws Exception {
+        // given
+        when(kinesisClient.describeStreamConsumer(any(DescribeStreamConsumerRequest.class)))
+                .thenReturn(completedFuture(describeResponse(ConsumerStatus.CREATING)))
+                .thenReturn(completedFuture(describeResponse(ConsumerStatus.ACTIVE)));
+        final KinesisStreamConsumerRegistration registration = new KinesisStreamConsumerRegistration(kinesisClient, Duration.ofMillis(200), Duration.ofSeconds(1), defaultExecutor().forChannel("someChannel"));
+
+        // when
+        final CompletableFuture<String> consumerArn = registration.registerConsumerAsync("someStreamArn", "someConsumer");
+
+        // then
+        assertThat(consumerArn.isDone(), is(false));
+        assertThat(consumerArn.get(1, SECONDS), is("someConsumerArn"));
+    }
+
+    private static DescribeStreamConsumerResponse describeResponse(final ConsumerStatus status) {
+        return DescribeStreamConsumerResponse.builder()
+                .consumerDescription(ConsumerDescription.builder()
+                        .consumerName("someConsumer")
+                        .consumerARN("someConsumerArn")
+                        .consumerStatus(status)
+                        .build())
+                .build();
+    }
+
+    private static <T> CompletableFuture<T> failedFuture(final Throwable throwable) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(throwable);
+        return future;
+    }
+}
@@ -7,7 +7,11 @@ import software.amazon.awssdk.core.exception.SdkException;
 import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
 import software.amazon.awssdk.services.kinesis.model.*;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
 import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.*;
 import static org.mockito.ArgumentMatchers.any;
@@ -61,6 +65,27 @@ public class KinesisStreamInfoProviderTest {
         testee.getStreamInfo("someChannelName");
     }
 
+    @Test
+    public void shouldCompleteExceptionallyForUnknownStream() throws Exception {
+        //given
+        final CompletableFuture<DescribeStreamResponse> notFound = new CompletableFuture<>();
+        notFound.completeExceptionally(ResourceNotFoundException.builder().message("not found").build());
+        when(kinesisAsyncClient
+                .describeStream(any(DescribeStreamRequest.class)))
+                .thenReturn(notFound);
+
+        //when
+        final CompletableFuture<KinesisStreamInfo> streamInfo = testee.getStreamInfoAsync("someChannelName");
+
+        //then
+        try {
+            streamInfo.get();
+            fail("Expected ExecutionException");
+        } catch (final ExecutionException e) {
+            assertThat(e.getCause(), is(instanceOf(IllegalArgumentException.class)));
+        }
+    }
+
     @Test(expected = SdkException.class)
     public void shouldThrowOtherExceptions() {
         //given
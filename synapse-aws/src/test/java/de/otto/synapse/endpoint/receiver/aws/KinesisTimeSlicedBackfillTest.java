@@ -0,0 +1,124 @@
+package de.otto.synapse.endpoint.receiver.aws;
+
+import com.google.common.collect.ImmutableList;
+import de.otto.synapse.channel.ShardPosition;
+import org.junit.Before;
+import org.junit.Test;
+import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
+import software.amazon.awssdk.services.kinesis.model.GetRecordsRequest;
+import software.amazon.awssdk.services.kinesis.model.GetRecordsResponse;
+import software.amazon.awssdk.services.kinesis.model.GetShardIteratorRequest;
+import software.amazon.awssdk.services.kinesis.model.GetShardIteratorResponse;
+import software.amazon.awssdk.services.kinesis.model.Record;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static de.otto.synapse.channel.ShardPosition.fromPosition;
+import static de.otto.synapse.executor.SynapseExecutor.defaultExecutor;
+import static java.time.temporal.ChronoUnit.MINUTES;
+import static java.util.Collections.synchronizedList;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class KinesisTimeSlicedBackfillTest {
+
+    private static final Instant FROM = Instant.parse("2019-01-01T00:00:00Z");
+
+    private KinesisAsyncClient kinesisClient;
+    private KinesisTimeSlicedBackfill backfill;
+    private final List<String> consumedKeys = synchronizedList(new ArrayList<>());
+    private final Consumer<KinesisShardResponse> consumer = response -> response.getMessages().forEach(message -> consumedKeys.add(message.getKey()));
+
+    @Before
+    public void setUp() {
+        kinesisClient = mock(KinesisAsyncClient.class);
+        backfill = new KinesisTimeSlicedBackfill(kinesisClient, "someChannel", defaultExecutor().forChannel("someChannel"), new KinesisReadQuota());
+        // every slice is starting with an iterator named after the minute of its start:
+        when(kinesisClient.getShardIterator(any(GetShardIteratorRequest.class))).thenAnswer(invocation -> {
+            final GetShardIteratorRequest request = invocation.getArgument(0);
+            return completedFuture(GetShardIteratorResponse.builder()
+                    .shardIterator("iterator-" + MINUTES.between(FROM, request.timestamp()))
+                    .build());
+        });
+    }
+
+    @Test
+    public void shouldStopEverySliceAtTheFirstRecordOfTheNextSlice() throws Exception {
+        // given
+        someRecords("iterator-0", 1000L, record("1", 10), record("2", 30), record("3", 70));
+        someRecords("iterator-60", 0L, record("3", 70), record("4", 100));
+
+        // when
+        final ImmutableList<ShardPosition> positions = backfill.backfill("someShard", FROM, FROM.plus(120, MINUTES), 2, consumer)
+                .get(10, SECONDS);
+
+        // then
+        assertThat(consumedKeys, containsInAnyOrder("key-1", "key-2", "key-3", "key-4"));
+        assertThat(positions, contains(fromPosition("someShard", "2"), fromPosition("someShard", "4")));
+    }
+
+    @Test
+    public void shouldNotConsumeRecordsArrivingAfterUntil() throws Exception {
+        // given
+        someRecords("iterator-0", 1000L, record("1", 10), record("2", 70));
+
+        // when
+        final ImmutableList<ShardPosition> positions = backfill.backfill("someShard", FROM, FROM.plus(60, MINUTES), 1, consumer)
+                .get(10, SECONDS);
+
+        // then
+        assertThat(consumedKeys, contains("key-1"));
+        assertThat(positions, contains(fromPosition("someShard", "1")));
+    }
+
+    @Test
+    public void shouldReadEmptySliceUntilEndOfShard() throws Exception {
+        // given
+        someRecords("iterator-0", 0L, record("1", 10));
+        someRecords("iterator-60", 0L);
+
+        // when
+        final ImmutableList<ShardPosition> positions = backfill.backfill("someShard", FROM, FROM.plus(120, MINUTES), 2, consumer)
+                .get(10, SECONDS);
+
+        // then
+        assertThat(consumedKeys, contains("key-1"));
+        assertThat(positions.get(0), is(fromPosition("someShard", "1")));
+        assertThat(positions.get(1), is(ShardPosition.fromTimestamp("someShard", FROM.plus(60, MINUTES))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectMissingSlices() {
+        backfill.backfill("someShard", FROM, FROM.plus(60, MINUTES), 0, consumer);
+    }
+
+    private void someRecords(final String shardIterator, final long millisBehindLatest, final Record... records) {
+        when(kinesisClient.getRecords(GetRecordsRequest.builder()
+                .shardIterator(shardIterator)
+                .limit(KinesisShardIterator.FETCH_RECORDS_LIMIT)
+                .build()))
+                .thenReturn(completedFuture(GetRecordsResponse.builder()
+                        .records(records)
+                        .nextShardIterator(shardIterator + "-next")
+                        .millisBehindLatest(millisBehindLatest)
+                        .build()));
+    }
+
+    private static Record record(final String sequenceNumber, final int arrivalMinute) {
+        return Record.builder()
+                .sequenceNumber(sequenceNumber)
+                .partitionKey("key-" + sequenceNumber)
+                .approximateArrivalTimestamp(FROM.plus(arrivalMinute, MINUTES))
+                .build();
+    }
+}
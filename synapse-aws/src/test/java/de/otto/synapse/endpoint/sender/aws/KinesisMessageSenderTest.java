@@ -16,20 +16,34 @@ import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 import software.amazon.awssdk.core.SdkBytes;
 import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
+import software.amazon.awssdk.services.kinesis.model.DescribeStreamRequest;
+import software.amazon.awssdk.services.kinesis.model.DescribeStreamResponse;
+import software.amazon.awssdk.services.kinesis.model.HashKeyRange;
 import software.amazon.awssdk.services.kinesis.model.PutRecordsRequest;
 import software.amazon.awssdk.services.kinesis.model.PutRecordsRequestEntry;
 import software.amazon.awssdk.services.kinesis.model.PutRecordsResponse;
 import software.amazon.awssdk.services.kinesis.model.PutRecordsResultEntry;
+import software.amazon.awssdk.services.kinesis.model.Record;
+import software.amazon.awssdk.services.kinesis.model.SequenceNumberRange;
+import software.amazon.awssdk.services.kinesis.model.Shard;
+import software.amazon.awssdk.services.kinesis.model.StreamDescription;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import static de.otto.synapse.endpoint.MessageInterceptorRegistration.allChannelsWith;
 import static de.otto.synapse.message.Message.message;
+import static de.otto.synapse.message.aws.KinesisRecordAggregation.deaggregate;
+import static de.otto.synapse.message.aws.KinesisRecordAggregation.isAggregated;
 import static java.lang.String.valueOf;
 import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
@@ -190,6 +204,123 @@ public class KinesisMessageSenderTest {
                 is("apple"));
     }
 
+    @Test
+    public void shouldAggregateMessagesOfSameShardInBatch() throws Exception {
+        // given
+        final KinesisMessageSender aggregatingSender = new KinesisMessageSender("test", messageTranslator, kinesisClient, true);
+        when(kinesisClient.describeStream(any(DescribeStreamRequest.class))).thenReturn(completedFuture(DescribeStreamResponse.builder()
+                .streamDescription(StreamDescription.builder()
+                        .shards(Shard.builder()
+                                .shardId("shard-1")
+                                .hashKeyRange(HashKeyRange.builder()
+                                        .startingHashKey("0")
+                                        .endingHashKey("340282366920938463463374607431768211455")
+                                        .build())
+                                .sequenceNumberRange(SequenceNumberRange.builder().startingSequenceNumber("0").build())
+                                .build())
+                        .hasMoreShards(false)
+                        .build())
+                .build()));
+        when(kinesisClient.putRecords(any(PutRecordsRequest.class))).thenReturn(completedFuture(PutRecordsResponse.builder()
+                .failedRecordCount(0)
+                .records(PutRecordsResultEntry.builder().build())
+                .build()));
+
+        // when
+        aggregatingSender.sendBatch(Stream.of(
+                message("b", new ExampleJsonObject("banana")),
+                message("a", new ExampleJsonObject("apple")),
+                message("c", new ExampleJsonObject("cherry"))
+        ));
+
+        // then
+        verify(kinesisClient).putRecords(putRecordsRequestCaptor.capture());
+        final PutRecordsRequest caputuredRequest = putRecordsRequestCaptor.getValue();
+        assertThat(caputuredRequest.records(), hasSize(1));
+        final PutRecordsRequestEntry entry = caputuredRequest.records().get(0);
+        assertThat(entry.partitionKey(), is("b"));
+
+        final List<Message<String>> messages = deaggregate("shard-1", Record.builder()
+                .partitionKey(entry.partitionKey())
+                .data(entry.data())
+                .sequenceNumber("42")
+                .approximateArrivalTimestamp(Instant.now())
+                .build());
+        assertThat(messages.stream().map(Message::getKey).collect(toList()), contains("b", "a", "c"));
+        assertThat(objectMapper.readValue(messages.get(2).getPayload(), ExampleJsonObject.class).value, is("cherry"));
+    }
+
+    @Test
+    public void shouldAggregateMessagesByKeyIfShardsAreUnknown() {
+        // given
+        final KinesisMessageSender aggregatingSender = new KinesisMessageSender("test", messageTranslator, kinesisClient, true);
+        final CompletableFuture<DescribeStreamResponse> failedDescription = new CompletableFuture<>();
+        failedDescription.completeExceptionally(new RuntimeException("boom"));
+        when(kinesisClient.describeStream(any(DescribeStreamRequest.class))).thenReturn(failedDescription);
+        when(kinesisClient.putRecords(any(PutRecordsRequest.class))).thenReturn(completedFuture(PutRecordsResponse.builder()
+                .failedRecordCount(0)
+                .records(PutRecordsResultEntry.builder().build())
+                .build()));
+
+        // when
+        aggregatingSender.sendBatch(Stream.of(
+                message("a", new ExampleJsonObject("apple")),
+                message("b", new ExampleJsonObject("banana")),
+                message("a", new ExampleJsonObject("avocado"))
+        ));
+
+        // then
+        verify(kinesisClient).putRecords(putRecordsRequestCaptor.capture());
+        final List<PutRecordsRequestEntry> entries = putRecordsRequestCaptor.getValue().records();
+        assertThat(entries, hasSize(2));
+        assertThat(isAggregated(entries.get(0).data()), is(true));
+        assertThat(isAggregated(entries.get(1).data()), is(false));
+        assertThat(entries.get(1).partitionKey(), is("b"));
+    }
+
+    @Test
+    public void shouldNotWaitForShardsWhileAggregatingMessages() {
+        // given
+        final KinesisMessageSender aggregatingSender = new KinesisMessageSender("test", messageTranslator, kinesisClient, true);
+        final CompletableFuture<DescribeStreamResponse> pendingDescription = new CompletableFuture<>();
+        when(kinesisClient.describeStream(any(DescribeStreamRequest.class))).thenReturn(pendingDescription);
+        when(kinesisClient.putRecords(any(PutRecordsRequest.class))).thenReturn(completedFuture(PutRecordsResponse.builder()
+                .failedRecordCount(0)
+                .records(PutRecordsResultEntry.builder().build())
+                .build()));
+
+        // when
+        aggregatingSender.sendBatch(Stream.of(
+                message("a", new ExampleJsonObject("apple")),
+                message("b", new ExampleJsonObject("banana"))
+        ));
+        pendingDescription.complete(DescribeStreamResponse.builder()
+                .streamDescription(StreamDescription.builder()
+                        .shards(Shard.builder()
+                                .shardId("shard-1")
+                                .hashKeyRange(HashKeyRange.builder()
+                                        .startingHashKey("0")
+                                        .endingHashKey("340282366920938463463374607431768211455")
+                                        .build())
+                                .sequenceNumberRange(SequenceNumberRange.builder().startingSequenceNumber("0").build())
+                                .build())
+                        .hasMoreShards(false)
+                        .build())
+                .build());
+        aggregatingSender.sendBatch(Stream.of(
+                message("a", new ExampleJsonObject("apple")),
+                message("b", new ExampleJsonObject("banana"))
+        ));
+
+        // then
+        verify(kinesisClient, times(1)).describeStream(any(DescribeStreamRequest.class));
+        verify(kinesisClient, times(2)).putRecords(putRecordsRequestCaptor.capture());
+        final List<PutRecordsRequest> requests = putRecordsRequestCaptor.getAllValues();
+        assertThat(requests.get(0).records(), hasSize(2));
+        assertThat(requests.get(1).records(), hasSize(1));
+        assertThat(isAggregated(requests.get(1).records().get(0).data()), is(true));
+    }
+
     @Test
     public void shouldBatchEventsWhenTooManyShouldBeSent() {
         // given
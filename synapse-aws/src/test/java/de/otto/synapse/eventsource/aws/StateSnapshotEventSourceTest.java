@@ -0,0 +1,190 @@
+package de.otto.synapse.eventsource.aws;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.otto.synapse.channel.ChannelPosition;
+import de.otto.synapse.compaction.aws.StateSnapshotService;
+import de.otto.synapse.consumer.MessageConsumer;
+import de.otto.synapse.consumer.MessageDispatcher;
+import de.otto.synapse.endpoint.InterceptorChain;
+import de.otto.synapse.endpoint.receiver.MessageLogReceiverEndpoint;
+import de.otto.synapse.messagestore.MessageStore;
+import de.otto.synapse.messagestore.MessageStoreFactory;
+import de.otto.synapse.state.ConcurrentHashMapStateRepository;
+import de.otto.synapse.state.StateRepository;
+import de.otto.synapse.state.StateSnapshot;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatcher;
+
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Stream;
+
+import static de.otto.synapse.channel.ChannelPosition.channelPosition;
+import static de.otto.synapse.channel.ShardPosition.fromPosition;
+import static de.otto.synapse.message.Header.responseHeader;
+import static de.otto.synapse.message.Message.message;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class StateSnapshotEventSourceTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldSkipMessageStoreIfStateSnapshotIsAvailable() throws Exception {
+        // given
+        final StateRepository<String> stateRepository = new ConcurrentHashMapStateRepository<>();
+        final ChannelPosition snapshotPosition = channelPosition(fromPosition("shard", "42"));
+        final StateSnapshotService<String> stateSnapshotService = mock(StateSnapshotService.class);
+        when(stateSnapshotService.loadStateSnapshot("some-channel", stateRepository)).thenReturn(Optional.of(snapshotPosition));
+        final MessageStoreFactory<MessageStore> messageStoreFactory = mock(MessageStoreFactory.class);
+        final MessageLogReceiverEndpoint messageLog = mockMessageLogReceiverEndpoint(channelPosition(fromPosition("shard", "43")));
+        final StateSnapshotEventSource<String> eventSource = new StateSnapshotEventSource<>(stateRepository, stateSnapshotService, null, messageStoreFactory, messageLog);
+
+        // when
+        final ChannelPosition result = eventSource.consume().get();
+
+        // then
+        verify(messageStoreFactory, never()).createMessageStoreFor(anyString());
+        verify(messageLog).consumeUntil(snapshotPosition, Instant.MAX);
+        verify(stateSnapshotService).writeStateSnapshot(eq("some-channel"), argThat(snapshotAt(channelPosition(fromPosition("shard", "43")))));
+        assertThat(result, is(channelPosition(fromPosition("shard", "43"))));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldConsumeMessageStoreWithoutStateSnapshot() throws Exception {
+        // given
+        final StateRepository<String> stateRepository = new ConcurrentHashMapStateRepository<>();
+        final StateSnapshotService<String> stateSnapshotService = mock(StateSnapshotService.class);
+        when(stateSnapshotService.loadStateSnapshot("some-channel", stateRepository)).thenReturn(Optional.empty());
+        final MessageStore messageStore = mock(MessageStore.class);
+        when(messageStore.stream()).thenReturn(Stream.empty());
+        when(messageStore.getLatestChannelPosition()).thenReturn(channelPosition(fromPosition("shard", "42")));
+        final MessageStoreFactory<MessageStore> messageStoreFactory = mock(MessageStoreFactory.class);
+        when(messageStoreFactory.createMessageStoreFor(anyString())).thenReturn(messageStore);
+        final MessageLogReceiverEndpoint messageLog = mockMessageLogReceiverEndpoint(channelPosition(fromPosition("shard", "43")));
+        final StateSnapshotEventSource<String> eventSource = new StateSnapshotEventSource<>(stateRepository, stateSnapshotService, null, messageStoreFactory, messageLog);
+
+        // when
+        eventSource.consume().get();
+
+        // then
+        verify(messageStore).stream();
+        verify(messageLog).consumeUntil(channelPosition(fromPosition("shard", "42")), Instant.MAX);
+        verify(stateSnapshotService).writeStateSnapshot(eq("some-channel"), argThat(snapshotAt(channelPosition(fromPosition("shard", "43")))));
+        assertThat(eventSource.getCurrentChannelPosition(), is(Optional.of(channelPosition(fromPosition("shard", "42")))));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldTrackPositionOfConsumedMessages() throws Exception {
+        // given
+        final StateRepository<String> stateRepository = new ConcurrentHashMapStateRepository<>();
+        final StateSnapshotService<String> stateSnapshotService = mock(StateSnapshotService.class);
+        when(stateSnapshotService.loadStateSnapshot("some-channel", stateRepository)).thenReturn(Optional.of(channelPosition(
+                fromPosition("shard-1", "1"),
+                fromPosition("shard-2", "2"))));
+        when(stateSnapshotService.writeStateSnapshot(anyString(), any(StateSnapshot.class))).thenReturn("some-snapshot");
+        final MessageLogReceiverEndpoint messageLog = mockMessageLogReceiverEndpoint(channelPosition(fromPosition("shard-1", "10")));
+        final StateSnapshotEventSource<String> eventSource = new StateSnapshotEventSource<>(stateRepository, stateSnapshotService, null, mock(MessageStoreFactory.class), messageLog);
+        eventSource.consume().get();
+        final ArgumentCaptor<MessageConsumer> positionTracker = ArgumentCaptor.forClass(MessageConsumer.class);
+        verify(messageLog).register(positionTracker.capture());
+
+        // when
+        positionTracker.getValue().accept(message("some-key", responseHeader(fromPosition("shard-1", "5"), Instant.now()), "{}"));
+        final Optional<String> snapshotName = eventSource.writeStateSnapshot();
+
+        // then
+        verify(stateSnapshotService).writeStateSnapshot(eq("some-channel"), argThat(snapshotAt(channelPosition(
+                fromPosition("shard-1", "5"),
+                fromPosition("shard-2", "2")))));
+        assertThat(snapshotName, is(Optional.of("some-snapshot")));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldNotWriteStateSnapshotBeforeMessageStoreIsConsumed() throws Exception {
+        // given
+        final StateSnapshotService<String> stateSnapshotService = mock(StateSnapshotService.class);
+        final StateSnapshotEventSource<String> eventSource = new StateSnapshotEventSource<>(new ConcurrentHashMapStateRepository<>(), stateSnapshotService, null, mock(MessageStoreFactory.class), mockMessageLogReceiverEndpoint(null));
+
+        // when
+        final Optional<String> snapshotName = eventSource.writeStateSnapshot();
+
+        // then
+        assertThat(snapshotName, is(Optional.empty()));
+        verify(stateSnapshotService, never()).writeStateSnapshot(anyString(), any(StateSnapshot.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldFallBackToMessageStoreIfStateSnapshotCanNotBeLoaded() throws Exception {
+        // given
+        final StateRepository<String> stateRepository = new ConcurrentHashMapStateRepository<>();
+        final StateSnapshotService<String> stateSnapshotService = mock(StateSnapshotService.class);
+        when(stateSnapshotService.loadStateSnapshot("some-channel", stateRepository)).thenThrow(new IllegalStateException("S3 not available"));
+        final MessageStore messageStore = mock(MessageStore.class);
+        when(messageStore.stream()).thenReturn(Stream.empty());
+        when(messageStore.getLatestChannelPosition()).thenReturn(channelPosition(fromPosition("shard", "42")));
+        final MessageStoreFactory<MessageStore> messageStoreFactory = mock(MessageStoreFactory.class);
+        when(messageStoreFactory.createMessageStoreFor(anyString())).thenReturn(messageStore);
+        final MessageLogReceiverEndpoint messageLog = mockMessageLogReceiverEndpoint(channelPosition(fromPosition("shard", "43")));
+        final StateSnapshotEventSource<String> eventSource = new StateSnapshotEventSource<>(stateRepository, stateSnapshotService, null, messageStoreFactory, messageLog);
+
+        // when
+        final ChannelPosition result = eventSource.consume().get();
+
+        // then
+        verify(messageStore).stream();
+        verify(messageLog).consumeUntil(channelPosition(fromPosition("shard", "42")), Instant.MAX);
+        assertThat(result, is(channelPosition(fromPosition("shard", "43"))));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldReportFailuresUsingTheReturnedFuture() {
+        // given
+        final StateRepository<String> stateRepository = new ConcurrentHashMapStateRepository<>();
+        final StateSnapshotService<String> stateSnapshotService = mock(StateSnapshotService.class);
+        when(stateSnapshotService.loadStateSnapshot("some-channel", stateRepository)).thenReturn(Optional.empty());
+        final MessageStoreFactory<MessageStore> messageStoreFactory = mock(MessageStoreFactory.class);
+        when(messageStoreFactory.createMessageStoreFor(anyString())).thenThrow(new IllegalStateException("no snapshot"));
+        final StateSnapshotEventSource<String> eventSource = new StateSnapshotEventSource<>(stateRepository, stateSnapshotService, null, messageStoreFactory, mockMessageLogReceiverEndpoint(null));
+
+        // when
+        final CompletableFuture<ChannelPosition> result = eventSource.consume();
+
+        // then
+        try {
+            result.get();
+            fail("ExecutionException expected");
+        } catch (final InterruptedException | ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(IllegalStateException.class));
+        }
+    }
+
+    private MessageLogReceiverEndpoint mockMessageLogReceiverEndpoint(final ChannelPosition resultingPosition) {
+        final MessageLogReceiverEndpoint messageLog = mock(MessageLogReceiverEndpoint.class);
+        when(messageLog.getChannelName()).thenReturn("some-channel");
+        when(messageLog.getInterceptorChain()).thenReturn(new InterceptorChain());
+        when(messageLog.getMessageDispatcher()).thenReturn(new MessageDispatcher(new ObjectMapper()));
+        when(messageLog.consumeUntil(any(ChannelPosition.class), any(Instant.class))).thenReturn(completedFuture(resultingPosition));
+        return messageLog;
+    }
+
+    private static ArgumentMatcher<StateSnapshot<String>> snapshotAt(final ChannelPosition position) {
+        return snapshot -> snapshot.getChannelPosition().equals(Optional.of(position));
+    }
+}
@@ -0,0 +1,123 @@
+package de.otto.synapse.message.aws;
+
+import com.google.common.collect.ImmutableList;
+import de.otto.synapse.message.Message;
+import org.junit.Test;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.kinesis.model.Record;
+
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+import static de.otto.synapse.channel.ShardPosition.atPosition;
+import static de.otto.synapse.channel.ShardPosition.fromHorizon;
+import static de.otto.synapse.channel.ShardPosition.fromPosition;
+import static de.otto.synapse.message.Message.message;
+import static de.otto.synapse.message.aws.KinesisMessage.kinesisMessages;
+import static de.otto.synapse.message.aws.KinesisRecordAggregation.aggregate;
+import static de.otto.synapse.message.aws.KinesisRecordAggregation.deaggregate;
+import static de.otto.synapse.message.aws.KinesisRecordAggregation.isAggregated;
+import static de.otto.synapse.message.aws.KinesisRecordAggregation.lastConsumedSubRecordOf;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class KinesisRecordAggregationTest {
+
+    @Test
+    public void shouldDeaggregateAggregatedMessages() {
+        // given
+        final Instant now = Instant.now();
+        final Record record = Record.builder()
+                .partitionKey("a")
+                .data(aggregate(ImmutableList.of(
+                        message("a", "first"),
+                        message("b", "sëcond"),
+                        message("a", (String) null))))
+                .approximateArrivalTimestamp(now)
+                .sequenceNumber("42")
+                .build();
+
+        // when
+        final List<Message<String>> messages = kinesisMessages("some-shard", record);
+
+        // then
+        assertThat(messages, hasSize(3));
+        assertThat(messages.get(0).getKey(), is("a"));
+        assertThat(messages.get(0).getPayload(), is("first"));
+        assertThat(messages.get(0).getHeader().getShardPosition(), is(Optional.of(fromPosition("some-shard", "42:0"))));
+        assertThat(messages.get(1).getKey(), is("b"));
+        assertThat(messages.get(1).getPayload(), is("sëcond"));
+        assertThat(messages.get(1).getHeader().getShardPosition(), is(Optional.of(fromPosition("some-shard", "42:1"))));
+        assertThat(messages.get(2).getKey(), is("a"));
+        assertThat(messages.get(2).getPayload(), is(nullValue()));
+        assertThat(messages.get(2).getHeader().getShardPosition(), is(Optional.of(fromPosition("some-shard", "42"))));
+        assertThat(messages.get(2).getHeader().getArrivalTimestamp(), is(now));
+    }
+
+    @Test
+    public void shouldDeaggregateRecordEncodedByKpl() throws Exception {
+        // given
+        final byte[] protobuf = {
+                // partition_key_table: "k"
+                0x0A, 0x01, 'k',
+                // explicit_hash_key_table: "1"
+                0x12, 0x01, '1',
+                // records: partition_key_index=0, explicit_hash_key_index=0, data="hi"
+                0x1A, 0x08, 0x08, 0x00, 0x10, 0x00, 0x1A, 0x02, 'h', 'i'
+        };
+        final byte[] digest = MessageDigest.getInstance("MD5").digest(protobuf);
+        final byte[] data = new byte[4 + protobuf.length + digest.length];
+        data[0] = (byte) 0xF3;
+        data[1] = (byte) 0x89;
+        data[2] = (byte) 0x9A;
+        data[3] = (byte) 0xC2;
+        System.arraycopy(protobuf, 0, data, 4, protobuf.length);
+        System.arraycopy(digest, 0, data, 4 + protobuf.length, digest.length);
+        final Record record = Record.builder()
+                .partitionKey("k")
+                .data(SdkBytes.fromByteArray(data))
+                .approximateArrivalTimestamp(Instant.now())
+                .sequenceNumber("42")
+                .build();
+
+        // when
+        final List<Message<String>> messages = deaggregate("some-shard", record);
+
+        // then
+        assertThat(messages, hasSize(1));
+        assertThat(messages.get(0).getKey(), is("k"));
+        assertThat(messages.get(0).getPayload(), is("hi"));
+        assertThat(messages.get(0).getHeader().getShardPosition(), is(Optional.of(fromPosition("some-shard", "42"))));
+    }
+
+    @Test
+    public void shouldNotTreatPlainRecordsAsAggregated() {
+        assertThat(isAggregated(SdkBytes.fromString("{\"some\":\"json\"}", UTF_8)), is(false));
+        assertThat(isAggregated(SdkBytes.fromByteArray(new byte[0])), is(false));
+        assertThat(isAggregated(null), is(false));
+    }
+
+    @Test
+    public void shouldNotTreatRecordsWithInvalidChecksumAsAggregated() {
+        // given
+        final byte[] data = aggregate(ImmutableList.of(message("a", "first"), message("b", "second"))).asByteArray();
+        data[data.length - 1] ^= 0x01;
+
+        // then
+        assertThat(isAggregated(SdkBytes.fromByteArray(data)), is(false));
+    }
+
+    @Test
+    public void shouldDetermineLastConsumedSubRecord() {
+        assertThat(lastConsumedSubRecordOf(fromPosition("some-shard", "42:1")), is(Optional.of(fromPosition("some-shard", "42:1"))));
+        assertThat(lastConsumedSubRecordOf(atPosition("some-shard", "42:1")), is(Optional.of(fromPosition("some-shard", "42:0"))));
+        assertThat(lastConsumedSubRecordOf(atPosition("some-shard", "42:0")), is(Optional.empty()));
+        assertThat(lastConsumedSubRecordOf(fromPosition("some-shard", "42")), is(Optional.empty()));
+        assertThat(lastConsumedSubRecordOf(fromHorizon("some-shard")), is(Optional.empty()));
+    }
+}
@@ -80,4 +80,17 @@ public @interface EnableEventSource {
      */
     String messageLogReceiverEndpoint() default "";
 
+    /**
+     * The name of the {@link de.otto.synapse.endpoint.receiver.MessageLogReceiverEndpointFactory} bean that is used
+     * to create the {@link MessageLogReceiverEndpoint} of the {@link EventSource}.
+     * <p>
+     *     If {@code messageLogReceiverEndpointFactory} is not set, the single MessageLogReceiverEndpointFactory bean of
+     *     the application context, or the primary one, is used. Setting the bean name makes it possible to select a
+     *     different way to receive messages, like Kinesis enhanced fan-out, for a single EventSource.
+     * </p>
+     *
+     * @return bean name of the {@code MessageLogReceiverEndpointFactory}
+     */
+    String messageLogReceiverEndpointFactory() default "";
+
     }
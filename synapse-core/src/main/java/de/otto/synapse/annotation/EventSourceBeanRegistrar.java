@@ -4,6 +4,7 @@ import de.otto.synapse.endpoint.receiver.DelegateMessageLogReceiverEndpoint;
 import de.otto.synapse.eventsource.DelegateEventSource;
 import org.slf4j.Logger;
 import org.springframework.beans.factory.BeanCreationException;
+import org.springframework.beans.factory.support.BeanDefinitionBuilder;
 import org.springframework.beans.factory.support.BeanDefinitionRegistry;
 import org.springframework.context.EnvironmentAware;
 import org.springframework.context.annotation.ImportBeanDefinitionRegistrar;
@@ -73,8 +74,9 @@ public class EventSourceBeanRegistrar implements ImportBeanDefinitionRegistrar,
             final String messageLogBeanName = Objects.toString(
                     emptyToNull(annotationAttributes.getString("messageLogReceiverEndpoint")),
                     beanNameForMessageLogReceiverEndpoint(channelName));
+            final String messageLogFactoryBeanName = emptyToNull(annotationAttributes.getString("messageLogReceiverEndpointFactory"));
             if (!registry.containsBeanDefinition(messageLogBeanName)) {
-                registerMessageLogBeanDefinition(registry, messageLogBeanName, channelName);
+                registerMessageLogBeanDefinition(registry, messageLogBeanName, channelName, messageLogFactoryBeanName);
             } else {
                 throw new BeanCreationException(messageLogBeanName, format("MessageLogReceiverEndpoint %s is already registered.", messageLogBeanName));
             }
@@ -101,8 +103,11 @@ public class EventSourceBeanRegistrar implements ImportBeanDefinitionRegistrar,
                     emptyToNull(eventSourceAttr.getFirst("messageLogReceiverEndpoint").toString()),
                     beanNameForMessageLogReceiverEndpoint(channelName));
 
+            final String messageLogFactoryBeanName = emptyToNull(
+                    eventSourceAttr.getFirst("messageLogReceiverEndpointFactory").toString());
+
             if (!registry.containsBeanDefinition(messageLogBeanName)) {
-                registerMessageLogBeanDefinition(registry, messageLogBeanName, channelName);
+                registerMessageLogBeanDefinition(registry, messageLogBeanName, channelName, messageLogFactoryBeanName);
             } else {
                 throw new BeanCreationException(messageLogBeanName, format("MessageLogReceiverEndpoint %s is already registered.", messageLogBeanName));
             }
@@ -116,13 +121,17 @@ public class EventSourceBeanRegistrar implements ImportBeanDefinitionRegistrar,
 
     private void registerMessageLogBeanDefinition(final BeanDefinitionRegistry registry,
                                                   final String beanName,
-                                                  final String channelName) {
-
+                                                  final String channelName,
+                                                  final String messageLogFactoryBeanName) {
 
+        final BeanDefinitionBuilder beanDefinitionBuilder = genericBeanDefinition(DelegateMessageLogReceiverEndpoint.class)
+                .addConstructorArgValue(channelName);
+        if (messageLogFactoryBeanName != null) {
+            beanDefinitionBuilder.addConstructorArgReference(messageLogFactoryBeanName);
+        }
         registry.registerBeanDefinition(
                 beanName,
-                genericBeanDefinition(DelegateMessageLogReceiverEndpoint.class)
-                        .addConstructorArgValue(channelName)
+                beanDefinitionBuilder
                         .setDependencyCheck(DEPENDENCY_CHECK_ALL)
                         .getBeanDefinition()
         );
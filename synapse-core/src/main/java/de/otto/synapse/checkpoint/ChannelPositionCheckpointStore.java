@@ -0,0 +1,36 @@
+package de.otto.synapse.checkpoint;
+
+import de.otto.synapse.channel.ChannelPosition;
+
+import javax.annotation.Nonnull;
+import java.util.Optional;
+
+/**
+ * Stores checkpoints of the {@link ChannelPosition} of consumed channels, so consumers are able to resume
+ * consumption at the last checkpoint after a restart, instead of starting from a snapshot or from the horizon.
+ * <p>
+ *     Implementations must replace checkpoints atomically: after a crash, {@link #getCheckpoint(String)} must return
+ *     either the previous or the latest committed checkpoint, but never a partially written one.
+ * </p>
+ *
+ * @see ChannelPositionCheckpointer
+ */
+public interface ChannelPositionCheckpointStore {
+
+    /**
+     * Stores the checkpoint of a channel, replacing the previous checkpoint.
+     *
+     * @param channelName the name of the channel
+     * @param channelPosition the position of the last message processed by the consumer
+     */
+    void commit(@Nonnull String channelName, @Nonnull ChannelPosition channelPosition);
+
+    /**
+     * Returns the latest committed checkpoint of a channel.
+     *
+     * @param channelName the name of the channel
+     * @return optional ChannelPosition, or empty if no checkpoint was committed for the channel
+     */
+    @Nonnull
+    Optional<ChannelPosition> getCheckpoint(@Nonnull String channelName);
+}
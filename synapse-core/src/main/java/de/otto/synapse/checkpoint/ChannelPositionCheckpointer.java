@@ -0,0 +1,185 @@
+package de.otto.synapse.checkpoint;
+
+import de.otto.synapse.channel.ChannelPosition;
+import de.otto.synapse.consumer.PositionTrackingMessageConsumer;
+import de.otto.synapse.executor.ChannelExecutor;
+import de.otto.synapse.executor.SynapseExecutor;
+import de.otto.synapse.message.Message;
+import org.slf4j.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * A {@link PositionTrackingMessageConsumer} that is keeping track of the positions of the consumed messages of a
+ * channel, and asynchronously commits the position to a {@link ChannelPositionCheckpointStore} every {@code commitEveryMessages}
+ * messages, or every {@code commitInterval}, whatever comes first.
+ * <p>
+ *     The checkpointer should be the last consumer registered at the message log, so a committed position is
+ *     only including messages that were already processed by all other consumers. Messages are ignored until the
+ *     checkpointer is {@link #startAt(ChannelPosition) started} at the position where the consumption of the message
+ *     log begins, so messages replayed from a snapshot are never committed.
+ * </p>
+ * <p>
+ *     Commits are performed asynchronously by the {@link SynapseExecutor}, one commit at a time. If a commit is still
+ *     running when the next commit is due, the commits are coalesced.
+ * </p>
+ */
+@ThreadSafe
+public class ChannelPositionCheckpointer extends PositionTrackingMessageConsumer implements AutoCloseable {
+
+    private static final Logger LOG = getLogger(ChannelPositionCheckpointer.class);
+
+    private final String channelName;
+    private final ChannelPositionCheckpointStore checkpointStore;
+    private final long commitEveryMessages;
+    private final Duration commitInterval;
+    private final SynapseExecutor synapseExecutor;
+
+    private final AtomicLong uncommittedMessages = new AtomicLong();
+    private final AtomicBoolean commitPending = new AtomicBoolean(false);
+    private final AtomicReference<ChannelPosition> lastCommittedPosition = new AtomicReference<>();
+    private volatile ChannelExecutor executor;
+
+    /**
+     * @param channelName the name of the channel
+     * @param checkpointStore the store used to commit checkpoints
+     * @param commitEveryMessages the number of messages after which a checkpoint is committed, or 0 to only commit
+     *                            every {@code commitInterval}
+     * @param commitInterval the interval in which checkpoints are committed, if messages were consumed, or null to
+     *                       only commit every {@code commitEveryMessages} messages
+     */
+    public ChannelPositionCheckpointer(final @Nonnull String channelName,
+                                       final @Nonnull ChannelPositionCheckpointStore checkpointStore,
+                                       final long commitEveryMessages,
+                                       final @Nullable Duration commitInterval) {
+        this(channelName, checkpointStore, commitEveryMessages, commitInterval, SynapseExecutor.defaultExecutor());
+    }
+
+    /**
+     * @param channelName the name of the channel
+     * @param checkpointStore the store used to commit checkpoints
+     * @param commitEveryMessages the number of messages after which a checkpoint is committed, or 0 to only commit
+     *                            every {@code commitInterval}
+     * @param commitInterval the interval in which checkpoints are committed, if messages were consumed, or null to
+     *                       only commit every {@code commitEveryMessages} messages
+     * @param synapseExecutor the executor used to commit checkpoints
+     */
+    public ChannelPositionCheckpointer(final @Nonnull String channelName,
+                                       final @Nonnull ChannelPositionCheckpointStore checkpointStore,
+                                       final long commitEveryMessages,
+                                       final @Nullable Duration commitInterval,
+                                       final @Nonnull SynapseExecutor synapseExecutor) {
+        this.synapseExecutor = synapseExecutor;
+        this.channelName = channelName;
+        this.checkpointStore = checkpointStore;
+        this.commitEveryMessages = commitEveryMessages;
+        this.commitInterval = commitInterval;
+    }
+
+    /**
+     * Starts tracking the positions of consumed messages, beginning at the given position, and starts the
+     * background commits.
+     *
+     * @param position the position where the consumption of the message log begins
+     */
+    @Override
+    public synchronized void startAt(final @Nonnull ChannelPosition position) {
+        uncommittedMessages.set(0);
+        super.startAt(position);
+        if (executor == null || executor.isShutdown()) {
+            executor = synapseExecutor.forChannel(channelName);
+            if (commitInterval != null) {
+                executor.scheduleWithFixedDelay(this::commitIfNecessary, commitInterval, commitInterval);
+            }
+        }
+    }
+
+    /**
+     * Returns the last position committed by this checkpointer.
+     *
+     * @return optional ChannelPosition
+     */
+    @Nonnull
+    public Optional<ChannelPosition> getLastCommittedPosition() {
+        return Optional.ofNullable(lastCommittedPosition.get());
+    }
+
+    @Override
+    public void accept(final Message<String> message) {
+        if (!isStarted()) {
+            return;
+        }
+        super.accept(message);
+        if (commitEveryMessages > 0
+                && uncommittedMessages.incrementAndGet() >= commitEveryMessages
+                && commitPending.compareAndSet(false, true)) {
+            final ChannelExecutor executor = this.executor;
+            if (executor == null || !submitCommit(executor)) {
+                commitPending.set(false);
+            }
+        }
+    }
+
+    /**
+     * Synchronously commits the current position, if messages were consumed since the last commit.
+     */
+    public synchronized void commitIfNecessary() {
+        commitPending.set(false);
+        final long uncommitted = uncommittedMessages.getAndSet(0);
+        final Optional<ChannelPosition> position = getCurrentPosition();
+        if (position.isPresent() && (uncommitted > 0 || !position.get().equals(lastCommittedPosition.get()))) {
+            commit(position.get());
+        }
+    }
+
+    /**
+     * Stops the background commits and commits the given final position.
+     *
+     * @param finalPosition the position returned by the message log when the consumption has finished, or null to
+     *                      commit the position of the last consumed message
+     */
+    public synchronized void close(final @Nullable ChannelPosition finalPosition) {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        if (finalPosition != null) {
+            commit(finalPosition);
+        } else {
+            commitIfNecessary();
+        }
+    }
+
+    @Override
+    public void close() {
+        close(null);
+    }
+
+    private boolean submitCommit(final ChannelExecutor executor) {
+        try {
+            executor.execute(this::commitIfNecessary);
+            return true;
+        } catch (final RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    private void commit(final ChannelPosition position) {
+        try {
+            checkpointStore.commit(channelName, position);
+            lastCommittedPosition.set(position);
+            LOG.debug("Committed checkpoint of channel {}: {}", channelName, position);
+        } catch (final RuntimeException e) {
+            LOG.error("Failed to commit checkpoint of channel {}: {}", channelName, e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package de.otto.synapse.checkpoint;
+
+import de.otto.synapse.channel.ChannelPosition;
+import de.otto.synapse.channel.ShardPosition;
+import de.otto.synapse.channel.StartFrom;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact binary encoding of {@link ChannelPosition channel positions}, used by checkpoints and state snapshots.
+ * <p>
+ *     Every shard is encoded as shard name, {@link StartFrom}, position and timestamp (epoch millis, or
+ *     {@link Long#MIN_VALUE} if the shard position has no timestamp).
+ * </p>
+ */
+public final class ChannelPositionCodec {
+
+    private static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+    private ChannelPositionCodec() {
+    }
+
+    public static void write(final @Nonnull ChannelPosition position,
+                             final @Nonnull DataOutput out) throws IOException {
+        out.writeInt(position.shards().size());
+        for (final String shardName : position.shards()) {
+            final ShardPosition shardPosition = position.shard(shardName);
+            out.writeUTF(shardName);
+            out.writeUTF(shardPosition.startFrom().name());
+            out.writeUTF(shardPosition.position());
+            out.writeLong(shardPosition.startFrom() == StartFrom.TIMESTAMP
+                    ? shardPosition.timestamp().toEpochMilli()
+                    : NO_TIMESTAMP);
+        }
+    }
+
+    @Nonnull
+    public static ChannelPosition read(final @Nonnull DataInput in) throws IOException {
+        final int shardCount = in.readInt();
+        final List<ShardPosition> shardPositions = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            final String shardName = in.readUTF();
+            final StartFrom startFrom = StartFrom.valueOf(in.readUTF());
+            final String position = in.readUTF();
+            final long timestamp = in.readLong();
+            switch (startFrom) {
+                case HORIZON:
+                    shardPositions.add(ShardPosition.fromHorizon(shardName));
+                    break;
+                case TIMESTAMP:
+                    shardPositions.add(ShardPosition.fromTimestamp(shardName, Instant.ofEpochMilli(timestamp)));
+                    break;
+                case AT_POSITION:
+                    shardPositions.add(ShardPosition.atPosition(shardName, position));
+                    break;
+                default:
+                    shardPositions.add(ShardPosition.fromPosition(shardName, position));
+            }
+        }
+        return ChannelPosition.channelPosition(shardPositions);
+    }
+
+    @Nonnull
+    public static byte[] encode(final @Nonnull ChannelPosition position) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            write(position, out);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Nonnull
+    public static ChannelPosition decode(final @Nonnull byte[] bytes) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            return read(in);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package de.otto.synapse.checkpoint;
+
+import de.otto.synapse.channel.ChannelPosition;
+import org.slf4j.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * A {@link ChannelPositionCheckpointStore} that is storing checkpoints in local files, one file per channel.
+ * <p>
+ *     Checkpoints are written to a temporary file that is synced to disk and atomically moved to its final location
+ *     afterwards, so the checkpoint survives crashes of the process and of the host.
+ * </p>
+ */
+@ThreadSafe
+public class FileChannelPositionCheckpointStore implements ChannelPositionCheckpointStore {
+
+    private static final Logger LOG = getLogger(FileChannelPositionCheckpointStore.class);
+    private static final String CHECKPOINT_FILE_EXTENSION = ".checkpoint";
+
+    private final Path directory;
+
+    public FileChannelPositionCheckpointStore(final @Nonnull File directory) {
+        this.directory = directory.toPath();
+        try {
+            Files.createDirectories(this.directory);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized void commit(final @Nonnull String channelName,
+                                    final @Nonnull ChannelPosition channelPosition) {
+        final Path checkpointFile = checkpointFile(channelName);
+        final Path tempFile = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+        try {
+            try (FileOutputStream out = new FileOutputStream(tempFile.toFile())) {
+                out.write(ChannelPositionCodec.encode(channelPosition));
+                out.getFD().sync();
+            }
+            Files.move(tempFile, checkpointFile, ATOMIC_MOVE, REPLACE_EXISTING);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Nonnull
+    @Override
+    public Optional<ChannelPosition> getCheckpoint(final @Nonnull String channelName) {
+        final Path checkpointFile = checkpointFile(channelName);
+        if (!Files.isReadable(checkpointFile)) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(ChannelPositionCodec.decode(Files.readAllBytes(checkpointFile)));
+        } catch (final IOException | RuntimeException e) {
+            LOG.warn("Unable to read checkpoint of channel {} from {}: {}", channelName, checkpointFile, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    private Path checkpointFile(final String channelName) {
+        return directory.resolve(channelName + CHECKPOINT_FILE_EXTENSION);
+    }
+}
@@ -0,0 +1,162 @@
+package de.otto.synapse.checkpoint;
+
+import de.otto.synapse.channel.ChannelPosition;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * A {@link ChannelPositionCheckpointStore} that is storing checkpoints in memory-mapped files, one file per channel.
+ * <p>
+ *     Committing a checkpoint is a memory copy without any system call, so checkpoints can be committed very
+ *     frequently. The file is containing two slots that are written alternately. Every slot is storing a sequence
+ *     number, the length and the CRC32 checksum of the encoded checkpoint; the sequence number is written last.
+ *     The valid slot with the highest sequence number is the current checkpoint, so a torn write is falling back
+ *     to the previous checkpoint.
+ * </p>
+ * <p>
+ *     Checkpoints are written to the page cache of the operating system and survive crashes of the process, but
+ *     not necessarily crashes of the host. Use {@link FileChannelPositionCheckpointStore} if checkpoints must be
+ *     synced to disk.
+ * </p>
+ */
+@ThreadSafe
+public class MappedFileChannelPositionCheckpointStore implements ChannelPositionCheckpointStore {
+
+    private static final String CHECKPOINT_FILE_EXTENSION = ".mapped-checkpoint";
+    private static final int DEFAULT_MAX_CHECKPOINT_SIZE = 64 * 1024;
+    // sequence number (long), length (int) and checksum (int):
+    private static final int SLOT_HEADER_SIZE = 16;
+
+    private final Path directory;
+    private final int slotSize;
+    private final Map<String, MappedCheckpoint> checkpoints = new ConcurrentHashMap<>();
+
+    public MappedFileChannelPositionCheckpointStore(final @Nonnull File directory) {
+        this(directory, DEFAULT_MAX_CHECKPOINT_SIZE);
+    }
+
+    /**
+     * @param directory the directory of the mapped files
+     * @param maxCheckpointSize the maximum size of an encoded checkpoint in bytes
+     */
+    public MappedFileChannelPositionCheckpointStore(final @Nonnull File directory,
+                                                    final int maxCheckpointSize) {
+        this.directory = directory.toPath();
+        this.slotSize = SLOT_HEADER_SIZE + maxCheckpointSize;
+        try {
+            Files.createDirectories(this.directory);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void commit(final @Nonnull String channelName,
+                       final @Nonnull ChannelPosition channelPosition) {
+        checkpointOf(channelName).commit(ChannelPositionCodec.encode(channelPosition));
+    }
+
+    @Nonnull
+    @Override
+    public Optional<ChannelPosition> getCheckpoint(final @Nonnull String channelName) {
+        if (!checkpoints.containsKey(channelName) && !Files.exists(checkpointFile(channelName))) {
+            return Optional.empty();
+        }
+        return checkpointOf(channelName).read().map(ChannelPositionCodec::decode);
+    }
+
+    private MappedCheckpoint checkpointOf(final String channelName) {
+        return checkpoints.computeIfAbsent(channelName, name -> new MappedCheckpoint(checkpointFile(name)));
+    }
+
+    private Path checkpointFile(final String channelName) {
+        return directory.resolve(channelName + CHECKPOINT_FILE_EXTENSION);
+    }
+
+    private final class MappedCheckpoint {
+        private final MappedByteBuffer buffer;
+        private long sequence;
+
+        private MappedCheckpoint(final Path file) {
+            try (FileChannel fileChannel = FileChannel.open(file, CREATE, READ, WRITE)) {
+                // the mapping remains valid after the channel is closed:
+                buffer = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, 2L * slotSize);
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            sequence = Math.max(0, Math.max(validSequence(0), validSequence(1)));
+        }
+
+        private synchronized void commit(final byte[] checkpoint) {
+            if (checkpoint.length > slotSize - SLOT_HEADER_SIZE) {
+                throw new IllegalArgumentException("Checkpoint exceeds the maximum size of " + (slotSize - SLOT_HEADER_SIZE) + " bytes");
+            }
+            final long nextSequence = sequence + 1;
+            final int offset = slotOffset(nextSequence);
+            buffer.putInt(offset + 8, checkpoint.length);
+            buffer.putInt(offset + 12, checksum(checkpoint));
+            for (int i = 0; i < checkpoint.length; i++) {
+                buffer.put(offset + SLOT_HEADER_SIZE + i, checkpoint[i]);
+            }
+            buffer.putLong(offset, nextSequence);
+            sequence = nextSequence;
+        }
+
+        private synchronized Optional<byte[]> read() {
+            final long first = validSequence(0);
+            final long second = validSequence(1);
+            if (first < 1 && second < 1) {
+                return Optional.empty();
+            }
+            return Optional.of(slotContent(first > second ? 0 : 1));
+        }
+
+        /**
+         * Returns the sequence number of a slot, or -1 if the slot is empty or corrupt.
+         */
+        private long validSequence(final int slot) {
+            final int offset = slot * slotSize;
+            final long slotSequence = buffer.getLong(offset);
+            final int length = buffer.getInt(offset + 8);
+            if (slotSequence < 1 || length < 0 || length > slotSize - SLOT_HEADER_SIZE) {
+                return -1;
+            }
+            return checksum(slotContent(slot)) == buffer.getInt(offset + 12) ? slotSequence : -1;
+        }
+
+        private byte[] slotContent(final int slot) {
+            final int offset = slot * slotSize;
+            final byte[] content = new byte[buffer.getInt(offset + 8)];
+            for (int i = 0; i < content.length; i++) {
+                content[i] = buffer.get(offset + SLOT_HEADER_SIZE + i);
+            }
+            return content;
+        }
+
+        private int slotOffset(final long sequence) {
+            return (int) (sequence % 2) * slotSize;
+        }
+
+        private int checksum(final byte[] bytes) {
+            final CRC32 crc = new CRC32();
+            crc.update(bytes, 0, bytes.length);
+            return (int) crc.getValue();
+        }
+    }
+}
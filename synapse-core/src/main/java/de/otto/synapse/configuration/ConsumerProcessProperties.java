@@ -2,9 +2,13 @@ package de.otto.synapse.configuration;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.util.HashMap;
+import java.util.Map;
+
 @ConfigurationProperties(prefix = "synapse.consumer-process")
 public class ConsumerProcessProperties {
     private boolean enabled = true;
+    private Startup startup = new Startup();
 
     public boolean isEnabled() {
         return enabled;
@@ -13,4 +17,81 @@ public class ConsumerProcessProperties {
     public void setEnabled(boolean enabled) {
         this.enabled = enabled;
     }
+
+    public Startup getStartup() {
+        return startup;
+    }
+
+    public void setStartup(Startup startup) {
+        this.startup = startup;
+    }
+
+    /**
+     * Configures the startup of the EventSources by the {@link de.otto.synapse.eventsource.EventSourceStartupOrchestrator}.
+     */
+    public static class Startup {
+        private int maxConcurrentStartups = 0;
+        private Map<String, Integer> priorities = new HashMap<>();
+        private long maxMillisBehind = 10000L;
+        private long maxStartupMinutes = 30L;
+        private long minUsableDiskSpace = 0L;
+        private String diskSpaceDirectory = System.getProperty("java.io.tmpdir");
+        private long minFreeMemory = 0L;
+
+        public int getMaxConcurrentStartups() {
+            return maxConcurrentStartups;
+        }
+
+        public void setMaxConcurrentStartups(int maxConcurrentStartups) {
+            this.maxConcurrentStartups = maxConcurrentStartups;
+        }
+
+        public Map<String, Integer> getPriorities() {
+            return priorities;
+        }
+
+        public void setPriorities(Map<String, Integer> priorities) {
+            this.priorities = priorities;
+        }
+
+        public long getMaxMillisBehind() {
+            return maxMillisBehind;
+        }
+
+        public void setMaxMillisBehind(long maxMillisBehind) {
+            this.maxMillisBehind = maxMillisBehind;
+        }
+
+        public long getMaxStartupMinutes() {
+            return maxStartupMinutes;
+        }
+
+        public void setMaxStartupMinutes(long maxStartupMinutes) {
+            this.maxStartupMinutes = maxStartupMinutes;
+        }
+
+        public long getMinUsableDiskSpace() {
+            return minUsableDiskSpace;
+        }
+
+        public void setMinUsableDiskSpace(long minUsableDiskSpace) {
+            this.minUsableDiskSpace = minUsableDiskSpace;
+        }
+
+        public String getDiskSpaceDirectory() {
+            return diskSpaceDirectory;
+        }
+
+        public void setDiskSpaceDirectory(String diskSpaceDirectory) {
+            this.diskSpaceDirectory = diskSpaceDirectory;
+        }
+
+        public long getMinFreeMemory() {
+            return minFreeMemory;
+        }
+
+        public void setMinFreeMemory(long minFreeMemory) {
+            this.minFreeMemory = minFreeMemory;
+        }
+    }
 }
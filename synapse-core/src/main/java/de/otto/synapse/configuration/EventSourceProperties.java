@@ -0,0 +1,49 @@
+package de.otto.synapse.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@ConfigurationProperties(prefix = "synapse.event-source")
+public class EventSourceProperties {
+    private CatchUp catchUp = new CatchUp();
+
+    public CatchUp getCatchUp() {
+        return catchUp;
+    }
+
+    public void setCatchUp(CatchUp catchUp) {
+        this.catchUp = catchUp;
+    }
+
+    /**
+     * Configures EventSources to consume the message log while the snapshot is replayed.
+     */
+    public static class CatchUp {
+        private boolean overlapping = false;
+        private int maxBufferedMessages = 10000;
+        private String spillDirectory = null;
+
+        public boolean isOverlapping() {
+            return overlapping;
+        }
+
+        public void setOverlapping(boolean overlapping) {
+            this.overlapping = overlapping;
+        }
+
+        public int getMaxBufferedMessages() {
+            return maxBufferedMessages;
+        }
+
+        public void setMaxBufferedMessages(int maxBufferedMessages) {
+            this.maxBufferedMessages = maxBufferedMessages;
+        }
+
+        public String getSpillDirectory() {
+            return spillDirectory;
+        }
+
+        public void setSpillDirectory(String spillDirectory) {
+            this.spillDirectory = spillDirectory;
+        }
+    }
+}
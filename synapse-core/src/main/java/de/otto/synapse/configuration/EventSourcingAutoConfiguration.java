@@ -5,6 +5,8 @@ import de.otto.synapse.eventsource.DefaultEventSource;
 import de.otto.synapse.eventsource.EventSource;
 import de.otto.synapse.eventsource.EventSourceBuilder;
 import de.otto.synapse.eventsource.EventSourceConsumerProcess;
+import de.otto.synapse.eventsource.EventSourceStartupOrchestrator;
+import de.otto.synapse.executor.SynapseExecutor;
 import de.otto.synapse.messagestore.MessageStoreFactory;
 import de.otto.synapse.messagestore.SnapshotMessageStore;
 import org.slf4j.Logger;
@@ -16,13 +18,16 @@ import org.springframework.boot.context.properties.EnableConfigurationProperties
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Role;
 
+import java.io.File;
+import java.time.Duration;
 import java.util.List;
 
+import static de.otto.synapse.eventsource.EventSourceStartupOrchestrator.startupOrchestratorBuilder;
 import static org.slf4j.LoggerFactory.getLogger;
 import static org.springframework.beans.factory.config.BeanDefinition.ROLE_INFRASTRUCTURE;
 
 @ImportAutoConfiguration(SynapseAutoConfiguration.class)
-@EnableConfigurationProperties(ConsumerProcessProperties.class)
+@EnableConfigurationProperties({ConsumerProcessProperties.class, EventSourceProperties.class})
 public class EventSourcingAutoConfiguration {
 
     private static final Logger LOG = getLogger(EventSourcingAutoConfiguration.class);
@@ -32,10 +37,17 @@ public class EventSourcingAutoConfiguration {
 
     @Bean
     @ConditionalOnMissingBean
-    public EventSourceBuilder eventSourceBuilder(final MessageStoreFactory<SnapshotMessageStore> snapshotMessageStoreFactory) {
+    public EventSourceBuilder eventSourceBuilder(final MessageStoreFactory<SnapshotMessageStore> snapshotMessageStoreFactory,
+                                                 final EventSourceProperties eventSourceProperties,
+                                                 final SynapseExecutor synapseExecutor) {
+        final EventSourceProperties.CatchUp catchUp = eventSourceProperties.getCatchUp();
         return (messageLog) -> {
             final SnapshotMessageStore messageStore = snapshotMessageStoreFactory.createMessageStoreFor(messageLog.getChannelName());
-            return new DefaultEventSource(messageStore, messageLog);
+            if (catchUp.isOverlapping()) {
+                final File spillDirectory = catchUp.getSpillDirectory() != null ? new File(catchUp.getSpillDirectory()) : null;
+                return new DefaultEventSource(messageStore, messageLog, catchUp.getMaxBufferedMessages(), spillDirectory, synapseExecutor);
+            }
+            return new DefaultEventSource(messageStore, messageLog, synapseExecutor);
         };
     }
 
@@ -45,8 +57,23 @@ public class EventSourcingAutoConfiguration {
             name = "consumer-process.enabled",
             havingValue = "true",
             matchIfMissing = true)
-    public EventSourceConsumerProcess eventSourceConsumerProcess() {
-        return new EventSourceConsumerProcess(eventSources);
+    public EventSourceConsumerProcess eventSourceConsumerProcess(final EventSourceStartupOrchestrator eventSourceStartupOrchestrator) {
+        return new EventSourceConsumerProcess(eventSources, eventSourceStartupOrchestrator);
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    public EventSourceStartupOrchestrator eventSourceStartupOrchestrator(final ConsumerProcessProperties consumerProcessProperties) {
+        final ConsumerProcessProperties.Startup startup = consumerProcessProperties.getStartup();
+        return startupOrchestratorBuilder()
+                .withMaxConcurrentStartups(startup.getMaxConcurrentStartups())
+                .withPriorities(startup.getPriorities())
+                .withMaxDurationBehind(Duration.ofMillis(startup.getMaxMillisBehind()))
+                .withMaxStartupDuration(Duration.ofMinutes(startup.getMaxStartupMinutes()))
+                .withMinUsableDiskSpace(startup.getMinUsableDiskSpace())
+                .withDiskSpaceDirectory(new File(startup.getDiskSpaceDirectory()))
+                .withMinFreeMemory(startup.getMinFreeMemory())
+                .build();
     }
 
     @Bean
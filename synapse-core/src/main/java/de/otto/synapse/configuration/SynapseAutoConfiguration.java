@@ -11,6 +11,7 @@ import de.otto.synapse.eventsource.DefaultEventSource;
 import de.otto.synapse.eventsource.EventSource;
 import de.otto.synapse.eventsource.EventSourceBuilder;
 import de.otto.synapse.eventsource.EventSourceConsumerProcess;
+import de.otto.synapse.executor.SynapseExecutor;
 import de.otto.synapse.messagestore.MessageStoreFactory;
 import de.otto.synapse.messagestore.SnapshotMessageStore;
 import org.slf4j.Logger;
@@ -24,6 +25,7 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
 import org.springframework.context.annotation.Role;
 
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
 
@@ -31,7 +33,7 @@ import static org.slf4j.LoggerFactory.getLogger;
 import static org.springframework.beans.factory.config.BeanDefinition.ROLE_INFRASTRUCTURE;
 
 @Configuration
-@EnableConfigurationProperties(ConsumerProcessProperties.class)
+@EnableConfigurationProperties({ConsumerProcessProperties.class, SynapseExecutorProperties.class})
 public class SynapseAutoConfiguration {
 
     private static final Logger LOG = getLogger(SynapseAutoConfiguration.class);
@@ -47,6 +49,19 @@ public class SynapseAutoConfiguration {
         return objectMapper;
     }
 
+    @Bean
+    @ConditionalOnMissingBean
+    public SynapseExecutor synapseExecutor(final SynapseExecutorProperties properties) {
+        final SynapseExecutor synapseExecutor = SynapseExecutor.synapseExecutorBuilder()
+                .withVirtualThreads(properties.isVirtualThreads())
+                .withMaxThreads(properties.getMaxThreads())
+                .withKeepAlive(Duration.ofSeconds(properties.getKeepAliveSeconds()))
+                .build();
+        // components that are not created by the application context are using the configured executor as well:
+        SynapseExecutor.setDefaultExecutor(synapseExecutor);
+        return synapseExecutor;
+    }
+
     @Bean
     public MessageInterceptorRegistry messageInterceptorRegistry(final ApplicationContext applicationContext) {
         if (registry == null) {
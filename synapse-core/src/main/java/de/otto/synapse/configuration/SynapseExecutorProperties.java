@@ -0,0 +1,37 @@
+package de.otto.synapse.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Configures the {@link de.otto.synapse.executor.SynapseExecutor} used by the message endpoints.
+ */
+@ConfigurationProperties(prefix = "synapse.executor")
+public class SynapseExecutorProperties {
+    private boolean virtualThreads = false;
+    private int maxThreads = 256;
+    private long keepAliveSeconds = 60;
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    public void setMaxThreads(int maxThreads) {
+        this.maxThreads = maxThreads;
+    }
+
+    public long getKeepAliveSeconds() {
+        return keepAliveSeconds;
+    }
+
+    public void setKeepAliveSeconds(long keepAliveSeconds) {
+        this.keepAliveSeconds = keepAliveSeconds;
+    }
+}
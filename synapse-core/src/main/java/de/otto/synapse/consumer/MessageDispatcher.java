@@ -7,6 +7,8 @@ import org.slf4j.Logger;
 import javax.annotation.Nonnull;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
 
 import static de.otto.synapse.message.Message.message;
@@ -27,6 +29,10 @@ import static org.slf4j.LoggerFactory.getLogger;
  * <p>
  *     Messages are translated by the dispatcher using to the format expected by the registered consumers.
  * </p>
+ * <p>
+ *     Using {@link #betweenMessages(Supplier)}, state derived from the consumed messages can be captured at a
+ *     message boundary, when no message is partially applied to the registered consumers.
+ * </p>
  * @see  <a href="http://www.enterpriseintegrationpatterns.com/patterns/messaging/MessageDispatcher.html">EIP: Message Dispatcher</a>
  * @see <a href="https://en.wikipedia.org/wiki/Composite_pattern">Composite Pattern</a>
  */
@@ -37,6 +43,7 @@ public class MessageDispatcher implements MessageConsumer<String> {
 
     private final List<MessageConsumer<?>> messageConsumers;
     private final ObjectMapper objectMapper;
+    private final StampedLock dispatchLock = new StampedLock();
 
     public MessageDispatcher(final ObjectMapper objectMapper) {
         this.messageConsumers = synchronizedList(new ArrayList<>());
@@ -91,26 +98,52 @@ public class MessageDispatcher implements MessageConsumer<String> {
     @SuppressWarnings({"unchecked", "raw"})
     public void accept(final Message<String> message) {
         LOG.debug("Accepting message={}", message);
-        messageConsumers
-                .stream()
-                .filter(consumer -> matchesKeyPattern(message, consumer.keyPattern()))
-                .forEach((MessageConsumer consumer) -> {
-                    try {
-                        final Class<?> payloadType = consumer.payloadType();
-                        if (payloadType.equals(String.class)) {
-                            consumer.accept(message);
-                        } else {
-                            Object payload = null;
-                            if (message.getPayload() != null) {
-                                payload = objectMapper.readValue(message.getPayload(), payloadType);
+        final long stamp = dispatchLock.readLock();
+        try {
+            messageConsumers
+                    .stream()
+                    .filter(consumer -> matchesKeyPattern(message, consumer.keyPattern()))
+                    .forEach((MessageConsumer consumer) -> {
+                        try {
+                            final Class<?> payloadType = consumer.payloadType();
+                            if (payloadType.equals(String.class)) {
+                                consumer.accept(message);
+                            } else {
+                                Object payload = null;
+                                if (message.getPayload() != null) {
+                                    payload = objectMapper.readValue(message.getPayload(), payloadType);
+                                }
+                                final Message<?> tMessage = message(message.getKey(), message.getHeader(), payload);
+                                consumer.accept(tMessage);
                             }
-                            final Message<?> tMessage = message(message.getKey(), message.getHeader(), payload);
-                            consumer.accept(tMessage);
+                        } catch (final Exception e) {
+                            LOG.error(e.getMessage(), e);
                         }
-                    } catch (final Exception e) {
-                        LOG.error(e.getMessage(), e);
-                    }
-                });
+                    });
+        } finally {
+            dispatchLock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Calls the supplier at a message boundary: messages that are currently dispatched are applied to all
+     * consumers first, and no other message is dispatched until the supplier has returned.
+     * <p>
+     *     The supplier should return quickly, as it is blocking the consumption of messages. It must not be called
+     *     from within a {@link MessageConsumer}.
+     * </p>
+     *
+     * @param supplier the supplier called between two messages
+     * @param <T> the type of the result
+     * @return the result of the supplier
+     */
+    public <T> T betweenMessages(final Supplier<T> supplier) {
+        final long stamp = dispatchLock.writeLock();
+        try {
+            return supplier.get();
+        } finally {
+            dispatchLock.unlockWrite(stamp);
+        }
     }
 
     private boolean matchesKeyPattern(final Message<String> message,
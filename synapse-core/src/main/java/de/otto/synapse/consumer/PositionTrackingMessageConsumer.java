@@ -0,0 +1,85 @@
+package de.otto.synapse.consumer;
+
+import de.otto.synapse.channel.ChannelPosition;
+import de.otto.synapse.channel.ShardPosition;
+import de.otto.synapse.message.Message;
+import de.otto.synapse.messagestore.PositionTrackingMessageStore;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+
+import static de.otto.synapse.channel.ChannelPosition.channelPosition;
+import static de.otto.synapse.channel.ChannelPosition.merge;
+import static java.util.regex.Pattern.compile;
+
+/**
+ * A {@link MessageConsumer} that is keeping track of the {@link ChannelPosition} of the consumed messages of a channel.
+ * <p>
+ *     The tracker should be the last consumer registered at the message log, so the current position is only
+ *     including messages that were already processed by all other consumers. Messages are ignored until the tracker
+ *     is {@link #startAt(ChannelPosition) started} at the position where the consumption of the message log begins,
+ *     so messages replayed from a snapshot are never tracked. Use a {@link PositionTrackingMessageStore} to start
+ *     the tracker after a snapshot was replayed.
+ * </p>
+ */
+@ThreadSafe
+public class PositionTrackingMessageConsumer implements MessageConsumer<String> {
+
+    private static final Pattern ACCEPT_ALL = compile(".*");
+
+    private final AtomicReference<ChannelPosition> startPosition = new AtomicReference<>();
+    private final Map<String, ShardPosition> shardPositions = new ConcurrentHashMap<>();
+
+    /**
+     * Starts tracking the positions of consumed messages, beginning at the given position. Positions tracked
+     * before are discarded.
+     *
+     * @param position the position where the consumption of the message log begins
+     */
+    public void startAt(final @Nonnull ChannelPosition position) {
+        shardPositions.clear();
+        startPosition.set(position);
+    }
+
+    public boolean isStarted() {
+        return startPosition.get() != null;
+    }
+
+    /**
+     * Returns the position of the last consumed message, or empty, if the tracker was not yet started.
+     *
+     * @return optional ChannelPosition
+     */
+    @Nonnull
+    public Optional<ChannelPosition> getCurrentPosition() {
+        final ChannelPosition start = startPosition.get();
+        return start != null
+                ? Optional.of(merge(start, channelPosition(new ArrayList<>(shardPositions.values()))))
+                : Optional.empty();
+    }
+
+    @Override
+    public void accept(final Message<String> message) {
+        if (isStarted()) {
+            message.getHeader().getShardPosition().ifPresent(position -> shardPositions.put(position.shardName(), position));
+        }
+    }
+
+    @Nonnull
+    @Override
+    public Class<String> payloadType() {
+        return String.class;
+    }
+
+    @Nonnull
+    @Override
+    public Pattern keyPattern() {
+        return ACCEPT_ALL;
+    }
+}
@@ -26,6 +26,9 @@ public class AbstractMessageReceiverEndpoint extends AbstractMessageEndpoint imp
 
     private final MessageDispatcher messageDispatcher;
     private final ApplicationEventPublisher eventPublisher;
+    private final Object notificationLock = new Object();
+    private boolean holdingBackRunningNotifications = false;
+    private MessageReceiverNotification heldBackNotification;
 
     public AbstractMessageReceiverEndpoint(final @Nonnull String channelName,
                                            final @Nonnull ObjectMapper objectMapper,
@@ -65,6 +68,35 @@ public class AbstractMessageReceiverEndpoint extends AbstractMessageEndpoint imp
         return RECEIVER;
     }
 
+    @Override
+    public void holdBackRunningNotifications() {
+        synchronized (notificationLock) {
+            holdingBackRunningNotifications = true;
+            heldBackNotification = null;
+        }
+    }
+
+    @Override
+    public void releaseRunningNotifications() {
+        final MessageReceiverNotification notification;
+        synchronized (notificationLock) {
+            holdingBackRunningNotifications = false;
+            notification = heldBackNotification;
+            heldBackNotification = null;
+        }
+        if (notification != null) {
+            eventPublisher.publishEvent(notification);
+        }
+    }
+
+    @Override
+    public void discardRunningNotifications() {
+        synchronized (notificationLock) {
+            holdingBackRunningNotifications = false;
+            heldBackNotification = null;
+        }
+    }
+
     protected void publishEvent(final @Nonnull MessageReceiverStatus status,
                                 final @Nullable String message,
                                 final @Nullable ChannelDurationBehind durationBehind) {
@@ -75,6 +107,15 @@ public class AbstractMessageReceiverEndpoint extends AbstractMessageEndpoint imp
                     .withStatus(status)
                     .withMessage(Objects.toString(message, ""))
                     .build();
+            if (status == MessageReceiverStatus.RUNNING) {
+                synchronized (notificationLock) {
+                    if (holdingBackRunningNotifications) {
+                        // only the latest notification is relevant, as it is reporting the latest duration behind:
+                        heldBackNotification = notification;
+                        return;
+                    }
+                }
+            }
             eventPublisher.publishEvent(notification);
         }
     }
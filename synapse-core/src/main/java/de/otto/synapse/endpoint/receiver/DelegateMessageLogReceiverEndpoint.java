@@ -45,6 +45,21 @@ public class DelegateMessageLogReceiverEndpoint implements MessageLogReceiverEnd
         return delegate.getMessageDispatcher();
     }
 
+    @Override
+    public void holdBackRunningNotifications() {
+        delegate.holdBackRunningNotifications();
+    }
+
+    @Override
+    public void releaseRunningNotifications() {
+        delegate.releaseRunningNotifications();
+    }
+
+    @Override
+    public void discardRunningNotifications() {
+        delegate.discardRunningNotifications();
+    }
+
     @Nonnull
     @Override
     public String getChannelName() {
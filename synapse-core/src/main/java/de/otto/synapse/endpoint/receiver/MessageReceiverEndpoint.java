@@ -31,4 +31,28 @@ public interface MessageReceiverEndpoint extends MessageEndpoint {
      */
     @Nonnull
     MessageDispatcher getMessageDispatcher();
+
+    /**
+     * Holds back {@link de.otto.synapse.info.MessageReceiverStatus#RUNNING RUNNING} notifications of the endpoint,
+     * until {@link #releaseRunningNotifications()} or {@link #discardRunningNotifications()} is called.
+     * <p>
+     *     Used by EventSources that are buffering the messages of the endpoint: the duration behind reported by the
+     *     endpoint is not reflecting the messages that are not yet dispatched, so health indicators would report
+     *     a channel as being up to date too early.
+     * </p>
+     */
+    default void holdBackRunningNotifications() {
+    }
+
+    /**
+     * Stops holding back RUNNING notifications and publishes the latest notification that was held back, if any.
+     */
+    default void releaseRunningNotifications() {
+    }
+
+    /**
+     * Stops holding back RUNNING notifications and drops the notifications that were held back.
+     */
+    default void discardRunningNotifications() {
+    }
 }
@@ -3,6 +3,7 @@ package de.otto.synapse.eventsource;
 import de.otto.synapse.consumer.MessageConsumer;
 import de.otto.synapse.consumer.MessageDispatcher;
 import de.otto.synapse.endpoint.receiver.MessageLogReceiverEndpoint;
+import de.otto.synapse.executor.SynapseExecutor;
 import org.slf4j.Logger;
 
 import javax.annotation.Nonnull;
@@ -15,10 +16,17 @@ public abstract class AbstractEventSource implements EventSource {
     private static final Logger LOG = getLogger(AbstractEventSource.class);
 
     private final MessageLogReceiverEndpoint messageLog;
+    private final SynapseExecutor synapseExecutor;
     private final AtomicBoolean stopping = new AtomicBoolean(false);
 
     public AbstractEventSource(final MessageLogReceiverEndpoint messageLog) {
+        this(messageLog, SynapseExecutor.defaultExecutor());
+    }
+
+    public AbstractEventSource(final MessageLogReceiverEndpoint messageLog,
+                               final SynapseExecutor synapseExecutor) {
         this.messageLog = messageLog;
+        this.synapseExecutor = synapseExecutor;
     }
 
     @Override
@@ -66,4 +74,15 @@ public abstract class AbstractEventSource implements EventSource {
         return messageLog;
     }
 
+    /**
+     * Returns the SynapseExecutor used to run the tasks of the EventSource, like replaying a snapshot or
+     * periodically persisting the position.
+     *
+     * @return SynapseExecutor
+     */
+    @Nonnull
+    public SynapseExecutor getSynapseExecutor() {
+        return synapseExecutor;
+    }
+
 }
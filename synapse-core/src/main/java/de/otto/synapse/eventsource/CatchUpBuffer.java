@@ -0,0 +1,222 @@
+package de.otto.synapse.eventsource;
+
+import de.otto.synapse.endpoint.MessageInterceptor;
+import de.otto.synapse.message.Message;
+import org.slf4j.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.function.Consumer;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * A {@link MessageInterceptor} that is holding back the messages of a message log, while the
+ * {@link de.otto.synapse.messagestore.MessageStore} of a {@link DefaultEventSource} is replayed by a different thread.
+ * <p>
+ *     Buffered messages are dropped from the interceptor chain and dispatched in arrival order by
+ *     {@link #release(Consumer)}, as soon as the replay is finished. After the buffer is drained, messages are
+ *     passed through without further buffering.
+ * </p>
+ * <p>
+ *     Up to {@code maxBufferedMessages} messages are kept in memory. Further messages are spilled to a temporary
+ *     file, so a slow replay of a large snapshot is not exhausting the heap. The interceptor must be the last
+ *     interceptor of the chain, because buffered messages are dispatched without being intercepted again.
+ * </p>
+ */
+@ThreadSafe
+class CatchUpBuffer implements MessageInterceptor {
+
+    private static final Logger LOG = getLogger(CatchUpBuffer.class);
+
+    private final int maxBufferedMessages;
+    private final File spillDirectory;
+    private final Object lock = new Object();
+    private final Deque<Message<String>> bufferedMessages = new ArrayDeque<>();
+
+    private volatile boolean buffering = false;
+    private volatile Thread replayThread;
+
+    private File spillFile;
+    private ObjectOutputStream spillOutput;
+    private ObjectInputStream spillInput;
+    private long spilledMessages;
+    private long unspilledMessages;
+
+    /**
+     * @param maxBufferedMessages the maximum number of messages kept in memory
+     * @param spillDirectory the directory used for spill files, or null for the default temporary-file directory
+     */
+    CatchUpBuffer(final int maxBufferedMessages,
+                  final @Nullable File spillDirectory) {
+        if (maxBufferedMessages < 1) {
+            throw new IllegalArgumentException("maxBufferedMessages must be positive");
+        }
+        this.maxBufferedMessages = maxBufferedMessages;
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * Starts buffering all messages, except those intercepted by the replaying thread.
+     */
+    void startBuffering() {
+        synchronized (lock) {
+            buffering = true;
+        }
+    }
+
+    /**
+     * Marks the current thread as the thread that is replaying the message store, so messages of the replay
+     * are passed through.
+     */
+    void replayingThread() {
+        replayThread = Thread.currentThread();
+    }
+
+    @Nullable
+    @Override
+    public Message<String> intercept(final @Nonnull Message<String> message) {
+        if (!buffering || Thread.currentThread() == replayThread) {
+            return message;
+        }
+        synchronized (lock) {
+            if (!buffering) {
+                return message;
+            }
+            add(message);
+            return null;
+        }
+    }
+
+    /**
+     * Dispatches all buffered messages in arrival order and stops buffering, once the buffer is drained.
+     * <p>
+     *     Messages arriving while the buffer is drained are appended to the buffer, so the order of messages is
+     *     maintained.
+     * </p>
+     *
+     * @param dispatcher the consumer used to dispatch the buffered messages
+     */
+    void release(final @Nonnull Consumer<Message<String>> dispatcher) {
+        long released = 0;
+        try {
+            while (true) {
+                final Message<String> message;
+                synchronized (lock) {
+                    message = poll();
+                    if (message == null) {
+                        buffering = false;
+                        replayThread = null;
+                        break;
+                    }
+                }
+                dispatcher.accept(message);
+                ++released;
+            }
+        } finally {
+            synchronized (lock) {
+                closeSpillFile();
+            }
+        }
+        LOG.info("Released {} messages buffered while replaying the MessageStore", released);
+    }
+
+    /**
+     * Stops buffering and discards all buffered messages.
+     */
+    void discard() {
+        synchronized (lock) {
+            buffering = false;
+            replayThread = null;
+            bufferedMessages.clear();
+            closeSpillFile();
+        }
+    }
+
+    long size() {
+        synchronized (lock) {
+            return bufferedMessages.size() + spilledMessages - unspilledMessages;
+        }
+    }
+
+    private void add(final Message<String> message) {
+        if (spillOutput == null && bufferedMessages.size() < maxBufferedMessages) {
+            bufferedMessages.add(message);
+        } else {
+            spill(message);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Message<String> poll() {
+        if (!bufferedMessages.isEmpty()) {
+            return bufferedMessages.poll();
+        }
+        if (unspilledMessages < spilledMessages) {
+            try {
+                if (spillInput == null) {
+                    spillInput = new ObjectInputStream(new BufferedInputStream(new FileInputStream(spillFile)));
+                }
+                ++unspilledMessages;
+                return (Message<String>) spillInput.readObject();
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (final ClassNotFoundException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+        }
+        return null;
+    }
+
+    private void spill(final Message<String> message) {
+        try {
+            if (spillOutput == null) {
+                spillFile = File.createTempFile("synapse-catch-up-", ".bin", spillDirectory);
+                spillFile.deleteOnExit();
+                spillOutput = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(spillFile)));
+                LOG.info("More than {} messages buffered while replaying the MessageStore. Spilling messages to {}", maxBufferedMessages, spillFile);
+            }
+            spillOutput.writeObject(message);
+            // Forget back-references to written objects, otherwise the stream is retaining all spilled messages:
+            spillOutput.reset();
+            spillOutput.flush();
+            ++spilledMessages;
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void closeSpillFile() {
+        try {
+            if (spillOutput != null) {
+                spillOutput.close();
+            }
+            if (spillInput != null) {
+                spillInput.close();
+            }
+        } catch (final IOException e) {
+            LOG.warn("Unable to close spill file {}: {}", spillFile, e.getMessage());
+        } finally {
+            if (spillFile != null && !spillFile.delete()) {
+                LOG.warn("Unable to delete spill file {}", spillFile);
+            }
+            spillFile = null;
+            spillOutput = null;
+            spillInput = null;
+            spilledMessages = 0;
+            unspilledMessages = 0;
+        }
+    }
+}
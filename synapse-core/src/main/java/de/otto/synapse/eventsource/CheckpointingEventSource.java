@@ -0,0 +1,97 @@
+package de.otto.synapse.eventsource;
+
+import de.otto.synapse.channel.ChannelPosition;
+import de.otto.synapse.checkpoint.ChannelPositionCheckpointStore;
+import de.otto.synapse.checkpoint.ChannelPositionCheckpointer;
+import de.otto.synapse.endpoint.receiver.MessageLogReceiverEndpoint;
+import de.otto.synapse.executor.SynapseExecutor;
+import de.otto.synapse.messagestore.MessageStore;
+import de.otto.synapse.messagestore.MessageStoreFactory;
+import de.otto.synapse.messagestore.PositionTrackingMessageStore;
+import org.slf4j.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * An {@link EventSource} for stateless consumers that is resuming the consumption of the message log at the
+ * latest checkpoint stored in a {@link ChannelPositionCheckpointStore}.
+ * <p>
+ *     While consuming the message log, the position is committed asynchronously every {@code commitEveryMessages}
+ *     messages, or every {@code commitInterval}, by a {@link ChannelPositionCheckpointer}. After a restart, only the
+ *     messages since the last checkpoint are consumed again. If there is no checkpoint, the snapshot is read from
+ *     the {@link MessageStore} first.
+ * </p>
+ * <p>
+ *     Messages may be consumed more than once after a restart, so consumers must be idempotent.
+ * </p>
+ */
+public class CheckpointingEventSource extends AbstractEventSource {
+
+    private static final Logger LOG = getLogger(CheckpointingEventSource.class);
+
+    private final ChannelPositionCheckpointStore checkpointStore;
+    private final MessageStoreFactory<? extends MessageStore> messageStoreFactory;
+    private final ChannelPositionCheckpointer checkpointer;
+    private boolean checkpointerRegistered = false;
+
+    public CheckpointingEventSource(final @Nonnull ChannelPositionCheckpointStore checkpointStore,
+                                    final long commitEveryMessages,
+                                    final @Nullable Duration commitInterval,
+                                    final @Nonnull MessageStoreFactory<? extends MessageStore> messageStoreFactory,
+                                    final @Nonnull MessageLogReceiverEndpoint messageLog) {
+        this(checkpointStore, commitEveryMessages, commitInterval, messageStoreFactory, messageLog, SynapseExecutor.defaultExecutor());
+    }
+
+    public CheckpointingEventSource(final @Nonnull ChannelPositionCheckpointStore checkpointStore,
+                                    final long commitEveryMessages,
+                                    final @Nullable Duration commitInterval,
+                                    final @Nonnull MessageStoreFactory<? extends MessageStore> messageStoreFactory,
+                                    final @Nonnull MessageLogReceiverEndpoint messageLog,
+                                    final @Nonnull SynapseExecutor synapseExecutor) {
+        super(messageLog, synapseExecutor);
+        this.checkpointStore = checkpointStore;
+        this.messageStoreFactory = messageStoreFactory;
+        this.checkpointer = new ChannelPositionCheckpointer(messageLog.getChannelName(), checkpointStore, commitEveryMessages, commitInterval, synapseExecutor);
+    }
+
+    @Nonnull
+    @Override
+    public CompletableFuture<ChannelPosition> consumeUntil(final @Nonnull Instant until) {
+        synchronized (this) {
+            // registered on first use, so the checkpointer is the last consumer of the message log:
+            if (!checkpointerRegistered) {
+                register(checkpointer);
+                checkpointerRegistered = true;
+            }
+        }
+        final Optional<ChannelPosition> checkpoint = checkpointStore.getCheckpoint(getChannelName());
+        final CompletableFuture<ChannelPosition> futurePosition;
+        if (checkpoint.isPresent()) {
+            LOG.info("Resuming EventSource {} at checkpoint {}", getChannelName(), checkpoint.get());
+            checkpointer.startAt(checkpoint.get());
+            futurePosition = getMessageLogReceiverEndpoint().consumeUntil(checkpoint.get(), until);
+        } else {
+            LOG.info("No checkpoint available for EventSource {}. Loading snapshot.", getChannelName());
+            final MessageStore messageStore = new PositionTrackingMessageStore(messageStoreFactory.createMessageStoreFor(getChannelName()), checkpointer);
+            futurePosition = new DefaultEventSource(messageStore, getMessageLogReceiverEndpoint(), getSynapseExecutor()).consumeUntil(until);
+        }
+        return futurePosition.whenComplete((channelPosition, throwable) -> checkpointer.close(channelPosition));
+    }
+
+    /**
+     * Returns the position of the last message consumed from the message log.
+     *
+     * @return optional ChannelPosition, or empty if the consumption of the message log has not yet started
+     */
+    @Nonnull
+    public Optional<ChannelPosition> getCurrentChannelPosition() {
+        return checkpointer.getCurrentPosition();
+    }
+}
@@ -2,17 +2,18 @@ package de.otto.synapse.eventsource;
 
 import de.otto.synapse.channel.ChannelPosition;
 import de.otto.synapse.endpoint.receiver.MessageLogReceiverEndpoint;
+import de.otto.synapse.executor.SynapseExecutor;
 import de.otto.synapse.message.Message;
 import de.otto.synapse.messagestore.MessageStore;
 import org.slf4j.Logger;
-import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
 import java.time.Instant;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.Executor;
 
-import static java.util.concurrent.Executors.newSingleThreadExecutor;
 import static org.slf4j.LoggerFactory.getLogger;
 
 public class DefaultEventSource extends AbstractEventSource {
@@ -20,18 +21,81 @@ public class DefaultEventSource extends AbstractEventSource {
     private static final Logger LOG = getLogger(DefaultEventSource.class);
 
     private final MessageStore messageStore;
+    private final CatchUpBuffer catchUpBuffer;
+    private boolean catchUpBufferRegistered = false;
 
     public DefaultEventSource(final @Nonnull MessageStore messageStore,
                               final @Nonnull MessageLogReceiverEndpoint messageLog) {
-        super(messageLog);
+        this(messageStore, messageLog, SynapseExecutor.defaultExecutor());
+    }
+
+    public DefaultEventSource(final @Nonnull MessageStore messageStore,
+                              final @Nonnull MessageLogReceiverEndpoint messageLog,
+                              final @Nonnull SynapseExecutor synapseExecutor) {
+        super(messageLog, synapseExecutor);
+        this.messageStore = messageStore;
+        this.catchUpBuffer = null;
+    }
+
+    /**
+     * Creates a DefaultEventSource that is consuming the {@link MessageLogReceiverEndpoint message log} while the
+     * {@link MessageStore} is replayed.
+     * <p>
+     *     The message log is started immediately at the {@link MessageStore#getLatestChannelPosition() latest position}
+     *     of the MessageStore, so the MessageStore must be able to provide this position before it is streamed. Messages
+     *     received from the message log are buffered until the replay of the MessageStore is finished and dispatched
+     *     afterwards, so fetching the backlog of the channel is overlapping with the replay.
+     * </p>
+     * <p>
+     *     RUNNING notifications of the message log are held back until the buffered messages are dispatched, so
+     *     health indicators are not reporting the channel as being up to date while the MessageStore is replayed.
+     * </p>
+     * <p>
+     *     The buffer is the last interceptor of the message log's
+     *     {@link MessageLogReceiverEndpoint#getInterceptorChain() interceptor chain}: interceptors must be registered
+     *     before the EventSource is started.
+     * </p>
+     *
+     * @param messageStore the MessageStore that is replayed
+     * @param messageLog the message log that is consumed after the MessageStore
+     * @param maxBufferedMessages the maximum number of messages buffered in memory
+     * @param spillDirectory the directory used to spill further messages, or null for the temporary-file directory
+     */
+    public DefaultEventSource(final @Nonnull MessageStore messageStore,
+                              final @Nonnull MessageLogReceiverEndpoint messageLog,
+                              final int maxBufferedMessages,
+                              final @Nullable File spillDirectory) {
+        this(messageStore, messageLog, maxBufferedMessages, spillDirectory, SynapseExecutor.defaultExecutor());
+    }
+
+    /**
+     * Creates a DefaultEventSource that is consuming the message log while the MessageStore is replayed, using
+     * the given {@link SynapseExecutor} to replay the MessageStore.
+     *
+     * @param messageStore the MessageStore that is replayed
+     * @param messageLog the message log that is consumed after the MessageStore
+     * @param maxBufferedMessages the maximum number of messages buffered in memory
+     * @param spillDirectory the directory used to spill further messages, or null for the temporary-file directory
+     * @param synapseExecutor the SynapseExecutor used to replay the MessageStore
+     */
+    public DefaultEventSource(final @Nonnull MessageStore messageStore,
+                              final @Nonnull MessageLogReceiverEndpoint messageLog,
+                              final int maxBufferedMessages,
+                              final @Nullable File spillDirectory,
+                              final @Nonnull SynapseExecutor synapseExecutor) {
+        super(messageLog, synapseExecutor);
         this.messageStore = messageStore;
+        this.catchUpBuffer = new CatchUpBuffer(maxBufferedMessages, spillDirectory);
     }
 
     @Nonnull
     @Override
     public CompletableFuture<ChannelPosition> consumeUntil(final @Nonnull Instant until) {
-        return consumeMessageStore()
-                .thenCompose(messageLogStartPosition -> getMessageLogReceiverEndpoint().consumeUntil(messageLogStartPosition, until))
+        final CompletableFuture<ChannelPosition> futurePosition = catchUpBuffer != null
+                ? consumeOverlapping(until)
+                : consumeMessageStore()
+                    .thenCompose(messageLogStartPosition -> getMessageLogReceiverEndpoint().consumeUntil(messageLogStartPosition, until));
+        return futurePosition
                 .handle((channelPosition, throwable) -> {
                     if (throwable != null) {
                         LOG.error("Failed to start consuming from EventSource {}: {}. Closing MessageStore.", getChannelName(), throwable.getMessage(), throwable);
@@ -46,16 +110,53 @@ public class DefaultEventSource extends AbstractEventSource {
     }
 
     private CompletableFuture<ChannelPosition> consumeMessageStore() {
-        final ThreadFactory threadFactory = new CustomizableThreadFactory("kinesis-eventsource-");
         return CompletableFuture.supplyAsync(() -> {
-            messageStore.stream().forEach(message -> {
-                final Message<String> interceptedMessage = getMessageLogReceiverEndpoint().getInterceptorChain().intercept(message);
-                if (interceptedMessage != null) {
-                    getMessageLogReceiverEndpoint().getMessageDispatcher().accept(interceptedMessage);
-                }
-            });
+            replayMessageStore();
             return messageStore.getLatestChannelPosition();
-        }, newSingleThreadExecutor(threadFactory));
+        }, replayExecutor());
+    }
+
+    private CompletableFuture<ChannelPosition> consumeOverlapping(final Instant until) {
+        synchronized (this) {
+            if (!catchUpBufferRegistered) {
+                getMessageLogReceiverEndpoint().getInterceptorChain().register(catchUpBuffer);
+                catchUpBufferRegistered = true;
+            }
+        }
+        final ChannelPosition messageLogStartPosition = messageStore.getLatestChannelPosition();
+        catchUpBuffer.startBuffering();
+        // The duration behind reported by the message log is not covering the buffered messages:
+        getMessageLogReceiverEndpoint().holdBackRunningNotifications();
+        final CompletableFuture<ChannelPosition> messageLogPosition = getMessageLogReceiverEndpoint()
+                .consumeUntil(messageLogStartPosition, until);
+        final CompletableFuture<Void> replayed = CompletableFuture.runAsync(() -> {
+            try {
+                catchUpBuffer.replayingThread();
+                replayMessageStore();
+                LOG.info("Finished replay of MessageStore for EventSource {}; dispatching {} buffered messages", getChannelName(), catchUpBuffer.size());
+                catchUpBuffer.release(getMessageLogReceiverEndpoint().getMessageDispatcher());
+                getMessageLogReceiverEndpoint().releaseRunningNotifications();
+            } catch (final RuntimeException e) {
+                catchUpBuffer.discard();
+                getMessageLogReceiverEndpoint().discardRunningNotifications();
+                getMessageLogReceiverEndpoint().stop();
+                throw e;
+            }
+        }, replayExecutor());
+        return replayed.thenCombine(messageLogPosition, (ignored, channelPosition) -> channelPosition);
+    }
+
+    private void replayMessageStore() {
+        messageStore.stream().forEach(message -> {
+            final Message<String> interceptedMessage = getMessageLogReceiverEndpoint().getInterceptorChain().intercept(message);
+            if (interceptedMessage != null) {
+                getMessageLogReceiverEndpoint().getMessageDispatcher().accept(interceptedMessage);
+            }
+        });
+    }
+
+    private Executor replayExecutor() {
+        return getSynapseExecutor().forChannel(getChannelName());
     }
 
 }
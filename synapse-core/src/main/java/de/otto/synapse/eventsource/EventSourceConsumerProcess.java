@@ -6,6 +6,7 @@ import org.springframework.context.SmartLifecycle;
 
 import java.util.List;
 
+import static de.otto.synapse.eventsource.EventSourceStartupOrchestrator.startupOrchestratorBuilder;
 import static org.slf4j.LoggerFactory.getLogger;
 
 public class EventSourceConsumerProcess implements SmartLifecycle {
@@ -14,11 +15,25 @@ public class EventSourceConsumerProcess implements SmartLifecycle {
     private static final String THREAD_NAME_PREFIX = "synapse-consumer-";
 
     private final List<EventSource> eventSources;
+    private final EventSourceStartupOrchestrator startupOrchestrator;
 
     private volatile boolean running = false;
 
     public EventSourceConsumerProcess(final List<EventSource> eventSources) {
+        this(eventSources, startupOrchestratorBuilder().build());
+    }
+
+    /**
+     * Creates an EventSourceConsumerProcess that is starting the event sources using an
+     * {@link EventSourceStartupOrchestrator}.
+     *
+     * @param eventSources the event sources
+     * @param startupOrchestrator the orchestrator used to start the event sources
+     */
+    public EventSourceConsumerProcess(final List<EventSource> eventSources,
+                                      final EventSourceStartupOrchestrator startupOrchestrator) {
         this.eventSources = eventSources;
+        this.startupOrchestrator = startupOrchestrator;
     }
 
     @Override
@@ -43,15 +58,7 @@ public class EventSourceConsumerProcess implements SmartLifecycle {
         if (eventSourceCount > 0) {
             LOG.info("Initializing EventSourceConsumerProcess with {} EventSources", eventSourceCount);
             running = true;
-            eventSources.forEach(eventSource -> {
-                try {
-                    LOG.info("Starting {}...", eventSource.getChannelName());
-                    eventSource.consume();
-                } catch (Exception e) {
-                    LOG.error("Starting failed: " + e.getMessage(), e);
-                    stop();
-                }
-            });
+            startupOrchestrator.start(eventSources, e -> stop());
         } else {
             LOG.warn("Did not find any EventSource instances to execute");
             running = false;
@@ -61,6 +68,7 @@ public class EventSourceConsumerProcess implements SmartLifecycle {
     @Override
     public void stop() {
         LOG.info("Shutting down...");
+        startupOrchestrator.stop();
         eventSources.forEach(EventSource::stop);
         running = false;
         LOG.info("...done.");
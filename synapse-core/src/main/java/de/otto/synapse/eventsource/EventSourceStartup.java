@@ -0,0 +1,109 @@
+package de.otto.synapse.eventsource;
+
+import com.google.common.collect.ImmutableMap;
+
+import javax.annotation.Nonnull;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The startup state of a single {@link EventSource}, as reported by the {@link EventSourceStartupOrchestrator}.
+ */
+public final class EventSourceStartup {
+
+    private final String channelName;
+    private final int priority;
+    private final StartupPhase phase;
+    private final ImmutableMap<StartupPhase, Instant> phaseTimestamps;
+
+    public EventSourceStartup(final @Nonnull String channelName,
+                              final int priority,
+                              final @Nonnull StartupPhase phase,
+                              final @Nonnull Map<StartupPhase, Instant> phaseTimestamps) {
+        this.channelName = channelName;
+        this.priority = priority;
+        this.phase = phase;
+        this.phaseTimestamps = ImmutableMap.copyOf(phaseTimestamps);
+    }
+
+    public String getChannelName() {
+        return channelName;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public StartupPhase getPhase() {
+        return phase;
+    }
+
+    /**
+     * Returns true, if the EventSource has caught up with the message log, or has finished consuming messages.
+     *
+     * @return boolean
+     */
+    public boolean isReady() {
+        return phase == StartupPhase.READY || phase == StartupPhase.FINISHED;
+    }
+
+    /**
+     * Returns the timestamps when the EventSource has entered the different phases of the startup.
+     *
+     * @return map of phases to timestamps
+     */
+    public ImmutableMap<StartupPhase, Instant> getPhaseTimestamps() {
+        return phaseTimestamps;
+    }
+
+    /**
+     * Returns the time spent in a phase of the startup: from entering the phase until the next phase was entered,
+     * or until {@code now}, if the phase is the current phase.
+     *
+     * @param phase the startup phase
+     * @param now the current time
+     * @return duration, or {@link Duration#ZERO} if the phase was never entered
+     */
+    public Duration getDuration(final @Nonnull StartupPhase phase,
+                                final @Nonnull Instant now) {
+        final Instant entered = phaseTimestamps.get(phase);
+        if (entered == null) {
+            return Duration.ZERO;
+        }
+        final Instant left = phaseTimestamps.entrySet()
+                .stream()
+                .filter(entry -> entry.getKey().ordinal() > phase.ordinal())
+                .map(Map.Entry::getValue)
+                .min(Instant::compareTo)
+                .orElse(now);
+        return Duration.between(entered, left);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        EventSourceStartup that = (EventSourceStartup) o;
+        return priority == that.priority &&
+                Objects.equals(channelName, that.channelName) &&
+                phase == that.phase &&
+                Objects.equals(phaseTimestamps, that.phaseTimestamps);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(channelName, priority, phase, phaseTimestamps);
+    }
+
+    @Override
+    public String toString() {
+        return "EventSourceStartup{" +
+                "channelName='" + channelName + '\'' +
+                ", priority=" + priority +
+                ", phase=" + phase +
+                ", phaseTimestamps=" + phaseTimestamps +
+                '}';
+    }
+}
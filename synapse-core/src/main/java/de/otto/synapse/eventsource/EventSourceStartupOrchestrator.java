@@ -0,0 +1,455 @@
+package de.otto.synapse.eventsource;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import de.otto.synapse.channel.ChannelDurationBehind;
+import de.otto.synapse.channel.ChannelPosition;
+import de.otto.synapse.info.MessageReceiverNotification;
+import org.slf4j.Logger;
+import org.springframework.context.event.EventListener;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.File;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static java.util.Collections.emptyMap;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Starts a number of {@link EventSource event sources}, limiting the number of event sources that are loading
+ * their snapshots and catching up with their message logs at the same time.
+ * <p>
+ *     Event sources are started in the order of their priority: higher priorities first, event sources having
+ *     the same priority in the order they were given. An event source is occupying one of
+ *     {@code maxConcurrentStartups} startup slots, until the channel is running with a duration behind of at most
+ *     {@code maxDurationBehind}, or until the event source has finished or failed. Slots of event sources that
+ *     have not caught up within {@code maxStartupDuration} are released, so a channel that is not reporting its
+ *     progress is not blocking the startup of other channels.
+ * </p>
+ * <p>
+ *     Before an event source is started, the orchestrator is waiting until the usable disk space and the free
+ *     heap memory are exceeding the configured budgets. If no other event source is starting, the next event source
+ *     is started anyway, so a budget that can not be met is delaying the startup, but is not blocking it.
+ * </p>
+ * <p>
+ *     The progress of the startup is tracked using the {@link MessageReceiverNotification notifications} of the
+ *     message log receiver endpoints, and reported per channel by {@link #getStartupStates()}.
+ * </p>
+ */
+@ThreadSafe
+public class EventSourceStartupOrchestrator {
+
+    private static final Logger LOG = getLogger(EventSourceStartupOrchestrator.class);
+
+    private final int maxConcurrentStartups;
+    private final Map<String, Integer> priorities;
+    private final Duration maxDurationBehind;
+    private final Duration maxStartupDuration;
+    private final long minUsableDiskSpace;
+    private final long minFreeMemory;
+    private final LongSupplier usableDiskSpace;
+    private final LongSupplier freeMemory;
+    private final Duration budgetPollInterval;
+    private final Clock clock;
+
+    private final Semaphore startupSlots;
+    private final Object budgetMonitor = new Object();
+    private final List<ChannelState> channels = new CopyOnWriteArrayList<>();
+    private volatile Thread starter;
+    private volatile boolean stopped = false;
+
+    private EventSourceStartupOrchestrator(final Builder builder) {
+        this.maxConcurrentStartups = builder.maxConcurrentStartups;
+        this.priorities = ImmutableMap.copyOf(builder.priorities);
+        this.maxDurationBehind = builder.maxDurationBehind;
+        this.maxStartupDuration = builder.maxStartupDuration;
+        this.minUsableDiskSpace = builder.minUsableDiskSpace;
+        this.minFreeMemory = builder.minFreeMemory;
+        this.usableDiskSpace = builder.usableDiskSpace;
+        this.freeMemory = builder.freeMemory;
+        this.budgetPollInterval = builder.budgetPollInterval;
+        this.clock = builder.clock;
+        this.startupSlots = new Semaphore(maxConcurrentStartups > 0 ? maxConcurrentStartups : Integer.MAX_VALUE);
+    }
+
+    public static Builder startupOrchestratorBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * Starts the event sources. Event sources that can be started immediately are started by the calling thread,
+     * the remaining event sources are started by a separate thread, as soon as startup slots and budgets are
+     * available.
+     *
+     * @param eventSources the event sources to start
+     * @param errorHandler called, if an event source is failing to start
+     */
+    public void start(final @Nonnull List<EventSource> eventSources,
+                      final @Nonnull Consumer<Exception> errorHandler) {
+        final List<EventSource> ordered = new ArrayList<>(eventSources);
+        ordered.sort(Comparator.comparingInt((EventSource eventSource) -> priorityOf(eventSource.getChannelName())).reversed());
+        final List<ChannelState> states = new ArrayList<>();
+        ordered.forEach(eventSource -> states.add(new ChannelState(eventSource.getChannelName(), now())));
+        channels.addAll(states);
+        LOG.info("Starting {} EventSources with at most {} concurrent startups", ordered.size(), maxConcurrentStartups > 0 ? maxConcurrentStartups : "unlimited");
+        int started = 0;
+        while (started < ordered.size() && !stopped && startupSlots.tryAcquire()) {
+            if (!isBudgetAvailable() && isAnyChannelStarting()) {
+                startupSlots.release();
+                break;
+            }
+            startEventSource(ordered.get(started), states.get(started), errorHandler);
+            ++started;
+        }
+        if (started < ordered.size() && !stopped) {
+            final int startFrom = started;
+            starter = new Thread(() -> startAll(ordered.subList(startFrom, ordered.size()), states.subList(startFrom, states.size()), errorHandler), "synapse-startup");
+            starter.setDaemon(true);
+            starter.start();
+        }
+    }
+
+    /**
+     * Stops starting further event sources.
+     */
+    public void stop() {
+        stopped = true;
+        final Thread starter = this.starter;
+        if (starter != null) {
+            starter.interrupt();
+        }
+    }
+
+    /**
+     * Returns the startup state of all event sources, in the order they are started.
+     *
+     * @return list of startup states
+     */
+    @Nonnull
+    public ImmutableList<EventSourceStartup> getStartupStates() {
+        return channels.stream()
+                .map(ChannelState::toStartup)
+                .collect(toImmutableList());
+    }
+
+    /**
+     * Returns true, if all event sources have caught up with their message logs or have finished.
+     *
+     * @return boolean
+     */
+    public boolean isReady() {
+        return getStartupStates().stream().allMatch(EventSourceStartup::isReady);
+    }
+
+    @EventListener
+    public void on(final MessageReceiverNotification notification) {
+        channels.stream()
+                .filter(channel -> Objects.equals(channel.channelName, notification.getChannelName()))
+                .forEach(channel -> on(channel, notification));
+    }
+
+    private void on(final ChannelState channel,
+                    final MessageReceiverNotification notification) {
+        switch (notification.getStatus()) {
+            case STARTED:
+                channel.enter(StartupPhase.CATCHING_UP, now());
+                break;
+            case RUNNING:
+                final Duration durationBehind = notification.getChannelDurationBehind()
+                        .map(ChannelDurationBehind::getDurationBehind)
+                        .orElse(ChannelDurationBehind.UNKNOWN_DURATION_BEHIND);
+                if (durationBehind.compareTo(maxDurationBehind) <= 0 && channel.enter(StartupPhase.READY, now())) {
+                    LOG.info("Channel {} is ready: {}", channel.channelName, describeTimings(channel.toStartup()));
+                    releaseSlot(channel);
+                }
+                break;
+            case FINISHED:
+                channel.enter(StartupPhase.FINISHED, now());
+                releaseSlot(channel);
+                break;
+            case FAILED:
+                channel.fail(now());
+                releaseSlot(channel);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void startAll(final List<EventSource> eventSources,
+                          final List<ChannelState> states,
+                          final Consumer<Exception> errorHandler) {
+        try {
+            for (int i = 0; i < eventSources.size(); i++) {
+                acquireSlot();
+                awaitBudget(eventSources.get(i).getChannelName());
+                if (stopped) {
+                    return;
+                }
+                startEventSource(eventSources.get(i), states.get(i), errorHandler);
+            }
+        } catch (final InterruptedException e) {
+            LOG.info("Interrupted while starting EventSources");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void startEventSource(final EventSource eventSource,
+                                  final ChannelState channel,
+                                  final Consumer<Exception> errorHandler) {
+        channel.slotAcquired = true;
+        channel.enter(StartupPhase.STARTING, now());
+        try {
+            LOG.info("Starting {}...", eventSource.getChannelName());
+            final CompletableFuture<ChannelPosition> futurePosition = eventSource.consume();
+            if (futurePosition != null) {
+                futurePosition.whenComplete((channelPosition, throwable) -> {
+                    if (throwable != null) {
+                        channel.fail(now());
+                    } else {
+                        channel.enter(StartupPhase.FINISHED, now());
+                    }
+                    releaseSlot(channel);
+                });
+            }
+        } catch (final Exception e) {
+            LOG.error("Starting failed: " + e.getMessage(), e);
+            channel.fail(now());
+            releaseSlot(channel);
+            errorHandler.accept(e);
+        }
+    }
+
+    private void acquireSlot() throws InterruptedException {
+        while (!startupSlots.tryAcquire(budgetPollInterval.toMillis(), MILLISECONDS)) {
+            releaseExpiredSlots();
+        }
+    }
+
+    private void releaseExpiredSlots() {
+        final Instant expired = now().minus(maxStartupDuration);
+        channels.stream()
+                .filter(channel -> channel.slotAcquired && channel.startedBefore(expired))
+                .forEach(channel -> {
+                    LOG.warn("Channel {} did not catch up within {}. Releasing its startup slot.", channel.channelName, maxStartupDuration);
+                    releaseSlot(channel);
+                });
+    }
+
+    private void awaitBudget(final String channelName) throws InterruptedException {
+        boolean logged = false;
+        synchronized (budgetMonitor) {
+            while (!stopped && !isBudgetAvailable() && isAnyChannelStarting()) {
+                if (!logged) {
+                    LOG.info("Delaying start of {}: waiting for {} bytes of usable disk space and {} bytes of free memory", channelName, minUsableDiskSpace, minFreeMemory);
+                    logged = true;
+                }
+                budgetMonitor.wait(budgetPollInterval.toMillis());
+            }
+        }
+    }
+
+    private boolean isBudgetAvailable() {
+        return (minUsableDiskSpace <= 0 || usableDiskSpace.getAsLong() >= minUsableDiskSpace)
+                && (minFreeMemory <= 0 || freeMemory.getAsLong() >= minFreeMemory);
+    }
+
+    private boolean isAnyChannelStarting() {
+        return channels.stream().anyMatch(channel -> channel.slotAcquired);
+    }
+
+    private void releaseSlot(final ChannelState channel) {
+        synchronized (budgetMonitor) {
+            if (channel.slotAcquired) {
+                channel.slotAcquired = false;
+                startupSlots.release();
+                budgetMonitor.notifyAll();
+            }
+        }
+    }
+
+    private int priorityOf(final String channelName) {
+        return channelName != null ? priorities.getOrDefault(channelName, 0) : 0;
+    }
+
+    private Instant now() {
+        return clock.instant();
+    }
+
+    private String describeTimings(final EventSourceStartup startup) {
+        final Instant now = now();
+        return String.format("queued %s, starting %s, catching up %s",
+                startup.getDuration(StartupPhase.QUEUED, now),
+                startup.getDuration(StartupPhase.STARTING, now),
+                startup.getDuration(StartupPhase.CATCHING_UP, now));
+    }
+
+    private final class ChannelState {
+        private final String channelName;
+        private final Map<StartupPhase, Instant> phaseTimestamps = new EnumMap<>(StartupPhase.class);
+        private StartupPhase phase = StartupPhase.QUEUED;
+        private volatile boolean slotAcquired = false;
+
+        private ChannelState(final String channelName, final Instant queued) {
+            this.channelName = channelName;
+            this.phaseTimestamps.put(StartupPhase.QUEUED, queued);
+        }
+
+        /**
+         * Enters the next phase. Phases are only entered in their natural order, so late notifications are not
+         * moving the channel back to an earlier phase.
+         */
+        private synchronized boolean enter(final StartupPhase nextPhase, final Instant timestamp) {
+            if (nextPhase.ordinal() <= phase.ordinal() || phase == StartupPhase.FAILED) {
+                return false;
+            }
+            phase = nextPhase;
+            phaseTimestamps.put(nextPhase, timestamp);
+            return true;
+        }
+
+        private synchronized void fail(final Instant timestamp) {
+            if (phase != StartupPhase.FAILED) {
+                phase = StartupPhase.FAILED;
+                phaseTimestamps.put(StartupPhase.FAILED, timestamp);
+            }
+        }
+
+        private synchronized boolean startedBefore(final Instant timestamp) {
+            final Instant started = phaseTimestamps.get(StartupPhase.STARTING);
+            return started != null && started.isBefore(timestamp);
+        }
+
+        private synchronized EventSourceStartup toStartup() {
+            return new EventSourceStartup(channelName, priorityOf(channelName), phase, phaseTimestamps);
+        }
+    }
+
+    public static final class Builder {
+        private int maxConcurrentStartups = 0;
+        private Map<String, Integer> priorities = emptyMap();
+        private Duration maxDurationBehind = Duration.ofSeconds(10);
+        private Duration maxStartupDuration = Duration.ofMinutes(30);
+        private long minUsableDiskSpace = 0;
+        private long minFreeMemory = 0;
+        private File diskSpaceDirectory = new File(System.getProperty("java.io.tmpdir"));
+        private LongSupplier usableDiskSpace = null;
+        private LongSupplier freeMemory = () -> {
+            final Runtime runtime = Runtime.getRuntime();
+            return runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        };
+        private Duration budgetPollInterval = Duration.ofSeconds(1);
+        private Clock clock = Clock.systemDefaultZone();
+
+        private Builder() {
+        }
+
+        /**
+         * @param val the maximum number of event sources starting at the same time, or 0 for no limit
+         * @return Builder
+         */
+        public Builder withMaxConcurrentStartups(final int val) {
+            maxConcurrentStartups = val;
+            return this;
+        }
+
+        /**
+         * @param val priorities of channels. Channels without configured priority are having priority 0.
+         * @return Builder
+         */
+        public Builder withPriorities(final Map<String, Integer> val) {
+            priorities = val;
+            return this;
+        }
+
+        /**
+         * @param val the maximum duration behind of a channel that has caught up with its message log
+         * @return Builder
+         */
+        public Builder withMaxDurationBehind(final Duration val) {
+            maxDurationBehind = val;
+            return this;
+        }
+
+        /**
+         * @param val the maximum duration an event source is occupying a startup slot, even if it has not yet
+         *            caught up with its message log
+         * @return Builder
+         */
+        public Builder withMaxStartupDuration(final Duration val) {
+            maxStartupDuration = val;
+            return this;
+        }
+
+        /**
+         * @param val the number of bytes of usable disk space required to start the next event source
+         * @return Builder
+         */
+        public Builder withMinUsableDiskSpace(final long val) {
+            minUsableDiskSpace = val;
+            return this;
+        }
+
+        /**
+         * @param val the directory used to determine the usable disk space, defaults to java.io.tmpdir
+         * @return Builder
+         */
+        public Builder withDiskSpaceDirectory(final File val) {
+            diskSpaceDirectory = val;
+            return this;
+        }
+
+        /**
+         * @param val the number of bytes of free heap memory required to start the next event source
+         * @return Builder
+         */
+        public Builder withMinFreeMemory(final long val) {
+            minFreeMemory = val;
+            return this;
+        }
+
+        Builder withUsableDiskSpace(final LongSupplier val) {
+            usableDiskSpace = val;
+            return this;
+        }
+
+        Builder withFreeMemory(final LongSupplier val) {
+            freeMemory = val;
+            return this;
+        }
+
+        Builder withBudgetPollInterval(final Duration val) {
+            budgetPollInterval = val;
+            return this;
+        }
+
+        Builder withClock(final Clock val) {
+            clock = val;
+            return this;
+        }
+
+        public EventSourceStartupOrchestrator build() {
+            if (usableDiskSpace == null) {
+                final File directory = diskSpaceDirectory;
+                usableDiskSpace = directory::getUsableSpace;
+            }
+            return new EventSourceStartupOrchestrator(this);
+        }
+    }
+}
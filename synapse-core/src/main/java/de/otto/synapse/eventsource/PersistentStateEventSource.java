@@ -0,0 +1,185 @@
+package de.otto.synapse.eventsource;
+
+import de.otto.synapse.channel.ChannelPosition;
+import de.otto.synapse.consumer.PositionTrackingMessageConsumer;
+import de.otto.synapse.endpoint.receiver.MessageLogReceiverEndpoint;
+import de.otto.synapse.executor.SynapseExecutor;
+import de.otto.synapse.messagestore.MessageStore;
+import de.otto.synapse.messagestore.MessageStoreFactory;
+import de.otto.synapse.messagestore.PositionTrackingMessageStore;
+import de.otto.synapse.state.ChronicleMapStateRepository;
+import org.slf4j.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * An {@link EventSource} that is able to warm-restart from a {@link ChronicleMapStateRepository#isPersistent() persistent}
+ * {@link ChronicleMapStateRepository}.
+ * <p>
+ *     If the repository contains a {@link ChronicleMapStateRepository#persistChannelPosition(ChannelPosition) persisted}
+ *     ChannelPosition that is not older than {@code maxAge}, the snapshot is skipped entirely and the
+ *     {@link MessageLogReceiverEndpoint} is consumed starting at the persisted position. Otherwise, the repository is
+ *     cleared and the EventSource behaves like a {@link DefaultEventSource}, using a {@link MessageStore} created by the
+ *     {@code messageStoreFactory}.
+ * </p>
+ * <p>
+ *     While consuming, the ChannelPosition reflected by the state is persisted next to the state repository every
+ *     {@code persistInterval}, and when consumption has finished (for example, when the EventSource is stopped). So
+ *     after a crash, only the messages since the last persisted position are consumed again. The position is tracked
+ *     by a {@link PositionTrackingMessageConsumer} that is registered after all other consumers, so the position is
+ *     never ahead of the state. Messages following the position may be applied a second time, so consumers must be
+ *     idempotent.
+ * </p>
+ * <p>
+ *     The state repository must only be fed by messages from this EventSource, as the persisted ChannelPosition
+ *     is only valid for a single channel.
+ * </p>
+ */
+public class PersistentStateEventSource extends AbstractEventSource {
+
+    private static final Logger LOG = getLogger(PersistentStateEventSource.class);
+
+    public static final Duration DEFAULT_PERSIST_INTERVAL = Duration.ofMinutes(1);
+
+    private final ChronicleMapStateRepository<?> stateRepository;
+    private final MessageStoreFactory<? extends MessageStore> messageStoreFactory;
+    private final Duration maxAge;
+    private final Duration persistInterval;
+    private final Clock clock;
+    private final PositionTrackingMessageConsumer positionTracker = new PositionTrackingMessageConsumer();
+    private final AtomicBoolean positionTrackerRegistered = new AtomicBoolean(false);
+
+    public PersistentStateEventSource(final @Nonnull ChronicleMapStateRepository<?> stateRepository,
+                                      final @Nonnull Duration maxAge,
+                                      final @Nonnull MessageStoreFactory<? extends MessageStore> messageStoreFactory,
+                                      final @Nonnull MessageLogReceiverEndpoint messageLog) {
+        this(stateRepository, maxAge, DEFAULT_PERSIST_INTERVAL, messageStoreFactory, messageLog, Clock.systemDefaultZone());
+    }
+
+    public PersistentStateEventSource(final @Nonnull ChronicleMapStateRepository<?> stateRepository,
+                                      final @Nonnull Duration maxAge,
+                                      final @Nonnull MessageStoreFactory<? extends MessageStore> messageStoreFactory,
+                                      final @Nonnull MessageLogReceiverEndpoint messageLog,
+                                      final @Nonnull Clock clock) {
+        this(stateRepository, maxAge, DEFAULT_PERSIST_INTERVAL, messageStoreFactory, messageLog, clock);
+    }
+
+    /**
+     * Creates a PersistentStateEventSource.
+     *
+     * @param stateRepository the persistent repository containing the state derived from the messages of the channel
+     * @param maxAge the maximum age of a persisted ChannelPosition that is used to warm-restart the EventSource
+     * @param persistInterval interval used to periodically persist the ChannelPosition while consuming, or null if
+     *                        the position should only be persisted when consumption has finished
+     * @param messageStoreFactory factory used to create the MessageStore, if there is no recent persisted position
+     * @param messageLog the MessageLogReceiverEndpoint
+     * @param clock the clock used to determine the age of the persisted position
+     */
+    public PersistentStateEventSource(final @Nonnull ChronicleMapStateRepository<?> stateRepository,
+                                      final @Nonnull Duration maxAge,
+                                      final @Nullable Duration persistInterval,
+                                      final @Nonnull MessageStoreFactory<? extends MessageStore> messageStoreFactory,
+                                      final @Nonnull MessageLogReceiverEndpoint messageLog,
+                                      final @Nonnull Clock clock) {
+        this(stateRepository, maxAge, persistInterval, messageStoreFactory, messageLog, clock, SynapseExecutor.defaultExecutor());
+    }
+
+    /**
+     * Creates a PersistentStateEventSource.
+     *
+     * @param stateRepository the persistent repository containing the state derived from the messages of the channel
+     * @param maxAge the maximum age of a persisted ChannelPosition that is used to warm-restart the EventSource
+     * @param persistInterval interval used to periodically persist the ChannelPosition while consuming, or null if
+     *                        the position should only be persisted when consumption has finished
+     * @param messageStoreFactory factory used to create the MessageStore, if there is no recent persisted position
+     * @param messageLog the MessageLogReceiverEndpoint
+     * @param clock the clock used to determine the age of the persisted position
+     * @param synapseExecutor the SynapseExecutor used to replay the snapshot and to persist the ChannelPosition
+     */
+    public PersistentStateEventSource(final @Nonnull ChronicleMapStateRepository<?> stateRepository,
+                                      final @Nonnull Duration maxAge,
+                                      final @Nullable Duration persistInterval,
+                                      final @Nonnull MessageStoreFactory<? extends MessageStore> messageStoreFactory,
+                                      final @Nonnull MessageLogReceiverEndpoint messageLog,
+                                      final @Nonnull Clock clock,
+                                      final @Nonnull SynapseExecutor synapseExecutor) {
+        super(messageLog, synapseExecutor);
+        if (!stateRepository.isPersistent()) {
+            throw new IllegalArgumentException("PersistentStateEventSource requires a persistent ChronicleMapStateRepository");
+        }
+        this.stateRepository = stateRepository;
+        this.maxAge = maxAge;
+        this.messageStoreFactory = messageStoreFactory;
+        this.persistInterval = persistInterval;
+        this.clock = clock;
+    }
+
+    @Nonnull
+    @Override
+    public CompletableFuture<ChannelPosition> consumeUntil(final @Nonnull Instant until) {
+        if (positionTrackerRegistered.compareAndSet(false, true)) {
+            // registered as the last consumer, so the position is updated after the message was applied to the state:
+            register(positionTracker);
+        }
+        final Optional<ChannelPosition> persistedPosition = stateRepository.getPersistedChannelPosition(Instant.now(clock).minus(maxAge));
+        final CompletableFuture<ChannelPosition> futurePosition;
+        if (persistedPosition.isPresent()) {
+            LOG.info("Warm restart of EventSource {} from local state with {} entries, skipping snapshot. Resuming at {}", getChannelName(), stateRepository.size(), persistedPosition.get());
+            positionTracker.startAt(persistedPosition.get());
+            futurePosition = getMessageLogReceiverEndpoint().consumeUntil(persistedPosition.get(), until);
+        } else {
+            LOG.info("No recent local state available for EventSource {}. Loading snapshot.", getChannelName());
+            stateRepository.clear();
+            final MessageStore messageStore = new PositionTrackingMessageStore(messageStoreFactory.createMessageStoreFor(getChannelName()), positionTracker);
+            futurePosition = new DefaultEventSource(messageStore, getMessageLogReceiverEndpoint(), getSynapseExecutor()).consumeUntil(until);
+        }
+        final CompletableFuture<Void> scheduledPersistence = schedulePersistence();
+        return futurePosition.whenComplete((channelPosition, throwable) -> {
+            if (scheduledPersistence != null) {
+                scheduledPersistence.cancel(false);
+            }
+        }).thenApply(channelPosition -> {
+            if (channelPosition != null) {
+                stateRepository.persistChannelPosition(channelPosition);
+            }
+            return channelPosition;
+        });
+    }
+
+    /**
+     * Returns the ChannelPosition reflected by the current state of the repository.
+     *
+     * @return ChannelPosition, or empty, if the snapshot has not yet been consumed completely
+     */
+    @Nonnull
+    public Optional<ChannelPosition> getCurrentChannelPosition() {
+        return positionTracker.getCurrentPosition();
+    }
+
+    private CompletableFuture<Void> schedulePersistence() {
+        if (persistInterval == null) {
+            return null;
+        }
+        return getSynapseExecutor()
+                .forChannel(getChannelName())
+                .scheduleWithFixedDelay(this::persistCurrentChannelPosition, persistInterval, persistInterval);
+    }
+
+    private void persistCurrentChannelPosition() {
+        try {
+            getCurrentChannelPosition().ifPresent(stateRepository::persistChannelPosition);
+        } catch (final RuntimeException e) {
+            LOG.error("Failed to persist ChannelPosition of EventSource {}: {}", getChannelName(), e.getMessage(), e);
+        }
+    }
+
+}
@@ -0,0 +1,40 @@
+package de.otto.synapse.eventsource;
+
+/**
+ * Phases of an {@link EventSource} started by the {@link EventSourceStartupOrchestrator}.
+ */
+public enum StartupPhase {
+    /**
+     * The EventSource is waiting for a startup slot or for the disk and memory budgets.
+     */
+    QUEUED,
+    /**
+     * The EventSource is started and loading its snapshot.
+     */
+    STARTING,
+    /**
+     * The snapshot is loaded and the EventSource is catching up with the message log.
+     */
+    CATCHING_UP,
+    /**
+     * The EventSource has caught up with the message log.
+     */
+    READY,
+    /**
+     * The EventSource has finished consuming messages.
+     */
+    FINISHED,
+    /**
+     * The EventSource has failed to start or to consume messages.
+     */
+    FAILED;
+
+    /**
+     * Returns true, if the startup of the EventSource has completed, successfully or not.
+     *
+     * @return boolean
+     */
+    public boolean isCompleted() {
+        return this == READY || this == FINISHED || this == FAILED;
+    }
+}
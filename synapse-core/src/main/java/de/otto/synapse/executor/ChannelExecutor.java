@@ -0,0 +1,255 @@
+package de.otto.synapse.executor;
+
+import org.slf4j.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * The {@link Executor} of a single channel, running its tasks using the threads of a {@link SynapseExecutor}.
+ * <p>
+ *     Shutting down a ChannelExecutor only cancels the tasks of this executor: running tasks are interrupted,
+ *     queued tasks are skipped, scheduled tasks are cancelled, and new tasks are rejected. The threads of the
+ *     SynapseExecutor are not affected.
+ * </p>
+ */
+@ThreadSafe
+public final class ChannelExecutor implements Executor {
+
+    private static final Logger LOG = getLogger(ChannelExecutor.class);
+
+    private final String channelName;
+    private final SynapseExecutor synapseExecutor;
+    private final ChannelTaskCounters counters;
+    private final Set<Thread> runningThreads = ConcurrentHashMap.newKeySet();
+    private final Set<ScheduledTask> scheduledTasks = ConcurrentHashMap.newKeySet();
+    private final AtomicLong pendingTasks = new AtomicLong();
+    private volatile boolean shutdown = false;
+
+    ChannelExecutor(final String channelName,
+                    final SynapseExecutor synapseExecutor,
+                    final ChannelTaskCounters counters) {
+        this.channelName = channelName;
+        this.synapseExecutor = synapseExecutor;
+        this.counters = counters;
+    }
+
+    public String getChannelName() {
+        return channelName;
+    }
+
+    @Override
+    public void execute(final @Nonnull Runnable task) {
+        if (shutdown) {
+            throw new RejectedExecutionException("ChannelExecutor of channel " + channelName + " is shut down");
+        }
+        counters.submitted.incrementAndGet();
+        pendingTasks.incrementAndGet();
+        try {
+            synapseExecutor.submit(() -> run(task));
+        } catch (final RejectedExecutionException e) {
+            counters.submitted.decrementAndGet();
+            taskFinished();
+            throw e;
+        }
+    }
+
+    /**
+     * Executes the task once, after the given delay.
+     *
+     * @param task the task
+     * @param delay the delay
+     * @return future that is completed after the task was executed. Cancelling the future cancels the task, if
+     *         it is not yet running.
+     * @throws RejectedExecutionException if the executor is shut down
+     */
+    @Nonnull
+    public CompletableFuture<Void> schedule(final @Nonnull Runnable task,
+                                            final @Nonnull Duration delay) {
+        final ScheduledTask scheduledTask = new ScheduledTask(task, null);
+        scheduledTask.scheduleAfter(delay);
+        return scheduledTask.result;
+    }
+
+    /**
+     * Repeatedly executes the task, starting after {@code initialDelay}, with the given {@code delay} between the
+     * end of an execution and the start of the next one. Just like
+     * {@link java.util.concurrent.ScheduledExecutorService#scheduleWithFixedDelay(Runnable, long, long, TimeUnit)},
+     * the repetitions are stopped if an execution of the task is failing.
+     *
+     * @param task the task
+     * @param initialDelay the delay of the first execution
+     * @param delay the delay between two executions
+     * @return future that is only completed, if an execution has failed. Cancelling the future stops the repetitions.
+     * @throws RejectedExecutionException if the executor is shut down
+     */
+    @Nonnull
+    public CompletableFuture<Void> scheduleWithFixedDelay(final @Nonnull Runnable task,
+                                                          final @Nonnull Duration initialDelay,
+                                                          final @Nonnull Duration delay) {
+        final ScheduledTask scheduledTask = new ScheduledTask(task, delay);
+        scheduledTask.scheduleAfter(initialDelay);
+        return scheduledTask.result;
+    }
+
+    /**
+     * Interrupts all running tasks of this executor, skips queued tasks, cancels scheduled tasks and rejects new
+     * tasks.
+     */
+    public void shutdownNow() {
+        shutdown = true;
+        scheduledTasks.forEach(scheduledTask -> scheduledTask.result.cancel(false));
+        runningThreads.forEach(Thread::interrupt);
+    }
+
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    /**
+     * Waits until all submitted tasks of this executor have finished. If called by a task of this executor, the
+     * calling task is not awaited.
+     *
+     * @param timeout the maximum time to wait
+     * @return true, if all tasks have finished; false, if the timeout has elapsed before
+     * @throws InterruptedException if the current thread was interrupted while waiting
+     */
+    public boolean awaitTermination(final @Nonnull Duration timeout) throws InterruptedException {
+        final long deadline = System.nanoTime() + timeout.toNanos();
+        final long callingTasks = runningThreads.contains(Thread.currentThread()) ? 1 : 0;
+        synchronized (pendingTasks) {
+            while (pendingTasks.get() > callingTasks) {
+                final long remainingNanos = deadline - System.nanoTime();
+                if (remainingNanos <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(pendingTasks, remainingNanos);
+            }
+        }
+        return true;
+    }
+
+    private void run(final Runnable task) {
+        final Thread thread = Thread.currentThread();
+        counters.started.incrementAndGet();
+        try {
+            if (shutdown) {
+                LOG.debug("Skipping task of channel {}: executor is shut down", channelName);
+                return;
+            }
+            runningThreads.add(thread);
+            task.run();
+        } finally {
+            runningThreads.remove(thread);
+            counters.completed.incrementAndGet();
+            taskFinished();
+        }
+    }
+
+    private void taskFinished() {
+        synchronized (pendingTasks) {
+            pendingTasks.decrementAndGet();
+            pendingTasks.notifyAll();
+        }
+    }
+
+    /**
+     * A delayed or periodic task. The timer of the SynapseExecutor is only submitting the task to this executor
+     * when it is due; periodic tasks are re-scheduled after every execution.
+     */
+    private final class ScheduledTask {
+        private final Runnable task;
+        private final Duration period;
+        private final CompletableFuture<Void> result = new CompletableFuture<>();
+        private final AtomicReference<ScheduledFuture<?>> timer = new AtomicReference<>();
+
+        private ScheduledTask(final Runnable task, final Duration period) {
+            this.task = task;
+            this.period = period;
+            if (shutdown) {
+                throw new RejectedExecutionException("ChannelExecutor of channel " + channelName + " is shut down");
+            }
+            scheduledTasks.add(this);
+            if (shutdown) {
+                result.cancel(false);
+            }
+            result.whenComplete((ignored, throwable) -> {
+                scheduledTasks.remove(this);
+                final ScheduledFuture<?> pendingTimer = timer.get();
+                if (pendingTimer != null) {
+                    pendingTimer.cancel(false);
+                }
+            });
+        }
+
+        private void scheduleAfter(final Duration delay) {
+            try {
+                timer.set(synapseExecutor.schedule(this::submit, delay));
+            } catch (final RejectedExecutionException e) {
+                result.completeExceptionally(e);
+                throw e;
+            }
+            if (result.isDone()) {
+                timer.get().cancel(false);
+            }
+        }
+
+        private void submit() {
+            try {
+                execute(this::run);
+            } catch (final RejectedExecutionException e) {
+                result.cancel(false);
+            }
+        }
+
+        private void run() {
+            if (result.isDone()) {
+                return;
+            }
+            try {
+                task.run();
+            } catch (final RuntimeException e) {
+                LOG.error("Scheduled task of channel {} has failed: {}", channelName, e.getMessage(), e);
+                result.completeExceptionally(e);
+                return;
+            }
+            if (period == null) {
+                result.complete(null);
+            } else {
+                try {
+                    scheduleAfter(period);
+                } catch (final RejectedExecutionException e) {
+                    LOG.debug("Stopped scheduled task of channel {}: executor is shut down", channelName);
+                }
+            }
+        }
+    }
+
+    /**
+     * Task counters of a channel, shared by all ChannelExecutors of the channel.
+     */
+    static final class ChannelTaskCounters {
+        final AtomicLong submitted = new AtomicLong();
+        final AtomicLong started = new AtomicLong();
+        final AtomicLong completed = new AtomicLong();
+
+        ChannelExecutorMetrics metricsOf(final String channelName) {
+            final long completed = this.completed.get();
+            final long started = this.started.get();
+            final long submitted = this.submitted.get();
+            return new ChannelExecutorMetrics(channelName, submitted, Math.max(0, submitted - started), Math.max(0, started - completed), completed);
+        }
+    }
+}
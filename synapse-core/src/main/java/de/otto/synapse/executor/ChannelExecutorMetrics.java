@@ -0,0 +1,89 @@
+package de.otto.synapse.executor;
+
+import javax.annotation.concurrent.Immutable;
+import java.util.Objects;
+
+/**
+ * Metrics about the tasks executed by a {@link SynapseExecutor} on behalf of a channel.
+ */
+@Immutable
+public final class ChannelExecutorMetrics {
+
+    private final String channelName;
+    private final long submittedTasks;
+    private final long queuedTasks;
+    private final long runningTasks;
+    private final long completedTasks;
+
+    public ChannelExecutorMetrics(final String channelName,
+                                  final long submittedTasks,
+                                  final long queuedTasks,
+                                  final long runningTasks,
+                                  final long completedTasks) {
+        this.channelName = channelName;
+        this.submittedTasks = submittedTasks;
+        this.queuedTasks = queuedTasks;
+        this.runningTasks = runningTasks;
+        this.completedTasks = completedTasks;
+    }
+
+    public String getChannelName() {
+        return channelName;
+    }
+
+    /**
+     * @return the total number of tasks submitted for the channel
+     */
+    public long getSubmittedTasks() {
+        return submittedTasks;
+    }
+
+    /**
+     * @return the number of tasks waiting for a thread, because all threads of the executor are busy
+     */
+    public long getQueuedTasks() {
+        return queuedTasks;
+    }
+
+    /**
+     * @return the number of tasks currently running
+     */
+    public long getRunningTasks() {
+        return runningTasks;
+    }
+
+    /**
+     * @return the total number of finished tasks
+     */
+    public long getCompletedTasks() {
+        return completedTasks;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        final ChannelExecutorMetrics that = (ChannelExecutorMetrics) o;
+        return submittedTasks == that.submittedTasks &&
+                queuedTasks == that.queuedTasks &&
+                runningTasks == that.runningTasks &&
+                completedTasks == that.completedTasks &&
+                Objects.equals(channelName, that.channelName);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(channelName, submittedTasks, queuedTasks, runningTasks, completedTasks);
+    }
+
+    @Override
+    public String toString() {
+        return "ChannelExecutorMetrics{" +
+                "channelName='" + channelName + '\'' +
+                ", submittedTasks=" + submittedTasks +
+                ", queuedTasks=" + queuedTasks +
+                ", runningTasks=" + runningTasks +
+                ", completedTasks=" + completedTasks +
+                '}';
+    }
+}
@@ -0,0 +1,285 @@
+package de.otto.synapse.executor;
+
+import com.google.common.collect.ImmutableList;
+import de.otto.synapse.executor.ChannelExecutor.ChannelTaskCounters;
+import org.slf4j.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Comparator.comparing;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * The central executor used by message endpoints and event sources to run their tasks, like reading the shards of
+ * a message log, polling a message queue or replaying a message store.
+ * <p>
+ *     Tasks are submitted using the {@link #forChannel(String) ChannelExecutor} of a channel, so the tasks of a channel
+ *     can be cancelled independently, and {@link #getMetrics() metrics} are available per channel.
+ * </p>
+ * <p>
+ *     If virtual threads are enabled and supported by the JVM (Java 21 or later), every task is running in a new
+ *     virtual thread. Otherwise, the tasks are executed by a bounded pool of daemon threads; idle threads are
+ *     terminated after {@code keepAlive}. Most tasks of Synapse are long-running, so the number of threads must be
+ *     at least the number of shards and queues consumed concurrently. Further tasks are queued until a thread is
+ *     available.
+ * </p>
+ * <p>
+ *     Periodic and delayed tasks are {@link ChannelExecutor#scheduleWithFixedDelay(Runnable, Duration, Duration) scheduled}
+ *     by a single timer thread that is only submitting the tasks when they are due, so scheduled tasks are executed
+ *     by the same threads as all other tasks.
+ * </p>
+ */
+@ThreadSafe
+public class SynapseExecutor implements AutoCloseable {
+
+    private static final Logger LOG = getLogger(SynapseExecutor.class);
+
+    private static SynapseExecutor defaultExecutor;
+
+    private final ExecutorService executorService;
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final boolean virtualThreads;
+    private final int maxThreads;
+    private final Map<String, ChannelTaskCounters> channelCounters = new ConcurrentHashMap<>();
+    private final AtomicInteger busyThreads = new AtomicInteger();
+    private final AtomicBoolean saturationLogged = new AtomicBoolean(false);
+
+    private SynapseExecutor(final Builder builder) {
+        final ExecutorService virtualThreadExecutor = builder.virtualThreads
+                ? newVirtualThreadExecutor(builder.threadNamePrefix)
+                : null;
+        if (virtualThreadExecutor != null) {
+            this.executorService = virtualThreadExecutor;
+            this.virtualThreads = true;
+            this.maxThreads = Integer.MAX_VALUE;
+            LOG.info("Using virtual threads to execute Synapse tasks");
+        } else {
+            if (builder.virtualThreads) {
+                LOG.warn("Virtual threads are not supported by this JVM. Using a pool of at most {} platform threads", builder.maxThreads);
+            }
+            final ThreadPoolExecutor threadPool = new ThreadPoolExecutor(
+                    builder.maxThreads, builder.maxThreads,
+                    builder.keepAlive.toMillis(), TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(),
+                    daemonThreadFactory(builder.threadNamePrefix));
+            threadPool.allowCoreThreadTimeOut(true);
+            this.executorService = threadPool;
+            this.virtualThreads = false;
+            this.maxThreads = builder.maxThreads;
+        }
+        this.scheduler = new ScheduledThreadPoolExecutor(1, daemonThreadFactory(builder.threadNamePrefix + "scheduler-"));
+        this.scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    public static Builder synapseExecutorBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns the shared SynapseExecutor used by components that are not configured with a SynapseExecutor.
+     *
+     * @return default SynapseExecutor
+     */
+    @Nonnull
+    public static synchronized SynapseExecutor defaultExecutor() {
+        if (defaultExecutor == null || defaultExecutor.isShutdown()) {
+            defaultExecutor = synapseExecutorBuilder().build();
+        }
+        return defaultExecutor;
+    }
+
+    /**
+     * Installs the SynapseExecutor returned by {@link #defaultExecutor()}, so components that are not configured
+     * with a SynapseExecutor are sharing the threads and metrics of the given executor.
+     * <p>
+     *     The auto-configuration installs the configured {@code synapseExecutor} bean as the default executor.
+     * </p>
+     *
+     * @param synapseExecutor the SynapseExecutor used as default executor
+     */
+    public static synchronized void setDefaultExecutor(final @Nonnull SynapseExecutor synapseExecutor) {
+        defaultExecutor = synapseExecutor;
+    }
+
+    /**
+     * Returns a new {@link ChannelExecutor} used to execute the tasks of the given channel.
+     *
+     * @param channelName the name of the channel
+     * @return ChannelExecutor
+     */
+    @Nonnull
+    public ChannelExecutor forChannel(final String channelName) {
+        final String name = channelName != null ? channelName : "";
+        return new ChannelExecutor(name, this, channelCounters.computeIfAbsent(name, key -> new ChannelTaskCounters()));
+    }
+
+    /**
+     * Returns the metrics of all channels that have submitted tasks to this executor, ordered by channel name.
+     *
+     * @return list of metrics
+     */
+    @Nonnull
+    public ImmutableList<ChannelExecutorMetrics> getMetrics() {
+        return channelCounters.entrySet()
+                .stream()
+                .map(entry -> entry.getValue().metricsOf(entry.getKey()))
+                .sorted(comparing(ChannelExecutorMetrics::getChannelName))
+                .collect(ImmutableList.toImmutableList());
+    }
+
+    public boolean isUsingVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    public boolean isShutdown() {
+        return executorService.isShutdown();
+    }
+
+    /**
+     * Interrupts all running tasks and waits until the threads are terminated.
+     *
+     * @param timeout the maximum time to wait for running tasks
+     * @return true, if all tasks have terminated
+     */
+    public boolean shutdown(final @Nonnull Duration timeout) {
+        scheduler.shutdownNow();
+        executorService.shutdownNow();
+        try {
+            final boolean terminated = executorService.awaitTermination(timeout.toMillis(), TimeUnit.MILLISECONDS);
+            if (!terminated) {
+                LOG.error("Synapse tasks are still running after shutdown");
+            }
+            return terminated;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        shutdown(Duration.ofSeconds(30));
+    }
+
+    void submit(final Runnable task) {
+        if (!virtualThreads && busyThreads.get() >= maxThreads && saturationLogged.compareAndSet(false, true)) {
+            LOG.warn("All {} threads of the SynapseExecutor are busy. Tasks are queued until a thread is available.", maxThreads);
+        }
+        executorService.execute(() -> {
+            busyThreads.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                busyThreads.decrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * Runs the trigger of a scheduled task in the timer thread, after the given delay. The trigger must only submit
+     * the task, so the timer thread is never busy.
+     */
+    ScheduledFuture<?> schedule(final Runnable trigger, final Duration delay) {
+        return scheduler.schedule(trigger, delay.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    private static ThreadFactory daemonThreadFactory(final String threadNamePrefix) {
+        final AtomicInteger threadNumber = new AtomicInteger();
+        return runnable -> {
+            final Thread thread = new Thread(runnable, threadNamePrefix + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Creates an executor starting a new virtual thread for every task, using reflection, so Synapse can be
+     * compiled and used with Java 8.
+     *
+     * @return ExecutorService, or null if virtual threads are not supported by the JVM
+     */
+    private static ExecutorService newVirtualThreadExecutor(final String threadNamePrefix) {
+        try {
+            final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            final Object builder = builderClass.getMethod("name", String.class, long.class)
+                    .invoke(Thread.class.getMethod("ofVirtual").invoke(null), threadNamePrefix, 0L);
+            final ThreadFactory threadFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, threadFactory);
+        } catch (final ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    public static final class Builder {
+        private boolean virtualThreads = false;
+        private int maxThreads = 256;
+        private Duration keepAlive = Duration.ofSeconds(60);
+        private String threadNamePrefix = "synapse-executor-";
+
+        private Builder() {
+        }
+
+        /**
+         * Use virtual threads, if supported by the JVM.
+         *
+         * @param virtualThreads true, if virtual threads should be used
+         * @return Builder
+         */
+        public Builder withVirtualThreads(final boolean virtualThreads) {
+            this.virtualThreads = virtualThreads;
+            return this;
+        }
+
+        /**
+         * The maximum number of platform threads, if virtual threads are not used.
+         *
+         * @param maxThreads maximum number of threads
+         * @return Builder
+         */
+        public Builder withMaxThreads(final int maxThreads) {
+            if (maxThreads < 1) {
+                throw new IllegalArgumentException("maxThreads must be positive");
+            }
+            this.maxThreads = maxThreads;
+            return this;
+        }
+
+        /**
+         * The time after which idle platform threads are terminated.
+         *
+         * @param keepAlive keep-alive time of idle threads
+         * @return Builder
+         */
+        public Builder withKeepAlive(final Duration keepAlive) {
+            this.keepAlive = keepAlive;
+            return this;
+        }
+
+        public Builder withThreadNamePrefix(final String threadNamePrefix) {
+            this.threadNamePrefix = threadNamePrefix;
+            return this;
+        }
+
+        public SynapseExecutor build() {
+            return new SynapseExecutor(this);
+        }
+    }
+}
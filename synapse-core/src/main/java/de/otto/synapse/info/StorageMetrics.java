@@ -0,0 +1,234 @@
+package de.otto.synapse.info;
+
+import java.util.Objects;
+
+/**
+ * Memory accounting and sizing metrics of a state repository or message store.
+ * <p>
+ *     Sizes of off-heap ChronicleMaps must be configured upfront. The metrics are reporting the average key- and
+ *     value-sizes that are actually observed, and the fill ratio of the map and its segments, so wrong guesses can
+ *     be detected before the map is rejecting entries or the process is running out of memory.
+ * </p>
+ * <p>
+ *     Metrics that are not available for a storage are reported as {@code -1}, or {@code NaN} for ratios and averages.
+ * </p>
+ *
+ * @see StorageMetricsProvider
+ */
+public class StorageMetrics {
+
+    private final long entryCount;
+    private final long offHeapBytesAllocated;
+    private final long offHeapBytesUsed;
+    private final double averageKeySize;
+    private final double averageValueSize;
+    private final int segments;
+    private final double fillRatio;
+    private final double maxSegmentFillRatio;
+    private final long estimatedOnHeapBytes;
+
+    private StorageMetrics(final Builder builder) {
+        this.entryCount = builder.entryCount;
+        this.offHeapBytesAllocated = builder.offHeapBytesAllocated;
+        this.offHeapBytesUsed = builder.offHeapBytesUsed;
+        this.averageKeySize = builder.averageKeySize;
+        this.averageValueSize = builder.averageValueSize;
+        this.segments = builder.segments;
+        this.fillRatio = builder.fillRatio;
+        this.maxSegmentFillRatio = builder.maxSegmentFillRatio;
+        this.estimatedOnHeapBytes = builder.estimatedOnHeapBytes;
+    }
+
+    public static Builder storageMetricsBuilder() {
+        return new Builder();
+    }
+
+    public static Builder storageMetricsBuilder(final StorageMetrics prototype) {
+        return new Builder()
+                .withEntryCount(prototype.entryCount)
+                .withOffHeapBytesAllocated(prototype.offHeapBytesAllocated)
+                .withOffHeapBytesUsed(prototype.offHeapBytesUsed)
+                .withAverageKeySize(prototype.averageKeySize)
+                .withAverageValueSize(prototype.averageValueSize)
+                .withSegments(prototype.segments)
+                .withFillRatio(prototype.fillRatio)
+                .withMaxSegmentFillRatio(prototype.maxSegmentFillRatio)
+                .withEstimatedOnHeapBytes(prototype.estimatedOnHeapBytes);
+    }
+
+    /**
+     * Estimates the number of on-heap bytes used by a String, assuming a 64-bit JVM with compressed oops.
+     *
+     * @param s the string
+     * @return estimated size in bytes
+     */
+    public static long estimatedStringSize(final CharSequence s) {
+        // String object (24 bytes) plus char[] (16 bytes header + 2 bytes per char, aligned to 8 bytes):
+        return 24 + ((16 + 2L * s.length() + 7) & ~7);
+    }
+
+    public long getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Returns the number of off-heap bytes that are allocated by the storage.
+     *
+     * @return allocated off-heap memory
+     */
+    public long getOffHeapBytesAllocated() {
+        return offHeapBytesAllocated;
+    }
+
+    /**
+     * Returns the number of off-heap bytes that are used by the serialized keys and values, calculated from the
+     * observed average sizes.
+     *
+     * @return used off-heap memory
+     */
+    public long getOffHeapBytesUsed() {
+        return offHeapBytesUsed;
+    }
+
+    public double getAverageKeySize() {
+        return averageKeySize;
+    }
+
+    public double getAverageValueSize() {
+        return averageValueSize;
+    }
+
+    public int getSegments() {
+        return segments;
+    }
+
+    /**
+     * Returns the ratio of the number of entries and the configured number of entries.
+     *
+     * @return fill ratio
+     */
+    public double getFillRatio() {
+        return fillRatio;
+    }
+
+    /**
+     * Returns the fill ratio of the fullest segment. Values above 1.0 are indicating that entries are not evenly
+     * distributed, or that the storage is outgrowing its configuration.
+     *
+     * @return fill ratio of the fullest segment
+     */
+    public double getMaxSegmentFillRatio() {
+        return maxSegmentFillRatio;
+    }
+
+    /**
+     * Returns an estimation of the on-heap memory used by the storage, for example for indexes of keys.
+     *
+     * @return estimated on-heap memory
+     */
+    public long getEstimatedOnHeapBytes() {
+        return estimatedOnHeapBytes;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        StorageMetrics that = (StorageMetrics) o;
+        return entryCount == that.entryCount &&
+                offHeapBytesAllocated == that.offHeapBytesAllocated &&
+                offHeapBytesUsed == that.offHeapBytesUsed &&
+                Double.compare(that.averageKeySize, averageKeySize) == 0 &&
+                Double.compare(that.averageValueSize, averageValueSize) == 0 &&
+                segments == that.segments &&
+                Double.compare(that.fillRatio, fillRatio) == 0 &&
+                Double.compare(that.maxSegmentFillRatio, maxSegmentFillRatio) == 0 &&
+                estimatedOnHeapBytes == that.estimatedOnHeapBytes;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(entryCount, offHeapBytesAllocated, offHeapBytesUsed, averageKeySize, averageValueSize,
+                segments, fillRatio, maxSegmentFillRatio, estimatedOnHeapBytes);
+    }
+
+    @Override
+    public String toString() {
+        return "StorageMetrics{" +
+                "entryCount=" + entryCount +
+                ", offHeapBytesAllocated=" + offHeapBytesAllocated +
+                ", offHeapBytesUsed=" + offHeapBytesUsed +
+                ", averageKeySize=" + averageKeySize +
+                ", averageValueSize=" + averageValueSize +
+                ", segments=" + segments +
+                ", fillRatio=" + fillRatio +
+                ", maxSegmentFillRatio=" + maxSegmentFillRatio +
+                ", estimatedOnHeapBytes=" + estimatedOnHeapBytes +
+                '}';
+    }
+
+    public static final class Builder {
+
+        private long entryCount = -1;
+        private long offHeapBytesAllocated = -1;
+        private long offHeapBytesUsed = -1;
+        private double averageKeySize = Double.NaN;
+        private double averageValueSize = Double.NaN;
+        private int segments = -1;
+        private double fillRatio = Double.NaN;
+        private double maxSegmentFillRatio = Double.NaN;
+        private long estimatedOnHeapBytes = -1;
+
+        private Builder() {
+        }
+
+        public Builder withEntryCount(final long val) {
+            entryCount = val;
+            return this;
+        }
+
+        public Builder withOffHeapBytesAllocated(final long val) {
+            offHeapBytesAllocated = val;
+            return this;
+        }
+
+        public Builder withOffHeapBytesUsed(final long val) {
+            offHeapBytesUsed = val;
+            return this;
+        }
+
+        public Builder withAverageKeySize(final double val) {
+            averageKeySize = val;
+            return this;
+        }
+
+        public Builder withAverageValueSize(final double val) {
+            averageValueSize = val;
+            return this;
+        }
+
+        public Builder withSegments(final int val) {
+            segments = val;
+            return this;
+        }
+
+        public Builder withFillRatio(final double val) {
+            fillRatio = val;
+            return this;
+        }
+
+        public Builder withMaxSegmentFillRatio(final double val) {
+            maxSegmentFillRatio = val;
+            return this;
+        }
+
+        public Builder withEstimatedOnHeapBytes(final long val) {
+            estimatedOnHeapBytes = val;
+            return this;
+        }
+
+        public StorageMetrics build() {
+            return new StorageMetrics(this);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package de.otto.synapse.info;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Implemented by state repositories and message stores that are able to report their {@link StorageMetrics}.
+ * <p>
+ *     Spring beans implementing this interface are reported as status details, if synapse-edison is used. The
+ *     metrics can also be registered as gauges of a metrics registry.
+ * </p>
+ */
+public interface StorageMetricsProvider {
+
+    /**
+     * Calculates the current metrics of the storage. Calculating the metrics may require to sample entries and to
+     * briefly lock segments of the storage, so the metrics should not be calculated more often than necessary.
+     *
+     * @return StorageMetrics
+     */
+    @Nonnull
+    StorageMetrics getStorageMetrics();
+}
@@ -0,0 +1,167 @@
+package de.otto.synapse.lease;
+
+import com.google.common.collect.ImmutableList;
+import de.otto.synapse.channel.ShardPosition;
+import de.otto.synapse.checkpoint.ChannelPositionCodec;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static de.otto.synapse.channel.ChannelPosition.channelPosition;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * A {@link ShardLeaseStore} that is storing the leases of a channel in a file, shared by all instances of a service
+ * running on the same host or using the same shared file system.
+ * <p>
+ *     Updates are serialized using an exclusive {@link FileLock} on a lock file next to the lease file. The leases
+ *     are written to a temporary file that is atomically moved to its final location afterwards.
+ * </p>
+ */
+@ThreadSafe
+public class FileShardLeaseStore implements ShardLeaseStore {
+
+    private static final String LEASE_FILE_EXTENSION = ".leases";
+    private static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+    private final Path directory;
+
+    public FileShardLeaseStore(final @Nonnull File directory) {
+        this.directory = directory.toPath();
+        try {
+            Files.createDirectories(this.directory);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Nonnull
+    @Override
+    public synchronized ImmutableList<ShardLease> getLeases(final @Nonnull String channelName) {
+        return locked(channelName, () -> ImmutableList.copyOf(read(channelName)));
+    }
+
+    @Override
+    public synchronized boolean compareAndSet(final @Nullable ShardLease expected,
+                                              final @Nonnull ShardLease update) {
+        final String channelName = update.getChannelName();
+        return locked(channelName, () -> {
+            final List<ShardLease> leases = read(channelName);
+            final ShardLease current = leases
+                    .stream()
+                    .filter(lease -> lease.getShardName().equals(update.getShardName()))
+                    .findAny()
+                    .orElse(null);
+            final boolean unmodified = current == null
+                    ? expected == null
+                    : expected != null && current.getVersion() == expected.getVersion();
+            if (!unmodified) {
+                return false;
+            }
+            if (current != null) {
+                leases.set(leases.indexOf(current), update);
+            } else {
+                leases.add(update);
+            }
+            write(channelName, leases);
+            return true;
+        });
+    }
+
+    private <T> T locked(final String channelName, final LockedOperation<T> operation) {
+        // the monitor of this store is guarding against OverlappingFileLockExceptions within the same JVM:
+        try (FileChannel lockChannel = FileChannel.open(directory.resolve(channelName + LEASE_FILE_EXTENSION + ".lock"), CREATE, WRITE)) {
+            final FileLock lock = lockChannel.lock();
+            try {
+                return operation.execute();
+            } finally {
+                lock.release();
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private List<ShardLease> read(final String channelName) throws IOException {
+        final Path leaseFile = leaseFile(channelName);
+        final List<ShardLease> leases = new ArrayList<>();
+        if (!Files.isReadable(leaseFile)) {
+            return leases;
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(leaseFile)))) {
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                final String shardName = in.readUTF();
+                final String owner = in.readUTF();
+                final long expiresAt = in.readLong();
+                final long version = in.readLong();
+                final boolean finished = in.readBoolean();
+                final ShardPosition checkpoint = in.readBoolean()
+                        ? ChannelPositionCodec.read(in).shard(shardName)
+                        : null;
+                leases.add(new ShardLease(
+                        channelName,
+                        shardName,
+                        owner.isEmpty() ? null : owner,
+                        expiresAt == NO_TIMESTAMP ? null : Instant.ofEpochMilli(expiresAt),
+                        version,
+                        checkpoint,
+                        finished));
+            }
+        }
+        return leases;
+    }
+
+    private void write(final String channelName, final List<ShardLease> leases) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(leases.size());
+            for (final ShardLease lease : leases) {
+                out.writeUTF(lease.getShardName());
+                out.writeUTF(lease.getOwner().orElse(""));
+                out.writeLong(lease.getExpiresAt().map(Instant::toEpochMilli).orElse(NO_TIMESTAMP));
+                out.writeLong(lease.getVersion());
+                out.writeBoolean(lease.isFinished());
+                out.writeBoolean(lease.getCheckpoint().isPresent());
+                if (lease.getCheckpoint().isPresent()) {
+                    ChannelPositionCodec.write(channelPosition(lease.getCheckpoint().get()), out);
+                }
+            }
+        }
+        final Path leaseFile = leaseFile(channelName);
+        final Path tempFile = leaseFile.resolveSibling(leaseFile.getFileName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tempFile.toFile())) {
+            out.write(bytes.toByteArray());
+            out.getFD().sync();
+        }
+        Files.move(tempFile, leaseFile, ATOMIC_MOVE, REPLACE_EXISTING);
+    }
+
+    private Path leaseFile(final String channelName) {
+        return directory.resolve(channelName + LEASE_FILE_EXTENSION);
+    }
+
+    @FunctionalInterface
+    private interface LockedOperation<T> {
+        T execute() throws IOException;
+    }
+}
@@ -0,0 +1,41 @@
+package de.otto.synapse.lease;
+
+import com.google.common.collect.ImmutableList;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A {@link ShardLeaseStore} that is keeping leases in memory. Only instances within the same JVM are able to
+ * share the leases, so the store is mostly useful for testing purposes.
+ */
+@ThreadSafe
+public class InMemoryShardLeaseStore implements ShardLeaseStore {
+
+    private final Map<String, Map<String, ShardLease>> leases = new ConcurrentHashMap<>();
+
+    @Nonnull
+    @Override
+    public synchronized ImmutableList<ShardLease> getLeases(final @Nonnull String channelName) {
+        return ImmutableList.copyOf(leases.getOrDefault(channelName, new LinkedHashMap<>()).values());
+    }
+
+    @Override
+    public synchronized boolean compareAndSet(final @Nullable ShardLease expected,
+                                              final @Nonnull ShardLease update) {
+        final Map<String, ShardLease> channelLeases = leases.computeIfAbsent(update.getChannelName(), ignored -> new LinkedHashMap<>());
+        final ShardLease current = channelLeases.get(update.getShardName());
+        final boolean unmodified = current == null
+                ? expected == null
+                : expected != null && current.getVersion() == expected.getVersion();
+        if (!unmodified) {
+            return false;
+        }
+        channelLeases.put(update.getShardName(), update);
+        return true;
+    }
+}
@@ -0,0 +1,176 @@
+package de.otto.synapse.lease;
+
+import de.otto.synapse.channel.ShardPosition;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.Serializable;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.Optional;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A lease of a single shard of a channel, granting an instance of a service the exclusive right to consume the
+ * shard until the lease expires.
+ * <p>
+ *     Leases are immutable. Every modification is creating a copy with an incremented {@code version}, that is used
+ *     by the {@link ShardLeaseStore} to detect concurrent modifications by other instances.
+ * </p>
+ */
+public final class ShardLease implements Serializable {
+
+    private final String channelName;
+    private final String shardName;
+    private final String owner;
+    private final Instant expiresAt;
+    private final long version;
+    private final ShardPosition checkpoint;
+    private final boolean finished;
+
+    public ShardLease(final @Nonnull String channelName,
+                      final @Nonnull String shardName,
+                      final @Nullable String owner,
+                      final @Nullable Instant expiresAt,
+                      final long version,
+                      final @Nullable ShardPosition checkpoint,
+                      final boolean finished) {
+        this.channelName = requireNonNull(channelName);
+        this.shardName = requireNonNull(shardName);
+        this.owner = owner;
+        this.expiresAt = expiresAt;
+        this.version = version;
+        this.checkpoint = checkpoint;
+        this.finished = finished;
+    }
+
+    /**
+     * Creates the initial lease of a shard, that is not yet owned by any instance.
+     *
+     * @param channelName the name of the channel
+     * @param shardName the name of the shard
+     * @return ShardLease
+     */
+    @Nonnull
+    public static ShardLease unownedLease(final @Nonnull String channelName,
+                                          final @Nonnull String shardName) {
+        return new ShardLease(channelName, shardName, null, null, 0, null, false);
+    }
+
+    @Nonnull
+    public String getChannelName() {
+        return channelName;
+    }
+
+    @Nonnull
+    public String getShardName() {
+        return shardName;
+    }
+
+    @Nonnull
+    public Optional<String> getOwner() {
+        return Optional.ofNullable(owner);
+    }
+
+    @Nonnull
+    public Optional<Instant> getExpiresAt() {
+        return Optional.ofNullable(expiresAt);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the position of the last message of the shard, that was processed by the owner of the lease.
+     *
+     * @return optional ShardPosition
+     */
+    @Nonnull
+    public Optional<ShardPosition> getCheckpoint() {
+        return Optional.ofNullable(checkpoint);
+    }
+
+    /**
+     * Returns true, if the shard is closed and all messages of the shard have been processed.
+     *
+     * @return boolean
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Returns true, if the lease is not owned by any instance, or if the lease has expired.
+     *
+     * @param now the current time
+     * @return boolean
+     */
+    public boolean isAvailable(final @Nonnull Instant now) {
+        return owner == null || expiresAt == null || !expiresAt.isAfter(now);
+    }
+
+    /**
+     * Returns true, if the lease is owned by the given instance and has not yet expired.
+     *
+     * @param owner the id of the instance
+     * @param now the current time
+     * @return boolean
+     */
+    public boolean isOwnedBy(final @Nonnull String owner, final @Nonnull Instant now) {
+        return owner.equals(this.owner) && !isAvailable(now);
+    }
+
+    @Nonnull
+    public ShardLease withOwner(final @Nonnull String owner, final @Nonnull Instant expiresAt) {
+        return new ShardLease(channelName, shardName, owner, expiresAt, version + 1, checkpoint, finished);
+    }
+
+    @Nonnull
+    public ShardLease withCheckpoint(final @Nullable ShardPosition checkpoint) {
+        return new ShardLease(channelName, shardName, owner, expiresAt, version + 1, checkpoint, finished);
+    }
+
+    @Nonnull
+    public ShardLease released() {
+        return new ShardLease(channelName, shardName, null, null, version + 1, checkpoint, finished);
+    }
+
+    @Nonnull
+    public ShardLease finished() {
+        return new ShardLease(channelName, shardName, null, null, version + 1, checkpoint, true);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        final ShardLease that = (ShardLease) o;
+        return version == that.version &&
+                finished == that.finished &&
+                Objects.equals(channelName, that.channelName) &&
+                Objects.equals(shardName, that.shardName) &&
+                Objects.equals(owner, that.owner) &&
+                Objects.equals(expiresAt, that.expiresAt) &&
+                Objects.equals(checkpoint, that.checkpoint);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(channelName, shardName, owner, expiresAt, version, checkpoint, finished);
+    }
+
+    @Override
+    public String toString() {
+        return "ShardLease{" +
+                "channelName='" + channelName + '\'' +
+                ", shardName='" + shardName + '\'' +
+                ", owner='" + owner + '\'' +
+                ", expiresAt=" + expiresAt +
+                ", version=" + version +
+                ", checkpoint=" + checkpoint +
+                ", finished=" + finished +
+                '}';
+    }
+}
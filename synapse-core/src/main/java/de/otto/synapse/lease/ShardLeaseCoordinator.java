@@ -0,0 +1,250 @@
+package de.otto.synapse.lease;
+
+import com.google.common.collect.ImmutableSet;
+import de.otto.synapse.channel.ShardPosition;
+import org.slf4j.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.util.Comparator.comparingLong;
+import static java.util.function.Function.identity;
+import static java.util.stream.Collectors.counting;
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.toList;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Assigns the shards of a channel to the instances of a service, using {@link ShardLease leases} stored in a
+ * {@link ShardLeaseStore}, so every shard is consumed by a single instance.
+ * <p>
+ *     Every instance is calling {@link #balance(Collection)} periodically, at least three times per
+ *     {@code leaseDuration}. An instance is renewing its own leases, taking over expired leases and, if it owns fewer
+ *     shards than its fair share, stealing a single lease per round from the instance owning the most shards. Shards
+ *     are balanced across all instances that own at least one lease after a few rounds.
+ * </p>
+ * <p>
+ *     The position of the last message processed per shard is {@link #checkpoint(ShardPosition) recorded} and
+ *     persisted in the lease when it is renewed, so the next owner of a shard continues at this checkpoint. Messages
+ *     processed after the last renewal are consumed again by the next owner.
+ * </p>
+ */
+@ThreadSafe
+public class ShardLeaseCoordinator {
+
+    private static final Logger LOG = getLogger(ShardLeaseCoordinator.class);
+
+    private final String channelName;
+    private final ShardLeaseStore leaseStore;
+    private final String ownerId;
+    private final Duration leaseDuration;
+    private final Clock clock;
+    private final Map<String, ShardPosition> pendingCheckpoints = new ConcurrentHashMap<>();
+    private volatile Map<String, ShardLease> ownedLeases = new LinkedHashMap<>();
+    private volatile Set<String> finishedShards = ImmutableSet.of();
+
+    public ShardLeaseCoordinator(final @Nonnull String channelName,
+                                 final @Nonnull ShardLeaseStore leaseStore,
+                                 final @Nonnull String ownerId,
+                                 final @Nonnull Duration leaseDuration,
+                                 final @Nonnull Clock clock) {
+        this.channelName = channelName;
+        this.leaseStore = leaseStore;
+        this.ownerId = ownerId;
+        this.leaseDuration = leaseDuration;
+        this.clock = clock;
+    }
+
+    @Nonnull
+    public String getOwnerId() {
+        return ownerId;
+    }
+
+    @Nonnull
+    public Duration getLeaseDuration() {
+        return leaseDuration;
+    }
+
+    /**
+     * Renews, acquires and steals leases of the given shards.
+     *
+     * @param shardNames the names of all shards of the channel that are to be consumed
+     * @return the names of the shards owned by this instance
+     */
+    @Nonnull
+    public synchronized ImmutableSet<String> balance(final @Nonnull Collection<String> shardNames) {
+        final Instant now = clock.instant();
+        final Instant expiresAt = now.plus(leaseDuration);
+        createMissingLeases(shardNames);
+
+        final List<ShardLease> leases = leaseStore.getLeases(channelName)
+                .stream()
+                .filter(lease -> shardNames.contains(lease.getShardName()))
+                .collect(toList());
+        finishedShards = leases.stream()
+                .filter(ShardLease::isFinished)
+                .map(ShardLease::getShardName)
+                .collect(ImmutableSet.toImmutableSet());
+        final List<ShardLease> activeLeases = leases.stream()
+                .filter(lease -> !lease.isFinished())
+                .collect(toList());
+
+        final Map<String, ShardLease> owned = new LinkedHashMap<>();
+        // renew own leases:
+        activeLeases.stream()
+                .filter(lease -> lease.getOwner().map(ownerId::equals).orElse(false))
+                .forEach(lease -> tryUpdate(lease, withPendingCheckpoint(lease.withOwner(ownerId, expiresAt)), owned));
+
+        final Set<String> liveOwners = new HashSet<>();
+        liveOwners.add(ownerId);
+        activeLeases.stream()
+                .filter(lease -> !lease.isAvailable(now))
+                .forEach(lease -> liveOwners.add(lease.getOwner().get()));
+        final int target = (activeLeases.size() + liveOwners.size() - 1) / liveOwners.size();
+
+        // take over available leases:
+        for (final ShardLease lease : activeLeases) {
+            if (owned.size() >= target) {
+                break;
+            }
+            if (!owned.containsKey(lease.getShardName()) && lease.isAvailable(now)) {
+                tryUpdate(lease, lease.withOwner(ownerId, expiresAt), owned);
+            }
+        }
+
+        // steal a single lease of the instance with the most leases:
+        if (owned.size() < target) {
+            final Map<String, Long> leasesPerOwner = activeLeases.stream()
+                    .filter(lease -> !lease.isAvailable(now) && !lease.getOwner().get().equals(ownerId))
+                    .map(lease -> lease.getOwner().get())
+                    .collect(groupingBy(identity(), counting()));
+            leasesPerOwner.entrySet().stream()
+                    .filter(entry -> entry.getValue() > target)
+                    .max(comparingLong(Map.Entry::getValue))
+                    .flatMap(mostLoaded -> activeLeases.stream()
+                            .filter(lease -> lease.isOwnedBy(mostLoaded.getKey(), now))
+                            .findFirst())
+                    .ifPresent(lease -> {
+                        LOG.info("Stealing lease of shard {}/{} from {}", channelName, lease.getShardName(), lease.getOwner().orElse(""));
+                        tryUpdate(lease, lease.withOwner(ownerId, expiresAt), owned);
+                    });
+        }
+
+        final Set<String> lost = new HashSet<>(ownedLeases.keySet());
+        lost.removeAll(owned.keySet());
+        if (!lost.isEmpty()) {
+            LOG.info("Lost leases of shards {} of channel {}", lost, channelName);
+            lost.forEach(pendingCheckpoints::remove);
+        }
+        ownedLeases = owned;
+        return ImmutableSet.copyOf(owned.keySet());
+    }
+
+    /**
+     * Returns the names of the shards owned by this instance, as determined by the last call to
+     * {@link #balance(Collection)}.
+     *
+     * @return set of shard names
+     */
+    @Nonnull
+    public ImmutableSet<String> getOwnedShards() {
+        return ImmutableSet.copyOf(ownedLeases.keySet());
+    }
+
+    /**
+     * Returns the names of the shards that are closed and completely processed by any instance.
+     *
+     * @return set of shard names
+     */
+    @Nonnull
+    public ImmutableSet<String> getFinishedShards() {
+        return ImmutableSet.copyOf(finishedShards);
+    }
+
+    /**
+     * Returns the checkpoint stored in the lease of an owned shard.
+     *
+     * @param shardName the name of the shard
+     * @return optional ShardPosition, or empty if the shard is not owned, or no checkpoint was stored yet
+     */
+    @Nonnull
+    public Optional<ShardPosition> getCheckpoint(final @Nonnull String shardName) {
+        final ShardLease lease = ownedLeases.get(shardName);
+        return lease != null ? lease.getCheckpoint() : Optional.empty();
+    }
+
+    /**
+     * Records the position of the last processed message of a shard. The position is persisted on the next
+     * renewal of the lease.
+     *
+     * @param shardPosition the position of the last processed message
+     */
+    public void checkpoint(final @Nonnull ShardPosition shardPosition) {
+        if (ownedLeases.containsKey(shardPosition.shardName())) {
+            pendingCheckpoints.put(shardPosition.shardName(), shardPosition);
+        }
+    }
+
+    /**
+     * Marks a closed shard as finished, after all messages of the shard were processed, so the children of the
+     * shard can be consumed by all instances.
+     *
+     * @param shardPosition the position of the last message of the shard
+     */
+    public synchronized void finish(final @Nonnull ShardPosition shardPosition) {
+        final ShardLease lease = ownedLeases.get(shardPosition.shardName());
+        if (lease != null && leaseStore.compareAndSet(lease, lease.withCheckpoint(shardPosition).finished())) {
+            final Map<String, ShardLease> owned = new LinkedHashMap<>(ownedLeases);
+            owned.remove(shardPosition.shardName());
+            ownedLeases = owned;
+            pendingCheckpoints.remove(shardPosition.shardName());
+            finishedShards = ImmutableSet.<String>builder().addAll(finishedShards).add(shardPosition.shardName()).build();
+        }
+    }
+
+    /**
+     * Persists the recorded checkpoints and releases all leases owned by this instance, so other instances are
+     * able to take over the shards immediately.
+     */
+    public synchronized void releaseAll() {
+        ownedLeases.values().forEach(lease -> {
+            if (!leaseStore.compareAndSet(lease, withPendingCheckpoint(lease.released()))) {
+                LOG.warn("Unable to release lease of shard {}/{}: lease was modified concurrently", channelName, lease.getShardName());
+            }
+        });
+        ownedLeases = new LinkedHashMap<>();
+        pendingCheckpoints.clear();
+    }
+
+    private void createMissingLeases(final Collection<String> shardNames) {
+        final Set<String> existing = new HashSet<>();
+        leaseStore.getLeases(channelName).forEach(lease -> existing.add(lease.getShardName()));
+        shardNames.stream()
+                .filter(shardName -> !existing.contains(shardName))
+                .forEach(shardName -> leaseStore.compareAndSet(null, ShardLease.unownedLease(channelName, shardName)));
+    }
+
+    private ShardLease withPendingCheckpoint(final ShardLease lease) {
+        final ShardPosition checkpoint = pendingCheckpoints.get(lease.getShardName());
+        return checkpoint != null ? lease.withCheckpoint(checkpoint) : lease;
+    }
+
+    private void tryUpdate(final ShardLease expected, final ShardLease update, final Map<String, ShardLease> owned) {
+        if (leaseStore.compareAndSet(expected, update)) {
+            owned.put(update.getShardName(), update);
+        } else {
+            LOG.debug("Lease of shard {}/{} was modified concurrently", channelName, expected.getShardName());
+        }
+    }
+}
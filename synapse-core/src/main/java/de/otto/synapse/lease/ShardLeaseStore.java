@@ -0,0 +1,35 @@
+package de.otto.synapse.lease;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.List;
+
+/**
+ * Stores the {@link ShardLease leases} of the shards of channels, shared by all instances of a service.
+ * <p>
+ *     Implementations must update leases atomically using optimistic locking: a lease is only replaced, if the
+ *     stored lease has the same version as the lease that was read before by the caller.
+ * </p>
+ *
+ * @see ShardLeaseCoordinator
+ */
+public interface ShardLeaseStore {
+
+    /**
+     * Returns all leases of a channel.
+     *
+     * @param channelName the name of the channel
+     * @return list of leases
+     */
+    @Nonnull
+    List<ShardLease> getLeases(@Nonnull String channelName);
+
+    /**
+     * Replaces the lease of a shard, if the stored lease has the same version as the {@code expected} lease.
+     *
+     * @param expected the lease read before by the caller, or null if there is no lease for the shard yet
+     * @param update the new lease
+     * @return true if the lease was replaced, false if the lease was modified concurrently
+     */
+    boolean compareAndSet(@Nullable ShardLease expected, @Nonnull ShardLease update);
+}
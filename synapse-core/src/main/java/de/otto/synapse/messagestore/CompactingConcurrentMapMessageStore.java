@@ -1,11 +1,18 @@
 package de.otto.synapse.messagestore;
 
 import de.otto.synapse.channel.ChannelPosition;
+import de.otto.synapse.info.StorageMetrics;
+import de.otto.synapse.info.StorageMetricsProvider;
 import de.otto.synapse.message.Message;
+import de.otto.synapse.state.AutoGrowingChronicleMap;
+import de.otto.synapse.state.ChronicleMapMetrics;
+import net.openhft.chronicle.map.ChronicleMap;
 import net.openhft.chronicle.map.ChronicleMapBuilder;
 
+import javax.annotation.Nonnull;
 import javax.annotation.concurrent.ThreadSafe;
 import java.io.Serializable;
+import java.util.Iterator;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.atomic.AtomicReference;
@@ -13,6 +20,8 @@ import java.util.stream.Stream;
 
 import static de.otto.synapse.channel.ChannelPosition.fromHorizon;
 import static de.otto.synapse.channel.ChannelPosition.merge;
+import static de.otto.synapse.info.StorageMetrics.estimatedStringSize;
+import static de.otto.synapse.info.StorageMetrics.storageMetricsBuilder;
 
 /**
  * Concurrent implementation of a MessageStore that is compacting messages by {@link Message#getKey() key}.
@@ -24,13 +33,20 @@ import static de.otto.synapse.channel.ChannelPosition.merge;
  *     can be stored off-heap, so large numbers of messages can be stored in memory, without getting problems
  *     with Java garbage-collecting.
  * </p>
+ * <p>
+ *     By default, an {@link AutoGrowingChronicleMap} is used, so the store is growing with the number of
+ *     messages of the channel.
+ * </p>
  */
 @ThreadSafe
-public class CompactingConcurrentMapMessageStore implements WritableMessageStore {
+public class CompactingConcurrentMapMessageStore implements WritableMessageStore, StorageMetricsProvider {
 
     private static final int DEFAULT_KEY_SIZE_BYTES = 128;
     private static final double DEFAULT_VALUE_SIZE_BYTES = 512;
     private static final long DEFAULT_ENTRY_COUNT = 1_000_00;
+    private static final int SAMPLE_SIZE = 1000;
+    // Node of the ConcurrentSkipListSet plus the expected share of index nodes:
+    private static final long KEY_OVERHEAD_BYTES = 40;
 
     private final ConcurrentSkipListSet<String> compactedAndOrderedKeys = new ConcurrentSkipListSet<>();
     private final ConcurrentMap<String, Serializable> messages;
@@ -42,11 +58,10 @@ public class CompactingConcurrentMapMessageStore implements WritableMessageStore
     }
 
     public CompactingConcurrentMapMessageStore(final boolean removeNullPayloadMessages) {
-        this(removeNullPayloadMessages, ChronicleMapBuilder.of(String.class, Serializable.class)
+        this(removeNullPayloadMessages, new AutoGrowingChronicleMap<>(ChronicleMapBuilder.of(String.class, Serializable.class)
                 .averageKeySize(DEFAULT_KEY_SIZE_BYTES)
-                .averageValueSize(DEFAULT_VALUE_SIZE_BYTES)
-                .entries(DEFAULT_ENTRY_COUNT)
-                .create());
+                .averageValueSize(DEFAULT_VALUE_SIZE_BYTES),
+                DEFAULT_ENTRY_COUNT));
     }
 
     public CompactingConcurrentMapMessageStore(final boolean removeNullPayloadMessages,
@@ -94,4 +109,37 @@ public class CompactingConcurrentMapMessageStore implements WritableMessageStore
     public int size() {
         return messages.size();
     }
+
+    /**
+     * Returns the metrics of the message map, if it is a ChronicleMap, together with an estimation of the on-heap
+     * memory used by the ordered set of keys.
+     *
+     * @return StorageMetrics
+     */
+    @Nonnull
+    @Override
+    public StorageMetrics getStorageMetrics() {
+        final StorageMetrics.Builder metrics;
+        if (messages instanceof StorageMetricsProvider) {
+            metrics = storageMetricsBuilder(((StorageMetricsProvider) messages).getStorageMetrics());
+        } else if (messages instanceof ChronicleMap) {
+            metrics = storageMetricsBuilder(ChronicleMapMetrics.storageMetricsOf((ChronicleMap<?, ?>) messages, 0));
+        } else {
+            metrics = storageMetricsBuilder().withEntryCount(messages.size());
+        }
+        return metrics
+                .withEstimatedOnHeapBytes(estimatedKeyBytes())
+                .build();
+    }
+
+    private long estimatedKeyBytes() {
+        long sampleBytes = 0;
+        int sampleCount = 0;
+        final Iterator<String> keys = compactedAndOrderedKeys.iterator();
+        while (keys.hasNext() && sampleCount < SAMPLE_SIZE) {
+            sampleBytes += KEY_OVERHEAD_BYTES + estimatedStringSize(keys.next());
+            ++sampleCount;
+        }
+        return sampleCount > 0 ? messages.size() * sampleBytes / sampleCount : 0;
+    }
 }
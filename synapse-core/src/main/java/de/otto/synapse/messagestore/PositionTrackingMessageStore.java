@@ -0,0 +1,53 @@
+package de.otto.synapse.messagestore;
+
+import de.otto.synapse.channel.ChannelPosition;
+import de.otto.synapse.consumer.PositionTrackingMessageConsumer;
+import de.otto.synapse.eventsource.DefaultEventSource;
+import de.otto.synapse.message.Message;
+
+import javax.annotation.Nonnull;
+import java.util.stream.Stream;
+
+/**
+ * A {@link MessageStore} that is {@link PositionTrackingMessageConsumer#startAt(ChannelPosition) starting} a
+ * {@link PositionTrackingMessageConsumer} at the {@link #getLatestChannelPosition() latest position} of the
+ * delegate, after the messages of the store have been consumed.
+ * <p>
+ *     Intended to be used with a {@link DefaultEventSource} that is not overlapping the replay of the snapshot
+ *     with the consumption of the message log, as the DefaultEventSource is requesting the latest position after
+ *     the stream of messages was consumed completely, and before the consumption of the message log is started.
+ * </p>
+ */
+public class PositionTrackingMessageStore implements MessageStore {
+
+    private final MessageStore delegate;
+    private final PositionTrackingMessageConsumer positionTracker;
+
+    public PositionTrackingMessageStore(final @Nonnull MessageStore delegate,
+                                        final @Nonnull PositionTrackingMessageConsumer positionTracker) {
+        this.delegate = delegate;
+        this.positionTracker = positionTracker;
+    }
+
+    @Override
+    public ChannelPosition getLatestChannelPosition() {
+        final ChannelPosition position = delegate.getLatestChannelPosition();
+        positionTracker.startAt(position);
+        return position;
+    }
+
+    @Override
+    public Stream<Message<String>> stream() {
+        return delegate.stream();
+    }
+
+    @Override
+    public int size() {
+        return delegate.size();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+}
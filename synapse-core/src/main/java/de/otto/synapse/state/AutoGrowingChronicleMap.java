@@ -0,0 +1,772 @@
+package de.otto.synapse.state;
+
+import de.otto.synapse.info.StorageMetrics;
+import de.otto.synapse.info.StorageMetricsProvider;
+import net.openhft.chronicle.hash.ChronicleHashClosedException;
+import net.openhft.chronicle.map.ChronicleMap;
+import net.openhft.chronicle.map.ChronicleMapBuilder;
+import net.openhft.chronicle.map.ExternalMapQueryContext;
+import net.openhft.chronicle.map.MapEntry;
+import org.slf4j.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.Closeable;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * A {@link ConcurrentMap} backed by a {@link ChronicleMap} that is transparently replaced by a larger ChronicleMap,
+ * if the number of entries is outgrowing the configured capacity.
+ * <p>
+ *     ChronicleMaps must be sized upfront using the expected number of entries and the average sizes of keys and
+ *     values. If these estimations are too small, the map is degrading or throwing an {@link IllegalStateException}
+ *     when new entries are added. Before a modification is applied, the AutoGrowingChronicleMap is checking every
+ *     {@value #FREE_SPACE_CHECK_INTERVAL} modifications whether the ChronicleMap has no
+ *     {@link ChronicleMap#remainingAutoResizes() remaining auto-resizes} and its
+ *     {@link ChronicleMap#percentageFreeSpace() free space} is below {@code 1 - maxFillRatio}, and every
+ *     {@value #CHECK_INTERVAL} modifications whether the fill ratio exceeds {@code maxFillRatio}. In both cases, the
+ *     map starts growing in the background.
+ * </p>
+ * <p>
+ *     The new map is sized using the average key- and value-sizes sampled from the existing entries, so bad
+ *     guesses of the initial sizes are corrected on the first growth. The entries are copied into the new map by
+ *     the growth executor, segment by segment. Meanwhile, reads and modifications are still applied to the previous
+ *     map, and every modified key is mirrored to the new map while the key is locked in the previous map. As soon as
+ *     all entries are copied, the new map replaces the previous one, which is closed afterwards. Only this swap is
+ *     blocking modifications.
+ * </p>
+ * <p>
+ *     If the ChronicleMap is nevertheless rejecting a modification because of its capacity, the modification is
+ *     waiting until the map has grown, and is retried afterwards. A rejection is detected using the remaining
+ *     auto-resizes of the map; the messages of the exceptions thrown by ChronicleMap are only a fallback.
+ * </p>
+ * <p>
+ *     Iterations are not affected by a growth of the map: scans, {@link #forEach(BiConsumer)} and iterators over
+ *     {@link #keySet()} or {@link #entrySet()} are pinning the map they started with, and the previous map is kept
+ *     open until all of them have finished. Iterators are released when they are exhausted, or when they are
+ *     garbage-collected. An iteration does not see modifications applied after the map has grown.
+ * </p>
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+@ThreadSafe
+public class AutoGrowingChronicleMap<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>, Closeable, StorageMetricsProvider {
+
+    private static final Logger LOG = getLogger(AutoGrowingChronicleMap.class);
+
+    static final int CHECK_INTERVAL = 1024;
+    static final int FREE_SPACE_CHECK_INTERVAL = 64;
+    private static final int SAMPLE_SIZE = 1000;
+    private static final double DEFAULT_MAX_FILL_RATIO = 0.9;
+    private static final double DEFAULT_GROWTH_FACTOR = 2.0;
+    /** The number of times the map is grown, before a modification that is still rejected is failing. */
+    static final int MAX_GROWTHS_PER_MODIFICATION = 3;
+
+    private final ChronicleMapBuilder<K, V> mapBuilder;
+    private final double maxFillRatio;
+    private final double growthFactor;
+    private final Executor growthExecutor;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicLong modificationCount = new AtomicLong();
+    private final AtomicInteger growthCount = new AtomicInteger();
+    private final AtomicInteger activeScans = new AtomicInteger();
+    private final List<ChronicleMap<K, V>> retiredMaps = new ArrayList<>();
+    private final Set<IteratorPin> iteratorPins = ConcurrentHashMap.newKeySet();
+    private final ReferenceQueue<Object> abandonedIterators = new ReferenceQueue<>();
+    private volatile ChronicleMap<K, V> chronicleMap;
+    private volatile long entries;
+    /** The growth in progress, or null. Only changed while holding the write lock. */
+    private volatile Growth growth;
+
+    /**
+     * Creates an AutoGrowingChronicleMap.
+     *
+     * @param mapBuilder prototype of the builder used to create the ChronicleMaps. The builder is cloned for every
+     *                   new map and configured with the number of entries and the average key- and value-size.
+     * @param initialEntries the number of entries of the initial map
+     */
+    public AutoGrowingChronicleMap(final @Nonnull ChronicleMapBuilder<K, V> mapBuilder,
+                                   final long initialEntries) {
+        this(mapBuilder, initialEntries, DEFAULT_MAX_FILL_RATIO, DEFAULT_GROWTH_FACTOR);
+    }
+
+    /**
+     * Creates an AutoGrowingChronicleMap.
+     *
+     * @param mapBuilder prototype of the builder used to create the ChronicleMaps. The builder is cloned for every
+     *                   new map and configured with the number of entries and the average key- and value-size.
+     * @param initialEntries the number of entries of the initial map
+     * @param maxFillRatio the ratio of size and configured entries that is triggering the growth of the map.
+     * @param growthFactor the factor used to calculate the number of entries of the next map.
+     */
+    public AutoGrowingChronicleMap(final @Nonnull ChronicleMapBuilder<K, V> mapBuilder,
+                                   final long initialEntries,
+                                   final double maxFillRatio,
+                                   final double growthFactor) {
+        this(mapBuilder, initialEntries, maxFillRatio, growthFactor, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates an AutoGrowingChronicleMap.
+     *
+     * @param mapBuilder prototype of the builder used to create the ChronicleMaps. The builder is cloned for every
+     *                   new map and configured with the number of entries and the average key- and value-size.
+     * @param initialEntries the number of entries of the initial map
+     * @param maxFillRatio the ratio of size and configured entries that is triggering the growth of the map.
+     * @param growthFactor the factor used to calculate the number of entries of the next map.
+     * @param growthExecutor the executor used to copy the entries into the next map.
+     */
+    public AutoGrowingChronicleMap(final @Nonnull ChronicleMapBuilder<K, V> mapBuilder,
+                                   final long initialEntries,
+                                   final double maxFillRatio,
+                                   final double growthFactor,
+                                   final @Nonnull Executor growthExecutor) {
+        if (growthFactor <= 1.0) {
+            throw new IllegalArgumentException("growthFactor must be greater than 1.0");
+        }
+        this.mapBuilder = mapBuilder;
+        this.maxFillRatio = maxFillRatio;
+        this.growthFactor = growthFactor;
+        this.growthExecutor = growthExecutor;
+        this.entries = initialEntries;
+        this.chronicleMap = mapBuilder.clone().entries(initialEntries).create();
+    }
+
+    /**
+     * Returns the number of entries the current ChronicleMap was configured with.
+     *
+     * @return capacity of the current map
+     */
+    public long getEntries() {
+        return entries;
+    }
+
+    /**
+     * Returns the ratio of the number of entries and the configured capacity of the current ChronicleMap.
+     *
+     * @return fill ratio
+     */
+    public double getFillRatio() {
+        return (double) longSize() / entries;
+    }
+
+    /**
+     * Returns the number of times the map has grown.
+     *
+     * @return growth count
+     */
+    public int getGrowthCount() {
+        return growthCount.get();
+    }
+
+    /**
+     * Returns the number of off-heap bytes used by the current ChronicleMap, including extra segment tiers
+     * allocated by ChronicleMap itself.
+     *
+     * @return off-heap memory in bytes
+     */
+    public long offHeapMemoryUsed() {
+        return withReadLock(ChronicleMap::offHeapMemoryUsed);
+    }
+
+    /**
+     * Returns the metrics of the current ChronicleMap.
+     *
+     * @return StorageMetrics
+     */
+    @Nonnull
+    @Override
+    public StorageMetrics getStorageMetrics() {
+        return withReadLock(map -> ChronicleMapMetrics.storageMetricsOf(map, entries));
+    }
+
+    public long longSize() {
+        return withReadLock(ChronicleMap::longSize);
+    }
+
+    @Override
+    public int size() {
+        return withReadLock(ChronicleMap::size);
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        return withReadLock(map -> map.containsKey(key));
+    }
+
+    @Override
+    public V get(final Object key) {
+        return withReadLock(map -> map.get(key));
+    }
+
+    @Override
+    public V put(final K key, final V value) {
+        return modify(key, map -> map.put(key, value));
+    }
+
+    @Override
+    public V putIfAbsent(final @Nonnull K key, final V value) {
+        return modify(key, map -> map.putIfAbsent(key, value));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(final Object key) {
+        return modify((K) key, map -> map.remove(key));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean remove(final @Nonnull Object key, final Object value) {
+        return modify((K) key, map -> map.remove(key, value));
+    }
+
+    @Override
+    public boolean replace(final @Nonnull K key, final @Nonnull V oldValue, final @Nonnull V newValue) {
+        return modify(key, map -> map.replace(key, oldValue, newValue));
+    }
+
+    @Override
+    public V replace(final @Nonnull K key, final @Nonnull V value) {
+        return modify(key, map -> map.replace(key, value));
+    }
+
+    @Override
+    public V compute(final K key, final BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        return modify(key, map -> map.compute(key, (k, v) -> remapping(() -> remappingFunction.apply(k, v))));
+    }
+
+    @Override
+    public V computeIfAbsent(final K key, final Function<? super K, ? extends V> mappingFunction) {
+        return modify(key, map -> map.computeIfAbsent(key, k -> remapping(() -> mappingFunction.apply(k))));
+    }
+
+    @Override
+    public V computeIfPresent(final K key, final BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        return modify(key, map -> map.computeIfPresent(key, (k, v) -> remapping(() -> remappingFunction.apply(k, v))));
+    }
+
+    @Override
+    public V merge(final K key, final V value, final BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        return modify(key, map -> map.merge(key, value, (v1, v2) -> remapping(() -> remappingFunction.apply(v1, v2))));
+    }
+
+    @Override
+    public void clear() {
+        withReadLock(map -> {
+            map.clear();
+            final Growth current = growth;
+            if (current != null) {
+                // clearing the next map could remove entries added concurrently, so the keys are mirrored instead:
+                final Spliterator<Entry<K, V>> nextEntries = new ChronicleMapSegmentSpliterator<>(current.next);
+                nextEntries.forEachRemaining(entry -> current.mirror(entry.getKey()));
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void forEach(final BiConsumer<? super K, ? super V> action) {
+        scan(map -> {
+            map.forEach(action);
+            return null;
+        });
+    }
+
+    @Override
+    @Nonnull
+    public Set<Entry<K, V>> entrySet() {
+        return new EntrySetView();
+    }
+
+    @Override
+    @Nonnull
+    public Set<K> keySet() {
+        return new KeySetView();
+    }
+
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            if (growth != null) {
+                growth.next.close();
+                growth.completion.complete(null);
+                growth = null;
+            }
+            chronicleMap.close();
+            synchronized (retiredMaps) {
+                retiredMaps.forEach(ChronicleMap::close);
+                retiredMaps.clear();
+            }
+            iteratorPins.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Applies the scan to the current ChronicleMap. If the map is growing during the scan, the previous map is closed
+     * after all scans have finished, so the scan is not failing but does not see modifications applied after the
+     * growth.
+     *
+     * @param scan function scanning the entries of the map
+     * @param <R> the type of the result
+     * @return result of the scan
+     */
+    <R> R scan(final Function<ChronicleMap<K, V>, R> scan) {
+        final ChronicleMap<K, V> map = pin();
+        try {
+            return scan.apply(map);
+        } finally {
+            unpin();
+        }
+    }
+
+    /**
+     * Returns the current ChronicleMap, that is kept open until {@link #unpin()} is called, even if the map is
+     * growing in the meantime.
+     */
+    private ChronicleMap<K, V> pin() {
+        releaseAbandonedIterators();
+        lock.readLock().lock();
+        try {
+            activeScans.incrementAndGet();
+            return chronicleMap;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void unpin() {
+        synchronized (retiredMaps) {
+            if (activeScans.decrementAndGet() == 0) {
+                retiredMaps.forEach(ChronicleMap::close);
+                retiredMaps.clear();
+            }
+        }
+    }
+
+    /**
+     * Releases the pins of iterators that were garbage-collected before they were exhausted.
+     */
+    private void releaseAbandonedIterators() {
+        Reference<?> reference;
+        while ((reference = abandonedIterators.poll()) != null) {
+            ((IteratorPin) reference).release();
+        }
+    }
+
+    private <R> R withReadLock(final Function<ChronicleMap<K, V>, R> function) {
+        lock.readLock().lock();
+        try {
+            return function.apply(chronicleMap);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private <R> R modify(final K key, final Function<ChronicleMap<K, V>, R> modification) {
+        final long modifications = modificationCount.incrementAndGet();
+        if (modifications % FREE_SPACE_CHECK_INTERVAL == 0 && growth == null) {
+            final int generation = growthCount.get();
+            if (withReadLock(this::isRunningOutOfSpace)) {
+                startGrowth(generation);
+            }
+        }
+        int growths = 0;
+        while (true) {
+            final int generation;
+            R result = null;
+            RuntimeException rejection = null;
+            lock.readLock().lock();
+            try {
+                generation = growthCount.get();
+                try {
+                    result = modification.apply(chronicleMap);
+                } catch (final RemappingFunctionException e) {
+                    throw e.failure;
+                } catch (final IllegalStateException | IllegalArgumentException e) {
+                    if (!isRejectedByCapacity(chronicleMap, e)) {
+                        throw e;
+                    }
+                    rejection = e;
+                }
+                if (rejection == null) {
+                    final Growth current = growth;
+                    if (current != null) {
+                        current.mirror(key);
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            if (rejection != null) {
+                if (++growths > MAX_GROWTHS_PER_MODIFICATION) {
+                    throw rejection;
+                }
+                LOG.warn("ChronicleMap rejected modification: {}", rejection.getMessage());
+                startGrowth(generation).join();
+            } else {
+                if (modifications % CHECK_INTERVAL == 0 && growth == null && getFillRatio() > maxFillRatio) {
+                    startGrowth(generation);
+                }
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Applies a function passed by the caller of a modification, so exceptions thrown by the function are not
+     * mistaken for a rejection of the modification by the ChronicleMap.
+     */
+    private static <T> T remapping(final Supplier<T> function) {
+        try {
+            return function.get();
+        } catch (final RuntimeException e) {
+            throw new RemappingFunctionException(e);
+        }
+    }
+
+    /**
+     * Returns true, if ChronicleMap is no longer able to allocate extra segment tiers, and the free space of the
+     * allocated tiers is below {@code 1 - maxFillRatio}, so the map must grow before new entries are rejected.
+     */
+    private boolean isRunningOutOfSpace(final ChronicleMap<K, V> map) {
+        return map.remainingAutoResizes() == 0
+                && map.percentageFreeSpace() < (1.0 - maxFillRatio) * 100;
+    }
+
+    /**
+     * Returns true, if the exception is thrown by the ChronicleMap because all segment tiers are allocated, or if
+     * the exception is recognized as a capacity exception by its message. {@link ChronicleHashClosedException}s are
+     * not caused by the capacity of the map.
+     */
+    private static boolean isRejectedByCapacity(final ChronicleMap<?, ?> map, final RuntimeException e) {
+        return !(e instanceof ChronicleHashClosedException)
+                && (map.remainingAutoResizes() == 0 || isCapacityExceeded(e));
+    }
+
+    /**
+     * Returns true, if the exception is thrown by the ChronicleMap because all segment tiers are allocated, or because
+     * an entry is too large for the configured average sizes. {@link ChronicleHashClosedException}s are not caused by
+     * the capacity of the map.
+     * <p>
+     *     This is only a fallback for rejections that can not be detected using the state of the map, like entries
+     *     that are too large, as it depends on the messages of ChronicleMap 3.14.
+     * </p>
+     */
+    static boolean isCapacityExceeded(final RuntimeException e) {
+        final String message = e.getMessage();
+        return !(e instanceof ChronicleHashClosedException)
+                && message != null
+                && message.contains(" is maximum.")
+                && (message.contains("extra segment tier") || message.contains("too large"));
+    }
+
+    /**
+     * Waits until the growth of the map that is currently in progress has finished.
+     */
+    void awaitGrowth() {
+        final Growth current = growth;
+        if (current != null) {
+            current.completion.join();
+        }
+    }
+
+    /**
+     * Starts growing the map in the background, unless the map is already growing, or has already grown since
+     * {@code expectedGrowthCount} was read.
+     *
+     * @return future that is completed as soon as the growth has finished
+     */
+    private CompletableFuture<Void> startGrowth(final int expectedGrowthCount) {
+        final Growth started;
+        lock.writeLock().lock();
+        try {
+            if (growthCount.get() != expectedGrowthCount) {
+                // some other thread has already grown the map
+                return CompletableFuture.completedFuture(null);
+            }
+            if (growth != null) {
+                return growth.completion;
+            }
+            final ChronicleMap<K, V> previous = chronicleMap;
+            final long size = previous.longSize();
+            final long newEntries = (long) (Math.max(entries, size) * growthFactor);
+            final ChronicleMapBuilder<K, V> builder = mapBuilder.clone().entries(newEntries);
+            sampleAverageSizes(previous, builder);
+            LOG.warn("ChronicleMap with {} of {} entries is filling up. Growing to {} entries.", size, entries, newEntries);
+            started = new Growth(previous, builder.create(), newEntries);
+            growth = started;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        try {
+            growthExecutor.execute(() -> copy(started));
+        } catch (final RejectedExecutionException e) {
+            LOG.warn("Growth executor rejected copying the entries. Copying in the calling thread.");
+            copy(started);
+        }
+        return started.completion;
+    }
+
+    /**
+     * Copies the entries of the previous map into the next map, and replaces the previous map afterwards.
+     */
+    private void copy(final Growth growing) {
+        try {
+            final Spliterator<Entry<K, V>> previousEntries = new ChronicleMapSegmentSpliterator<>(growing.previous);
+            previousEntries.forEachRemaining(entry -> growing.mirror(entry.getKey()));
+        } catch (final RuntimeException e) {
+            growing.failure = e;
+        }
+        finishGrowth(growing);
+    }
+
+    private void finishGrowth(final Growth finished) {
+        lock.writeLock().lock();
+        try {
+            if (growth != finished) {
+                // the map was closed in the meantime
+                return;
+            }
+            growth = null;
+            if (finished.failure != null) {
+                LOG.error("Failed to grow ChronicleMap: " + finished.failure.getMessage(), finished.failure);
+                finished.next.close();
+                return;
+            }
+            final ChronicleMap<K, V> previous = chronicleMap;
+            chronicleMap = finished.next;
+            entries = finished.newEntries;
+            growthCount.incrementAndGet();
+            releaseAbandonedIterators();
+            synchronized (retiredMaps) {
+                if (activeScans.get() > 0) {
+                    retiredMaps.add(previous);
+                } else {
+                    previous.close();
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+            finished.completion.complete(null);
+        }
+    }
+
+    private void sampleAverageSizes(final ChronicleMap<K, V> map,
+                                    final ChronicleMapBuilder<K, V> builder) {
+        final long[] sample = new long[3];
+        map.forEachEntryWhile(entry -> {
+            sample[0] += entry.key().size();
+            sample[1] += entry.value().size();
+            return ++sample[2] < SAMPLE_SIZE;
+        });
+        if (sample[2] > 0) {
+            try {
+                builder.averageKeySize(Math.max(1.0, (double) sample[0] / sample[2]));
+                builder.averageValueSize(Math.max(1.0, (double) sample[1] / sample[2]));
+            } catch (final IllegalStateException e) {
+                // constantly sized keys or values can not be configured with an average size
+                LOG.debug("Unable to configure average sizes: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * A growth of the map in progress: the entries of the previous map are copied into the next map in the
+     * background, while modifications are applied to the previous map and mirrored to the next one.
+     */
+    private final class Growth {
+        private final ChronicleMap<K, V> previous;
+        private final ChronicleMap<K, V> next;
+        private final long newEntries;
+        private final CompletableFuture<Void> completion = new CompletableFuture<>();
+        private volatile RuntimeException failure;
+
+        private Growth(final ChronicleMap<K, V> previous,
+                       final ChronicleMap<K, V> next,
+                       final long newEntries) {
+            this.previous = previous;
+            this.next = next;
+            this.newEntries = newEntries;
+        }
+
+        /**
+         * Copies the current value of the key from the previous into the next map, or removes the key from the next
+         * map, if it does not exist in the previous map. The key is locked in the previous map, so the copies of a
+         * key are applied to the next map in the same order as the modifications of the previous map.
+         * <p>
+         *     Failures are not thrown, as the modification of the previous map was already successful. Instead,
+         *     the growth is aborted.
+         * </p>
+         */
+        private void mirror(final K key) {
+            if (failure != null) {
+                return;
+            }
+            try (ExternalMapQueryContext<K, V, ?> context = previous.queryContext(key)) {
+                context.updateLock().lock();
+                final MapEntry<K, V> entry = context.entry();
+                if (entry != null) {
+                    next.put(key, entry.value().getUsing(null));
+                } else {
+                    next.remove(key);
+                }
+            } catch (final RuntimeException e) {
+                failure = e;
+            }
+        }
+    }
+
+    /**
+     * Wraps exceptions thrown by the functions passed by the caller of a modification.
+     */
+    private static final class RemappingFunctionException extends RuntimeException {
+        private final RuntimeException failure;
+
+        private RemappingFunctionException(final RuntimeException failure) {
+            super(null, failure, false, false);
+            this.failure = failure;
+        }
+    }
+
+    private class KeySetView extends AbstractSet<K> {
+        @Override
+        @Nonnull
+        public Iterator<K> iterator() {
+            final ChronicleMap<K, V> map = pin();
+            return new PinnedIterator<>(map.keySet().iterator(), key -> key);
+        }
+
+        @Override
+        public void forEach(final Consumer<? super K> action) {
+            AutoGrowingChronicleMap.this.forEach((key, value) -> action.accept(key));
+        }
+
+        @Override
+        public int size() {
+            return AutoGrowingChronicleMap.this.size();
+        }
+
+        @Override
+        public boolean contains(final Object o) {
+            return containsKey(o);
+        }
+    }
+
+    private class EntrySetView extends AbstractSet<Entry<K, V>> {
+        @Override
+        @Nonnull
+        public Iterator<Entry<K, V>> iterator() {
+            final ChronicleMap<K, V> map = pin();
+            return new PinnedIterator<>(map.entrySet().iterator(), Entry::getKey);
+        }
+
+        @Override
+        public int size() {
+            return AutoGrowingChronicleMap.this.size();
+        }
+    }
+
+    /**
+     * An iterator over a pinned ChronicleMap, releasing the map when the iterator is exhausted. Removals are
+     * applied to the current map.
+     */
+    private final class PinnedIterator<T> implements Iterator<T> {
+        private final Iterator<T> delegate;
+        private final Function<T, K> keyOf;
+        private final IteratorPin pin;
+        private T current;
+
+        private PinnedIterator(final Iterator<T> delegate, final Function<T, K> keyOf) {
+            this.delegate = delegate;
+            this.keyOf = keyOf;
+            this.pin = new IteratorPin(this);
+            iteratorPins.add(pin);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (pin.isReleased()) {
+                return false;
+            }
+            final boolean hasNext = delegate.hasNext();
+            if (!hasNext) {
+                pin.release();
+            }
+            return hasNext;
+        }
+
+        @Override
+        public T next() {
+            if (pin.isReleased()) {
+                throw new NoSuchElementException();
+            }
+            current = delegate.next();
+            return current;
+        }
+
+        @Override
+        public void remove() {
+            if (current == null) {
+                throw new IllegalStateException();
+            }
+            AutoGrowingChronicleMap.this.remove(keyOf.apply(current));
+            current = null;
+        }
+    }
+
+    /**
+     * The pin of a ChronicleMap held by an iterator. The pin is enqueued when the iterator is garbage-collected, so
+     * abandoned iterators are not keeping retired maps open forever.
+     */
+    private final class IteratorPin extends WeakReference<Object> {
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        private IteratorPin(final Object iterator) {
+            super(iterator, abandonedIterators);
+        }
+
+        private boolean isReleased() {
+            return released.get();
+        }
+
+        private void release() {
+            if (released.compareAndSet(false, true)) {
+                iteratorPins.remove(this);
+                unpin();
+            }
+        }
+    }
+}
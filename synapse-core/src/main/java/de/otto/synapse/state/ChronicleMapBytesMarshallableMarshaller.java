@@ -0,0 +1,62 @@
+package de.otto.synapse.state;
+
+import net.openhft.chronicle.bytes.Bytes;
+import net.openhft.chronicle.bytes.BytesMarshallable;
+import net.openhft.chronicle.core.util.ObjectUtils;
+import net.openhft.chronicle.core.util.ReadResolvable;
+import net.openhft.chronicle.hash.serialization.BytesReader;
+import net.openhft.chronicle.hash.serialization.BytesWriter;
+import net.openhft.chronicle.wire.WireIn;
+import net.openhft.chronicle.wire.WireOut;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Marshaller used to (de-)serialize values of a {@link ChronicleMapStateRepository} that are implementing
+ * {@link BytesMarshallable}.
+ * <p>
+ *     The values are responsible to read and write their fields using hand-written code, which is
+ *     by far the fastest way to encode and decode values. If ChronicleMap is providing a {@code using}
+ *     instance, this instance is reused instead of creating a new value.
+ * </p>
+ *
+ * @param <V> the type of the values
+ */
+public final class ChronicleMapBytesMarshallableMarshaller<V extends BytesMarshallable> implements
+        BytesWriter<V>,
+        BytesReader<V>,
+        ReadResolvable<ChronicleMapBytesMarshallableMarshaller> {
+
+    private Class<V> clazz;
+
+    public ChronicleMapBytesMarshallableMarshaller(final Class<V> clazz) {
+        this.clazz = clazz;
+    }
+
+    @Override
+    public V read(Bytes in, V using) {
+        final V value = using != null ? using : ObjectUtils.newInstance(clazz);
+        value.readMarshallable(in);
+        return value;
+    }
+
+    @Override
+    public void write(Bytes out, V toWrite) {
+        toWrite.writeMarshallable(out);
+    }
+
+    @Override
+    public void readMarshallable(@Nonnull WireIn wire) {
+        clazz = wire.read(() -> "valueType").typeLiteral();
+    }
+
+    @Override
+    public void writeMarshallable(@Nonnull WireOut wire) {
+        wire.write(() -> "valueType").typeLiteral(clazz);
+    }
+
+    @Override
+    public ChronicleMapBytesMarshallableMarshaller readResolve() {
+        return this;
+    }
+}
@@ -1,31 +1,106 @@
 package de.otto.synapse.state;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import net.openhft.chronicle.bytes.Bytes;
 import net.openhft.chronicle.core.util.ReadResolvable;
 import net.openhft.chronicle.hash.serialization.BytesReader;
 import net.openhft.chronicle.hash.serialization.BytesWriter;
+import net.openhft.chronicle.wire.WireIn;
+import net.openhft.chronicle.wire.WireOut;
 
+import javax.annotation.Nonnull;
 import java.io.IOException;
 
+/**
+ * Marshaller used to (de-)serialize the values of a {@link ChronicleMapStateRepository} using Jackson.
+ * <p>
+ *     The data format is determined by the {@link JsonFactory} of the ObjectMapper: besides textual JSON,
+ *     the binary formats {@link #smile(Class) Smile} and {@link #cbor(Class) CBOR} are supported. Binary formats
+ *     are considerably faster to decode and require less off-heap memory.
+ * </p>
+ * <p>
+ *     The {@code using} instance provided by ChronicleMap is ignored, as updating an existing instance with Jackson
+ *     would keep stale values of properties that are missing in the serialized value. Use
+ *     {@link ChronicleMapBytesMarshallableMarshaller} if value instances should be reused.
+ * </p>
+ * <p>
+ *     Only marshallers created by {@link #json(Class)}, {@link #smile(Class)} or {@link #cbor(Class)} can be used
+ *     for persistent ChronicleMaps: an ObjectMapper passed to the constructor can not be restored when the
+ *     ChronicleMap is reopened, so reopening such a map fails instead of silently using a different ObjectMapper.
+ * </p>
+ *
+ * @param <V> the type of the values
+ */
 public final class ChronicleMapBytesMarshaller<V> implements
         BytesWriter<V>,
         BytesReader<V>,
         ReadResolvable<ChronicleMapBytesMarshaller> {
 
-    private final ObjectMapper objectMapper;
-    private final Class<V> clazz;
+    private ObjectMapper objectMapper;
+    private Class<V> clazz;
+    private boolean defaultObjectMapper;
+    private transient ObjectReader objectReader;
+    private transient ObjectWriter objectWriter;
 
     public ChronicleMapBytesMarshaller(ObjectMapper objectMapper,
                                        Class<V> clazz) {
+        this(objectMapper, clazz, false);
+    }
+
+    private ChronicleMapBytesMarshaller(final ObjectMapper objectMapper,
+                                        final Class<V> clazz,
+                                        final boolean defaultObjectMapper) {
         this.objectMapper = objectMapper;
         this.clazz = clazz;
+        this.defaultObjectMapper = defaultObjectMapper;
+        initReaderAndWriter();
+    }
+
+    /**
+     * Creates a marshaller using textual JSON.
+     *
+     * @param clazz the type of the values
+     * @param <V> the type of the values
+     * @return ChronicleMapBytesMarshaller
+     */
+    public static <V> ChronicleMapBytesMarshaller<V> json(final Class<V> clazz) {
+        return new ChronicleMapBytesMarshaller<>(objectMapperFor(JsonFactory.FORMAT_NAME_JSON), clazz, true);
+    }
+
+    /**
+     * Creates a marshaller using the binary JSON format <a href="https://github.com/FasterXML/smile-format-specification">Smile</a>.
+     *
+     * @param clazz the type of the values
+     * @param <V> the type of the values
+     * @return ChronicleMapBytesMarshaller
+     */
+    public static <V> ChronicleMapBytesMarshaller<V> smile(final Class<V> clazz) {
+        return new ChronicleMapBytesMarshaller<>(objectMapperFor(SmileFactory.FORMAT_NAME_SMILE), clazz, true);
+    }
+
+    /**
+     * Creates a marshaller using the binary format <a href="http://cbor.io">CBOR</a>.
+     *
+     * @param clazz the type of the values
+     * @param <V> the type of the values
+     * @return ChronicleMapBytesMarshaller
+     */
+    public static <V> ChronicleMapBytesMarshaller<V> cbor(final Class<V> clazz) {
+        return new ChronicleMapBytesMarshaller<>(objectMapperFor(CBORFactory.FORMAT_NAME), clazz, true);
     }
 
     @Override
     public V read(Bytes in, V using) {
         try {
-            return objectMapper.readValue(in.inputStream(), clazz);
+            return objectReader.readValue(in.inputStream());
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -34,14 +109,73 @@ public final class ChronicleMapBytesMarshaller<V> implements
     @Override
     public void write(Bytes out, V toWrite) {
         try {
-            objectMapper.writeValue(out.writer(), toWrite);
+            objectWriter.writeValue(out.outputStream(), toWrite);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Returns true, if the ObjectMapper was created by {@link #json(Class)}, {@link #smile(Class)} or
+     * {@link #cbor(Class)}, so the marshaller can be restored when a persisted ChronicleMap is reopened.
+     *
+     * @return true if the marshaller is restorable, false otherwise
+     */
+    public boolean isRestorable() {
+        return defaultObjectMapper;
+    }
+
+    /**
+     * Restores the marshaller from the header of a persisted ChronicleMap.
+     * <p>
+     *     Only the value type and the data format are stored in the header; the ObjectMapper is re-created with
+     *     all modules found on the classpath, just like the ObjectMapper created by {@link #json(Class)}.
+     * </p>
+     *
+     * @param wire the wire used to read the marshaller configuration
+     * @throws IllegalStateException if the map was persisted using a marshaller with a caller-supplied ObjectMapper
+     */
+    @Override
+    public void readMarshallable(@Nonnull WireIn wire) {
+        clazz = wire.read(() -> "valueType").typeLiteral();
+        final String format = wire.read(() -> "format").text();
+        defaultObjectMapper = wire.read(() -> "defaultObjectMapper").bool();
+        if (!defaultObjectMapper) {
+            throw new IllegalStateException("Unable to restore the ObjectMapper of a persisted ChronicleMap with values of type "
+                    + clazz.getName() + ": the map was created using a caller-supplied ObjectMapper");
+        }
+        objectMapper = objectMapperFor(format);
+        initReaderAndWriter();
+    }
+
+    @Override
+    public void writeMarshallable(@Nonnull WireOut wire) {
+        wire.write(() -> "valueType").typeLiteral(clazz);
+        wire.write(() -> "format").text(objectMapper.getFactory().getFormatName());
+        wire.write(() -> "defaultObjectMapper").bool(defaultObjectMapper);
+    }
+
     @Override
     public ChronicleMapBytesMarshaller readResolve() {
         return this;
     }
+
+    private void initReaderAndWriter() {
+        objectReader = objectMapper.readerFor(clazz).without(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+        objectWriter = objectMapper.writerFor(clazz).without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    }
+
+    private static ObjectMapper objectMapperFor(final String formatName) {
+        final ObjectMapper objectMapper;
+        if (SmileFactory.FORMAT_NAME_SMILE.equals(formatName)) {
+            objectMapper = new ObjectMapper(new SmileFactory());
+        } else if (CBORFactory.FORMAT_NAME.equals(formatName)) {
+            objectMapper = new ObjectMapper(new CBORFactory());
+        } else {
+            objectMapper = new ObjectMapper();
+        }
+        objectMapper.findAndRegisterModules();
+        objectMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        return objectMapper;
+    }
 }
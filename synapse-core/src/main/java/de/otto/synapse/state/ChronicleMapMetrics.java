@@ -0,0 +1,57 @@
+package de.otto.synapse.state;
+
+import de.otto.synapse.info.StorageMetrics;
+import net.openhft.chronicle.map.ChronicleMap;
+import net.openhft.chronicle.map.MapSegmentContext;
+
+import static de.otto.synapse.info.StorageMetrics.storageMetricsBuilder;
+
+/**
+ * Calculates the {@link StorageMetrics} of a {@link ChronicleMap}.
+ */
+public final class ChronicleMapMetrics {
+
+    private static final int SAMPLE_SIZE = 1000;
+
+    private ChronicleMapMetrics() {
+    }
+
+    /**
+     * Calculates the metrics of the map. The average sizes of keys and values are sampled from up to
+     * {@value #SAMPLE_SIZE} entries; the fill of every segment is determined by briefly locking the segment.
+     *
+     * @param map the ChronicleMap
+     * @param configuredEntries the number of entries the map was configured with, or 0 if unknown
+     * @return StorageMetrics
+     */
+    public static StorageMetrics storageMetricsOf(final ChronicleMap<?, ?> map,
+                                                  final long configuredEntries) {
+        final long[] sample = new long[3];
+        map.forEachEntryWhile(entry -> {
+            sample[0] += entry.key().size();
+            sample[1] += entry.value().size();
+            return ++sample[2] < SAMPLE_SIZE;
+        });
+        final double averageKeySize = sample[2] > 0 ? (double) sample[0] / sample[2] : Double.NaN;
+        final double averageValueSize = sample[2] > 0 ? (double) sample[1] / sample[2] : Double.NaN;
+        final long entryCount = map.longSize();
+        final int segments = map.segments();
+        long maxSegmentSize = 0;
+        for (int segment = 0; segment < segments; segment++) {
+            try (MapSegmentContext<?, ?, ?> context = map.segmentContext(segment)) {
+                maxSegmentSize = Math.max(maxSegmentSize, context.size());
+            }
+        }
+        return storageMetricsBuilder()
+                .withEntryCount(entryCount)
+                .withOffHeapBytesAllocated(map.offHeapMemoryUsed())
+                .withOffHeapBytesUsed(sample[2] > 0 ? (long) (entryCount * (averageKeySize + averageValueSize)) : 0)
+                .withAverageKeySize(averageKeySize)
+                .withAverageValueSize(averageValueSize)
+                .withSegments(segments)
+                .withFillRatio(configuredEntries > 0 ? (double) entryCount / configuredEntries : Double.NaN)
+                .withMaxSegmentFillRatio(configuredEntries > 0 ? (double) maxSegmentSize * segments / configuredEntries : Double.NaN)
+                .withEstimatedOnHeapBytes(0)
+                .build();
+    }
+}
@@ -0,0 +1,96 @@
+package de.otto.synapse.state;
+
+import net.openhft.chronicle.map.ChronicleMap;
+import net.openhft.chronicle.map.MapSegmentContext;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * A {@link Spliterator} over the entries of a {@link ChronicleMap} that is partitioning the map by segments.
+ * <p>
+ *     Splitting is halving the range of segments, so a parallel scan is processing up to
+ *     {@link ChronicleMap#segments()} partitions without contention. The entries of a segment are copied while
+ *     the segment is locked, so actions are performed without holding the lock and may modify the map.
+ * </p>
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+class ChronicleMapSegmentSpliterator<K, V> implements Spliterator<Map.Entry<K, V>> {
+
+    private final ChronicleMap<K, V> map;
+    private int segment;
+    private int endSegment;
+    private Iterator<Map.Entry<K, V>> segmentEntries = Collections.emptyIterator();
+
+    ChronicleMapSegmentSpliterator(final ChronicleMap<K, V> map) {
+        this(map, 0, map.segments());
+    }
+
+    private ChronicleMapSegmentSpliterator(final ChronicleMap<K, V> map,
+                                           final int segment,
+                                           final int endSegment) {
+        this.map = map;
+        this.segment = segment;
+        this.endSegment = endSegment;
+    }
+
+    @Override
+    public boolean tryAdvance(final Consumer<? super Map.Entry<K, V>> action) {
+        while (!segmentEntries.hasNext()) {
+            if (segment >= endSegment) {
+                return false;
+            }
+            segmentEntries = readSegment(segment++).iterator();
+        }
+        action.accept(segmentEntries.next());
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(final Consumer<? super Map.Entry<K, V>> action) {
+        segmentEntries.forEachRemaining(action);
+        while (segment < endSegment) {
+            readSegment(segment++).forEach(action);
+        }
+    }
+
+    @Override
+    public Spliterator<Map.Entry<K, V>> trySplit() {
+        final int remainingSegments = endSegment - segment;
+        if (remainingSegments < 2) {
+            return null;
+        }
+        final int splitSegment = segment + remainingSegments / 2;
+        final Spliterator<Map.Entry<K, V>> split = new ChronicleMapSegmentSpliterator<>(map, splitSegment, endSegment);
+        endSegment = splitSegment;
+        return split;
+    }
+
+    @Override
+    public long estimateSize() {
+        return map.longSize() * (endSegment - segment) / Math.max(1, map.segments());
+    }
+
+    @Override
+    public int characteristics() {
+        return CONCURRENT | DISTINCT | NONNULL;
+    }
+
+    private List<Map.Entry<K, V>> readSegment(final int segmentIndex) {
+        final List<Map.Entry<K, V>> entries = new ArrayList<>();
+        try (MapSegmentContext<K, V, ?> context = map.segmentContext(segmentIndex)) {
+            context.forEachSegmentEntry(entry -> entries.add(new SimpleImmutableEntry<>(
+                    entry.key().getUsing(null),
+                    entry.value().getUsing(null))));
+        }
+        return entries;
+    }
+}
@@ -1,15 +1,35 @@
 package de.otto.synapse.state;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import de.otto.synapse.channel.ChannelPosition;
+import de.otto.synapse.checkpoint.ChannelPositionCodec;
+import de.otto.synapse.info.StorageMetrics;
+import de.otto.synapse.info.StorageMetricsProvider;
+import net.openhft.chronicle.bytes.Bytes;
 import net.openhft.chronicle.hash.ChronicleHashClosedException;
+import net.openhft.chronicle.hash.serialization.BytesReader;
+import net.openhft.chronicle.hash.serialization.BytesWriter;
 import net.openhft.chronicle.map.ChronicleMap;
 import net.openhft.chronicle.map.ChronicleMapBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Spliterator;
+import java.util.function.Consumer;
 
-public class ChronicleMapStateRepository<V> extends StateRepository<V> {
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+public class ChronicleMapStateRepository<V> extends StateRepository<V> implements AutoCloseable, StorageMetricsProvider {
 
     private static final Logger LOG = LoggerFactory.getLogger(ChronicleMapStateRepository.class);
 
@@ -17,8 +37,30 @@ public class ChronicleMapStateRepository<V> extends StateRepository<V> {
     private static final double DEFAULT_VALUE_SIZE_BYTES = 512;
     private static final long DEFAULT_ENTRY_COUNT = 1_000_00;
 
-    private ChronicleMapStateRepository(ChronicleMap<String, V> chronicleMap) {
+    private static final String CHANNEL_POSITION_FILE_SUFFIX = ".position";
+    private static final int CHANNEL_POSITION_FILE_VERSION = 1;
+
+    private final ChronicleMap<String, V> chronicleMap;
+    private final AutoGrowingChronicleMap<String, V> autoGrowingMap;
+    private final long entries;
+    private final File persistenceFile;
+
+    private ChronicleMapStateRepository(final ChronicleMap<String, V> chronicleMap,
+                                        final long entries,
+                                        final @Nullable File persistenceFile) {
         super(chronicleMap);
+        this.chronicleMap = chronicleMap;
+        this.autoGrowingMap = null;
+        this.entries = entries;
+        this.persistenceFile = persistenceFile;
+    }
+
+    private ChronicleMapStateRepository(final AutoGrowingChronicleMap<String, V> autoGrowingMap) {
+        super(autoGrowingMap);
+        this.chronicleMap = null;
+        this.autoGrowingMap = autoGrowingMap;
+        this.entries = 0;
+        this.persistenceFile = null;
     }
 
     @Override
@@ -53,6 +95,160 @@ public class ChronicleMapStateRepository<V> extends StateRepository<V> {
         }
     }
 
+    /**
+     * Returns true, if the repository was {@link Builder#withPersistenceFile(File) persisted to a file}, so
+     * the state survives restarts of the application.
+     *
+     * @return true if persistent, false otherwise
+     */
+    public boolean isPersistent() {
+        return persistenceFile != null;
+    }
+
+    /**
+     * Atomically stores the {@link ChannelPosition} of the last message applied to the repository in a file
+     * next to the persisted ChronicleMap.
+     * <p>
+     *     The position is written to a temporary file that is moved to its final location afterwards, so a
+     *     crash will never leave a partially written position behind. The file is starting with a version
+     *     header, followed by the position encoded using the {@link ChannelPositionCodec}.
+     * </p>
+     *
+     * @param channelPosition the position of the last message applied to the repository
+     * @throws IllegalStateException if the repository is not persistent
+     */
+    public void persistChannelPosition(final @Nonnull ChannelPosition channelPosition) {
+        if (!isPersistent()) {
+            throw new IllegalStateException("Unable to persist ChannelPosition of a non-persistent ChronicleMapStateRepository");
+        }
+        final Path positionFile = channelPositionFile();
+        final Path tempFile = positionFile.resolveSibling(positionFile.getFileName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                out.writeInt(CHANNEL_POSITION_FILE_VERSION);
+                ChannelPositionCodec.write(channelPosition, out);
+            }
+            Files.move(tempFile, positionFile, ATOMIC_MOVE, REPLACE_EXISTING);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the {@link ChannelPosition} previously stored using {@link #persistChannelPosition(ChannelPosition)},
+     * if the position was written at or after the given point in time.
+     *
+     * @param notBefore positions written before this timestamp are ignored
+     * @return optional ChannelPosition, or empty if there is no (recent) persisted position
+     */
+    public Optional<ChannelPosition> getPersistedChannelPosition(final @Nonnull Instant notBefore) {
+        if (!isPersistent()) {
+            return Optional.empty();
+        }
+        final Path positionFile = channelPositionFile();
+        try {
+            if (!Files.isReadable(positionFile)
+                    || Files.getLastModifiedTime(positionFile).toInstant().isBefore(notBefore)) {
+                return Optional.empty();
+            }
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(positionFile)))) {
+                final int version = in.readInt();
+                if (version != CHANNEL_POSITION_FILE_VERSION) {
+                    LOG.warn("Ignoring persisted ChannelPosition in {}: unsupported version {}", positionFile, version);
+                    return Optional.empty();
+                }
+                return Optional.of(ChannelPositionCodec.read(in));
+            }
+        } catch (final IOException | RuntimeException e) {
+            LOG.warn("Unable to read persisted ChannelPosition from {}: {}", positionFile, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Returns the ratio of the number of entries and the configured capacity of the ChronicleMap.
+     * <p>
+     *     Values near or above 1.0 indicate that the map is outgrowing its configuration: fixed-size maps
+     *     will start to reject new entries, while {@link Builder#withAutoGrowth() auto-growing} maps are about
+     *     to grow.
+     * </p>
+     *
+     * @return fill ratio, or {@code NaN} if the capacity of a {@link Builder#withMapBuilder(ChronicleMapBuilder) custom}
+     * ChronicleMapBuilder is unknown
+     */
+    public double getFillRatio() {
+        if (autoGrowingMap != null) {
+            return autoGrowingMap.getFillRatio();
+        }
+        return entries > 0 ? (double) chronicleMap.longSize() / entries : Double.NaN;
+    }
+
+    /**
+     * Returns the number of off-heap bytes used by the ChronicleMap. The value is increasing whenever
+     * ChronicleMap is allocating extra tiers for overflowing segments, or when an auto-growing map is growing.
+     *
+     * @return off-heap memory in bytes
+     */
+    public long getOffHeapMemoryUsed() {
+        return autoGrowingMap != null
+                ? autoGrowingMap.offHeapMemoryUsed()
+                : chronicleMap.offHeapMemoryUsed();
+    }
+
+    /**
+     * Returns the number of times an {@link Builder#withAutoGrowth() auto-growing} repository was rolled over to
+     * a larger ChronicleMap.
+     *
+     * @return growth count, always 0 for fixed-size repositories
+     */
+    public int getGrowthCount() {
+        return autoGrowingMap != null ? autoGrowingMap.getGrowthCount() : 0;
+    }
+
+    /**
+     * Returns the metrics of the ChronicleMap, including the observed average sizes of keys and values, so the
+     * sizing of the repository can be verified.
+     *
+     * @return StorageMetrics
+     */
+    @Nonnull
+    @Override
+    public StorageMetrics getStorageMetrics() {
+        return autoGrowingMap != null
+                ? autoGrowingMap.getStorageMetrics()
+                : ChronicleMapMetrics.storageMetricsOf(chronicleMap, entries);
+    }
+
+    /**
+     * Partitions the entries by ChronicleMap segment, so parallel scans are not contending on segment locks.
+     *
+     * @param scan consumer of the spliterator
+     */
+    @Override
+    protected void scanEntries(final Consumer<Spliterator<Map.Entry<String, V>>> scan) {
+        if (autoGrowingMap != null) {
+            autoGrowingMap.scan(map -> {
+                scan.accept(new ChronicleMapSegmentSpliterator<>(map));
+                return null;
+            });
+        } else {
+            scan.accept(new ChronicleMapSegmentSpliterator<>(chronicleMap));
+        }
+    }
+
+    @Override
+    public void close() {
+        if (autoGrowingMap != null) {
+            autoGrowingMap.close();
+        } else {
+            chronicleMap.close();
+        }
+    }
+
+    private Path channelPositionFile() {
+        return new File(persistenceFile.getPath() + CHANNEL_POSITION_FILE_SUFFIX).toPath();
+    }
+
     public static <V> Builder<V> chronicleMapConcurrentMapStateRepositoryBuilder(Class<V> clazz) {
         return new Builder<>(clazz);
     }
@@ -63,6 +259,14 @@ public class ChronicleMapStateRepository<V> extends StateRepository<V> {
 
         private final Class<V> clazz;
         private ChronicleMapBuilder<String, V> chronicleMapBuilder;
+        private File persistenceFile;
+        private BytesReader<V> valueReader;
+        private BytesWriter<V> valueWriter;
+        private long entries = DEFAULT_ENTRY_COUNT;
+        private double averageKeySize = DEFAULT_KEY_SIZE_BYTES;
+        private double averageValueSize = DEFAULT_VALUE_SIZE_BYTES;
+        private Map<String, V> sizingSample;
+        private boolean autoGrowth;
 
         private Builder(Class<V> clazz) {
             this.clazz = clazz;
@@ -78,24 +282,175 @@ public class ChronicleMapStateRepository<V> extends StateRepository<V> {
             return this;
         }
 
+        /**
+         * Configures the expected number of entries. Defaults to 100,000 entries.
+         *
+         * @param val number of entries
+         * @return this
+         */
+        public Builder<V> withEntries(long val) {
+            entries = val;
+            return this;
+        }
+
+        /**
+         * Configures the average size of the keys in bytes. Defaults to 128 bytes.
+         *
+         * @param val average key size
+         * @return this
+         */
+        public Builder<V> withAverageKeySize(double val) {
+            averageKeySize = val;
+            return this;
+        }
+
+        /**
+         * Configures the average size of the marshalled values in bytes. Defaults to 512 bytes.
+         *
+         * @param val average value size
+         * @return this
+         */
+        public Builder<V> withAverageValueSize(double val) {
+            averageValueSize = val;
+            return this;
+        }
+
+        /**
+         * Derives the average key- and value-sizes from a sample of real entries, for example taken from the
+         * latest snapshot of the channel. The values are encoded using the configured value marshaller, so the
+         * measured sizes are matching the sizes of the entries in the ChronicleMap.
+         *
+         * @param val sample entries
+         * @return this
+         */
+        public Builder<V> withSizingSample(Map<String, V> val) {
+            sizingSample = val;
+            return this;
+        }
+
+        /**
+         * Transparently rolls over to a larger ChronicleMap, if the repository is outgrowing the configured
+         * number of entries. The larger map is sized using the average sizes of the existing entries.
+         * <p>
+         *     Auto-growth is not supported in combination with {@link #withPersistenceFile(File)}.
+         * </p>
+         *
+         * @return this
+         * @see AutoGrowingChronicleMap
+         */
+        public Builder<V> withAutoGrowth() {
+            autoGrowth = true;
+            return this;
+        }
+
+        /**
+         * Configures the marshaller used to encode and decode values. By default, values are encoded as JSON using
+         * {@link ChronicleMapBytesMarshaller}. Other options are, for example, {@link ChronicleMapBytesMarshaller#smile(Class)},
+         * {@link ChronicleMapBytesMarshaller#cbor(Class)} or {@link ChronicleMapBytesMarshallableMarshaller}.
+         * <p>
+         *     Marshallers of persistent repositories are stored in the persistence file, so they must implement
+         *     {@code readMarshallable} and {@code writeMarshallable}.
+         * </p>
+         *
+         * @param val the value marshaller
+         * @param <M> the type of the marshaller
+         * @return this
+         */
+        public <M extends BytesReader<V> & BytesWriter<V>> Builder<V> withValueMarshaller(M val) {
+            valueReader = val;
+            valueWriter = val;
+            return this;
+        }
+
+        /**
+         * Persists the ChronicleMap to the given file instead of creating a purely in-memory map. If the file
+         * already exists, the state of the previous run is recovered from the file.
+         * <p>
+         *     The value marshaller is stored in the file and restored when the file is reopened, so an ObjectMapper
+         *     configured using {@link #withObjectMapper(ObjectMapper)} is not supported: values are encoded using
+         *     {@link ChronicleMapBytesMarshaller#json(Class)}, unless a different marshaller is configured.
+         * </p>
+         *
+         * @param val the file used to persist the state
+         * @return this
+         */
+        public Builder<V> withPersistenceFile(File val) {
+            persistenceFile = val;
+            return this;
+        }
+
         public ChronicleMapStateRepository<V> build() {
+            if (autoGrowth && persistenceFile != null) {
+                throw new IllegalStateException("Auto-growth is not supported for persistent ChronicleMapStateRepositories");
+            }
+
+            boolean doesClassNeedToBeSerialized = clazz != String.class;
+            if (valueReader == null && doesClassNeedToBeSerialized) {
+                final ChronicleMapBytesMarshaller<V> marshaller;
+                if (persistenceFile != null && objectMapper == null) {
+                    marshaller = ChronicleMapBytesMarshaller.json(clazz);
+                } else {
+                    marshaller = new ChronicleMapBytesMarshaller<>(objectMapper != null ? objectMapper : new ObjectMapper(), clazz);
+                }
+                valueReader = marshaller;
+                valueWriter = marshaller;
+            }
+            if (persistenceFile != null
+                    && valueReader instanceof ChronicleMapBytesMarshaller
+                    && !((ChronicleMapBytesMarshaller<?>) valueReader).isRestorable()) {
+                throw new IllegalStateException("The ObjectMapper of a persistent ChronicleMapStateRepository can not be restored. "
+                        + "Use ChronicleMapBytesMarshaller.json(), smile() or cbor() instead of a custom ObjectMapper");
+            }
 
+            final long knownEntries;
             if (chronicleMapBuilder == null) {
+                if (sizingSample != null && !sizingSample.isEmpty()) {
+                    sampleAverageSizes();
+                }
                 chronicleMapBuilder = ChronicleMapBuilder.of(String.class, clazz)
-                        .averageKeySize(DEFAULT_KEY_SIZE_BYTES)
-                        .averageValueSize(DEFAULT_VALUE_SIZE_BYTES)
-                        .entries(DEFAULT_ENTRY_COUNT);
+                        .averageKeySize(averageKeySize)
+                        .averageValueSize(averageValueSize)
+                        .entries(entries);
+                knownEntries = entries;
+            } else {
+                knownEntries = 0;
+            }
+            if (valueReader != null) {
+                chronicleMapBuilder.valueMarshallers(valueReader, valueWriter);
             }
 
-            boolean doesClassNeedToBeSerialized = clazz != String.class;
-            if (doesClassNeedToBeSerialized) {
-                if (objectMapper == null) {
-                    objectMapper = new ObjectMapper();
+            if (autoGrowth) {
+                LOG.info("Creating auto-growing ChronicleMapStateRepository with initially {} entries", entries);
+                return new ChronicleMapStateRepository<>(new AutoGrowingChronicleMap<>(chronicleMapBuilder, entries));
+            }
+            if (persistenceFile != null) {
+                try {
+                    LOG.info("Creating ChronicleMapStateRepository persisted to {}", persistenceFile);
+                    return new ChronicleMapStateRepository<>(chronicleMapBuilder.createPersistedTo(persistenceFile), knownEntries, persistenceFile);
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(e);
                 }
-                chronicleMapBuilder.valueMarshaller(new ChronicleMapBytesMarshaller<>(objectMapper, clazz));
             }
+            return new ChronicleMapStateRepository<>(chronicleMapBuilder.create(), knownEntries, null);
+        }
 
-            return new ChronicleMapStateRepository<>(chronicleMapBuilder.create());
+        private void sampleAverageSizes() {
+            long keyBytes = 0;
+            long valueBytes = 0;
+            final Bytes<?> buffer = Bytes.elasticHeapByteBuffer(1024);
+            for (final Map.Entry<String, V> entry : sizingSample.entrySet()) {
+                keyBytes += entry.getKey().getBytes(UTF_8).length;
+                if (valueWriter != null) {
+                    buffer.clear();
+                    valueWriter.write(buffer, entry.getValue());
+                    valueBytes += buffer.writePosition();
+                } else {
+                    valueBytes += entry.getValue().toString().getBytes(UTF_8).length;
+                }
+            }
+            averageKeySize = Math.max(1.0, (double) keyBytes / sizingSample.size());
+            averageValueSize = Math.max(1.0, (double) valueBytes / sizingSample.size());
+            LOG.info("Sized ChronicleMapStateRepository from {} sample entries: averageKeySize={}, averageValueSize={}", sizingSample.size(), averageKeySize, averageValueSize);
         }
     }
 }
@@ -1,10 +1,53 @@
 package de.otto.synapse.state;
 
+import de.otto.synapse.info.StorageMetrics;
+import de.otto.synapse.info.StorageMetricsProvider;
+
+import javax.annotation.Nonnull;
+import java.util.Iterator;
+import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
 
-public class ConcurrentHashMapStateRepository<V> extends StateRepository<V> {
+import static de.otto.synapse.info.StorageMetrics.estimatedStringSize;
+import static de.otto.synapse.info.StorageMetrics.storageMetricsBuilder;
+
+public class ConcurrentHashMapStateRepository<V> extends StateRepository<V> implements StorageMetricsProvider {
+
+    private static final int SAMPLE_SIZE = 1000;
+    // Node of the ConcurrentHashMap plus the slot of the table, that is sized with a load factor of 0.75:
+    private static final long ENTRY_OVERHEAD_BYTES = 32 + 11;
 
     public ConcurrentHashMapStateRepository() {
         super(new ConcurrentHashMap<>());
     }
+
+    /**
+     * Returns an estimation of the on-heap memory used by the repository. The estimation is calculated from a sample
+     * of entries and is accounting for keys and map structures; values are only accounted for, if they are Strings.
+     *
+     * @return StorageMetrics
+     */
+    @Nonnull
+    @Override
+    public StorageMetrics getStorageMetrics() {
+        final long size = size();
+        long sampleBytes = 0;
+        int sampleCount = 0;
+        final Iterator<String> keys = keySet().iterator();
+        while (keys.hasNext() && sampleCount < SAMPLE_SIZE) {
+            final String key = keys.next();
+            final Optional<V> value = get(key);
+            sampleBytes += ENTRY_OVERHEAD_BYTES + estimatedStringSize(key);
+            if (value.isPresent() && value.get() instanceof CharSequence) {
+                sampleBytes += estimatedStringSize((CharSequence) value.get());
+            }
+            ++sampleCount;
+        }
+        return storageMetricsBuilder()
+                .withEntryCount(size)
+                .withOffHeapBytesAllocated(0)
+                .withOffHeapBytesUsed(0)
+                .withEstimatedOnHeapBytes(sampleCount > 0 ? size * sampleBytes / sampleCount : 0)
+                .build();
+    }
 }
@@ -0,0 +1,23 @@
+package de.otto.synapse.state;
+
+/**
+ * Listener that is notified about entries of an {@link ExpiringStateRepository} that have been expired.
+ * <p>
+ *     The listener may, for example, send tombstone messages for the expired keys, so downstream consumers
+ *     are able to remove the entries as well.
+ * </p>
+ *
+ * @param <V> the type of the values
+ */
+@FunctionalInterface
+public interface ExpirationListener<V> {
+
+    /**
+     * Called after an entry was removed from the repository, because it has expired.
+     *
+     * @param key the key of the expired entry
+     * @param value the value of the expired entry
+     */
+    void onExpiration(String key, V value);
+
+}
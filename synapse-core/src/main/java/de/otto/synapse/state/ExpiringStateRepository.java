@@ -0,0 +1,452 @@
+package de.otto.synapse.state;
+
+import com.google.common.collect.Iterators;
+import de.otto.synapse.channel.ChannelPosition;
+import de.otto.synapse.executor.ChannelExecutor;
+import de.otto.synapse.executor.SynapseExecutor;
+import org.slf4j.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * A {@link StateRepository} that is automatically removing entries from another StateRepository after they have
+ * expired.
+ * <p>
+ *     The expiry of an entry is determined whenever the entry is modified, either using a fixed time-to-live, or
+ *     using an {@code expiryFunction} that is calculating the expiry from the key and the value, for example using
+ *     a timestamp contained in the message. Entries without expiry are kept until they are removed.
+ * </p>
+ * <p>
+ *     Expirations are scheduled using a hierarchical timing wheel, so expiring entries has amortized O(1)
+ *     costs per entry and does not require to scan the repository. The wheel is advanced every {@code tick}
+ *     by a task scheduled on the {@link SynapseExecutor}; expired entries are atomically removed from the repository
+ *     and passed to the {@link ExpirationListener}. Until the entries are removed, expired entries are already
+ *     hidden by {@link #get(String)}, {@link #keySet()} and {@link #forEach(BiConsumer)}. {@link #size()} is
+ *     subtracting the number of entries that have been found expired by the timing wheel, but have not yet been
+ *     removed, so it is not scanning the repository either. {@link #size()}, {@link #snapshot() snapshots} and
+ *     lookups of {@link #addIndex(SecondaryIndex) secondary indexes} may still contain entries that have expired
+ *     within the last tick.
+ * </p>
+ * <p>
+ *     Deadlines and a single timer are kept on-heap for every entry with an expiry. Modifying an entry is
+ *     rescheduling its timer, instead of adding another one.
+ * </p>
+ *
+ * @param <V> the type of the values
+ */
+@ThreadSafe
+public class ExpiringStateRepository<V> extends StateRepository<V> implements AutoCloseable {
+
+    private static final Logger LOG = getLogger(ExpiringStateRepository.class);
+    private static final String EXECUTOR_NAME = "synapse-state-expiry";
+
+    private final StateRepository<V> delegate;
+    private final BiFunction<String, V, Optional<Instant>> expiryFunction;
+    private final ExpirationListener<V> expirationListener;
+    private final Clock clock;
+    private final ConcurrentMap<String, Long> deadlines = new ConcurrentHashMap<>();
+    /** Deadlines of expired entries passed by the timing wheel, that have not yet been removed. */
+    private final ConcurrentMap<String, Long> pendingExpirations = new ConcurrentHashMap<>();
+    private final HierarchicalTimingWheel<String> timingWheel;
+    private final ChannelExecutor executor;
+
+    private ExpiringStateRepository(final Builder<V> builder) {
+        // all methods are delegating, so the ConcurrentMap of the super class is not used.
+        super(null);
+        this.delegate = builder.delegate;
+        this.expiryFunction = builder.expiryFunction != null
+                ? builder.expiryFunction
+                : timeToLive(builder.timeToLive, builder.clock);
+        this.expirationListener = builder.expirationListener;
+        this.clock = builder.clock;
+        this.timingWheel = new HierarchicalTimingWheel<>(builder.tick.toMillis(), clock.millis());
+        if (builder.automaticExpiry) {
+            this.executor = builder.synapseExecutor.forChannel(EXECUTOR_NAME);
+            this.executor.scheduleWithFixedDelay(this::expireSafely, builder.tick, builder.tick);
+        } else {
+            this.executor = null;
+        }
+    }
+
+    public static <V> Builder<V> expiringStateRepositoryBuilder(final @Nonnull StateRepository<V> delegate) {
+        return new Builder<>(delegate);
+    }
+
+    @Override
+    public V compute(final String key,
+                     final BiFunction<? super String, ? super Optional<V>, ? extends V> remappingFunction) {
+        return delegate.compute(key, (k, previous) -> {
+            final V value = remappingFunction.apply(k, previous.filter(v -> !isExpired(k)));
+            updateDeadline(k, value);
+            return value;
+        });
+    }
+
+    @Override
+    public V put(final String key, final V value) {
+        final Object[] previousValue = new Object[1];
+        delegate.compute(key, (k, previous) -> {
+            previousValue[0] = previous.orElse(null);
+            updateDeadline(k, value);
+            return value;
+        });
+        @SuppressWarnings("unchecked")
+        final V previous = (V) previousValue[0];
+        return previous;
+    }
+
+    @Override
+    public void remove(final String key) {
+        delegate.compute(key, (k, previous) -> {
+            updateDeadline(k, null);
+            return null;
+        });
+    }
+
+    @Override
+    public void clear() {
+        delegate.clear();
+        deadlines.clear();
+        pendingExpirations.clear();
+        synchronized (timingWheel) {
+            timingWheel.clear();
+        }
+    }
+
+    @Override
+    public Optional<V> get(final String key) {
+        return isExpired(key) ? Optional.empty() : delegate.get(key);
+    }
+
+    /**
+     * Returns a view of the keys of all entries that have not yet expired. The view is backed by the keys of the
+     * delegate, filtering expired keys while iterating.
+     *
+     * @return set of keys
+     */
+    @Override
+    public Set<String> keySet() {
+        final Set<String> keys = delegate.keySet();
+        return new AbstractSet<String>() {
+            @Override
+            @Nonnull
+            public Iterator<String> iterator() {
+                return Iterators.filter(keys.iterator(), key -> !isExpired(key));
+            }
+
+            @Override
+            public boolean contains(final Object key) {
+                return key instanceof String && !isExpired((String) key) && keys.contains(key);
+            }
+
+            @Override
+            public int size() {
+                return (int) Math.min(Integer.MAX_VALUE, ExpiringStateRepository.this.size());
+            }
+        };
+    }
+
+    /**
+     * Returns the number of entries that have not yet been found expired by the timing wheel. Entries that have
+     * expired within the last tick may still be counted.
+     *
+     * @return number of entries
+     */
+    @Override
+    public long size() {
+        advanceTimingWheel();
+        return Math.max(0, delegate.size() - pendingExpirations.size());
+    }
+
+    @Override
+    public void forEach(final BiConsumer<? super String, ? super V> action) {
+        delegate.forEach(unlessExpired(action));
+    }
+
+    @Override
+    public void parallelForEach(final BiConsumer<? super String, ? super V> action,
+                                final ForkJoinPool forkJoinPool) {
+        delegate.parallelForEach(unlessExpired(action), forkJoinPool);
+    }
+
+    @Override
+    public StateSnapshot<V> snapshot() {
+        return delegate.snapshot();
+    }
+
+    @Override
+    public StateSnapshot<V> snapshot(final Supplier<ChannelPosition> channelPosition) {
+        return delegate.snapshot(channelPosition);
+    }
+
+    @Override
+    public void addIndex(final SecondaryIndex<V> index) {
+        delegate.addIndex(index);
+    }
+
+    @Override
+    public Set<String> findKeys(final String indexName, final String indexKey) {
+        return delegate.findKeys(indexName, indexKey);
+    }
+
+    @Override
+    public List<V> findValues(final String indexName, final String indexKey) {
+        return delegate.findValues(indexName, indexKey);
+    }
+
+    /**
+     * Returns the expiry of the entry with the given key.
+     *
+     * @param key the key of the entry
+     * @return expiry, or empty if the entry does not exist or does not expire
+     */
+    public Optional<Instant> getExpiry(final String key) {
+        final Long deadline = deadlines.get(key);
+        return deadline != null ? Optional.of(Instant.ofEpochMilli(deadline)) : Optional.empty();
+    }
+
+    /**
+     * Removes all entries that have been expired and notifies the {@link ExpirationListener}.
+     * <p>
+     *     Called every tick using the SynapseExecutor, unless automatic expiry was disabled.
+     * </p>
+     *
+     * @return the number of expired entries
+     */
+    public int expire() {
+        advanceTimingWheel();
+        int count = 0;
+        for (final Map.Entry<String, Long> pendingExpiration : pendingExpirations.entrySet()) {
+            if (expire(pendingExpiration.getKey(), pendingExpiration.getValue())) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        if (delegate instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) delegate).close();
+            } catch (final RuntimeException e) {
+                throw e;
+            } catch (final Exception e) {
+                throw new IllegalStateException("Failed to close the delegate StateRepository: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Advances the timing wheel and registers the pending expirations of all entries whose timers have been passed.
+     */
+    private void advanceTimingWheel() {
+        final List<Map.Entry<String, Long>> timers = new ArrayList<>();
+        synchronized (timingWheel) {
+            timingWheel.advance(clock.millis(), (key, deadline) -> timers.add(new SimpleImmutableEntry<>(key, deadline)));
+        }
+        // registered outside of the lock, as modifications of the delegate are scheduling new timers:
+        for (final Map.Entry<String, Long> timer : timers) {
+            final long deadline = timer.getValue();
+            deadlines.computeIfPresent(timer.getKey(), (key, current) -> {
+                // the entry may have been modified after the timer was scheduled:
+                if (current == deadline) {
+                    pendingExpirations.put(key, deadline);
+                }
+                return current;
+            });
+        }
+    }
+
+    private boolean expire(final String key, final long deadline) {
+        final Object[] expiredValue = new Object[1];
+        delegate.compute(key, (k, value) -> {
+            final boolean expired = deadlines.remove(k, deadline);
+            pendingExpirations.remove(k, deadline);
+            if (expired && value.isPresent()) {
+                expiredValue[0] = value.get();
+                return null;
+            }
+            return value.orElse(null);
+        });
+        if (expiredValue[0] != null) {
+            @SuppressWarnings("unchecked")
+            final V value = (V) expiredValue[0];
+            expirationListener.onExpiration(key, value);
+            return true;
+        }
+        return false;
+    }
+
+    private void expireSafely() {
+        try {
+            final int expired = expire();
+            if (expired > 0) {
+                LOG.debug("Expired {} entries", expired);
+            }
+        } catch (final RuntimeException e) {
+            LOG.error("Failed to expire entries: " + e.getMessage(), e);
+        }
+    }
+
+    private static <V> BiFunction<String, V, Optional<Instant>> timeToLive(final Duration timeToLive, final Clock clock) {
+        return timeToLive != null
+                ? (key, value) -> Optional.of(clock.instant().plus(timeToLive))
+                : (key, value) -> Optional.empty();
+    }
+
+    private BiConsumer<String, V> unlessExpired(final BiConsumer<? super String, ? super V> action) {
+        return (key, value) -> {
+            if (!isExpired(key)) {
+                action.accept(key, value);
+            }
+        };
+    }
+
+    private boolean isExpired(final String key) {
+        final Long deadline = deadlines.get(key);
+        return deadline != null && deadline <= clock.millis();
+    }
+
+    /**
+     * Called from within the atomic modification of an entry.
+     */
+    private void updateDeadline(final String key, final V value) {
+        final Optional<Instant> expiry = value != null ? expiryFunction.apply(key, value) : Optional.empty();
+        final Long deadline = expiry.map(Instant::toEpochMilli).orElse(null);
+        final boolean[] changed = new boolean[1];
+        deadlines.compute(key, (k, previousDeadline) -> {
+            if (!Objects.equals(deadline, previousDeadline)) {
+                // the entry is not expiring with its previous deadline anymore:
+                pendingExpirations.remove(k);
+                changed[0] = true;
+            }
+            return deadline;
+        });
+        if (changed[0]) {
+            // rescheduling is replacing the previous timer of the key, so timers are not piling up:
+            synchronized (timingWheel) {
+                if (deadline != null) {
+                    timingWheel.schedule(key, deadline);
+                } else {
+                    timingWheel.cancel(key);
+                }
+            }
+        }
+    }
+
+    public static final class Builder<V> {
+
+        private final StateRepository<V> delegate;
+        private Duration timeToLive;
+        private BiFunction<String, V, Optional<Instant>> expiryFunction;
+        private ExpirationListener<V> expirationListener = (key, value) -> {};
+        private Duration tick = Duration.ofSeconds(1);
+        private Clock clock = Clock.systemDefaultZone();
+        private boolean automaticExpiry = true;
+        private SynapseExecutor synapseExecutor;
+
+        private Builder(final StateRepository<V> delegate) {
+            this.delegate = delegate;
+        }
+
+        /**
+         * Expires entries after a fixed time-to-live after the last modification.
+         *
+         * @param val time-to-live
+         * @return this
+         */
+        public Builder<V> withTimeToLive(final Duration val) {
+            timeToLive = val;
+            return this;
+        }
+
+        /**
+         * Determines the expiry of entries using a function of key and value. Entries are not expiring, if the
+         * function returns {@code Optional.empty()}. Takes precedence over {@link #withTimeToLive(Duration)}.
+         *
+         * @param val the expiry function
+         * @return this
+         */
+        public Builder<V> withExpiryFunction(final BiFunction<String, V, Optional<Instant>> val) {
+            expiryFunction = val;
+            return this;
+        }
+
+        public Builder<V> withExpirationListener(final ExpirationListener<V> val) {
+            expirationListener = val;
+            return this;
+        }
+
+        /**
+         * Configures the resolution of the timing wheel. Expired entries are removed at most one tick after they
+         * have expired. Defaults to one second.
+         *
+         * @param val duration of a tick
+         * @return this
+         */
+        public Builder<V> withTick(final Duration val) {
+            tick = val;
+            return this;
+        }
+
+        public Builder<V> withClock(final Clock val) {
+            clock = val;
+            return this;
+        }
+
+        /**
+         * Configures the executor used to remove expired entries every tick. Defaults to the
+         * {@link SynapseExecutor#defaultExecutor() default SynapseExecutor}.
+         *
+         * @param val the executor
+         * @return this
+         */
+        public Builder<V> withSynapseExecutor(final SynapseExecutor val) {
+            synapseExecutor = val;
+            return this;
+        }
+
+        /**
+         * Disables the automatic removal of expired entries. Expired entries must be removed by calling
+         * {@link ExpiringStateRepository#expire()}.
+         *
+         * @return this
+         */
+        public Builder<V> withoutAutomaticExpiry() {
+            automaticExpiry = false;
+            return this;
+        }
+
+        public ExpiringStateRepository<V> build() {
+            if (automaticExpiry && synapseExecutor == null) {
+                synapseExecutor = SynapseExecutor.defaultExecutor();
+            }
+            return new ExpiringStateRepository<>(this);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package de.otto.synapse.state;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * A hierarchical timing wheel used to schedule expirations with amortized O(1) insertion and expiry.
+ * <p>
+ *     The wheel consists of {@value #LEVELS} levels of {@value #SLOTS} slots each. A slot of level 0 spans one tick,
+ *     a slot of level {@code n} spans {@code 64^n} ticks. Items are inserted into the lowest level covering their
+ *     deadline. Whenever the slots of a level have been passed completely, the next slot of the level above is
+ *     cascaded down into the lower levels. Deadlines beyond the range of the wheel are kept in the highest level and
+ *     re-inserted when their slot is cascaded.
+ * </p>
+ * <p>
+ *     Every item has at most one timer: scheduling an item again is unlinking its timer from its current slot
+ *     in O(1) before it is re-inserted, so rescheduled items are not leaving stale timers behind.
+ * </p>
+ *
+ * @param <T> the type of the scheduled items
+ */
+@NotThreadSafe
+class HierarchicalTimingWheel<T> {
+
+    private static final int SLOT_BITS = 6;
+    static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    static final int LEVELS = 4;
+
+    private final long tickMillis;
+    private final List<List<Timer<T>>> levels = new ArrayList<>(LEVELS);
+    private final Map<T, Timer<T>> timers = new HashMap<>();
+    private long currentTick;
+
+    HierarchicalTimingWheel(final long tickMillis, final long startMillis) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tickMillis must be positive");
+        }
+        this.tickMillis = tickMillis;
+        this.currentTick = startMillis / tickMillis;
+        for (int level = 0; level < LEVELS; level++) {
+            final List<Timer<T>> slots = new ArrayList<>(SLOTS);
+            for (int slot = 0; slot < SLOTS; slot++) {
+                slots.add(Timer.emptySlot());
+            }
+            levels.add(slots);
+        }
+    }
+
+    /**
+     * Schedules the item, replacing a timer that was previously scheduled for the same item. Items are expired with
+     * the first tick at or after their deadline; items with deadlines in the past expire with the next tick.
+     *
+     * @param item the item
+     * @param deadlineMillis the deadline in epoch millis
+     */
+    void schedule(final T item, final long deadlineMillis) {
+        Timer<T> timer = timers.get(item);
+        if (timer != null) {
+            timer.unlink();
+            timer.deadlineMillis = deadlineMillis;
+        } else {
+            timer = new Timer<>(item, deadlineMillis);
+            timers.put(item, timer);
+        }
+        // the slot of the current tick has already expired:
+        insert(timer, currentTick + 1);
+    }
+
+    /**
+     * Cancels the timer of the item, if it is scheduled.
+     *
+     * @param item the item
+     */
+    void cancel(final T item) {
+        final Timer<T> timer = timers.remove(item);
+        if (timer != null) {
+            timer.unlink();
+        }
+    }
+
+    /**
+     * Advances the wheel up to the given point in time, passing all items with expired deadlines to the consumer.
+     *
+     * @param nowMillis current time in epoch millis
+     * @param expired consumer of expired items and their deadlines
+     */
+    void advance(final long nowMillis, final BiConsumer<T, Long> expired) {
+        final long targetTick = nowMillis / tickMillis;
+        while (currentTick < targetTick) {
+            ++currentTick;
+            cascade(1);
+            final List<Timer<T>> expiredTimers = slot(0, currentTick).drain();
+            expiredTimers.forEach(timer -> timers.remove(timer.item));
+            expiredTimers.forEach(timer -> expired.accept(timer.item, timer.deadlineMillis));
+        }
+    }
+
+    long size() {
+        return timers.size();
+    }
+
+    void clear() {
+        levels.forEach(slots -> slots.forEach(Timer::drain));
+        timers.clear();
+    }
+
+    private void cascade(final int level) {
+        if (level >= LEVELS || (currentTick & ((1L << (SLOT_BITS * level)) - 1)) != 0) {
+            return;
+        }
+        // cascade higher levels first, so their timers can be moved down into this level:
+        cascade(level + 1);
+        // the slot of the current tick is expired after cascading, so timers can be moved into it:
+        slot(level, currentTick).drain().forEach(timer -> insert(timer, currentTick));
+    }
+
+    private void insert(final Timer<T> timer, final long minTick) {
+        // rounding up guarantees that timers never expire before their deadline:
+        final long deadlineTick = Math.max(Math.floorDiv(timer.deadlineMillis + tickMillis - 1, tickMillis), minTick);
+        final long delta = deadlineTick - currentTick;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+            ++level;
+        }
+        final long tick = level == LEVELS - 1
+                ? Math.min(deadlineTick, currentTick + (1L << (SLOT_BITS * LEVELS)) - 1)
+                : deadlineTick;
+        slot(level, tick).append(timer);
+    }
+
+    private Timer<T> slot(final int level, final long tick) {
+        return levels.get(level).get((int) ((tick >>> (SLOT_BITS * level)) & SLOT_MASK));
+    }
+
+    /**
+     * A timer, linked into the circular doubly-linked list of its slot. Every slot is represented by a sentinel
+     * timer without an item.
+     */
+    private static final class Timer<T> {
+        private final T item;
+        private long deadlineMillis;
+        private Timer<T> previous = this;
+        private Timer<T> next = this;
+
+        private Timer(final T item, final long deadlineMillis) {
+            this.item = item;
+            this.deadlineMillis = deadlineMillis;
+        }
+
+        private static <T> Timer<T> emptySlot() {
+            return new Timer<>(null, 0);
+        }
+
+        private void append(final Timer<T> timer) {
+            timer.previous = previous;
+            timer.next = this;
+            previous.next = timer;
+            previous = timer;
+        }
+
+        private void unlink() {
+            previous.next = next;
+            next.previous = previous;
+            previous = this;
+            next = this;
+        }
+
+        /**
+         * Unlinks all timers from this slot.
+         */
+        private List<Timer<T>> drain() {
+            if (next == this) {
+                return Collections.emptyList();
+            }
+            final List<Timer<T>> timers = new ArrayList<>();
+            while (next != this) {
+                final Timer<T> timer = next;
+                timer.unlink();
+                timers.add(timer);
+            }
+            return timers;
+        }
+    }
+}
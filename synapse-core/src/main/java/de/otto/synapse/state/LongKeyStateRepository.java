@@ -0,0 +1,484 @@
+package de.otto.synapse.state;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.openhft.chronicle.core.values.LongValue;
+import net.openhft.chronicle.hash.serialization.BytesReader;
+import net.openhft.chronicle.hash.serialization.BytesWriter;
+import net.openhft.chronicle.map.ChronicleMap;
+import net.openhft.chronicle.map.ChronicleMapBuilder;
+import net.openhft.chronicle.values.Values;
+import org.slf4j.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+
+import static java.util.Optional.ofNullable;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * An off-heap repository for state with numeric keys, backed by a {@link ChronicleMap} with {@link LongValue} keys.
+ * <p>
+ *     Compared to a {@link ChronicleMapStateRepository} using the String representation of the numbers as keys,
+ *     keys are stored using a constant size of eight bytes and hashing does not require to encode Strings.
+ *     Accessing the repository does not allocate keys: {@code LongValue} instances are reused per thread, and the
+ *     keys of the {@link #asStateRepository() StateRepository view} are parsed without creating intermediate
+ *     Strings. Only iterating the view creates a String for every key.
+ * </p>
+ * <p>
+ *     Messages with numeric keys can be consumed into the repository using a {@link #asStateRepository() StateRepository view}
+ *     of the repository, for example using a {@link de.otto.synapse.consumer.DefaultMessageConsumer}:
+ * </p>
+ * <pre><code>
+ *     new DefaultMessageConsumer&lt;&gt;("[0-9]+", Product.class, longKeyStateRepository.asStateRepository());
+ * </code></pre>
+ *
+ * @param <V> the type of the values
+ */
+@ThreadSafe
+public class LongKeyStateRepository<V> implements AutoCloseable {
+
+    private static final Logger LOG = getLogger(LongKeyStateRepository.class);
+
+    private static final double DEFAULT_VALUE_SIZE_BYTES = 512;
+    private static final long DEFAULT_ENTRY_COUNT = 1_000_00;
+
+    /**
+     * Reusable key instances of the current thread. A stack instead of a single instance per thread, because the
+     * remapping functions of {@code compute} may access the repository again.
+     */
+    private static final ThreadLocal<ArrayDeque<LongValue>> KEYS = ThreadLocal.withInitial(ArrayDeque::new);
+
+    private final ConcurrentMap<LongValue, V> map;
+    private final StateRepository<V> stateRepositoryView;
+
+    private LongKeyStateRepository(final ConcurrentMap<LongValue, V> map) {
+        this.map = map;
+        this.stateRepositoryView = new StateRepository<>(new StringKeyView<>(map));
+    }
+
+    public V compute(final long key,
+                     final BiFunction<? super Long, ? super Optional<V>, ? extends V> remappingFunction) {
+        final LongValue longValue = acquireKey(key);
+        try {
+            return map.compute(longValue, (k, v) -> remappingFunction.apply(key, ofNullable(v)));
+        } finally {
+            releaseKey(longValue);
+        }
+    }
+
+    public V put(final long key, final V value) {
+        final LongValue longValue = acquireKey(key);
+        try {
+            return map.put(longValue, value);
+        } finally {
+            releaseKey(longValue);
+        }
+    }
+
+    public void remove(final long key) {
+        final LongValue longValue = acquireKey(key);
+        try {
+            map.remove(longValue);
+        } finally {
+            releaseKey(longValue);
+        }
+    }
+
+    public void clear() {
+        map.clear();
+    }
+
+    public Optional<V> get(final long key) {
+        final LongValue longValue = acquireKey(key);
+        try {
+            return ofNullable(map.get(longValue));
+        } finally {
+            releaseKey(longValue);
+        }
+    }
+
+    public boolean containsKey(final long key) {
+        final LongValue longValue = acquireKey(key);
+        try {
+            return map.containsKey(longValue);
+        } finally {
+            releaseKey(longValue);
+        }
+    }
+
+    public long size() {
+        return map.size();
+    }
+
+    /**
+     * Performs the given action for each entry of the repository.
+     *
+     * @param action the action performed for every entry
+     */
+    public void forEach(final BiConsumer<Long, ? super V> action) {
+        map.forEach((key, value) -> action.accept(key.getValue(), value));
+    }
+
+    /**
+     * Returns a {@link StateRepository} view of this repository, using the decimal representation of the keys.
+     * <p>
+     *     Keys of the view are parsed as decimal numbers, so consumers like
+     *     {@link de.otto.synapse.consumer.DefaultMessageConsumer} can be used to consume messages with numeric keys
+     *     into the repository. Only the canonical decimal representation of a number is accepted as key, so every
+     *     entry has exactly one key: non-numeric and non-canonical keys, like {@code "+1"}, {@code "007"} or
+     *     {@code "-0"}, are rejected with a {@link NumberFormatException} when entries are modified, and are treated
+     *     as missing when entries are read.
+     * </p>
+     * <p>
+     *     {@link StateRepository#snapshot() Snapshots} and {@link StateRepository#addIndex(SecondaryIndex) indexes} of
+     *     the view are only aware of modifications applied using the view.
+     * </p>
+     *
+     * @return StateRepository
+     */
+    public StateRepository<V> asStateRepository() {
+        return stateRepositoryView;
+    }
+
+    @Override
+    public void close() {
+        if (map instanceof Closeable) {
+            try {
+                ((Closeable) map).close();
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private static LongValue acquireKey(final long key) {
+        LongValue longValue = KEYS.get().poll();
+        if (longValue == null) {
+            longValue = Values.newHeapInstance(LongValue.class);
+        }
+        longValue.setValue(key);
+        return longValue;
+    }
+
+    private static void releaseKey(final LongValue longValue) {
+        KEYS.get().push(longValue);
+    }
+
+    /**
+     * Checks whether the key is the canonical decimal representation of a {@code long}, without allocating:
+     * an optional minus sign followed by digits, without leading zeros, without {@code "-0"} and within the
+     * range of {@code long}.
+     *
+     * @param key the key
+     * @return true, if the key can be parsed using {@link #parseCanonical(String)}
+     */
+    static boolean isCanonical(final String key) {
+        final int length = key.length();
+        final boolean negative = length > 0 && key.charAt(0) == '-';
+        final int start = negative ? 1 : 0;
+        final int digits = length - start;
+        if (digits == 0 || digits > 19) {
+            return false;
+        }
+        if (key.charAt(start) == '0') {
+            return digits == 1 && !negative;
+        }
+        for (int i = start; i < length; ++i) {
+            final char c = key.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        if (digits == 19) {
+            final String limit = negative ? "9223372036854775808" : "9223372036854775807";
+            for (int i = 0; i < 19; ++i) {
+                final char c = key.charAt(start + i);
+                final char l = limit.charAt(i);
+                if (c != l) {
+                    return c < l;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses a key that is known to be {@link #isCanonical(String) canonical}. Digits are accumulated negatively,
+     * so {@link Long#MIN_VALUE} does not overflow.
+     *
+     * @param key the canonical key
+     * @return the number
+     */
+    static long parseCanonical(final String key) {
+        final boolean negative = key.charAt(0) == '-';
+        long result = 0;
+        for (int i = negative ? 1 : 0; i < key.length(); ++i) {
+            result = result * 10 - (key.charAt(i) - '0');
+        }
+        return negative ? result : -result;
+    }
+
+    public static <V> Builder<V> longKeyStateRepositoryBuilder(final Class<V> clazz) {
+        return new Builder<>(clazz);
+    }
+
+    public static final class Builder<V> {
+
+        private final Class<V> clazz;
+        private ObjectMapper objectMapper;
+        private BytesReader<V> valueReader;
+        private BytesWriter<V> valueWriter;
+        private long entries = DEFAULT_ENTRY_COUNT;
+        private double averageValueSize = DEFAULT_VALUE_SIZE_BYTES;
+        private boolean autoGrowth;
+
+        private Builder(final Class<V> clazz) {
+            this.clazz = clazz;
+        }
+
+        public Builder<V> withObjectMapper(final ObjectMapper val) {
+            objectMapper = val;
+            return this;
+        }
+
+        /**
+         * Configures the marshaller used to encode and decode values.
+         *
+         * @param val the value marshaller
+         * @param <M> the type of the marshaller
+         * @return this
+         * @see ChronicleMapStateRepository.Builder#withValueMarshaller(BytesReader)
+         */
+        public <M extends BytesReader<V> & BytesWriter<V>> Builder<V> withValueMarshaller(final M val) {
+            valueReader = val;
+            valueWriter = val;
+            return this;
+        }
+
+        public Builder<V> withEntries(final long val) {
+            entries = val;
+            return this;
+        }
+
+        public Builder<V> withAverageValueSize(final double val) {
+            averageValueSize = val;
+            return this;
+        }
+
+        /**
+         * Transparently rolls over to a larger ChronicleMap, if the repository is outgrowing the configured
+         * number of entries.
+         *
+         * @return this
+         * @see AutoGrowingChronicleMap
+         */
+        public Builder<V> withAutoGrowth() {
+            autoGrowth = true;
+            return this;
+        }
+
+        public LongKeyStateRepository<V> build() {
+            final ChronicleMapBuilder<LongValue, V> chronicleMapBuilder = ChronicleMapBuilder.of(LongValue.class, clazz)
+                    .averageValueSize(averageValueSize);
+            if (valueReader != null) {
+                chronicleMapBuilder.valueMarshallers(valueReader, valueWriter);
+            } else if (clazz != String.class) {
+                if (objectMapper == null) {
+                    objectMapper = new ObjectMapper();
+                }
+                chronicleMapBuilder.valueMarshaller(new ChronicleMapBytesMarshaller<>(objectMapper, clazz));
+            }
+            if (autoGrowth) {
+                LOG.info("Creating auto-growing LongKeyStateRepository with initially {} entries", entries);
+                return new LongKeyStateRepository<>(new AutoGrowingChronicleMap<>(chronicleMapBuilder, entries));
+            }
+            return new LongKeyStateRepository<>(chronicleMapBuilder.entries(entries).create());
+        }
+    }
+
+    /**
+     * ConcurrentMap with String keys, delegating to a map with {@link LongValue} keys.
+     */
+    private static final class StringKeyView<V> extends AbstractMap<String, V> implements ConcurrentMap<String, V> {
+
+        private final ConcurrentMap<LongValue, V> map;
+
+        private StringKeyView(final ConcurrentMap<LongValue, V> map) {
+            this.map = map;
+        }
+
+        @Override
+        public V get(final Object key) {
+            if (!isCanonicalKey(key)) {
+                return null;
+            }
+            final LongValue longValue = acquireKey(parseCanonical((String) key));
+            try {
+                return map.get(longValue);
+            } finally {
+                releaseKey(longValue);
+            }
+        }
+
+        @Override
+        public boolean containsKey(final Object key) {
+            if (!isCanonicalKey(key)) {
+                return false;
+            }
+            final LongValue longValue = acquireKey(parseCanonical((String) key));
+            try {
+                return map.containsKey(longValue);
+            } finally {
+                releaseKey(longValue);
+            }
+        }
+
+        @Override
+        public V put(final String key, final V value) {
+            final LongValue longValue = acquireKey(parse(key));
+            try {
+                return map.put(longValue, value);
+            } finally {
+                releaseKey(longValue);
+            }
+        }
+
+        @Override
+        public V putIfAbsent(final @Nonnull String key, final V value) {
+            final LongValue longValue = acquireKey(parse(key));
+            try {
+                return map.putIfAbsent(longValue, value);
+            } finally {
+                releaseKey(longValue);
+            }
+        }
+
+        @Override
+        public V remove(final Object key) {
+            if (!isCanonicalKey(key)) {
+                return null;
+            }
+            final LongValue longValue = acquireKey(parseCanonical((String) key));
+            try {
+                return map.remove(longValue);
+            } finally {
+                releaseKey(longValue);
+            }
+        }
+
+        @Override
+        public boolean remove(final @Nonnull Object key, final Object value) {
+            if (!isCanonicalKey(key)) {
+                return false;
+            }
+            final LongValue longValue = acquireKey(parseCanonical((String) key));
+            try {
+                return map.remove(longValue, value);
+            } finally {
+                releaseKey(longValue);
+            }
+        }
+
+        @Override
+        public boolean replace(final @Nonnull String key, final @Nonnull V oldValue, final @Nonnull V newValue) {
+            final LongValue longValue = acquireKey(parse(key));
+            try {
+                return map.replace(longValue, oldValue, newValue);
+            } finally {
+                releaseKey(longValue);
+            }
+        }
+
+        @Override
+        public V replace(final @Nonnull String key, final @Nonnull V value) {
+            final LongValue longValue = acquireKey(parse(key));
+            try {
+                return map.replace(longValue, value);
+            } finally {
+                releaseKey(longValue);
+            }
+        }
+
+        @Override
+        public V compute(final String key, final BiFunction<? super String, ? super V, ? extends V> remappingFunction) {
+            final LongValue longValue = acquireKey(parse(key));
+            try {
+                return map.compute(longValue, (k, v) -> remappingFunction.apply(key, v));
+            } finally {
+                releaseKey(longValue);
+            }
+        }
+
+        @Override
+        public void clear() {
+            map.clear();
+        }
+
+        @Override
+        public int size() {
+            return map.size();
+        }
+
+        @Override
+        public void forEach(final BiConsumer<? super String, ? super V> action) {
+            map.forEach((key, value) -> action.accept(Long.toString(key.getValue()), value));
+        }
+
+        @Override
+        @Nonnull
+        public Set<Entry<String, V>> entrySet() {
+            return new AbstractSet<Entry<String, V>>() {
+                @Override
+                @Nonnull
+                public Iterator<Entry<String, V>> iterator() {
+                    final Iterator<Entry<LongValue, V>> iterator = map.entrySet().iterator();
+                    return new Iterator<Entry<String, V>>() {
+                        @Override
+                        public boolean hasNext() {
+                            return iterator.hasNext();
+                        }
+
+                        @Override
+                        public Entry<String, V> next() {
+                            final Entry<LongValue, V> entry = iterator.next();
+                            return new SimpleImmutableEntry<>(Long.toString(entry.getKey().getValue()), entry.getValue());
+                        }
+
+                        @Override
+                        public void remove() {
+                            iterator.remove();
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return map.size();
+                }
+            };
+        }
+
+        private static boolean isCanonicalKey(final Object key) {
+            return key instanceof String && isCanonical((String) key);
+        }
+
+        private static long parse(final String key) {
+            if (!isCanonical(key)) {
+                throw new NumberFormatException("Not a canonical numeric key: \"" + key + "\"");
+            }
+            return parseCanonical(key);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package de.otto.synapse.state;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import de.otto.synapse.channel.ChannelPosition;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+/**
+ * A {@link StateRepository} that is caching decoded values on-heap in front of another, typically off-heap,
+ * StateRepository like {@link ChronicleMapStateRepository}.
+ * <p>
+ *     Reading values from an off-heap repository requires the values to be deserialized on every access. If
+ *     a small number of keys is read very frequently, a bounded near-cache is avoiding most of these
+ *     deserializations. Least-recently used entries are evicted, if the cache is exceeding {@code maximumSize}.
+ * </p>
+ * <p>
+ *     Entries are invalidated on {@link #put(String, Object)}, {@link #remove(String)}, {@link #compute(String, BiFunction)}
+ *     and {@link #clear()}. Values loaded from the delegate are only cached, if no modification of a key of the same
+ *     stripe happened during the lookup, so concurrent writes by a message consumer will never leave stale
+ *     values in the cache. Modifications that are bypassing this repository are not detected.
+ * </p>
+ * <p>
+ *     Cached values are shared between callers and must therefore not be modified.
+ * </p>
+ *
+ * @param <V> the type of the values
+ */
+@ThreadSafe
+public class NearCachingStateRepository<V> extends StateRepository<V> implements AutoCloseable {
+
+    private static final int STRIPES = 64;
+
+    private final StateRepository<V> delegate;
+    private final Cache<String, Optional<V>> cache;
+    private final AtomicLongArray modificationCounters = new AtomicLongArray(STRIPES);
+
+    /**
+     * Creates a NearCachingStateRepository.
+     *
+     * @param delegate the repository holding the state
+     * @param maximumSize the maximum number of cached entries
+     */
+    public NearCachingStateRepository(final @Nonnull StateRepository<V> delegate,
+                                      final long maximumSize) {
+        // all methods are delegating, so the ConcurrentMap of the super class is not used.
+        super(null);
+        this.delegate = delegate;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+    }
+
+    @Override
+    public V compute(final String key,
+                     final BiFunction<? super String, ? super Optional<V>, ? extends V> remappingFunction) {
+        try {
+            return delegate.compute(key, remappingFunction);
+        } finally {
+            invalidate(key);
+        }
+    }
+
+    @Override
+    public V put(final String key, final V value) {
+        try {
+            return delegate.put(key, value);
+        } finally {
+            invalidate(key);
+        }
+    }
+
+    @Override
+    public void remove(final String key) {
+        try {
+            delegate.remove(key);
+        } finally {
+            invalidate(key);
+        }
+    }
+
+    @Override
+    public void clear() {
+        try {
+            delegate.clear();
+        } finally {
+            for (int i = 0; i < STRIPES; i++) {
+                modificationCounters.incrementAndGet(i);
+            }
+            cache.invalidateAll();
+        }
+    }
+
+    @Override
+    public Optional<V> get(final String key) {
+        final Optional<V> cached = cache.getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+        final int stripe = stripeOf(key);
+        final long modificationCount = modificationCounters.get(stripe);
+        final Optional<V> value = delegate.get(key);
+        if (modificationCounters.get(stripe) == modificationCount) {
+            cache.put(key, value);
+            // a concurrent modification may have invalidated the key between the check and the put:
+            if (modificationCounters.get(stripe) != modificationCount) {
+                cache.invalidate(key);
+            }
+        }
+        return value;
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return delegate.keySet();
+    }
+
+    @Override
+    public long size() {
+        return delegate.size();
+    }
+
+    @Override
+    public void forEach(final BiConsumer<? super String, ? super V> action) {
+        delegate.forEach(action);
+    }
+
+    @Override
+    public void parallelForEach(final BiConsumer<? super String, ? super V> action,
+                                final ForkJoinPool forkJoinPool) {
+        delegate.parallelForEach(action, forkJoinPool);
+    }
+
+    @Override
+    public StateSnapshot<V> snapshot() {
+        return delegate.snapshot();
+    }
+
+    @Override
+    public StateSnapshot<V> snapshot(final Supplier<ChannelPosition> channelPosition) {
+        return delegate.snapshot(channelPosition);
+    }
+
+    @Override
+    public void addIndex(final SecondaryIndex<V> index) {
+        delegate.addIndex(index);
+    }
+
+    @Override
+    public Set<String> findKeys(final String indexName, final String indexKey) {
+        return delegate.findKeys(indexName, indexKey);
+    }
+
+    @Override
+    public List<V> findValues(final String indexName, final String indexKey) {
+        return delegate.findValues(indexName, indexKey);
+    }
+
+    /**
+     * Returns the statistics of the near-cache, for example the {@link CacheStats#hitRate() hit rate} and the
+     * number of {@link CacheStats#evictionCount() evictions}.
+     *
+     * @return CacheStats
+     */
+    public CacheStats getNearCacheStats() {
+        return cache.stats();
+    }
+
+    /**
+     * Returns the number of entries currently held in the near-cache.
+     *
+     * @return number of cached entries
+     */
+    public long getNearCacheSize() {
+        return cache.size();
+    }
+
+    @Override
+    public void close() {
+        cache.invalidateAll();
+        if (delegate instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) delegate).close();
+            } catch (final RuntimeException e) {
+                throw e;
+            } catch (final Exception e) {
+                throw new IllegalStateException("Failed to close the delegate StateRepository: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private void invalidate(final String key) {
+        modificationCounters.incrementAndGet(stripeOf(key));
+        cache.invalidate(key);
+    }
+
+    private static int stripeOf(final String key) {
+        return (key.hashCode() & 0x7fffffff) % STRIPES;
+    }
+}
@@ -0,0 +1,166 @@
+package de.otto.synapse.state;
+
+import net.openhft.chronicle.hash.serialization.SetMarshaller;
+import net.openhft.chronicle.hash.serialization.impl.CharSequenceBytesWriter;
+import net.openhft.chronicle.hash.serialization.impl.StringBytesReader;
+import net.openhft.chronicle.map.ChronicleMapBuilder;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+import static java.util.Collections.emptySet;
+
+/**
+ * A secondary index of a {@link StateRepository}, mapping index keys to the keys of the entries in the repository.
+ * <p>
+ *     The index keys of an entry are determined by the {@code extractor} function. For example, an index of all
+ *     products by brand would be using {@code product -> singleton(product.getBrand())}.
+ * </p>
+ * <p>
+ *     After the index was {@link StateRepository#addIndex(SecondaryIndex) added} to a repository, the index is
+ *     updated atomically with every modification of an entry, so lookups using
+ *     {@link StateRepository#findKeys(String, String)} or {@link StateRepository#findValues(String, String)}
+ *     do not need to scan the repository.
+ * </p>
+ * <p>
+ *     The postings (the keys of the entries per index key) are either stored {@link #onHeap(String, Function) on-heap}
+ *     or {@link #offHeap(String, Function, long, double) off-heap} in a ChronicleMap. Off-heap postings must be
+ *     (de-)serialized on every modification, so they are best suited for indexes with many index keys and a
+ *     moderate number of entries per index key.
+ * </p>
+ *
+ * @param <V> the type of the values of the repository
+ */
+@ThreadSafe
+public class SecondaryIndex<V> {
+
+    private final String name;
+    private final Function<? super V, ? extends Collection<String>> extractor;
+    private final ConcurrentMap<String, Set<String>> postings;
+    private final boolean concurrentPostings;
+
+    private SecondaryIndex(final String name,
+                           final Function<? super V, ? extends Collection<String>> extractor,
+                           final ConcurrentMap<String, Set<String>> postings,
+                           final boolean concurrentPostings) {
+        this.name = name;
+        this.extractor = extractor;
+        this.postings = postings;
+        this.concurrentPostings = concurrentPostings;
+    }
+
+    /**
+     * Creates a SecondaryIndex that is keeping the postings on-heap.
+     *
+     * @param name the name of the index
+     * @param extractor function used to extract the index keys from a value
+     * @param <V> the type of the values of the repository
+     * @return SecondaryIndex
+     */
+    public static <V> SecondaryIndex<V> onHeap(final @Nonnull String name,
+                                               final @Nonnull Function<? super V, ? extends Collection<String>> extractor) {
+        return new SecondaryIndex<>(name, extractor, new ConcurrentHashMap<>(), true);
+    }
+
+    /**
+     * Creates a SecondaryIndex that is keeping the postings off-heap in an {@link AutoGrowingChronicleMap}.
+     *
+     * @param name the name of the index
+     * @param extractor function used to extract the index keys from a value
+     * @param expectedIndexKeys the expected number of different index keys
+     * @param averagePostingsSize the expected average size of the serialized keys per index key in bytes
+     * @param <V> the type of the values of the repository
+     * @return SecondaryIndex
+     */
+    @SuppressWarnings("unchecked")
+    public static <V> SecondaryIndex<V> offHeap(final @Nonnull String name,
+                                                final @Nonnull Function<? super V, ? extends Collection<String>> extractor,
+                                                final long expectedIndexKeys,
+                                                final double averagePostingsSize) {
+        final ChronicleMapBuilder<String, Set<String>> builder = ChronicleMapBuilder
+                .of(String.class, (Class<Set<String>>) (Class) Set.class)
+                .averageKeySize(32)
+                .averageValueSize(averagePostingsSize)
+                .valueMarshaller(SetMarshaller.of(new StringBytesReader(), CharSequenceBytesWriter.INSTANCE));
+        return new SecondaryIndex<>(name, extractor, new AutoGrowingChronicleMap<>(builder, expectedIndexKeys), false);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the keys of all entries that are indexed using the given index key.
+     *
+     * @param indexKey the index key
+     * @return unmodifiable set of entry keys
+     */
+    public Set<String> findKeys(final @Nonnull String indexKey) {
+        final Set<String> keys = postings.get(indexKey);
+        return keys != null ? Collections.unmodifiableSet(keys) : emptySet();
+    }
+
+    /**
+     * Returns true if the value is indexed using the given index key.
+     *
+     * @param indexKey the index key
+     * @param value the value
+     * @return boolean
+     */
+    public boolean matches(final @Nonnull String indexKey, final V value) {
+        return value != null && indexKeysOf(value).contains(indexKey);
+    }
+
+    /**
+     * Updates the postings after an entry was modified.
+     *
+     * @param key the key of the entry
+     * @param previousValue the previous value of the entry, or null
+     * @param newValue the new value of the entry, or null if the entry was removed
+     */
+    void update(final String key, final V previousValue, final V newValue) {
+        final Collection<String> previousIndexKeys = indexKeysOf(previousValue);
+        final Collection<String> newIndexKeys = indexKeysOf(newValue);
+        // compute() is used, because the default implementations of other ConcurrentMap methods are not
+        // able to handle postings that are modified in-place after they were deserialized from a ChronicleMap.
+        previousIndexKeys.stream()
+                .filter(indexKey -> !newIndexKeys.contains(indexKey))
+                .forEach(indexKey -> postings.compute(indexKey, (k, keys) -> {
+                    if (keys == null) {
+                        return null;
+                    }
+                    keys.remove(key);
+                    return keys.isEmpty() ? null : keys;
+                }));
+        newIndexKeys.stream()
+                .filter(indexKey -> !previousIndexKeys.contains(indexKey))
+                .forEach(indexKey -> postings.compute(indexKey, (k, keys) -> {
+                    final Set<String> result = keys != null ? keys : newPostings();
+                    result.add(key);
+                    return result;
+                }));
+    }
+
+    void clear() {
+        postings.clear();
+    }
+
+    private Set<String> newPostings() {
+        return concurrentPostings ? ConcurrentHashMap.newKeySet() : new HashSet<>();
+    }
+
+    private Collection<String> indexKeysOf(final V value) {
+        if (value == null) {
+            return emptySet();
+        }
+        final Collection<String> indexKeys = extractor.apply(value);
+        return indexKeys != null ? indexKeys : emptySet();
+    }
+}
@@ -1,35 +1,88 @@
 package de.otto.synapse.state;
 
+import de.otto.synapse.channel.ChannelPosition;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.StreamSupport;
 
 import static java.util.Optional.ofNullable;
+import static java.util.stream.Collectors.toList;
 
 public class StateRepository<V> {
     private ConcurrentMap<String, V> concurrentMap;
 
+    private final StampedLock modificationLock = new StampedLock();
+    private final List<StateSnapshot<V>> openSnapshots = new CopyOnWriteArrayList<>();
+    private final Map<String, SecondaryIndex<V>> indexes = new ConcurrentHashMap<>();
+    /**
+     * True, if there are open snapshots or indexes that have to be updated on every modification. Only changed
+     * while holding the write lock.
+     */
+    private volatile boolean hooksActive = false;
+
     public StateRepository(final ConcurrentMap<String, V> concurrentMap) {
         this.concurrentMap = concurrentMap;
     }
 
     public V compute(final String key,
                      final BiFunction<? super String, ? super Optional<V>, ? extends V> remappingFunction) {
-        return concurrentMap.compute(key, (k, v) -> remappingFunction.apply(k, ofNullable(v)));
+        return withModificationLock(
+                () -> concurrentMap.compute(key, (k, v) -> remappingFunction.apply(k, ofNullable(v))),
+                () -> concurrentMap.compute(key, (k, v) -> {
+                    final V newValue = remappingFunction.apply(k, ofNullable(v));
+                    onModification(k, v, newValue);
+                    return newValue;
+                })
+        );
     }
 
     public V put(final String key,
                  final V value) {
-        return concurrentMap.put(key, value);
+        return withModificationLock(
+                () -> concurrentMap.put(key, value),
+                () -> modifyWithHooks(key, previous -> value)
+        );
     }
 
     public void remove(final String key) {
-        concurrentMap.remove(key);
+        withModificationLock(
+                () -> concurrentMap.remove(key),
+                () -> modifyWithHooks(key, previous -> null)
+        );
     }
 
     public void clear() {
-        concurrentMap.clear();
+        withModificationLock(
+                () -> {
+                    concurrentMap.clear();
+                    return null;
+                },
+                () -> {
+                    if (openSnapshots.isEmpty()) {
+                        concurrentMap.clear();
+                        indexes.values().forEach(SecondaryIndex::clear);
+                    } else {
+                        // ChronicleMap does not support modifications while iterating, so the keys are copied first:
+                        new ArrayList<>(concurrentMap.keySet()).forEach(key -> modifyWithHooks(key, previous -> null));
+                    }
+                    return null;
+                }
+        );
     }
 
     public Optional<V> get(final String key) {
@@ -43,4 +96,209 @@ public class StateRepository<V> {
     public long size() {
         return concurrentMap.size();
     }
+
+    /**
+     * Performs the given action for each entry of the repository.
+     * <p>
+     *     In contrast to iterating over the {@link #keySet()} and calling {@link #get(String)} for every key,
+     *     keys and values are retrieved in a single pass. The iteration is weakly consistent: modifications
+     *     happening during the iteration may or may not be visible. Use {@link #snapshot()} if a consistent
+     *     view of the repository is required.
+     * </p>
+     *
+     * @param action the action performed for every entry
+     */
+    public void forEach(final BiConsumer<? super String, ? super V> action) {
+        concurrentMap.forEach(action);
+    }
+
+    /**
+     * Performs the given action for each entry of the repository, using the threads of the common
+     * {@link ForkJoinPool}.
+     *
+     * @param action the action performed for every entry; must be thread-safe
+     * @see #parallelForEach(BiConsumer, ForkJoinPool)
+     */
+    public void parallelForEach(final BiConsumer<? super String, ? super V> action) {
+        parallelForEach(action, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Performs the given action for each entry of the repository, using the threads of the given
+     * {@link ForkJoinPool}.
+     * <p>
+     *     The entries are partitioned by segment for ChronicleMap-based repositories, or by hash range for
+     *     repositories backed by a {@link ConcurrentHashMap}, so full scans are scaling with the number of cores.
+     *     Like {@link #forEach(BiConsumer)}, the iteration is weakly consistent.
+     * </p>
+     *
+     * @param action the action performed for every entry; must be thread-safe
+     * @param forkJoinPool the pool used to perform the action
+     */
+    public void parallelForEach(final BiConsumer<? super String, ? super V> action,
+                                final ForkJoinPool forkJoinPool) {
+        scanEntries(spliterator -> forkJoinPool.submit(() -> StreamSupport.stream(spliterator, true)
+                .forEach(entry -> action.accept(entry.getKey(), entry.getValue())))
+                .join());
+    }
+
+    /**
+     * Passes a {@link Spliterator} over all entries of the repository to the {@code scan}. Implementations
+     * may override this method to provide spliterators that are better suited for parallel scans.
+     *
+     * @param scan consumer of the spliterator
+     */
+    protected void scanEntries(final Consumer<Spliterator<Map.Entry<String, V>>> scan) {
+        scan.accept(concurrentMap.entrySet().spliterator());
+    }
+
+    /**
+     * Opens a point-in-time view of the repository. Entries of the {@link StateSnapshot} reflect the state of the
+     * repository at the time the snapshot was opened, while writes to the repository continue.
+     * <p>
+     *     Until the entries of the snapshot have been scanned, the first modification of every key is recording the
+     *     previous value of the key on-heap, so snapshots should be processed as soon as possible. Use
+     *     {@link #forEach(BiConsumer)} instead, if there are no concurrent writers.
+     * </p>
+     *
+     * @return StateSnapshot that must be closed after use
+     */
+    public StateSnapshot<V> snapshot() {
+        return snapshot(() -> null);
+    }
+
+    /**
+     * Opens a point-in-time view of the repository, together with the {@link ChannelPosition} reflected by the
+     * state. The position is determined while no modification of the repository is in progress, and the snapshot
+     * is opened before the next modification starts, so entries and position are consistent.
+     * <p>
+     *     Messages must be applied to the repository before the position is updated: if a message was applied,
+     *     but the position is not yet updated, the message will be applied a second time when consumption is
+     *     resumed at the position.
+     * </p>
+     *
+     * @param channelPosition supplier of the ChannelPosition; called once, while modifications are blocked
+     * @return StateSnapshot that must be closed after use
+     */
+    public StateSnapshot<V> snapshot(final Supplier<ChannelPosition> channelPosition) {
+        final long stamp = modificationLock.writeLock();
+        try {
+            final StateSnapshot<V> snapshot = new StateSnapshot<>(concurrentMap, channelPosition.get(), this::closeSnapshot);
+            openSnapshots.add(snapshot);
+            hooksActive = true;
+            return snapshot;
+        } finally {
+            modificationLock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Adds a {@link SecondaryIndex} to the repository. Existing entries are indexed immediately; modifications of
+     * the repository are blocked until all entries are indexed.
+     *
+     * @param index the index
+     * @throws IllegalStateException if an index with the same name was already added
+     */
+    public void addIndex(final SecondaryIndex<V> index) {
+        final long stamp = modificationLock.writeLock();
+        try {
+            if (indexes.putIfAbsent(index.getName(), index) != null) {
+                throw new IllegalStateException("Index " + index.getName() + " already exists");
+            }
+            hooksActive = true;
+            concurrentMap.forEach((key, value) -> index.update(key, null, value));
+        } finally {
+            modificationLock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Returns the keys of all entries that are indexed using {@code indexKey} in the {@link SecondaryIndex} with
+     * the given name.
+     *
+     * @param indexName the name of the index
+     * @param indexKey the index key
+     * @return unmodifiable set of keys
+     * @throws IllegalArgumentException if there is no such index
+     */
+    public Set<String> findKeys(final String indexName, final String indexKey) {
+        return getIndex(indexName).findKeys(indexKey);
+    }
+
+    /**
+     * Returns the values of all entries that are indexed using {@code indexKey} in the {@link SecondaryIndex} with
+     * the given name.
+     *
+     * @param indexName the name of the index
+     * @param indexKey the index key
+     * @return list of values
+     * @throws IllegalArgumentException if there is no such index
+     */
+    public List<V> findValues(final String indexName, final String indexKey) {
+        final SecondaryIndex<V> index = getIndex(indexName);
+        return index.findKeys(indexKey)
+                .stream()
+                .map(this::get)
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                // the entry may have been modified after the keys were looked up:
+                .filter(value -> index.matches(indexKey, value))
+                .collect(toList());
+    }
+
+    private SecondaryIndex<V> getIndex(final String indexName) {
+        final SecondaryIndex<V> index = indexes.get(indexName);
+        if (index == null) {
+            throw new IllegalArgumentException("Unknown index " + indexName);
+        }
+        return index;
+    }
+
+    private void closeSnapshot(final StateSnapshot<V> snapshot) {
+        final long stamp = modificationLock.writeLock();
+        try {
+            openSnapshots.remove(snapshot);
+            hooksActive = !openSnapshots.isEmpty() || !indexes.isEmpty();
+        } finally {
+            modificationLock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Performs a modification of the repository. Modifications only share a non-reentrant read lock, so they are
+     * not blocking each other; the write lock is only acquired to open or close snapshots and to add indexes. As
+     * long as no hooks are active, the modification is applied without looking at snapshots or indexes.
+     */
+    private <R> R withModificationLock(final Supplier<R> modification,
+                                       final Supplier<R> modificationWithHooks) {
+        final long stamp = modificationLock.readLock();
+        try {
+            return hooksActive
+                    ? modificationWithHooks.get()
+                    : modification.get();
+        } finally {
+            modificationLock.unlockRead(stamp);
+        }
+    }
+
+    private V modifyWithHooks(final String key, final Function<V, V> newValue) {
+        final Object[] previousValue = new Object[1];
+        concurrentMap.compute(key, (k, v) -> {
+            final V value = newValue.apply(v);
+            onModification(k, v, value);
+            previousValue[0] = v;
+            return value;
+        });
+        @SuppressWarnings("unchecked")
+        final V previous = (V) previousValue[0];
+        return previous;
+    }
+
+    /**
+     * Called atomically within the modification of an entry, before the new value is visible to other threads.
+     */
+    private void onModification(final String key, final V previousValue, final V newValue) {
+        openSnapshots.forEach(snapshot -> snapshot.recordPreviousValue(key, previousValue));
+        indexes.values().forEach(index -> index.update(key, previousValue, newValue));
+    }
 }
@@ -0,0 +1,110 @@
+package de.otto.synapse.state;
+
+import de.otto.synapse.channel.ChannelPosition;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * A consistent point-in-time view of a {@link StateRepository}, created using {@link StateRepository#snapshot()}.
+ * <p>
+ *     The snapshot is implemented as a copy-on-write epoch: while the snapshot is open, the repository is recording
+ *     the value every key had when the snapshot was opened, before the key is modified for the first time.
+ *     {@link #forEach(BiConsumer)} is iterating over the live entries of the repository, replacing modified values
+ *     by the recorded ones, and finally emits entries that have been removed in the meantime.
+ * </p>
+ * <p>
+ *     Only keys that are modified while the entries are scanned are tracked on-heap; keys that are only visited
+ *     are not. As soon as the scan is finished, modifications are no longer recorded. A key that is modified after
+ *     it was visited is therefore emitted a second time at the end of the scan, with the same value.
+ * </p>
+ * <p>
+ *     If the snapshot was opened using {@link StateRepository#snapshot(java.util.function.Supplier)}, the
+ *     {@link ChannelPosition} was determined while no modification of the repository was in progress, so the
+ *     entries are consistent with this position, even if messages are consumed while the snapshot is processed.
+ * </p>
+ *
+ * @param <V> the type of the values
+ */
+@ThreadSafe
+public class StateSnapshot<V> implements AutoCloseable {
+
+    private static final Object VISITED = new Object();
+
+    private final ConcurrentMap<String, V> concurrentMap;
+    private final ChannelPosition channelPosition;
+    private final long size;
+    private final Consumer<StateSnapshot<V>> onClose;
+    private final ConcurrentMap<String, Object> previousValues = new ConcurrentHashMap<>();
+
+    StateSnapshot(final ConcurrentMap<String, V> concurrentMap,
+                  final ChannelPosition channelPosition,
+                  final Consumer<StateSnapshot<V>> onClose) {
+        this.concurrentMap = concurrentMap;
+        this.channelPosition = channelPosition;
+        this.size = concurrentMap.size();
+        this.onClose = onClose;
+    }
+
+    /**
+     * Returns the number of entries of the snapshot.
+     *
+     * @return number of entries at the time the snapshot was opened
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Returns the ChannelPosition reflected by the entries of the snapshot.
+     *
+     * @return ChannelPosition, or empty if the snapshot was opened without a position
+     */
+    public Optional<ChannelPosition> getChannelPosition() {
+        return Optional.ofNullable(channelPosition);
+    }
+
+    /**
+     * Performs the given action for every entry of the repository, as it was at the time the snapshot was opened.
+     * Every entry is visited at least once; entries that are modified after they were visited are visited a second
+     * time with the same value. The method may only be called once per snapshot.
+     *
+     * @param action the action performed for every entry
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(final BiConsumer<? super String, ? super V> action) {
+        concurrentMap.forEach((key, value) -> {
+            final Object previous = previousValues.get(key);
+            if (previous == null) {
+                // not modified since the snapshot was opened
+                action.accept(key, value);
+            } else if (previous != VISITED) {
+                previousValues.put(key, VISITED);
+                ((Optional<V>) previous).ifPresent(previousValue -> action.accept(key, previousValue));
+            }
+        });
+        // the scan is finished, so later modifications do not need to be recorded anymore:
+        onClose.accept(this);
+        // entries that have been removed before they were visited, or modified after they were visited:
+        for (final Map.Entry<String, Object> entry : previousValues.entrySet()) {
+            if (entry.getValue() != VISITED) {
+                ((Optional<V>) entry.getValue()).ifPresent(previousValue -> action.accept(entry.getKey(), previousValue));
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        onClose.accept(this);
+        previousValues.clear();
+    }
+
+    void recordPreviousValue(final String key, final V previousValue) {
+        previousValues.putIfAbsent(key, Optional.ofNullable(previousValue));
+    }
+}
@@ -1,8 +1,10 @@
 package de.otto.synapse.annotation;
 
+import de.otto.synapse.channel.InMemoryChannel;
 import de.otto.synapse.configuration.InMemoryMessageLogTestConfiguration;
 import de.otto.synapse.configuration.SynapseAutoConfiguration;
 import de.otto.synapse.endpoint.receiver.MessageLogReceiverEndpoint;
+import de.otto.synapse.endpoint.receiver.MessageLogReceiverEndpointFactory;
 import de.otto.synapse.eventsource.DefaultEventSource;
 import de.otto.synapse.eventsource.DelegateEventSource;
 import de.otto.synapse.eventsource.EventSource;
@@ -10,6 +12,8 @@ import org.junit.After;
 import org.junit.Test;
 import org.springframework.beans.factory.BeanCreationException;
 import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.springframework.boot.test.util.EnvironmentTestUtils.addEnvironment;
@@ -33,6 +37,15 @@ public class EventSourceBeanRegistrarTest {
     static class SingleEventSourceWithMessageLogTestConfig {
     }
 
+    @EnableEventSource(name = "testEventSource", channelName = "test-stream", messageLogReceiverEndpointFactory = "customMessageLogReceiverEndpointFactory")
+    @Configuration
+    static class SingleEventSourceWithMessageLogFactoryTestConfig {
+        @Bean
+        public MessageLogReceiverEndpointFactory customMessageLogReceiverEndpointFactory() {
+            return channelName -> new InMemoryChannel("custom-" + channelName);
+        }
+    }
+
     @EnableEventSource(name = "brokenEventSource", channelName = "some-stream")
     @EnableEventSource(name = "brokenEventSource", channelName = "some-stream")
     static class MultiEventSourceTestConfigWithSameNames {
@@ -124,4 +137,14 @@ public class EventSourceBeanRegistrarTest {
         assertThat(receiverEndpoint.getChannelName()).isEqualTo("test-stream");
     }
 
+    @Test
+    public void shouldRegisterMessageLogReceiverEndpointUsingSpecifiedFactory() {
+        context.register(SingleEventSourceWithMessageLogFactoryTestConfig.class);
+        context.register(InMemoryMessageLogTestConfiguration.class);
+        context.refresh();
+
+        final MessageLogReceiverEndpoint receiverEndpoint = context.getBean("testStreamMessageLogReceiverEndpoint", MessageLogReceiverEndpoint.class);
+        assertThat(receiverEndpoint.getChannelName()).isEqualTo("custom-test-stream");
+    }
+
 }
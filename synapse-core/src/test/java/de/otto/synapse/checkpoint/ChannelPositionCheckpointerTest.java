@@ -0,0 +1,110 @@
+package de.otto.synapse.checkpoint;
+
+import de.otto.synapse.channel.ChannelPosition;
+import de.otto.synapse.message.Message;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static de.otto.synapse.channel.ChannelPosition.channelPosition;
+import static de.otto.synapse.channel.ChannelPosition.fromHorizon;
+import static de.otto.synapse.channel.ShardPosition.fromPosition;
+import static de.otto.synapse.message.Header.responseHeader;
+import static de.otto.synapse.message.Message.message;
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+public class ChannelPositionCheckpointerTest {
+
+    @Test
+    public void shouldIgnoreMessagesBeforeStarted() {
+        // given
+        final ChannelPositionCheckpointStore store = mock(ChannelPositionCheckpointStore.class);
+        final ChannelPositionCheckpointer checkpointer = new ChannelPositionCheckpointer("some-channel", store, 1, null);
+
+        // when
+        checkpointer.accept(someMessage("shard-1", "1"));
+
+        // then
+        assertThat(checkpointer.getCurrentPosition(), is(Optional.empty()));
+        verify(store, after(100).never()).commit(anyString(), any(ChannelPosition.class));
+    }
+
+    @Test
+    public void shouldCommitAfterNumberOfMessages() {
+        // given
+        final ChannelPositionCheckpointStore store = mock(ChannelPositionCheckpointStore.class);
+        final ChannelPositionCheckpointer checkpointer = new ChannelPositionCheckpointer("some-channel", store, 2, null);
+        checkpointer.startAt(fromHorizon());
+
+        // when
+        checkpointer.accept(someMessage("shard-1", "1"));
+        checkpointer.accept(someMessage("shard-1", "2"));
+
+        // then
+        verify(store, timeout(1000)).commit("some-channel", channelPosition(fromPosition("shard-1", "2")));
+        checkpointer.close();
+    }
+
+    @Test
+    public void shouldNotCommitBeforeNumberOfMessages() {
+        // given
+        final ChannelPositionCheckpointStore store = mock(ChannelPositionCheckpointStore.class);
+        final ChannelPositionCheckpointer checkpointer = new ChannelPositionCheckpointer("some-channel", store, 10, null);
+        checkpointer.startAt(fromHorizon());
+
+        // when
+        checkpointer.accept(someMessage("shard-1", "1"));
+
+        // then
+        verify(store, after(100).never()).commit(anyString(), any(ChannelPosition.class));
+        checkpointer.close();
+    }
+
+    @Test
+    public void shouldCommitPeriodically() {
+        // given
+        final ChannelPositionCheckpointStore store = mock(ChannelPositionCheckpointStore.class);
+        final ChannelPositionCheckpointer checkpointer = new ChannelPositionCheckpointer("some-channel", store, 0, Duration.ofMillis(10));
+        checkpointer.startAt(fromHorizon());
+
+        // when
+        checkpointer.accept(someMessage("shard-1", "1"));
+
+        // then
+        verify(store, timeout(1000)).commit("some-channel", channelPosition(fromPosition("shard-1", "1")));
+        await().atMost(1, TimeUnit.SECONDS).until(() -> checkpointer.getLastCommittedPosition().isPresent());
+        checkpointer.close();
+    }
+
+    @Test
+    public void shouldCommitFinalPositionOnClose() {
+        // given
+        final ChannelPositionCheckpointStore store = mock(ChannelPositionCheckpointStore.class);
+        final ChannelPositionCheckpointer checkpointer = new ChannelPositionCheckpointer("some-channel", store, 100, null);
+        checkpointer.startAt(fromHorizon());
+        checkpointer.accept(someMessage("shard-1", "1"));
+
+        // when
+        checkpointer.close(channelPosition(fromPosition("shard-1", "42")));
+
+        // then
+        verify(store).commit("some-channel", channelPosition(fromPosition("shard-1", "42")));
+        verify(store, never()).commit("some-channel", channelPosition(fromPosition("shard-1", "1")));
+    }
+
+    private static Message<String> someMessage(final String shard, final String position) {
+        return message("some-key", responseHeader(fromPosition(shard, position), Instant.now()), "some payload");
+    }
+}
@@ -0,0 +1,81 @@
+package de.otto.synapse.checkpoint;
+
+import de.otto.synapse.channel.ChannelPosition;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.Optional;
+
+import static de.otto.synapse.channel.ChannelPosition.channelPosition;
+import static de.otto.synapse.channel.ShardPosition.atPosition;
+import static de.otto.synapse.channel.ShardPosition.fromHorizon;
+import static de.otto.synapse.channel.ShardPosition.fromPosition;
+import static de.otto.synapse.channel.ShardPosition.fromTimestamp;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class FileChannelPositionCheckpointStoreTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void shouldReturnEmptyCheckpointForUnknownChannel() {
+        // given
+        final FileChannelPositionCheckpointStore store = new FileChannelPositionCheckpointStore(temporaryFolder.getRoot());
+
+        // when
+        final Optional<ChannelPosition> checkpoint = store.getCheckpoint("some-channel");
+
+        // then
+        assertThat(checkpoint.isPresent(), is(false));
+    }
+
+    @Test
+    public void shouldCommitAndReadCheckpoint() {
+        // given
+        final FileChannelPositionCheckpointStore store = new FileChannelPositionCheckpointStore(temporaryFolder.getRoot());
+        final ChannelPosition position = channelPosition(
+                fromPosition("shard-1", "42"),
+                fromHorizon("shard-2"),
+                atPosition("shard-3", "4711"),
+                fromTimestamp("shard-4", Instant.ofEpochMilli(1000)));
+
+        // when
+        store.commit("some-channel", position);
+
+        // then
+        assertThat(store.getCheckpoint("some-channel"), is(Optional.of(position)));
+    }
+
+    @Test
+    public void shouldReplaceCheckpoint() {
+        // given
+        final FileChannelPositionCheckpointStore store = new FileChannelPositionCheckpointStore(temporaryFolder.getRoot());
+        store.commit("some-channel", channelPosition(fromPosition("shard-1", "1")));
+
+        // when
+        store.commit("some-channel", channelPosition(fromPosition("shard-1", "2")));
+
+        // then
+        assertThat(new FileChannelPositionCheckpointStore(temporaryFolder.getRoot()).getCheckpoint("some-channel"),
+                is(Optional.of(channelPosition(fromPosition("shard-1", "2")))));
+    }
+
+    @Test
+    public void shouldIgnoreCorruptCheckpoint() throws Exception {
+        // given
+        final FileChannelPositionCheckpointStore store = new FileChannelPositionCheckpointStore(temporaryFolder.getRoot());
+        Files.write(new File(temporaryFolder.getRoot(), "some-channel.checkpoint").toPath(), new byte[]{1, 2, 3});
+
+        // when
+        final Optional<ChannelPosition> checkpoint = store.getCheckpoint("some-channel");
+
+        // then
+        assertThat(checkpoint.isPresent(), is(false));
+    }
+}
@@ -0,0 +1,78 @@
+package de.otto.synapse.checkpoint;
+
+import de.otto.synapse.channel.ChannelPosition;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Optional;
+
+import static de.otto.synapse.channel.ChannelPosition.channelPosition;
+import static de.otto.synapse.channel.ShardPosition.fromHorizon;
+import static de.otto.synapse.channel.ShardPosition.fromPosition;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class MappedFileChannelPositionCheckpointStoreTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void shouldReturnEmptyCheckpointForUnknownChannel() {
+        // given
+        final MappedFileChannelPositionCheckpointStore store = new MappedFileChannelPositionCheckpointStore(temporaryFolder.getRoot());
+
+        // when
+        final Optional<ChannelPosition> checkpoint = store.getCheckpoint("some-channel");
+
+        // then
+        assertThat(checkpoint.isPresent(), is(false));
+    }
+
+    @Test
+    public void shouldReadLatestCheckpointAfterReopening() {
+        // given
+        final MappedFileChannelPositionCheckpointStore store = new MappedFileChannelPositionCheckpointStore(temporaryFolder.getRoot());
+        for (int i = 1; i <= 5; i++) {
+            store.commit("some-channel", channelPosition(fromPosition("shard-1", String.valueOf(i)), fromHorizon("shard-2")));
+        }
+
+        // when
+        final Optional<ChannelPosition> checkpoint = new MappedFileChannelPositionCheckpointStore(temporaryFolder.getRoot()).getCheckpoint("some-channel");
+
+        // then
+        assertThat(checkpoint, is(Optional.of(channelPosition(fromPosition("shard-1", "5"), fromHorizon("shard-2")))));
+    }
+
+    @Test
+    public void shouldFallBackToPreviousCheckpointIfLatestIsCorrupt() throws Exception {
+        // given
+        final int maxCheckpointSize = 1024;
+        final MappedFileChannelPositionCheckpointStore store = new MappedFileChannelPositionCheckpointStore(temporaryFolder.getRoot(), maxCheckpointSize);
+        store.commit("some-channel", channelPosition(fromPosition("shard-1", "1")));
+        store.commit("some-channel", channelPosition(fromPosition("shard-1", "2")));
+        // and a torn write of the second checkpoint, stored in the first slot:
+        try (RandomAccessFile file = new RandomAccessFile(new File(temporaryFolder.getRoot(), "some-channel.mapped-checkpoint"), "rw")) {
+            file.seek(20);
+            file.write(new byte[]{42, 42, 42});
+        }
+
+        // when
+        final Optional<ChannelPosition> checkpoint = new MappedFileChannelPositionCheckpointStore(temporaryFolder.getRoot(), maxCheckpointSize).getCheckpoint("some-channel");
+
+        // then
+        assertThat(checkpoint, is(Optional.of(channelPosition(fromPosition("shard-1", "1")))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectCheckpointsExceedingMaxSize() {
+        // given
+        final MappedFileChannelPositionCheckpointStore store = new MappedFileChannelPositionCheckpointStore(temporaryFolder.getRoot(), 8);
+
+        // when
+        store.commit("some-channel", channelPosition(fromPosition("shard-1", "4711")));
+    }
+}
@@ -0,0 +1,67 @@
+package de.otto.synapse.consumer;
+
+import de.otto.synapse.message.Message;
+import de.otto.synapse.messagestore.MessageStore;
+import de.otto.synapse.messagestore.PositionTrackingMessageStore;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.Optional;
+
+import static de.otto.synapse.channel.ChannelPosition.channelPosition;
+import static de.otto.synapse.channel.ShardPosition.fromPosition;
+import static de.otto.synapse.message.Header.responseHeader;
+import static de.otto.synapse.message.Message.message;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class PositionTrackingMessageConsumerTest {
+
+    @Test
+    public void shouldIgnoreMessagesBeforeStarted() {
+        // given
+        final PositionTrackingMessageConsumer positionTracker = new PositionTrackingMessageConsumer();
+
+        // when
+        positionTracker.accept(someMessage("shard-1", "1"));
+
+        // then
+        assertThat(positionTracker.isStarted(), is(false));
+        assertThat(positionTracker.getCurrentPosition(), is(Optional.empty()));
+    }
+
+    @Test
+    public void shouldMergePositionsOfConsumedMessagesWithStartPosition() {
+        // given
+        final PositionTrackingMessageConsumer positionTracker = new PositionTrackingMessageConsumer();
+        positionTracker.startAt(channelPosition(fromPosition("shard-1", "1"), fromPosition("shard-2", "1")));
+
+        // when
+        positionTracker.accept(someMessage("shard-1", "2"));
+        positionTracker.accept(someMessage("shard-1", "3"));
+
+        // then
+        assertThat(positionTracker.getCurrentPosition(), is(Optional.of(channelPosition(fromPosition("shard-1", "3"), fromPosition("shard-2", "1")))));
+    }
+
+    @Test
+    public void shouldStartTrackingAtLatestPositionOfMessageStore() {
+        // given
+        final PositionTrackingMessageConsumer positionTracker = new PositionTrackingMessageConsumer();
+        final MessageStore delegate = mock(MessageStore.class);
+        when(delegate.getLatestChannelPosition()).thenReturn(channelPosition(fromPosition("shard-1", "42")));
+        final MessageStore messageStore = new PositionTrackingMessageStore(delegate, positionTracker);
+
+        // when
+        messageStore.getLatestChannelPosition();
+
+        // then
+        assertThat(positionTracker.getCurrentPosition(), is(Optional.of(channelPosition(fromPosition("shard-1", "42")))));
+    }
+
+    private static Message<String> someMessage(final String shard, final String position) {
+        return message("some-key", responseHeader(fromPosition(shard, position), Instant.now()), "some payload");
+    }
+}
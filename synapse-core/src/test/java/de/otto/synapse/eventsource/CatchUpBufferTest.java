@@ -0,0 +1,121 @@
+package de.otto.synapse.eventsource;
+
+import de.otto.synapse.message.Message;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static de.otto.synapse.channel.ShardPosition.fromPosition;
+import static de.otto.synapse.message.Header.responseHeader;
+import static de.otto.synapse.message.Message.message;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.emptyArray;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class CatchUpBufferTest {
+
+    @Rule
+    public TemporaryFolder spillDirectory = new TemporaryFolder();
+
+    @Test
+    public void shouldPassThroughMessagesIfNotBuffering() {
+        // given
+        final CatchUpBuffer buffer = new CatchUpBuffer(10, null);
+        final Message<String> message = message("1", "some payload");
+
+        // when
+        final Message<String> interceptedMessage = buffer.intercept(message);
+
+        // then
+        assertThat(interceptedMessage, is(message));
+    }
+
+    @Test
+    public void shouldBufferMessagesUntilReleased() throws Exception {
+        // given
+        final CatchUpBuffer buffer = new CatchUpBuffer(10, null);
+        buffer.startBuffering();
+
+        // when
+        final Message<String> interceptedMessage = interceptInOtherThread(buffer, message("1", "some payload"));
+
+        // then
+        assertThat(interceptedMessage, is(nullValue()));
+        assertThat(buffer.size(), is(1L));
+    }
+
+    @Test
+    public void shouldPassThroughMessagesOfReplayingThread() {
+        // given
+        final CatchUpBuffer buffer = new CatchUpBuffer(10, null);
+        buffer.startBuffering();
+        buffer.replayingThread();
+        final Message<String> message = message("1", "some payload");
+
+        // when
+        final Message<String> interceptedMessage = buffer.intercept(message);
+
+        // then
+        assertThat(interceptedMessage, is(message));
+    }
+
+    @Test
+    public void shouldReleaseSpilledMessagesInArrivalOrder() throws Exception {
+        // given
+        final CatchUpBuffer buffer = new CatchUpBuffer(2, spillDirectory.getRoot());
+        buffer.startBuffering();
+        for (int i = 0; i < 5; i++) {
+            interceptInOtherThread(buffer, message(String.valueOf(i), responseHeader(fromPosition("shard", String.valueOf(i)), Instant.now()), "payload-" + i));
+        }
+
+        // when
+        final List<String> releasedKeys = new ArrayList<>();
+        buffer.release(message -> releasedKeys.add(message.getKey()));
+
+        // then
+        assertThat(releasedKeys, contains("0", "1", "2", "3", "4"));
+        assertThat(buffer.size(), is(0L));
+    }
+
+    @Test
+    public void shouldDeleteSpillFileAfterRelease() throws Exception {
+        // given
+        final CatchUpBuffer buffer = new CatchUpBuffer(1, spillDirectory.getRoot());
+        buffer.startBuffering();
+        for (int i = 0; i < 3; i++) {
+            interceptInOtherThread(buffer, message(String.valueOf(i), "some payload"));
+        }
+
+        // when
+        buffer.release(message -> {});
+
+        // then
+        assertThat(spillDirectory.getRoot().listFiles(), is(emptyArray()));
+    }
+
+    @Test
+    public void shouldPassThroughMessagesAfterRelease() throws Exception {
+        // given
+        final CatchUpBuffer buffer = new CatchUpBuffer(10, null);
+        buffer.startBuffering();
+        buffer.release(m -> {});
+        final Message<String> message = message("1", "some payload");
+
+        // when
+        final Message<String> interceptedMessage = interceptInOtherThread(buffer, message);
+
+        // then
+        assertThat(interceptedMessage, is(message));
+    }
+
+    private Message<String> interceptInOtherThread(final CatchUpBuffer buffer, final Message<String> message) throws Exception {
+        return CompletableFuture.supplyAsync(() -> buffer.intercept(message)).get();
+    }
+}
@@ -0,0 +1,100 @@
+package de.otto.synapse.eventsource;
+
+import de.otto.synapse.channel.ChannelPosition;
+import de.otto.synapse.checkpoint.ChannelPositionCheckpointStore;
+import de.otto.synapse.checkpoint.FileChannelPositionCheckpointStore;
+import de.otto.synapse.consumer.MessageDispatcher;
+import de.otto.synapse.endpoint.InterceptorChain;
+import de.otto.synapse.endpoint.receiver.MessageLogReceiverEndpoint;
+import de.otto.synapse.messagestore.MessageStore;
+import de.otto.synapse.messagestore.MessageStoreFactory;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.time.Instant;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static de.otto.synapse.channel.ChannelPosition.channelPosition;
+import static de.otto.synapse.channel.ShardPosition.fromPosition;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CheckpointingEventSourceTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldResumeAtCheckpointWithoutLoadingSnapshot() throws Exception {
+        // given
+        final ChannelPositionCheckpointStore store = new FileChannelPositionCheckpointStore(temporaryFolder.getRoot());
+        final ChannelPosition checkpoint = channelPosition(fromPosition("shard-1", "42"));
+        store.commit("some-channel", checkpoint);
+        final MessageStoreFactory<MessageStore> messageStoreFactory = mock(MessageStoreFactory.class);
+        final MessageLogReceiverEndpoint messageLog = mockMessageLog(channelPosition(fromPosition("shard-1", "50")));
+        final CheckpointingEventSource eventSource = new CheckpointingEventSource(store, 100, null, messageStoreFactory, messageLog);
+
+        // when
+        eventSource.consume().get();
+
+        // then
+        verify(messageLog).consumeUntil(checkpoint, Instant.MAX);
+        verify(messageStoreFactory, never()).createMessageStoreFor(anyString());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldLoadSnapshotWithoutCheckpoint() throws Exception {
+        // given
+        final ChannelPositionCheckpointStore store = new FileChannelPositionCheckpointStore(temporaryFolder.getRoot());
+        final ChannelPosition snapshotPosition = channelPosition(fromPosition("shard-1", "10"));
+        final MessageStore messageStore = mock(MessageStore.class);
+        when(messageStore.stream()).thenReturn(Stream.empty());
+        when(messageStore.getLatestChannelPosition()).thenReturn(snapshotPosition);
+        final MessageStoreFactory<MessageStore> messageStoreFactory = mock(MessageStoreFactory.class);
+        when(messageStoreFactory.createMessageStoreFor("some-channel")).thenReturn(messageStore);
+        final MessageLogReceiverEndpoint messageLog = mockMessageLog(channelPosition(fromPosition("shard-1", "50")));
+        final CheckpointingEventSource eventSource = new CheckpointingEventSource(store, 100, null, messageStoreFactory, messageLog);
+
+        // when
+        eventSource.consume().get();
+
+        // then
+        verify(messageLog).consumeUntil(snapshotPosition, Instant.MAX);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldCommitFinalPosition() throws Exception {
+        // given
+        final ChannelPositionCheckpointStore store = new FileChannelPositionCheckpointStore(temporaryFolder.getRoot());
+        store.commit("some-channel", channelPosition(fromPosition("shard-1", "42")));
+        final MessageLogReceiverEndpoint messageLog = mockMessageLog(channelPosition(fromPosition("shard-1", "50")));
+        final CheckpointingEventSource eventSource = new CheckpointingEventSource(store, 100, null, mock(MessageStoreFactory.class), messageLog);
+
+        // when
+        eventSource.consume().get();
+
+        // then
+        assertThat(store.getCheckpoint("some-channel"), is(Optional.of(channelPosition(fromPosition("shard-1", "50")))));
+    }
+
+    private MessageLogReceiverEndpoint mockMessageLog(final ChannelPosition finalPosition) {
+        final MessageLogReceiverEndpoint messageLog = mock(MessageLogReceiverEndpoint.class);
+        when(messageLog.getChannelName()).thenReturn("some-channel");
+        when(messageLog.getInterceptorChain()).thenReturn(new InterceptorChain());
+        when(messageLog.getMessageDispatcher()).thenReturn(mock(MessageDispatcher.class));
+        when(messageLog.consumeUntil(any(ChannelPosition.class), any(Instant.class))).thenReturn(completedFuture(finalPosition));
+        return messageLog;
+    }
+}
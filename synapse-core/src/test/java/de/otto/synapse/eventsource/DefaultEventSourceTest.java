@@ -9,7 +9,12 @@ import de.otto.synapse.messagestore.MessageStore;
 import org.junit.Test;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
 
 import static de.otto.synapse.channel.ChannelPosition.channelPosition;
@@ -18,8 +23,11 @@ import static de.otto.synapse.channel.ShardPosition.fromPosition;
 import static de.otto.synapse.message.Header.responseHeader;
 import static de.otto.synapse.message.Message.message;
 import static de.otto.synapse.messagestore.MessageStores.emptyMessageStore;
+import static java.util.Arrays.asList;
+import static java.util.Collections.synchronizedList;
 import static java.util.concurrent.CompletableFuture.completedFuture;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.is;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
@@ -177,6 +185,72 @@ public class DefaultEventSourceTest {
         assertThat(eventSource.isStopping(), is(true));
     }
 
+    @Test
+    public void shouldStartMessageLogBeforeReplayIsFinished() throws Exception {
+        // given
+        final ChannelPosition snapshotPosition = channelPosition(fromPosition("bar", "42"));
+        final CountDownLatch replayLatch = new CountDownLatch(1);
+        final MessageStore messageStore = mock(MessageStore.class);
+        when(messageStore.getLatestChannelPosition()).thenReturn(snapshotPosition);
+        when(messageStore.stream()).thenReturn(Stream.of(message("1", "some payload")).peek(m -> awaitQuietly(replayLatch)));
+        final MessageLogReceiverEndpoint messageLog = mockMessageLogReceiverEndpoint();
+        when(messageLog.getInterceptorChain()).thenReturn(new InterceptorChain());
+        when(messageLog.getMessageDispatcher()).thenReturn(mock(MessageDispatcher.class));
+        final DefaultEventSource eventSource = new DefaultEventSource(messageStore, messageLog, 10, null);
+
+        // when
+        final CompletableFuture<ChannelPosition> futurePosition = eventSource.consume();
+
+        // then
+        verify(messageLog, timeout(1000)).consumeUntil(snapshotPosition, Instant.MAX);
+        assertThat(futurePosition.isDone(), is(false));
+        replayLatch.countDown();
+        futurePosition.get();
+    }
+
+    @Test
+    public void shouldDispatchMessagesFromMessageLogAfterReplay() throws Exception {
+        // given
+        final CountDownLatch messageLogLatch = new CountDownLatch(1);
+        final MessageStore messageStore = mock(MessageStore.class);
+        when(messageStore.getLatestChannelPosition()).thenReturn(fromHorizon());
+        when(messageStore.stream()).thenReturn(Stream.of(message("store", "some payload")).peek(m -> awaitQuietly(messageLogLatch)));
+        // and some message log that is receiving messages while the message store is replayed:
+        final InterceptorChain interceptorChain = new InterceptorChain();
+        final List<String> dispatchedKeys = synchronizedList(new ArrayList<>());
+        final MessageDispatcher messageDispatcher = mock(MessageDispatcher.class);
+        doAnswer(invocation -> dispatchedKeys.add(invocation.<Message<String>>getArgument(0).getKey()))
+                .when(messageDispatcher).accept(any(Message.class));
+        final MessageLogReceiverEndpoint messageLog = mock(MessageLogReceiverEndpoint.class);
+        when(messageLog.getInterceptorChain()).thenReturn(interceptorChain);
+        when(messageLog.getMessageDispatcher()).thenReturn(messageDispatcher);
+        when(messageLog.consumeUntil(any(ChannelPosition.class), any(Instant.class))).thenAnswer(invocation -> CompletableFuture.supplyAsync(() -> {
+            for (final String key : asList("log-1", "log-2")) {
+                final Message<String> interceptedMessage = interceptorChain.intercept(message(key, "some payload"));
+                if (interceptedMessage != null) {
+                    messageDispatcher.accept(interceptedMessage);
+                }
+            }
+            messageLogLatch.countDown();
+            return fromHorizon();
+        }));
+        final DefaultEventSource eventSource = new DefaultEventSource(messageStore, messageLog, 1, null);
+
+        // when
+        eventSource.consume().get();
+
+        // then
+        assertThat(dispatchedKeys, contains("store", "log-1", "log-2"));
+    }
+
+    private static void awaitQuietly(final CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     private MessageLogReceiverEndpoint mockMessageLogReceiverEndpoint() {
         final MessageLogReceiverEndpoint messageLog = mock(MessageLogReceiverEndpoint.class);
         when(messageLog.consumeUntil(any(ChannelPosition.class), any(Instant.class))).thenReturn(completedFuture(fromHorizon()));
@@ -0,0 +1,245 @@
+package de.otto.synapse.eventsource;
+
+import com.google.common.collect.ImmutableMap;
+import de.otto.synapse.channel.ChannelPosition;
+import de.otto.synapse.info.MessageReceiverStatus;
+import org.junit.After;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static de.otto.synapse.channel.ChannelDurationBehind.channelDurationBehind;
+import static de.otto.synapse.channel.ChannelPosition.fromHorizon;
+import static de.otto.synapse.eventsource.EventSourceStartupOrchestrator.startupOrchestratorBuilder;
+import static de.otto.synapse.info.MessageReceiverNotification.builder;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class EventSourceStartupOrchestratorTest {
+
+    private EventSourceStartupOrchestrator orchestrator;
+
+    @After
+    public void tearDown() {
+        if (orchestrator != null) {
+            orchestrator.stop();
+        }
+    }
+
+    @Test
+    public void shouldLimitConcurrentStartups() {
+        // given
+        final EventSource first = mockEventSource("first", new CompletableFuture<>());
+        final EventSource second = mockEventSource("second", new CompletableFuture<>());
+        final EventSource third = mockEventSource("third", new CompletableFuture<>());
+        orchestrator = startupOrchestratorBuilder()
+                .withMaxConcurrentStartups(2)
+                .withBudgetPollInterval(Duration.ofMillis(10))
+                .build();
+
+        // when
+        orchestrator.start(asList(first, second, third), e -> {});
+
+        // then
+        verify(first, timeout(1000)).consume();
+        verify(second, timeout(1000)).consume();
+        verify(third, after(100).never()).consume();
+        // and when
+        publish(orchestrator, "first", MessageReceiverStatus.RUNNING, Duration.ZERO);
+        // then
+        verify(third, timeout(1000)).consume();
+    }
+
+    @Test
+    public void shouldStartEventSourcesOrderedByPriority() {
+        // given
+        final EventSource first = mockEventSource("first", new CompletableFuture<>());
+        final EventSource second = mockEventSource("second", new CompletableFuture<>());
+        orchestrator = startupOrchestratorBuilder()
+                .withMaxConcurrentStartups(1)
+                .withPriorities(ImmutableMap.of("second", 10))
+                .withBudgetPollInterval(Duration.ofMillis(10))
+                .build();
+
+        // when
+        orchestrator.start(asList(first, second), e -> {});
+
+        // then
+        verify(second, timeout(1000)).consume();
+        verify(first, after(100).never()).consume();
+        assertThat(orchestrator.getStartupStates().stream().map(EventSourceStartup::getChannelName).collect(toList()), contains("second", "first"));
+    }
+
+    @Test
+    public void shouldReleaseStartupSlotIfEventSourceFinishes() {
+        // given
+        final CompletableFuture<ChannelPosition> firstPosition = new CompletableFuture<>();
+        final EventSource first = mockEventSource("first", firstPosition);
+        final EventSource second = mockEventSource("second", new CompletableFuture<>());
+        orchestrator = startupOrchestratorBuilder()
+                .withMaxConcurrentStartups(1)
+                .withBudgetPollInterval(Duration.ofMillis(10))
+                .build();
+        orchestrator.start(asList(first, second), e -> {});
+        verify(first, timeout(1000)).consume();
+
+        // when
+        firstPosition.complete(fromHorizon());
+
+        // then
+        verify(second, timeout(1000)).consume();
+        assertThat(startupOf("first").getPhase(), is(StartupPhase.FINISHED));
+    }
+
+    @Test
+    public void shouldReleaseStartupSlotAfterMaxStartupDuration() {
+        // given
+        final EventSource first = mockEventSource("first", new CompletableFuture<>());
+        final EventSource second = mockEventSource("second", new CompletableFuture<>());
+        orchestrator = startupOrchestratorBuilder()
+                .withMaxConcurrentStartups(1)
+                .withMaxStartupDuration(Duration.ofMillis(50))
+                .withBudgetPollInterval(Duration.ofMillis(10))
+                .build();
+
+        // when
+        orchestrator.start(asList(first, second), e -> {});
+
+        // then
+        verify(second, timeout(1000)).consume();
+        assertThat(startupOf("first").getPhase(), is(StartupPhase.STARTING));
+    }
+
+    @Test
+    public void shouldDelayStartupUntilBudgetIsAvailable() {
+        // given
+        final AtomicLong freeMemory = new AtomicLong(0);
+        final EventSource first = mockEventSource("first", new CompletableFuture<>());
+        final EventSource second = mockEventSource("second", new CompletableFuture<>());
+        orchestrator = startupOrchestratorBuilder()
+                .withMinFreeMemory(100)
+                .withFreeMemory(freeMemory::get)
+                .withBudgetPollInterval(Duration.ofMillis(10))
+                .build();
+
+        // when
+        orchestrator.start(asList(first, second), e -> {});
+
+        // then
+        verify(first, timeout(1000)).consume();
+        verify(second, after(100).never()).consume();
+        assertThat(startupOf("second").getPhase(), is(StartupPhase.QUEUED));
+        // and when
+        freeMemory.set(200);
+        // then
+        verify(second, timeout(1000)).consume();
+    }
+
+    @Test
+    public void shouldTrackStartupPhases() {
+        // given
+        final EventSource eventSource = mockEventSource("some-channel", new CompletableFuture<>());
+        orchestrator = startupOrchestratorBuilder().build();
+        orchestrator.start(singletonList(eventSource), e -> {});
+        verify(eventSource, timeout(1000)).consume();
+
+        // when
+        publish(orchestrator, "some-channel", MessageReceiverStatus.STARTED, null);
+        final StartupPhase catchingUp = startupOf("some-channel").getPhase();
+        publish(orchestrator, "some-channel", MessageReceiverStatus.RUNNING, Duration.ofMinutes(5));
+        final StartupPhase stillCatchingUp = startupOf("some-channel").getPhase();
+        publish(orchestrator, "some-channel", MessageReceiverStatus.RUNNING, Duration.ofSeconds(1));
+
+        // then
+        assertThat(catchingUp, is(StartupPhase.CATCHING_UP));
+        assertThat(stillCatchingUp, is(StartupPhase.CATCHING_UP));
+        final EventSourceStartup startup = startupOf("some-channel");
+        assertThat(startup.getPhase(), is(StartupPhase.READY));
+        assertThat(startup.getPhaseTimestamps().keySet(), contains(StartupPhase.QUEUED, StartupPhase.STARTING, StartupPhase.CATCHING_UP, StartupPhase.READY));
+        assertThat(orchestrator.isReady(), is(true));
+    }
+
+    @Test
+    public void shouldCallErrorHandlerIfEventSourceFailsToStart() {
+        // given
+        final EventSource eventSource = mock(EventSource.class);
+        when(eventSource.getChannelName()).thenReturn("some-channel");
+        when(eventSource.consume()).thenThrow(IllegalStateException.class);
+        final AtomicReference<Exception> error = new AtomicReference<>();
+        orchestrator = startupOrchestratorBuilder().build();
+
+        // when
+        orchestrator.start(singletonList(eventSource), error::set);
+
+        // then
+        await().atMost(1, TimeUnit.SECONDS).until(() -> error.get() != null);
+        assertThat(error.get(), instanceOf(IllegalStateException.class));
+        assertThat(startupOf("some-channel").getPhase(), is(StartupPhase.FAILED));
+    }
+
+    @Test
+    public void shouldNotStartEventSourcesAfterStop() {
+        // given
+        final EventSource first = mockEventSource("first", new CompletableFuture<>());
+        final EventSource second = mockEventSource("second", new CompletableFuture<>());
+        orchestrator = startupOrchestratorBuilder()
+                .withMaxConcurrentStartups(1)
+                .withBudgetPollInterval(Duration.ofMillis(10))
+                .build();
+        orchestrator.start(asList(first, second), e -> {});
+        verify(first, timeout(1000)).consume();
+
+        // when
+        orchestrator.stop();
+        publish(orchestrator, "first", MessageReceiverStatus.FINISHED, null);
+
+        // then
+        verify(second, after(100).never()).consume();
+    }
+
+    private EventSourceStartup startupOf(final String channelName) {
+        return orchestrator.getStartupStates()
+                .stream()
+                .filter(startup -> startup.getChannelName().equals(channelName))
+                .findAny()
+                .orElseThrow(IllegalArgumentException::new);
+    }
+
+    private static EventSource mockEventSource(final String channelName,
+                                               final CompletableFuture<ChannelPosition> futurePosition) {
+        final EventSource eventSource = mock(EventSource.class);
+        when(eventSource.getChannelName()).thenReturn(channelName);
+        when(eventSource.consume()).thenReturn(futurePosition);
+        return eventSource;
+    }
+
+    private static void publish(final EventSourceStartupOrchestrator orchestrator,
+                               final String channelName,
+                               final MessageReceiverStatus status,
+                               final Duration durationBehind) {
+        orchestrator.on(builder()
+                .withChannelName(channelName)
+                .withStatus(status)
+                .withMessage("some message")
+                .withChannelDurationBehind(durationBehind != null
+                        ? channelDurationBehind().with("some-shard", durationBehind).build()
+                        : null)
+                .build());
+    }
+}
@@ -0,0 +1,117 @@
+package de.otto.synapse.eventsource;
+
+import de.otto.synapse.channel.ChannelPosition;
+import de.otto.synapse.endpoint.InterceptorChain;
+import de.otto.synapse.endpoint.receiver.MessageLogReceiverEndpoint;
+import de.otto.synapse.messagestore.MessageStore;
+import de.otto.synapse.messagestore.MessageStoreFactory;
+import de.otto.synapse.state.ChronicleMapStateRepository;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Stream;
+
+import static de.otto.synapse.channel.ChannelPosition.channelPosition;
+import static de.otto.synapse.channel.ShardPosition.fromPosition;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class PersistentStateEventSourceTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldSkipMessageStoreIfPersistedPositionIsAvailable() throws ExecutionException, InterruptedException {
+        // given
+        final ChannelPosition persistedPosition = channelPosition(fromPosition("shard", "42"));
+        final ChronicleMapStateRepository<String> stateRepository = mockStateRepository(Optional.of(persistedPosition));
+        final MessageStoreFactory<MessageStore> messageStoreFactory = mock(MessageStoreFactory.class);
+        final MessageLogReceiverEndpoint messageLog = mockMessageLogReceiverEndpoint(channelPosition(fromPosition("shard", "43")));
+        final PersistentStateEventSource eventSource = new PersistentStateEventSource(stateRepository, Duration.ofHours(1), messageStoreFactory, messageLog);
+
+        // when
+        final ChannelPosition result = eventSource.consume().get();
+
+        // then
+        verify(messageStoreFactory, never()).createMessageStoreFor(anyString());
+        verify(stateRepository, never()).clear();
+        verify(messageLog).consumeUntil(persistedPosition, Instant.MAX);
+        verify(stateRepository).persistChannelPosition(channelPosition(fromPosition("shard", "43")));
+        assertThat(result, is(channelPosition(fromPosition("shard", "43"))));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldClearStateAndConsumeMessageStoreWithoutPersistedPosition() throws ExecutionException, InterruptedException {
+        // given
+        final ChronicleMapStateRepository<String> stateRepository = mockStateRepository(Optional.empty());
+        final MessageStore messageStore = mock(MessageStore.class);
+        when(messageStore.stream()).thenReturn(Stream.empty());
+        when(messageStore.getLatestChannelPosition()).thenReturn(channelPosition(fromPosition("shard", "42")));
+        final MessageStoreFactory<MessageStore> messageStoreFactory = mock(MessageStoreFactory.class);
+        when(messageStoreFactory.createMessageStoreFor(anyString())).thenReturn(messageStore);
+        final MessageLogReceiverEndpoint messageLog = mockMessageLogReceiverEndpoint(channelPosition(fromPosition("shard", "43")));
+        final PersistentStateEventSource eventSource = new PersistentStateEventSource(stateRepository, Duration.ofHours(1), messageStoreFactory, messageLog);
+
+        // when
+        eventSource.consume().get();
+
+        // then
+        verify(stateRepository).clear();
+        verify(messageStore).stream();
+        verify(messageLog).consumeUntil(channelPosition(fromPosition("shard", "42")), Instant.MAX);
+        verify(stateRepository).persistChannelPosition(channelPosition(fromPosition("shard", "43")));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldPersistPositionPeriodicallyWhileConsuming() {
+        // given
+        final ChannelPosition persistedPosition = channelPosition(fromPosition("shard", "42"));
+        final ChronicleMapStateRepository<String> stateRepository = mockStateRepository(Optional.of(persistedPosition));
+        final MessageLogReceiverEndpoint messageLog = mockMessageLogReceiverEndpoint(null);
+        final CompletableFuture<ChannelPosition> messageLogPosition = new CompletableFuture<>();
+        when(messageLog.consumeUntil(any(ChannelPosition.class), any(Instant.class))).thenReturn(messageLogPosition);
+        final PersistentStateEventSource eventSource = new PersistentStateEventSource(stateRepository, Duration.ofHours(1), Duration.ofMillis(10), mock(MessageStoreFactory.class), messageLog, Clock.systemDefaultZone());
+
+        // when
+        eventSource.consume();
+
+        // then
+        verify(stateRepository, timeout(1000).atLeast(2)).persistChannelPosition(persistedPosition);
+        messageLogPosition.complete(channelPosition(fromPosition("shard", "43")));
+        verify(stateRepository).persistChannelPosition(channelPosition(fromPosition("shard", "43")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    @SuppressWarnings("unchecked")
+    public void shouldRejectNonPersistentStateRepository() {
+        final ChronicleMapStateRepository<String> stateRepository = mock(ChronicleMapStateRepository.class);
+        when(stateRepository.isPersistent()).thenReturn(false);
+        new PersistentStateEventSource(stateRepository, Duration.ofHours(1), mock(MessageStoreFactory.class), mock(MessageLogReceiverEndpoint.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    private ChronicleMapStateRepository<String> mockStateRepository(final Optional<ChannelPosition> persistedPosition) {
+        final ChronicleMapStateRepository<String> stateRepository = mock(ChronicleMapStateRepository.class);
+        when(stateRepository.isPersistent()).thenReturn(true);
+        when(stateRepository.getPersistedChannelPosition(any(Instant.class))).thenReturn(persistedPosition);
+        return stateRepository;
+    }
+
+    private MessageLogReceiverEndpoint mockMessageLogReceiverEndpoint(final ChannelPosition resultingPosition) {
+        final MessageLogReceiverEndpoint messageLog = mock(MessageLogReceiverEndpoint.class);
+        when(messageLog.getChannelName()).thenReturn("some-channel");
+        when(messageLog.getInterceptorChain()).thenReturn(new InterceptorChain());
+        when(messageLog.consumeUntil(any(ChannelPosition.class), any(Instant.class))).thenReturn(completedFuture(resultingPosition));
+        return messageLog;
+    }
+}
@@ -0,0 +1,201 @@
+package de.otto.synapse.executor;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static de.otto.synapse.executor.SynapseExecutor.synapseExecutorBuilder;
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.hamcrest.Matchers.startsWith;
+
+public class SynapseExecutorTest {
+
+    private final SynapseExecutor synapseExecutor = synapseExecutorBuilder()
+            .withMaxThreads(2)
+            .withThreadNamePrefix("test-executor-")
+            .build();
+
+    @After
+    public void tearDown() {
+        synapseExecutor.close();
+    }
+
+    @Test
+    public void shouldExecuteTasksOfChannel() throws Exception {
+        // given
+        final ChannelExecutor executor = synapseExecutor.forChannel("some-channel");
+
+        // when
+        final String threadName = CompletableFuture.supplyAsync(() -> Thread.currentThread().getName(), executor).get();
+
+        // then
+        assertThat(threadName, startsWith("test-executor-"));
+        await().atMost(1, TimeUnit.SECONDS).until(() -> synapseExecutor.getMetrics().get(0).getCompletedTasks() == 1L);
+        assertThat(synapseExecutor.getMetrics(), contains(new ChannelExecutorMetrics("some-channel", 1, 0, 0, 1)));
+    }
+
+    @Test
+    public void shouldQueueTasksIfAllThreadsAreBusy() throws Exception {
+        // given
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final ChannelExecutor executor = synapseExecutor.forChannel("some-channel");
+        executor.execute(() -> awaitQuietly(blocked));
+        executor.execute(() -> awaitQuietly(blocked));
+
+        // when
+        final CompletableFuture<Void> queuedTask = CompletableFuture.runAsync(() -> {}, synapseExecutor.forChannel("other-channel"));
+
+        // then
+        await().atMost(1, TimeUnit.SECONDS).until(() -> synapseExecutor.getMetrics().get(1).getRunningTasks() == 2L);
+        assertThat(synapseExecutor.getMetrics().get(0), is(new ChannelExecutorMetrics("other-channel", 1, 1, 0, 0)));
+        blocked.countDown();
+        queuedTask.get(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void shouldInterruptOnlyTasksOfChannel() throws Exception {
+        // given
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final AtomicBoolean interrupted = new AtomicBoolean(false);
+        final ChannelExecutor executor = synapseExecutor.forChannel("some-channel");
+        final ChannelExecutor otherExecutor = synapseExecutor.forChannel("other-channel");
+        executor.execute(() -> interrupted.set(!awaitQuietly(blocked)));
+        otherExecutor.execute(() -> awaitQuietly(blocked));
+        await().atMost(1, TimeUnit.SECONDS).until(() -> synapseExecutor.getMetrics().stream().allMatch(metrics -> metrics.getRunningTasks() == 1));
+
+        // when
+        executor.shutdownNow();
+
+        // then
+        assertThat(executor.awaitTermination(Duration.ofSeconds(1)), is(true));
+        assertThat(interrupted.get(), is(true));
+        assertThat(otherExecutor.awaitTermination(Duration.ofMillis(50)), is(false));
+        blocked.countDown();
+        assertThat(otherExecutor.awaitTermination(Duration.ofSeconds(1)), is(true));
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void shouldRejectTasksAfterShutdown() {
+        // given
+        final ChannelExecutor executor = synapseExecutor.forChannel("some-channel");
+
+        // when
+        executor.shutdownNow();
+
+        // then
+        executor.execute(() -> {});
+    }
+
+    @Test
+    public void shouldUseInstalledDefaultExecutorUntilItIsShutdown() {
+        // given
+        SynapseExecutor.setDefaultExecutor(synapseExecutor);
+
+        // when
+        final SynapseExecutor defaultExecutor = SynapseExecutor.defaultExecutor();
+        synapseExecutor.close();
+
+        // then
+        assertThat(defaultExecutor, is(sameInstance(synapseExecutor)));
+        assertThat(SynapseExecutor.defaultExecutor(), is(not(sameInstance(synapseExecutor))));
+    }
+
+    @Test
+    public void shouldNotAwaitCallingTask() throws Exception {
+        // given
+        final ChannelExecutor executor = synapseExecutor.forChannel("some-channel");
+
+        // when
+        final Boolean terminated = CompletableFuture.supplyAsync(() -> {
+            try {
+                return executor.awaitTermination(Duration.ofSeconds(1));
+            } catch (final InterruptedException e) {
+                return false;
+            }
+        }, executor).get(2, TimeUnit.SECONDS);
+
+        // then
+        assertThat(terminated, is(true));
+    }
+
+    @Test
+    public void shouldExecuteScheduledTaskUsingThreadsOfExecutor() throws Exception {
+        // given
+        final ChannelExecutor executor = synapseExecutor.forChannel("some-channel");
+        final CompletableFuture<String> threadName = new CompletableFuture<>();
+
+        // when
+        executor.schedule(() -> threadName.complete(Thread.currentThread().getName()), Duration.ofMillis(10)).get(1, TimeUnit.SECONDS);
+
+        // then
+        assertThat(threadName.get(), startsWith("test-executor-"));
+        assertThat(threadName.get().startsWith("test-executor-scheduler-"), is(false));
+    }
+
+    @Test
+    public void shouldRepeatTaskWithFixedDelayUntilCancelled() {
+        // given
+        final ChannelExecutor executor = synapseExecutor.forChannel("some-channel");
+        final AtomicInteger executions = new AtomicInteger();
+
+        // when
+        final CompletableFuture<Void> scheduledTask = executor.scheduleWithFixedDelay(executions::incrementAndGet, Duration.ZERO, Duration.ofMillis(10));
+        await().atMost(1, TimeUnit.SECONDS).until(() -> executions.get() >= 3);
+        scheduledTask.cancel(false);
+
+        // then
+        final int executionsAfterCancel = executions.get();
+        await().pollDelay(50, TimeUnit.MILLISECONDS).atMost(1, TimeUnit.SECONDS).until(() -> executions.get() <= executionsAfterCancel + 1);
+    }
+
+    @Test
+    public void shouldCancelScheduledTasksOnShutdown() {
+        // given
+        final ChannelExecutor executor = synapseExecutor.forChannel("some-channel");
+        final CompletableFuture<Void> scheduledTask = executor.scheduleWithFixedDelay(() -> {}, Duration.ofSeconds(10), Duration.ofSeconds(10));
+
+        // when
+        executor.shutdownNow();
+
+        // then
+        assertThat(scheduledTask.isCancelled(), is(true));
+    }
+
+    @Test
+    public void shouldStopRepetitionsIfTaskFails() {
+        // given
+        final ChannelExecutor executor = synapseExecutor.forChannel("some-channel");
+        final AtomicInteger executions = new AtomicInteger();
+
+        // when
+        final CompletableFuture<Void> scheduledTask = executor.scheduleWithFixedDelay(() -> {
+            executions.incrementAndGet();
+            throw new IllegalStateException("some failure");
+        }, Duration.ZERO, Duration.ofMillis(10));
+
+        // then
+        await().atMost(1, TimeUnit.SECONDS).until(scheduledTask::isCompletedExceptionally);
+        assertThat(executions.get(), is(1));
+    }
+
+    private static boolean awaitQuietly(final CountDownLatch latch) {
+        try {
+            latch.await();
+            return true;
+        } catch (final InterruptedException e) {
+            return false;
+        }
+    }
+}
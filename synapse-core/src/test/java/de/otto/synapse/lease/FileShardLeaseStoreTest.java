@@ -0,0 +1,92 @@
+package de.otto.synapse.lease;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.time.Instant;
+
+import static de.otto.synapse.channel.ShardPosition.fromHorizon;
+import static de.otto.synapse.channel.ShardPosition.fromPosition;
+import static de.otto.synapse.lease.ShardLease.unownedLease;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+
+public class FileShardLeaseStoreTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void shouldReturnNoLeasesForUnknownChannel() {
+        // given
+        final FileShardLeaseStore store = new FileShardLeaseStore(temporaryFolder.getRoot());
+
+        // then
+        assertThat(store.getLeases("some-channel"), is(empty()));
+    }
+
+    @Test
+    public void shouldCreateAndReadLeases() {
+        // given
+        final FileShardLeaseStore store = new FileShardLeaseStore(temporaryFolder.getRoot());
+        final ShardLease lease = unownedLease("some-channel", "shard-1")
+                .withOwner("instance-1", Instant.ofEpochMilli(1000))
+                .withCheckpoint(fromPosition("shard-1", "42"));
+
+        // when
+        final boolean created = store.compareAndSet(null, lease);
+
+        // then
+        assertThat(created, is(true));
+        assertThat(new FileShardLeaseStore(temporaryFolder.getRoot()).getLeases("some-channel"), contains(lease));
+    }
+
+    @Test
+    public void shouldNotCreateExistingLease() {
+        // given
+        final FileShardLeaseStore store = new FileShardLeaseStore(temporaryFolder.getRoot());
+        store.compareAndSet(null, unownedLease("some-channel", "shard-1"));
+
+        // when
+        final boolean created = store.compareAndSet(null, unownedLease("some-channel", "shard-1"));
+
+        // then
+        assertThat(created, is(false));
+    }
+
+    @Test
+    public void shouldRejectUpdateOfModifiedLease() {
+        // given
+        final FileShardLeaseStore store = new FileShardLeaseStore(temporaryFolder.getRoot());
+        final ShardLease lease = unownedLease("some-channel", "shard-1");
+        store.compareAndSet(null, lease);
+        final ShardLease update = lease.withOwner("instance-1", Instant.ofEpochMilli(1000));
+        store.compareAndSet(lease, update);
+
+        // when
+        final boolean updated = store.compareAndSet(lease, lease.withOwner("instance-2", Instant.ofEpochMilli(1000)));
+
+        // then
+        assertThat(updated, is(false));
+        assertThat(store.getLeases("some-channel"), contains(update));
+    }
+
+    @Test
+    public void shouldUpdateLease() {
+        // given
+        final FileShardLeaseStore store = new FileShardLeaseStore(temporaryFolder.getRoot());
+        final ShardLease lease = unownedLease("some-channel", "shard-1");
+        store.compareAndSet(null, lease);
+        final ShardLease update = lease.withCheckpoint(fromHorizon("shard-1")).finished();
+
+        // when
+        final boolean updated = store.compareAndSet(lease, update);
+
+        // then
+        assertThat(updated, is(true));
+        assertThat(store.getLeases("some-channel"), contains(update));
+    }
+}
@@ -0,0 +1,144 @@
+package de.otto.synapse.lease;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static de.otto.synapse.channel.ShardPosition.fromPosition;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ShardLeaseCoordinatorTest {
+
+    private static final List<String> SHARDS = ImmutableList.of("shard-1", "shard-2", "shard-3", "shard-4");
+    private static final Duration LEASE_DURATION = Duration.ofSeconds(30);
+
+    private final Clock clock = mock(Clock.class);
+    private final AtomicLong now = new AtomicLong();
+    private final ShardLeaseStore leaseStore = new InMemoryShardLeaseStore();
+
+    @Before
+    public void setUp() {
+        now.set(System.currentTimeMillis());
+        when(clock.millis()).thenAnswer(invocation -> now.get());
+        when(clock.instant()).thenAnswer(invocation -> Instant.ofEpochMilli(now.get()));
+    }
+
+    @Test
+    public void shouldAcquireAllShardsIfSingleInstance() {
+        // given
+        final ShardLeaseCoordinator coordinator = coordinator("instance-1");
+
+        // when
+        final ImmutableSet<String> ownedShards = coordinator.balance(SHARDS);
+
+        // then
+        assertThat(ownedShards, containsInAnyOrder("shard-1", "shard-2", "shard-3", "shard-4"));
+        assertThat(leaseStore.getLeases("some-channel"), hasSize(4));
+    }
+
+    @Test
+    public void shouldBalanceShardsAcrossInstances() {
+        // given
+        final ShardLeaseCoordinator first = coordinator("instance-1");
+        final ShardLeaseCoordinator second = coordinator("instance-2");
+        first.balance(SHARDS);
+
+        // when
+        for (int i = 0; i < 3; ++i) {
+            second.balance(SHARDS);
+            first.balance(SHARDS);
+        }
+
+        // then
+        assertThat(first.getOwnedShards(), hasSize(2));
+        assertThat(second.getOwnedShards(), hasSize(2));
+        assertThat(ImmutableSet.builder().addAll(first.getOwnedShards()).addAll(second.getOwnedShards()).build(), hasSize(4));
+    }
+
+    @Test
+    public void shouldTakeOverExpiredLeases() {
+        // given
+        final ShardLeaseCoordinator first = coordinator("instance-1");
+        final ShardLeaseCoordinator second = coordinator("instance-2");
+        first.balance(SHARDS);
+
+        // when
+        now.addAndGet(LEASE_DURATION.toMillis() + 1);
+        final ImmutableSet<String> ownedShards = second.balance(SHARDS);
+
+        // then
+        assertThat(ownedShards, hasSize(4));
+        assertThat(leaseStore.getLeases("some-channel").stream().allMatch(lease -> lease.isOwnedBy("instance-2", clock.instant())), is(true));
+    }
+
+    @Test
+    public void shouldContinueAtCheckpointOfPreviousOwner() {
+        // given
+        final ShardLeaseCoordinator first = coordinator("instance-1");
+        first.balance(SHARDS);
+        first.checkpoint(fromPosition("shard-1", "42"));
+        first.balance(SHARDS);
+
+        // when
+        now.addAndGet(LEASE_DURATION.toMillis() + 1);
+        final ShardLeaseCoordinator second = coordinator("instance-2");
+        second.balance(SHARDS);
+
+        // then
+        assertThat(second.getCheckpoint("shard-1"), is(Optional.of(fromPosition("shard-1", "42"))));
+        assertThat(second.getCheckpoint("shard-2"), is(Optional.empty()));
+    }
+
+    @Test
+    public void shouldPersistCheckpointsWhenReleasingLeases() {
+        // given
+        final ShardLeaseCoordinator first = coordinator("instance-1");
+        first.balance(SHARDS);
+        first.checkpoint(fromPosition("shard-2", "4711"));
+
+        // when
+        first.releaseAll();
+        final ShardLeaseCoordinator second = coordinator("instance-2");
+        final ImmutableSet<String> ownedShards = second.balance(SHARDS);
+
+        // then
+        assertThat(first.getOwnedShards(), is(empty()));
+        assertThat(ownedShards, hasSize(4));
+        assertThat(second.getCheckpoint("shard-2"), is(Optional.of(fromPosition("shard-2", "4711"))));
+    }
+
+    @Test
+    public void shouldNotAcquireFinishedShards() {
+        // given
+        final ShardLeaseCoordinator first = coordinator("instance-1");
+        first.balance(SHARDS);
+
+        // when
+        first.finish(fromPosition("shard-1", "99"));
+        first.releaseAll();
+        final ShardLeaseCoordinator second = coordinator("instance-2");
+        final ImmutableSet<String> ownedShards = second.balance(SHARDS);
+
+        // then
+        assertThat(ownedShards, containsInAnyOrder("shard-2", "shard-3", "shard-4"));
+        assertThat(second.getFinishedShards(), containsInAnyOrder("shard-1"));
+    }
+
+    private ShardLeaseCoordinator coordinator(final String ownerId) {
+        return new ShardLeaseCoordinator("some-channel", leaseStore, ownerId, LEASE_DURATION, clock);
+    }
+}
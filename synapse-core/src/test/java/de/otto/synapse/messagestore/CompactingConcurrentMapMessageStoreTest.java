@@ -0,0 +1,47 @@
+package de.otto.synapse.messagestore;
+
+import de.otto.synapse.info.StorageMetrics;
+import org.junit.Test;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import static de.otto.synapse.message.Message.message;
+import static java.lang.String.valueOf;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+
+public class CompactingConcurrentMapMessageStoreTest {
+
+    @Test
+    public void shouldReportStorageMetricsOfChronicleMap() {
+        // given
+        final CompactingConcurrentMapMessageStore messageStore = new CompactingConcurrentMapMessageStore();
+        for (int i = 0; i < 100; ++i) {
+            messageStore.add(message(valueOf(i), "some payload"));
+        }
+        // when
+        final StorageMetrics metrics = messageStore.getStorageMetrics();
+        // then
+        assertThat(metrics.getEntryCount(), is(100L));
+        assertThat(metrics.getOffHeapBytesAllocated(), is(greaterThan(0L)));
+        assertThat(metrics.getAverageValueSize(), is(greaterThan(0.0)));
+        assertThat(metrics.getSegments(), is(greaterThan(0)));
+        assertThat(metrics.getEstimatedOnHeapBytes(), is(greaterThan(100L * 40)));
+    }
+
+    @Test
+    public void shouldReportStorageMetricsOfOnHeapMap() {
+        // given
+        final CompactingConcurrentMapMessageStore messageStore = new CompactingConcurrentMapMessageStore(true, new ConcurrentHashMap<>());
+        for (int i = 0; i < 100; ++i) {
+            messageStore.add(message(valueOf(i), "some payload"));
+        }
+        // when
+        final StorageMetrics metrics = messageStore.getStorageMetrics();
+        // then
+        assertThat(metrics.getEntryCount(), is(100L));
+        assertThat(metrics.getOffHeapBytesAllocated(), is(-1L));
+        assertThat(metrics.getEstimatedOnHeapBytes(), is(greaterThan(100L * 40)));
+    }
+}
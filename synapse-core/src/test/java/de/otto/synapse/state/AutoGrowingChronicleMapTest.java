@@ -0,0 +1,179 @@
+package de.otto.synapse.state;
+
+import net.openhft.chronicle.map.ChronicleMapBuilder;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
+
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.fail;
+
+public class AutoGrowingChronicleMapTest {
+
+    @Test
+    public void shouldGrowIfEntriesAreExceeded() {
+        // given
+        final AutoGrowingChronicleMap<String, String> map = new AutoGrowingChronicleMap<>(
+                ChronicleMapBuilder.of(String.class, String.class).averageKeySize(8).averageValueSize(8), 100);
+        // when
+        for (int i = 0; i < 10000; i++) {
+            map.put("key-" + i, "some larger value than expected " + i);
+        }
+        map.awaitGrowth();
+        // then
+        assertThat(map.size(), is(10000));
+        assertThat(map.get("key-4711"), is("some larger value than expected 4711"));
+        assertThat(map.getGrowthCount(), is(greaterThan(0)));
+        assertThat(map.getEntries(), is(greaterThan(10000L)));
+        assertThat(map.getFillRatio(), is(lessThanOrEqualTo(1.0)));
+    }
+
+    @Test
+    public void shouldNotGrowIfRemappingFunctionThrowsIllegalStateException() {
+        // given
+        final AutoGrowingChronicleMap<String, String> map = new AutoGrowingChronicleMap<>(
+                ChronicleMapBuilder.of(String.class, String.class).averageKeySize(8).averageValueSize(8), 100);
+        final IllegalStateException exception = new IllegalStateException("some failure");
+        // when
+        try {
+            map.compute("key", (key, value) -> {
+                throw exception;
+            });
+            fail("IllegalStateException expected");
+        } catch (final IllegalStateException e) {
+            // then
+            assertThat(e, is(sameInstance(exception)));
+        }
+        assertThat(map.getGrowthCount(), is(0));
+    }
+
+    @Test
+    public void shouldNotGrowBelowMaxFillRatio() {
+        // given
+        final AutoGrowingChronicleMap<String, String> map = new AutoGrowingChronicleMap<>(
+                ChronicleMapBuilder.of(String.class, String.class).averageKeySize(8).averageValueSize(8), 10000);
+        // when
+        for (int i = 0; i < 5000; i++) {
+            map.put("key-" + i, "value-" + i);
+        }
+        // then
+        assertThat(map.getGrowthCount(), is(0));
+        assertThat(map.getFillRatio(), is(0.5));
+    }
+
+    @Test
+    public void shouldGrowWhileWritingConcurrently() {
+        // given
+        final AutoGrowingChronicleMap<String, String> map = new AutoGrowingChronicleMap<>(
+                ChronicleMapBuilder.of(String.class, String.class).averageKeySize(8).averageValueSize(8), 100);
+        // when
+        CompletableFuture.allOf(IntStream.range(0, 4)
+                .mapToObj(thread -> CompletableFuture.runAsync(() -> {
+                    for (int i = 0; i < 2500; i++) {
+                        map.compute("key-" + thread + "-" + i, (k, v) -> "value-" + k);
+                    }
+                }))
+                .collect(toList())
+                .toArray(new CompletableFuture[0])).join();
+        // then
+        assertThat(map.size(), is(10000));
+        assertThat(map.get("key-3-2499"), is("value-key-3-2499"));
+    }
+
+    @Test
+    public void shouldApplyModificationsWhileGrowingInBackground() {
+        // given
+        final List<Runnable> copies = new ArrayList<>();
+        final AutoGrowingChronicleMap<String, String> map = new AutoGrowingChronicleMap<>(
+                ChronicleMapBuilder.of(String.class, String.class).averageKeySize(8).averageValueSize(8), 10000, 0.1, 2.0, copies::add);
+        for (int i = 0; i < AutoGrowingChronicleMap.CHECK_INTERVAL; i++) {
+            map.put("key-" + i, "value-" + i);
+        }
+        // when
+        map.put("key-0", "modified");
+        map.remove("key-1");
+        map.put("key-new", "added");
+        // then
+        assertThat(copies.size(), is(1));
+        assertThat(map.getGrowthCount(), is(0));
+        assertThat(map.get("key-0"), is("modified"));
+        // when
+        copies.forEach(Runnable::run);
+        // then
+        assertThat(map.getGrowthCount(), is(1));
+        assertThat(map.getEntries(), is(20000L));
+        assertThat(map.size(), is(AutoGrowingChronicleMap.CHECK_INTERVAL));
+        assertThat(map.get("key-0"), is("modified"));
+        assertThat(map.get("key-1"), is(nullValue()));
+        assertThat(map.get("key-new"), is("added"));
+        assertThat(map.get("key-1023"), is("value-1023"));
+    }
+
+    @Test
+    public void shouldIterateKeysOfCurrentMap() {
+        // given
+        final AutoGrowingChronicleMap<String, String> map = new AutoGrowingChronicleMap<>(
+                ChronicleMapBuilder.of(String.class, String.class).averageKeySize(8).averageValueSize(8), 10);
+        for (int i = 0; i < 2000; i++) {
+            map.put("key-" + i, "value-" + i);
+        }
+        // when
+        final Set<String> keys = new HashSet<>(map.keySet());
+        // then
+        assertThat(keys.size(), is(2000));
+    }
+
+    @Test
+    public void shouldContinueIterationWhileMapIsGrowing() {
+        // given
+        final AutoGrowingChronicleMap<String, String> map = new AutoGrowingChronicleMap<>(
+                ChronicleMapBuilder.of(String.class, String.class).averageKeySize(8).averageValueSize(8), 100);
+        for (int i = 0; i < 90; i++) {
+            map.put("key-" + i, "value-" + i);
+        }
+        final Iterator<Map.Entry<String, String>> entries = map.entrySet().iterator();
+        final Set<String> keys = new HashSet<>();
+        keys.add(entries.next().getKey());
+        // when
+        for (int i = 90; i < 5000; i++) {
+            map.put("key-" + i, "value-" + i);
+        }
+        entries.forEachRemaining(entry -> keys.add(entry.getKey()));
+        map.awaitGrowth();
+        // then
+        assertThat(map.getGrowthCount(), is(greaterThan(0)));
+        assertThat(keys.size(), is(greaterThanOrEqualTo(90)));
+        assertThat(map.get("key-4711"), is("value-4711"));
+    }
+
+    @Test
+    public void shouldRecognizeCapacityExceptionsOfChronicleMap3_14_1() {
+        // exact messages thrown by ChronicleMap 3.14.1, used as a fallback if the free space was not checked in time:
+        final IllegalStateException noMoreTiers = new IllegalStateException("ChronicleMap{name=null, file=null, identityHashCode=1836019240}: " +
+                "Attempt to allocate #2 extra segment tier, 1 is maximum.\n" +
+                "Possible reasons include:\n" +
+                " - you have forgotten to configure (or configured wrong) builder.entries() number\n" +
+                " - same regarding other sizing Chronicle Hash configurations, most likely maxBloatFactor(), averageKeySize(), or averageValueSize()\n" +
+                " - keys, inserted into the ChronicleHash, are distributed suspiciously bad. This might be a DOS attack");
+        final IllegalArgumentException entryTooLarge = new IllegalArgumentException("ChronicleMap{name=null, file=null, identityHashCode=1836019240}: " +
+                "Entry is too large: requires 70 chunks, 64 is maximum.");
+
+        assertThat(AutoGrowingChronicleMap.isCapacityExceeded(noMoreTiers), is(true));
+        assertThat(AutoGrowingChronicleMap.isCapacityExceeded(entryTooLarge), is(true));
+        assertThat(AutoGrowingChronicleMap.isCapacityExceeded(new IllegalStateException("some failure")), is(false));
+    }
+}
@@ -1,20 +1,50 @@
 package de.otto.synapse.state;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.otto.synapse.checkpoint.ChannelPositionCodec;
+import de.otto.synapse.info.StorageMetrics;
+import net.openhft.chronicle.bytes.Bytes;
+import net.openhft.chronicle.bytes.BytesIn;
+import net.openhft.chronicle.bytes.BytesMarshallable;
+import net.openhft.chronicle.bytes.BytesOut;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import static de.otto.synapse.channel.ChannelPosition.channelPosition;
+import static de.otto.synapse.channel.ShardPosition.fromPosition;
 import static de.otto.synapse.state.ChronicleMapStateRepository.chronicleMapConcurrentMapStateRepositoryBuilder;
+import static org.awaitility.Awaitility.await;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
 
 public class ChronicleMapStateRepositoryTest {
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Test
     public void shouldRetrieveValueAfterPut() {
         // given
@@ -75,6 +105,301 @@ public class ChronicleMapStateRepositoryTest {
         assertThat(resultKeys, containsInAnyOrder("someKeyA", "someKeyB", "someKeyC"));
     }
 
+    @Test
+    public void shouldRetrieveValueEncodedAsSmile() {
+        // given
+        ChronicleMapStateRepository<SomePojo> repository = chronicleMapConcurrentMapStateRepositoryBuilder(SomePojo.class)
+                .withValueMarshaller(ChronicleMapBytesMarshaller.smile(SomePojo.class))
+                .build();
+        // when
+        repository.put("someKey", new SomePojo("A", 1));
+        // then
+        assertThat(repository.get("someKey"), is(Optional.of(new SomePojo("A", 1))));
+    }
+
+    @Test
+    public void shouldRetrieveValueEncodedAsCbor() {
+        // given
+        ChronicleMapStateRepository<SomePojo> repository = chronicleMapConcurrentMapStateRepositoryBuilder(SomePojo.class)
+                .withValueMarshaller(ChronicleMapBytesMarshaller.cbor(SomePojo.class))
+                .build();
+        // when
+        repository.put("someKey", new SomePojo("A", 1));
+        // then
+        assertThat(repository.get("someKey"), is(Optional.of(new SomePojo("A", 1))));
+    }
+
+    @Test
+    public void shouldRetrieveBytesMarshallableValue() {
+        // given
+        ChronicleMapStateRepository<SomeBytesMarshallablePojo> repository = chronicleMapConcurrentMapStateRepositoryBuilder(SomeBytesMarshallablePojo.class)
+                .withValueMarshaller(new ChronicleMapBytesMarshallableMarshaller<>(SomeBytesMarshallablePojo.class))
+                .build();
+        // when
+        repository.put("someKey", new SomeBytesMarshallablePojo("A", 1));
+        // then
+        assertThat(repository.get("someKey"), is(Optional.of(new SomeBytesMarshallablePojo("A", 1))));
+    }
+
+    @Test
+    public void shouldReuseInstanceWhenReadingBytesMarshallableValue() {
+        // given
+        final ChronicleMapBytesMarshallableMarshaller<SomeBytesMarshallablePojo> marshaller = new ChronicleMapBytesMarshallableMarshaller<>(SomeBytesMarshallablePojo.class);
+        final Bytes<?> bytes = Bytes.elasticByteBuffer();
+        marshaller.write(bytes, new SomeBytesMarshallablePojo("A", 1));
+        final SomeBytesMarshallablePojo using = new SomeBytesMarshallablePojo();
+        // when
+        final SomeBytesMarshallablePojo result = marshaller.read(bytes, using);
+        // then
+        Assert.assertSame(using, result);
+        assertThat(result, is(new SomeBytesMarshallablePojo("A", 1)));
+    }
+
+    @Test
+    public void shouldRecoverSmileEncodedStateFromPersistenceFile() throws IOException {
+        // given
+        final File file = new File(temporaryFolder.newFolder(), "state.dat");
+        try (ChronicleMapStateRepository<SomePojo> repository = chronicleMapConcurrentMapStateRepositoryBuilder(SomePojo.class)
+                .withValueMarshaller(ChronicleMapBytesMarshaller.smile(SomePojo.class))
+                .withPersistenceFile(file)
+                .build()) {
+            repository.put("someKey", new SomePojo("A", 1));
+        }
+        // when
+        try (ChronicleMapStateRepository<SomePojo> repository = chronicleMapConcurrentMapStateRepositoryBuilder(SomePojo.class)
+                .withValueMarshaller(ChronicleMapBytesMarshaller.smile(SomePojo.class))
+                .withPersistenceFile(file)
+                .build()) {
+            // then
+            assertThat(repository.get("someKey"), is(Optional.of(new SomePojo("A", 1))));
+        }
+    }
+
+    @Test
+    public void shouldRecoverStateFromPersistenceFile() throws IOException {
+        // given
+        final File file = new File(temporaryFolder.newFolder(), "state.dat");
+        try (ChronicleMapStateRepository<SomePojo> repository = chronicleMapConcurrentMapStateRepositoryBuilder(SomePojo.class).withPersistenceFile(file).build()) {
+            repository.put("someKey", new SomePojo("A", 1));
+        }
+        // when
+        try (ChronicleMapStateRepository<SomePojo> repository = chronicleMapConcurrentMapStateRepositoryBuilder(SomePojo.class).withPersistenceFile(file).build()) {
+            // then
+            assertThat(repository.isPersistent(), is(true));
+            assertThat(repository.get("someKey"), is(Optional.of(new SomePojo("A", 1))));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldRejectCustomObjectMapperForPersistentRepository() throws IOException {
+        chronicleMapConcurrentMapStateRepositoryBuilder(SomePojo.class)
+                .withObjectMapper(new ObjectMapper())
+                .withPersistenceFile(new File(temporaryFolder.newFolder(), "state.dat"))
+                .build();
+    }
+
+    @Test
+    public void shouldPersistChannelPositionUsingChannelPositionCodec() throws IOException {
+        // given
+        final File file = new File(temporaryFolder.newFolder(), "state.dat");
+        try (ChronicleMapStateRepository<SomePojo> repository = chronicleMapConcurrentMapStateRepositoryBuilder(SomePojo.class).withPersistenceFile(file).build()) {
+            // when
+            repository.persistChannelPosition(channelPosition(fromPosition("shard-1", "42")));
+        }
+        // then
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file.getPath() + ".position"))) {
+            assertThat(in.readInt(), is(1));
+            assertThat(ChannelPositionCodec.read(in), is(channelPosition(fromPosition("shard-1", "42"))));
+        }
+    }
+
+    @Test
+    public void shouldIgnorePersistedChannelPositionWithUnsupportedFormat() throws IOException {
+        // given
+        final File file = new File(temporaryFolder.newFolder(), "state.dat");
+        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(file.getPath() + ".position"))) {
+            out.writeObject(channelPosition(fromPosition("shard-1", "42")));
+        }
+        try (ChronicleMapStateRepository<SomePojo> repository = chronicleMapConcurrentMapStateRepositoryBuilder(SomePojo.class).withPersistenceFile(file).build()) {
+            // when
+            final Optional<?> result = repository.getPersistedChannelPosition(Instant.MIN);
+            // then
+            assertThat(result, is(Optional.empty()));
+        }
+    }
+
+    @Test
+    public void shouldRecoverPersistedChannelPosition() throws IOException {
+        // given
+        final File file = new File(temporaryFolder.newFolder(), "state.dat");
+        final Instant beforePersisting = Instant.now().minusSeconds(10);
+        try (ChronicleMapStateRepository<SomePojo> repository = chronicleMapConcurrentMapStateRepositoryBuilder(SomePojo.class).withPersistenceFile(file).build()) {
+            repository.persistChannelPosition(channelPosition(fromPosition("shard-1", "42")));
+        }
+        // when
+        try (ChronicleMapStateRepository<SomePojo> repository = chronicleMapConcurrentMapStateRepositoryBuilder(SomePojo.class).withPersistenceFile(file).build()) {
+            // then
+            assertThat(repository.getPersistedChannelPosition(beforePersisting), is(Optional.of(channelPosition(fromPosition("shard-1", "42")))));
+        }
+    }
+
+    @Test
+    public void shouldIgnoreOutdatedChannelPosition() throws IOException {
+        // given
+        final File file = new File(temporaryFolder.newFolder(), "state.dat");
+        try (ChronicleMapStateRepository<SomePojo> repository = chronicleMapConcurrentMapStateRepositoryBuilder(SomePojo.class).withPersistenceFile(file).build()) {
+            repository.persistChannelPosition(channelPosition(fromPosition("shard-1", "42")));
+            // when
+            final Optional<?> result = repository.getPersistedChannelPosition(Instant.now().plusSeconds(10));
+            // then
+            assertThat(result, is(Optional.empty()));
+        }
+    }
+
+    @Test
+    public void shouldNotReturnChannelPositionForNonPersistentRepository() {
+        // given
+        ChronicleMapStateRepository<SomePojo> repository = chronicleMapConcurrentMapStateRepositoryBuilder(SomePojo.class).build();
+        // when
+        final Optional<?> result = repository.getPersistedChannelPosition(Instant.MIN);
+        // then
+        assertThat(repository.isPersistent(), is(false));
+        assertThat(result, is(Optional.empty()));
+    }
+
+    @Test
+    public void shouldGrowBeyondConfiguredEntries() {
+        // given
+        ChronicleMapStateRepository<SomePojo> repository = chronicleMapConcurrentMapStateRepositoryBuilder(SomePojo.class)
+                .withEntries(100)
+                .withAutoGrowth()
+                .build();
+        // when
+        for (int i = 0; i < 10000; i++) {
+            repository.put("someKey-" + i, new SomePojo("some value " + i, i));
+        }
+        // then
+        assertThat(repository.size(), is(10000L));
+        assertThat(repository.get("someKey-42"), is(Optional.of(new SomePojo("some value 42", 42))));
+        // the map is growing in the background:
+        await().atMost(5, TimeUnit.SECONDS).until(() -> repository.getGrowthCount() > 0 && repository.getFillRatio() <= 1.0);
+    }
+
+    @Test
+    public void shouldCalculateFillRatio() {
+        // given
+        ChronicleMapStateRepository<SomePojo> repository = chronicleMapConcurrentMapStateRepositoryBuilder(SomePojo.class)
+                .withEntries(100)
+                .build();
+        // when
+        repository.put("someKeyA", new SomePojo("A", 1));
+        repository.put("someKeyB", new SomePojo("B", 2));
+        // then
+        assertThat(repository.getFillRatio(), is(0.02));
+        assertThat(repository.getGrowthCount(), is(0));
+        assertThat(repository.getOffHeapMemoryUsed() > 0, is(true));
+    }
+
+    @Test
+    public void shouldSizeRepositoryFromSample() {
+        // given
+        final Map<String, SomePojo> sample = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            sample.put("some-rather-long-key-" + i, new SomePojo(String.join("", Collections.nCopies(2000, "x")), i));
+        }
+        ChronicleMapStateRepository<SomePojo> repository = chronicleMapConcurrentMapStateRepositoryBuilder(SomePojo.class)
+                .withEntries(1000)
+                .withSizingSample(sample)
+                .build();
+        // when
+        for (int i = 0; i < 1000; i++) {
+            repository.put("some-rather-long-key-" + i, new SomePojo(String.join("", Collections.nCopies(2000, "x")), i));
+        }
+        // then
+        assertThat(repository.size(), is(1000L));
+    }
+
+    @Test
+    public void shouldVisitAllEntriesInParallel() {
+        // given
+        ChronicleMapStateRepository<SomePojo> repository = chronicleMapConcurrentMapStateRepositoryBuilder(SomePojo.class)
+                .withEntries(10000)
+                .build();
+        for (int i = 0; i < 5000; i++) {
+            repository.put("someKey-" + i, new SomePojo("some value " + i, i));
+        }
+        // when
+        final ConcurrentMap<String, SomePojo> visited = new ConcurrentHashMap<>();
+        final ConcurrentMap<Thread, Boolean> threads = new ConcurrentHashMap<>();
+        repository.parallelForEach((key, value) -> {
+            threads.put(Thread.currentThread(), true);
+            Assert.assertNull(visited.put(key, value));
+        }, new ForkJoinPool(4));
+        // then
+        assertThat(visited.size(), is(5000));
+        assertThat(visited.get("someKey-42"), is(new SomePojo("some value 42", 42)));
+        assertThat(threads.size() > 1, is(true));
+    }
+
+    @Test
+    public void shouldVisitAllEntriesInParallelWhileGrowing() {
+        // given
+        ChronicleMapStateRepository<SomePojo> repository = chronicleMapConcurrentMapStateRepositoryBuilder(SomePojo.class)
+                .withEntries(1000)
+                .withAutoGrowth()
+                .build();
+        for (int i = 0; i < 900; i++) {
+            repository.put("someKey-" + i, new SomePojo("some value " + i, i));
+        }
+        // when
+        final ConcurrentMap<String, SomePojo> visited = new ConcurrentHashMap<>();
+        final AtomicBoolean grown = new AtomicBoolean(false);
+        repository.parallelForEach((key, value) -> {
+            if (grown.compareAndSet(false, true)) {
+                for (int i = 0; i < 5000; i++) {
+                    repository.put("someOtherKey-" + i, new SomePojo("some other value " + i, i));
+                }
+            }
+            visited.put(key, value);
+        });
+        // then
+        await().atMost(5, TimeUnit.SECONDS).until(() -> repository.getGrowthCount() > 0);
+        for (int i = 0; i < 900; i++) {
+            assertThat(visited.get("someKey-" + i), is(new SomePojo("some value " + i, i)));
+        }
+        assertThat(repository.size(), is(5900L));
+    }
+
+    @Test
+    public void shouldReportStorageMetrics() {
+        // given
+        ChronicleMapStateRepository<SomePojo> repository = chronicleMapConcurrentMapStateRepositoryBuilder(SomePojo.class)
+                .withEntries(1000)
+                .withAverageValueSize(64)
+                .build();
+        for (int i = 0; i < 100; i++) {
+            repository.put("someKey-" + i, new SomePojo(String.join("", Collections.nCopies(200, "x")), i));
+        }
+        // when
+        final StorageMetrics metrics = repository.getStorageMetrics();
+        // then
+        assertThat(metrics.getEntryCount(), is(100L));
+        assertThat(metrics.getFillRatio(), is(0.1));
+        assertThat(metrics.getAverageValueSize() > 200, is(true));
+        assertThat(metrics.getAverageKeySize() > 8, is(true));
+        assertThat(metrics.getOffHeapBytesUsed() > 100 * 200, is(true));
+        assertThat(metrics.getOffHeapBytesAllocated(), is(repository.getOffHeapMemoryUsed()));
+        assertThat(metrics.getMaxSegmentFillRatio() >= metrics.getFillRatio(), is(true));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldRejectAutoGrowthOfPersistentRepository() throws IOException {
+        chronicleMapConcurrentMapStateRepositoryBuilder(SomePojo.class)
+                .withPersistenceFile(new File(temporaryFolder.getRoot(), "state.dat"))
+                .withAutoGrowth()
+                .build();
+    }
+
     public static class SomePojo {
 
         public String someString;
@@ -104,4 +429,44 @@ public class ChronicleMapStateRepositoryTest {
         }
     }
 
+    public static class SomeBytesMarshallablePojo implements BytesMarshallable {
+
+        private String someString;
+        private int someInteger;
+
+        SomeBytesMarshallablePojo() {
+        }
+
+        SomeBytesMarshallablePojo(String someString, int someInteger) {
+            this.someString = someString;
+            this.someInteger = someInteger;
+        }
+
+        @Override
+        public void readMarshallable(BytesIn bytes) {
+            someString = bytes.readUtf8();
+            someInteger = bytes.readInt();
+        }
+
+        @Override
+        public void writeMarshallable(BytesOut bytes) {
+            bytes.writeUtf8(someString);
+            bytes.writeInt(someInteger);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            SomeBytesMarshallablePojo that = (SomeBytesMarshallablePojo) o;
+            return someInteger == that.someInteger &&
+                    Objects.equals(someString, that.someString);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(someString, someInteger);
+        }
+    }
+
 }
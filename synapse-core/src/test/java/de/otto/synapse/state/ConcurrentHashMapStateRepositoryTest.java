@@ -0,0 +1,45 @@
+package de.otto.synapse.state;
+
+import de.otto.synapse.info.StorageMetrics;
+import org.junit.Test;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class ConcurrentHashMapStateRepositoryTest {
+
+    @Test
+    public void shouldVisitAllEntriesInParallel() {
+        // given
+        final StateRepository<String> repository = new ConcurrentHashMapStateRepository<>();
+        for (int i = 0; i < 10000; i++) {
+            repository.put("someKey-" + i, "some value " + i);
+        }
+        // when
+        final ConcurrentMap<String, String> visited = new ConcurrentHashMap<>();
+        repository.parallelForEach(visited::put, new ForkJoinPool(4));
+        // then
+        assertThat(visited.size(), is(10000));
+        assertThat(visited.get("someKey-42"), is("some value 42"));
+    }
+
+    @Test
+    public void shouldEstimateOnHeapMemory() {
+        // given
+        final ConcurrentHashMapStateRepository<String> repository = new ConcurrentHashMapStateRepository<>();
+        for (int i = 0; i < 100; i++) {
+            repository.put("someKey-" + i, "some value");
+        }
+        // when
+        final StorageMetrics metrics = repository.getStorageMetrics();
+        // then
+        assertThat(metrics.getEntryCount(), is(100L));
+        assertThat(metrics.getOffHeapBytesAllocated(), is(0L));
+        // per entry: map structures (43 bytes), key and value (64 bytes each)
+        assertThat(metrics.getEstimatedOnHeapBytes(), is(100L * (43 + 64 + 64)));
+    }
+}
@@ -0,0 +1,213 @@
+package de.otto.synapse.state;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static de.otto.synapse.state.ExpiringStateRepository.expiringStateRepositoryBuilder;
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasEntry;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ExpiringStateRepositoryTest {
+
+    private final AtomicLong now = new AtomicLong(1_000_000);
+    private final Clock clock = mock(Clock.class);
+    private final Map<String, String> expired = new HashMap<>();
+
+    @Before
+    public void setUp() {
+        when(clock.millis()).thenAnswer(invocation -> now.get());
+        when(clock.instant()).thenAnswer(invocation -> Instant.ofEpochMilli(now.get()));
+    }
+
+    @Test
+    public void shouldExpireEntriesAfterTimeToLive() {
+        // given
+        final ExpiringStateRepository<String> repository = repositoryBuilder()
+                .withTimeToLive(Duration.ofSeconds(10))
+                .build();
+        repository.put("someKey", "someValue");
+        // when
+        now.addAndGet(9_000);
+        final int expiredAfter9s = repository.expire();
+        now.addAndGet(1_000);
+        final int expiredAfter10s = repository.expire();
+        // then
+        assertThat(expiredAfter9s, is(0));
+        assertThat(expiredAfter10s, is(1));
+        assertThat(repository.size(), is(0L));
+        assertThat(expired, hasEntry("someKey", "someValue"));
+    }
+
+    @Test
+    public void shouldExtendTimeToLiveOnModification() {
+        // given
+        final ExpiringStateRepository<String> repository = repositoryBuilder()
+                .withTimeToLive(Duration.ofSeconds(10))
+                .build();
+        repository.put("someKey", "someValue");
+        // when
+        now.addAndGet(5_000);
+        repository.compute("someKey", (key, value) -> value.get() + "-updated");
+        now.addAndGet(5_000);
+        repository.expire();
+        // then
+        assertThat(repository.get("someKey"), is(Optional.of("someValue-updated")));
+        assertThat(expired.isEmpty(), is(true));
+        // when
+        now.addAndGet(5_000);
+        repository.expire();
+        // then
+        assertThat(expired, hasEntry("someKey", "someValue-updated"));
+    }
+
+    @Test
+    public void shouldUseExpiryFunction() {
+        // given
+        final ExpiringStateRepository<String> repository = repositoryBuilder()
+                .withExpiryFunction((key, value) -> value.startsWith("promotion")
+                        ? Optional.of(Instant.ofEpochMilli(Long.parseLong(value.substring(10))))
+                        : Optional.empty())
+                .build();
+        // when
+        repository.put("promotion", "promotion:" + (now.get() + 60_000));
+        repository.put("product", "product");
+        now.addAndGet(120_000);
+        repository.expire();
+        // then
+        assertThat(repository.get("promotion"), is(Optional.empty()));
+        assertThat(repository.get("product"), is(Optional.of("product")));
+        assertThat(repository.getExpiry("product"), is(Optional.empty()));
+        assertThat(expired.size(), is(1));
+    }
+
+    @Test
+    public void shouldHideExpiredEntriesBeforeTheyAreRemoved() {
+        // given
+        final ExpiringStateRepository<String> repository = repositoryBuilder()
+                .withTimeToLive(Duration.ofSeconds(10))
+                .build();
+        repository.put("someKey", "someValue");
+        // when
+        now.addAndGet(10_000);
+        // then
+        assertThat(repository.get("someKey"), is(Optional.empty()));
+        assertThat(repository.compute("someKey", (key, value) -> value.orElse("new")), is("new"));
+    }
+
+    @Test
+    public void shouldHideExpiredEntriesFromKeySetSizeAndForEach() {
+        // given
+        final ExpiringStateRepository<String> repository = repositoryBuilder()
+                .withExpiryFunction((key, value) -> key.startsWith("expiring")
+                        ? Optional.of(Instant.ofEpochMilli(now.get() + 10_000))
+                        : Optional.empty())
+                .build();
+        repository.put("expiringKey", "someValue");
+        repository.put("someKey", "someValue");
+        // when
+        now.addAndGet(10_000);
+        final List<String> visitedKeys = new ArrayList<>();
+        repository.forEach((key, value) -> visitedKeys.add(key));
+        // then
+        assertThat(repository.keySet(), contains("someKey"));
+        assertThat(repository.size(), is(1L));
+        assertThat(visitedKeys, contains("someKey"));
+    }
+
+    @Test
+    public void shouldReturnLiveViewOfKeys() {
+        // given
+        final ExpiringStateRepository<String> repository = repositoryBuilder()
+                .withTimeToLive(Duration.ofSeconds(10))
+                .build();
+        final Set<String> keys = repository.keySet();
+        // when
+        repository.put("someKey", "someValue");
+        // then
+        assertThat(keys.contains("someKey"), is(true));
+        assertThat(keys.size(), is(1));
+        // when
+        now.addAndGet(10_000);
+        // then
+        assertThat(keys.contains("someKey"), is(false));
+        assertThat(keys.isEmpty(), is(true));
+    }
+
+    @Test
+    public void shouldCountEntriesModifiedAfterTheyHaveExpired() {
+        // given
+        final ExpiringStateRepository<String> repository = repositoryBuilder()
+                .withTimeToLive(Duration.ofSeconds(10))
+                .build();
+        repository.put("someKey", "someValue");
+        repository.put("otherKey", "otherValue");
+        now.addAndGet(10_000);
+        final long sizeAfterExpiry = repository.size();
+        // when
+        repository.put("someKey", "newValue");
+        repository.remove("otherKey");
+        // then
+        assertThat(sizeAfterExpiry, is(0L));
+        assertThat(repository.size(), is(1L));
+        assertThat(repository.expire(), is(0));
+        assertThat(repository.get("someKey"), is(Optional.of("newValue")));
+        assertThat(expired.isEmpty(), is(true));
+    }
+
+    @Test
+    public void shouldExpireEntriesAutomatically() throws Exception {
+        // given
+        final Map<String, String> expiredEntries = new ConcurrentHashMap<>();
+        try (ExpiringStateRepository<String> repository = expiringStateRepositoryBuilder(new ConcurrentHashMapStateRepository<String>())
+                .withTimeToLive(Duration.ofMillis(20))
+                .withTick(Duration.ofMillis(10))
+                .withExpirationListener(expiredEntries::put)
+                .build()) {
+            // when
+            repository.put("someKey", "someValue");
+            // then
+            await().atMost(1, TimeUnit.SECONDS).until(() -> expiredEntries.containsKey("someKey"));
+        }
+    }
+
+    @Test
+    public void shouldNotExpireRemovedEntries() {
+        // given
+        final ExpiringStateRepository<String> repository = repositoryBuilder()
+                .withTimeToLive(Duration.ofSeconds(10))
+                .build();
+        repository.put("someKey", "someValue");
+        repository.remove("someKey");
+        // when
+        now.addAndGet(10_000);
+        final int count = repository.expire();
+        // then
+        assertThat(count, is(0));
+        assertThat(expired.isEmpty(), is(true));
+    }
+
+    private ExpiringStateRepository.Builder<String> repositoryBuilder() {
+        return expiringStateRepositoryBuilder(new ConcurrentHashMapStateRepository<String>())
+                .withClock(clock)
+                .withExpirationListener(expired::put)
+                .withoutAutomaticExpiry();
+    }
+}
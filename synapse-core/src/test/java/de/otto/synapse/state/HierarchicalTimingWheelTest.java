@@ -0,0 +1,113 @@
+package de.otto.synapse.state;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+
+public class HierarchicalTimingWheelTest {
+
+    @Test
+    public void shouldExpireItemsOfFirstLevel() {
+        // given
+        final HierarchicalTimingWheel<String> wheel = new HierarchicalTimingWheel<>(1000, 0);
+        wheel.schedule("a", 5000);
+        wheel.schedule("b", 10500);
+        // when
+        final List<String> expiredAfter5s = advance(wheel, 5000);
+        final List<String> expiredAfter10s = advance(wheel, 10999);
+        final List<String> expiredAfter11s = advance(wheel, 11000);
+        // then
+        assertThat(expiredAfter5s, contains("a"));
+        assertThat(expiredAfter10s, is(empty()));
+        assertThat(expiredAfter11s, contains("b"));
+        assertThat(wheel.size(), is(0L));
+    }
+
+    @Test
+    public void shouldNeverExpireItemsBeforeTheirDeadline() {
+        // given
+        final HierarchicalTimingWheel<Long> wheel = new HierarchicalTimingWheel<>(10, 0);
+        final long[] deadlines = {1, 9, 10, 11, 639, 640, 641, 5_000, 40_959, 40_960, 40_961, 2_621_439, 2_621_440, 3_000_000, 200_000_000};
+        for (final long deadline : deadlines) {
+            wheel.schedule(deadline, deadline);
+        }
+        // when
+        final List<Long> expired = new ArrayList<>();
+        for (long now = 0; now <= 200_000_010; now += 10) {
+            final long currentTime = now;
+            wheel.advance(now, (item, deadline) -> {
+                assertThat("expired too early: " + item + " at " + currentTime, deadline <= currentTime, is(true));
+                assertThat("expired too late: " + item + " at " + currentTime, currentTime - deadline < 10, is(true));
+                expired.add(item);
+            });
+        }
+        // then
+        assertThat(expired.size(), is(deadlines.length));
+    }
+
+    @Test
+    public void shouldExpireItemsInThePastWithNextTick() {
+        // given
+        final HierarchicalTimingWheel<String> wheel = new HierarchicalTimingWheel<>(1000, 100_000);
+        wheel.schedule("a", 0);
+        // when
+        final List<String> expired = advance(wheel, 101_000);
+        // then
+        assertThat(expired, contains("a"));
+    }
+
+    @Test
+    public void shouldClearItems() {
+        // given
+        final HierarchicalTimingWheel<String> wheel = new HierarchicalTimingWheel<>(1000, 0);
+        wheel.schedule("a", 5000);
+        // when
+        wheel.clear();
+        // then
+        assertThat(advance(wheel, 10000), is(empty()));
+        assertThat(wheel.size(), is(0L));
+    }
+
+    @Test
+    public void shouldReplaceTimerIfItemIsRescheduled() {
+        // given
+        final HierarchicalTimingWheel<String> wheel = new HierarchicalTimingWheel<>(1000, 0);
+        wheel.schedule("a", 5000);
+        wheel.schedule("a", 500_000);
+        wheel.schedule("a", 8000);
+        // when
+        final List<String> expiredAfter5s = advance(wheel, 5000);
+        final List<String> expiredAfter8s = advance(wheel, 8000);
+        final List<String> expiredAfter500s = advance(wheel, 500_000);
+        // then
+        assertThat(expiredAfter5s, is(empty()));
+        assertThat(expiredAfter8s, contains("a"));
+        assertThat(expiredAfter500s, is(empty()));
+        assertThat(wheel.size(), is(0L));
+    }
+
+    @Test
+    public void shouldCancelTimer() {
+        // given
+        final HierarchicalTimingWheel<String> wheel = new HierarchicalTimingWheel<>(1000, 0);
+        wheel.schedule("a", 5000);
+        wheel.schedule("b", 5000);
+        // when
+        wheel.cancel("a");
+        // then
+        assertThat(wheel.size(), is(1L));
+        assertThat(advance(wheel, 10000), contains("b"));
+    }
+
+    private List<String> advance(final HierarchicalTimingWheel<String> wheel, final long now) {
+        final List<String> expired = new ArrayList<>();
+        wheel.advance(now, (item, deadline) -> expired.add(item));
+        return expired;
+    }
+}
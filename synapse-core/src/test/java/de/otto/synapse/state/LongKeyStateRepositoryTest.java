@@ -0,0 +1,140 @@
+package de.otto.synapse.state;
+
+import de.otto.synapse.consumer.DefaultMessageConsumer;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static de.otto.synapse.channel.ShardPosition.fromPosition;
+import static de.otto.synapse.message.Header.responseHeader;
+import static de.otto.synapse.message.Message.message;
+import static de.otto.synapse.state.LongKeyStateRepository.longKeyStateRepositoryBuilder;
+import static java.time.Instant.now;
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasEntry;
+import static org.hamcrest.Matchers.is;
+
+public class LongKeyStateRepositoryTest {
+
+    @Test
+    public void shouldRetrieveValueAfterPut() {
+        // given
+        final LongKeyStateRepository<ChronicleMapStateRepositoryTest.SomePojo> repository = longKeyStateRepositoryBuilder(ChronicleMapStateRepositoryTest.SomePojo.class).build();
+        // when
+        repository.put(4711L, new ChronicleMapStateRepositoryTest.SomePojo("A", 1));
+        // then
+        assertThat(repository.get(4711L), is(Optional.of(new ChronicleMapStateRepositoryTest.SomePojo("A", 1))));
+        assertThat(repository.get(42L), is(Optional.empty()));
+        assertThat(repository.size(), is(1L));
+    }
+
+    @Test
+    public void shouldComputeAndRemoveValues() {
+        // given
+        final LongKeyStateRepository<String> repository = longKeyStateRepositoryBuilder(String.class).build();
+        repository.put(1L, "one");
+        // when
+        repository.compute(1L, (key, value) -> value.get() + "-" + key);
+        repository.compute(2L, (key, value) -> value.orElse("two"));
+        repository.remove(3L);
+        // then
+        assertThat(repository.get(1L), is(Optional.of("one-1")));
+        assertThat(repository.get(2L), is(Optional.of("two")));
+        assertThat(repository.containsKey(3L), is(false));
+    }
+
+    @Test
+    public void shouldConsumeNumericMessageKeysUsingStateRepositoryView() {
+        // given
+        final LongKeyStateRepository<String> repository = longKeyStateRepositoryBuilder(String.class).build();
+        final DefaultMessageConsumer<String> consumer = new DefaultMessageConsumer<>("[0-9]+", String.class, repository.asStateRepository());
+        // when
+        consumer.accept(message("4711", responseHeader(fromPosition("some-shard", "1"), now()), "some payload"));
+        consumer.accept(message("42", responseHeader(fromPosition("some-shard", "2"), now()), "other payload"));
+        consumer.accept(message("42", responseHeader(fromPosition("some-shard", "3"), now()), null));
+        // then
+        assertThat(repository.get(4711L), is(Optional.of("some payload")));
+        assertThat(repository.containsKey(42L), is(false));
+        assertThat(repository.asStateRepository().get("4711"), is(Optional.of("some payload")));
+        assertThat(repository.asStateRepository().get("not-a-number"), is(Optional.empty()));
+    }
+
+    @Test
+    public void shouldIterateEntriesOfStateRepositoryView() {
+        // given
+        final LongKeyStateRepository<String> repository = longKeyStateRepositoryBuilder(String.class).build();
+        repository.put(1L, "one");
+        repository.put(2L, "two");
+        // when
+        final Map<String, String> entries = new HashMap<>();
+        repository.asStateRepository().forEach(entries::put);
+        // then
+        assertThat(entries.size(), is(2));
+        assertThat(entries, hasEntry("1", "one"));
+        assertThat(entries, hasEntry("2", "two"));
+        assertThat(repository.asStateRepository().keySet().contains("2"), is(true));
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void shouldRejectNonNumericKeys() {
+        longKeyStateRepositoryBuilder(String.class).build().asStateRepository().put("not-a-number", "value");
+    }
+
+    @Test
+    public void shouldRejectNonCanonicalKeys() {
+        // given
+        final StateRepository<String> view = longKeyStateRepositoryBuilder(String.class).build().asStateRepository();
+        view.put("7", "value");
+        // when
+        final List<String> rejectedKeys = new ArrayList<>();
+        for (final String key : asList("007", "+7", "-0")) {
+            try {
+                view.put(key, "other value");
+            } catch (final NumberFormatException e) {
+                rejectedKeys.add(key);
+            }
+        }
+        // then
+        assertThat(rejectedKeys, contains("007", "+7", "-0"));
+        assertThat(view.get("007"), is(Optional.empty()));
+        assertThat(view.get("7"), is(Optional.of("value")));
+        assertThat(view.size(), is(1L));
+    }
+
+    @Test
+    public void shouldParseCanonicalKeysOnly() {
+        // given
+        final List<String> canonicalKeys = asList("0", "7", "-1", "4711", "9223372036854775807", "-9223372036854775808");
+        final List<String> nonCanonicalKeys = asList("", "-", "+1", "007", "-0", "00", "1a", " 1", "9223372036854775808", "-9223372036854775809", "12345678901234567890");
+        // then
+        for (final String key : canonicalKeys) {
+            assertThat(key, LongKeyStateRepository.isCanonical(key), is(true));
+            assertThat(key, LongKeyStateRepository.parseCanonical(key), is(Long.parseLong(key)));
+        }
+        for (final String key : nonCanonicalKeys) {
+            assertThat(key, LongKeyStateRepository.isCanonical(key), is(false));
+        }
+    }
+
+    @Test
+    public void shouldGrowIfConfigured() {
+        // given
+        final LongKeyStateRepository<String> repository = longKeyStateRepositoryBuilder(String.class)
+                .withEntries(100)
+                .withAverageValueSize(8)
+                .withAutoGrowth()
+                .build();
+        // when
+        for (long i = 0; i < 5000; i++) {
+            repository.put(i, "value-" + i);
+        }
+        // then
+        assertThat(repository.size(), is(5000L));
+    }
+}
@@ -0,0 +1,101 @@
+package de.otto.synapse.state;
+
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class NearCachingStateRepositoryTest {
+
+    @Test
+    public void shouldCacheValuesReadFromDelegate() {
+        // given
+        final StateRepository<String> delegate = spy(new ConcurrentHashMapStateRepository<String>());
+        delegate.put("someKey", "someValue");
+        final NearCachingStateRepository<String> repository = new NearCachingStateRepository<>(delegate, 10);
+        // when
+        repository.get("someKey");
+        final Optional<String> result = repository.get("someKey");
+        // then
+        assertThat(result, is(Optional.of("someValue")));
+        verify(delegate, times(1)).get("someKey");
+        assertThat(repository.getNearCacheStats().hitCount(), is(1L));
+        assertThat(repository.getNearCacheStats().missCount(), is(1L));
+    }
+
+    @Test
+    public void shouldCacheMissingValues() {
+        // given
+        final StateRepository<String> delegate = spy(new ConcurrentHashMapStateRepository<String>());
+        final NearCachingStateRepository<String> repository = new NearCachingStateRepository<>(delegate, 10);
+        // when
+        repository.get("someKey");
+        final Optional<String> result = repository.get("someKey");
+        // then
+        assertThat(result, is(Optional.empty()));
+        verify(delegate, times(1)).get("someKey");
+    }
+
+    @Test
+    public void shouldInvalidateOnPut() {
+        // given
+        final NearCachingStateRepository<String> repository = new NearCachingStateRepository<>(new ConcurrentHashMapStateRepository<>(), 10);
+        repository.put("someKey", "someValue");
+        repository.get("someKey");
+        // when
+        repository.put("someKey", "otherValue");
+        // then
+        assertThat(repository.get("someKey"), is(Optional.of("otherValue")));
+    }
+
+    @Test
+    public void shouldInvalidateOnCompute() {
+        // given
+        final NearCachingStateRepository<String> repository = new NearCachingStateRepository<>(new ConcurrentHashMapStateRepository<>(), 10);
+        repository.put("someKey", "someValue");
+        repository.get("someKey");
+        // when
+        repository.compute("someKey", (key, value) -> value.orElse("") + "-updated");
+        // then
+        assertThat(repository.get("someKey"), is(Optional.of("someValue-updated")));
+    }
+
+    @Test
+    public void shouldInvalidateOnRemoveAndClear() {
+        // given
+        final NearCachingStateRepository<String> repository = new NearCachingStateRepository<>(new ConcurrentHashMapStateRepository<>(), 10);
+        repository.put("someKey", "someValue");
+        repository.put("otherKey", "otherValue");
+        repository.get("someKey");
+        repository.get("otherKey");
+        // when
+        repository.remove("someKey");
+        // then
+        assertThat(repository.get("someKey"), is(Optional.empty()));
+        // when
+        repository.clear();
+        // then
+        assertThat(repository.get("otherKey"), is(Optional.empty()));
+        assertThat(repository.size(), is(0L));
+    }
+
+    @Test
+    public void shouldEvictEntriesExceedingMaximumSize() {
+        // given
+        final NearCachingStateRepository<String> repository = new NearCachingStateRepository<>(new ConcurrentHashMapStateRepository<>(), 10);
+        // when
+        for (int i = 0; i < 100; i++) {
+            repository.put("key-" + i, "value-" + i);
+            repository.get("key-" + i);
+        }
+        // then
+        assertThat(repository.getNearCacheSize() <= 10, is(true));
+        assertThat(repository.getNearCacheStats().evictionCount() >= 90, is(true));
+        assertThat(repository.get("key-0"), is(Optional.of("value-0")));
+    }
+}
@@ -0,0 +1,102 @@
+package de.otto.synapse.state;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static de.otto.synapse.state.ChronicleMapStateRepository.chronicleMapConcurrentMapStateRepositoryBuilder;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptySet;
+import static java.util.Collections.singleton;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+
+public class SecondaryIndexTest {
+
+    @Test
+    public void shouldIndexExistingEntries() {
+        // given
+        final StateRepository<String> repository = new ConcurrentHashMapStateRepository<>();
+        repository.put("1", "brand-a");
+        repository.put("2", "brand-b");
+        repository.put("3", "brand-a");
+        // when
+        repository.addIndex(SecondaryIndex.onHeap("brand", value -> singleton(value)));
+        // then
+        assertThat(repository.findKeys("brand", "brand-a"), containsInAnyOrder("1", "3"));
+        assertThat(repository.findKeys("brand", "brand-b"), contains("2"));
+    }
+
+    @Test
+    public void shouldUpdateIndexOnModifications() {
+        // given
+        final StateRepository<String> repository = new ConcurrentHashMapStateRepository<>();
+        repository.addIndex(SecondaryIndex.onHeap("brand", value -> singleton(value)));
+        // when
+        repository.put("1", "brand-a");
+        repository.put("2", "brand-a");
+        repository.put("3", "brand-a");
+        repository.put("2", "brand-b");
+        repository.compute("3", (key, value) -> "brand-c");
+        repository.remove("1");
+        // then
+        assertThat(repository.findKeys("brand", "brand-a"), is(emptySet()));
+        assertThat(repository.findKeys("brand", "brand-b"), contains("2"));
+        assertThat(repository.findValues("brand", "brand-c"), contains("brand-c"));
+    }
+
+    @Test
+    public void shouldSupportMultipleIndexKeysPerValue() {
+        // given
+        final StateRepository<String> repository = new ConcurrentHashMapStateRepository<>();
+        repository.addIndex(SecondaryIndex.onHeap("seller", value -> asList(value.split(","))));
+        // when
+        repository.put("offer-1", "seller-a,seller-b");
+        repository.put("offer-2", "seller-b");
+        // then
+        assertThat(repository.findKeys("seller", "seller-a"), contains("offer-1"));
+        assertThat(repository.findKeys("seller", "seller-b"), containsInAnyOrder("offer-1", "offer-2"));
+    }
+
+    @Test
+    public void shouldClearIndexes() {
+        // given
+        final StateRepository<String> repository = new ConcurrentHashMapStateRepository<>();
+        repository.addIndex(SecondaryIndex.onHeap("brand", value -> singleton(value)));
+        repository.put("1", "brand-a");
+        // when
+        repository.clear();
+        // then
+        assertThat(repository.findKeys("brand", "brand-a"), is(emptySet()));
+    }
+
+    @Test
+    public void shouldMaintainOffHeapIndexOfChronicleMapStateRepository() {
+        // given
+        final ChronicleMapStateRepository<String> repository = chronicleMapConcurrentMapStateRepositoryBuilder(String.class).build();
+        repository.addIndex(SecondaryIndex.offHeap("brand", value -> singleton(value), 100, 64));
+        // when
+        for (int i = 0; i < 1000; i++) {
+            repository.put("key-" + i, "brand-" + (i % 10));
+        }
+        repository.remove("key-0");
+        // then
+        final List<String> values = repository.findValues("brand", "brand-0");
+        assertThat(values.size(), is(99));
+        assertThat(repository.findKeys("brand", "brand-1").size(), is(100));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldFailForUnknownIndex() {
+        new ConcurrentHashMapStateRepository<String>().findKeys("unknown", "brand-a");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldRejectDuplicateIndex() {
+        final StateRepository<String> repository = new ConcurrentHashMapStateRepository<>();
+        repository.addIndex(SecondaryIndex.onHeap("brand", value -> singleton(value)));
+        repository.addIndex(SecondaryIndex.onHeap("brand", value -> singleton(value)));
+    }
+}
@@ -0,0 +1,153 @@
+package de.otto.synapse.state;
+
+import de.otto.synapse.channel.ChannelPosition;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static de.otto.synapse.channel.ChannelPosition.channelPosition;
+import static de.otto.synapse.channel.ShardPosition.fromPosition;
+import static de.otto.synapse.state.ChronicleMapStateRepository.chronicleMapConcurrentMapStateRepositoryBuilder;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.everyItem;
+import static org.hamcrest.Matchers.hasEntry;
+import static org.hamcrest.Matchers.is;
+
+public class StateSnapshotTest {
+
+    @Test
+    public void shouldStreamAllEntries() {
+        // given
+        final StateRepository<String> repository = new ConcurrentHashMapStateRepository<>();
+        repository.put("a", "1");
+        repository.put("b", "2");
+        // when
+        final Map<String, String> entries = new HashMap<>();
+        repository.forEach(entries::put);
+        // then
+        assertThat(entries.size(), is(2));
+        assertThat(entries, hasEntry("a", "1"));
+        assertThat(entries, hasEntry("b", "2"));
+    }
+
+    @Test
+    public void shouldIgnoreModificationsAfterSnapshotWasOpened() {
+        // given
+        final StateRepository<String> repository = new ConcurrentHashMapStateRepository<>();
+        repository.put("a", "1");
+        repository.put("b", "2");
+        repository.put("c", "3");
+        final Map<String, String> entries = new HashMap<>();
+        // when
+        try (StateSnapshot<String> snapshot = repository.snapshot()) {
+            repository.put("a", "updated");
+            repository.remove("b");
+            repository.put("d", "4");
+            repository.compute("c", (key, value) -> value.get() + "-computed");
+            snapshot.forEach(entries::put);
+        }
+        // then
+        assertThat(entries.size(), is(3));
+        assertThat(entries, hasEntry("a", "1"));
+        assertThat(entries, hasEntry("b", "2"));
+        assertThat(entries, hasEntry("c", "3"));
+        assertThat(repository.get("a").get(), is("updated"));
+        assertThat(repository.get("c").get(), is("3-computed"));
+    }
+
+    @Test
+    public void shouldIgnoreModificationsDuringIteration() {
+        // given
+        final StateRepository<String> repository = new ConcurrentHashMapStateRepository<>();
+        for (int i = 0; i < 100; i++) {
+            repository.put("key-" + i, "value-" + i);
+        }
+        final Map<String, String> entries = new HashMap<>();
+        // when
+        try (StateSnapshot<String> snapshot = repository.snapshot()) {
+            snapshot.forEach((key, value) -> {
+                entries.put(key, value);
+                for (int i = 0; i < 100; i++) {
+                    repository.put("key-" + i, "modified");
+                    repository.remove("key-" + ((i + 50) % 100));
+                }
+            });
+        }
+        // then
+        assertThat(entries.size(), is(100));
+        for (int i = 0; i < 100; i++) {
+            assertThat(entries, hasEntry("key-" + i, "value-" + i));
+        }
+    }
+
+    @Test
+    public void shouldIgnoreClearAfterSnapshotWasOpened() {
+        // given
+        final ChronicleMapStateRepository<String> repository = chronicleMapConcurrentMapStateRepositoryBuilder(String.class).build();
+        repository.put("a", "1");
+        repository.put("b", "2");
+        final Map<String, String> entries = new HashMap<>();
+        // when
+        try (StateSnapshot<String> snapshot = repository.snapshot()) {
+            repository.clear();
+            snapshot.forEach(entries::put);
+        }
+        // then
+        assertThat(entries.size(), is(2));
+        assertThat(repository.size(), is(0L));
+    }
+
+    @Test
+    public void shouldNotRecordModificationsAfterSnapshotWasClosed() {
+        // given
+        final StateRepository<String> repository = new ConcurrentHashMapStateRepository<>();
+        repository.put("a", "1");
+        final StateSnapshot<String> snapshot = repository.snapshot();
+        snapshot.close();
+        // when
+        repository.put("a", "2");
+        final Map<String, String> entries = new HashMap<>();
+        repository.snapshot().forEach(entries::put);
+        // then
+        assertThat(entries, hasEntry("a", "2"));
+    }
+
+    @Test
+    public void shouldOpenSnapshotTogetherWithChannelPosition() {
+        // given
+        final StateRepository<String> repository = new ConcurrentHashMapStateRepository<>();
+        repository.put("a", "1");
+        final ChannelPosition position = channelPosition(fromPosition("shard-1", "42"));
+        final Map<String, String> entries = new HashMap<>();
+        // when
+        try (StateSnapshot<String> snapshot = repository.snapshot(() -> position)) {
+            repository.put("a", "2");
+            snapshot.forEach(entries::put);
+            // then
+            assertThat(snapshot.getChannelPosition(), is(Optional.of(position)));
+        }
+        assertThat(entries, hasEntry("a", "1"));
+    }
+
+    @Test
+    public void shouldEmitEntriesModifiedAfterTheyWereVisitedWithTheSameValue() {
+        // given
+        final StateRepository<String> repository = new ConcurrentHashMapStateRepository<>();
+        repository.put("a", "1");
+        final List<String> emitted = new ArrayList<>();
+        // when
+        try (StateSnapshot<String> snapshot = repository.snapshot()) {
+            snapshot.forEach((key, value) -> {
+                emitted.add(key + "=" + value);
+                repository.put("a", "2");
+            });
+        }
+        // then
+        assertThat(emitted, everyItem(is("a=1")));
+        assertThat(repository.get("a").get(), is("2"));
+    }
+}
@@ -1,6 +1,9 @@
 package de.otto.synapse.edison.health;
 
 import de.otto.synapse.eventsource.EventSource;
+import de.otto.synapse.eventsource.EventSourceStartup;
+import de.otto.synapse.eventsource.EventSourceStartupOrchestrator;
+import de.otto.synapse.eventsource.StartupPhase;
 import de.otto.synapse.info.MessageReceiverNotification;
 import de.otto.synapse.info.MessageReceiverStatus;
 import io.netty.util.internal.ConcurrentSet;
@@ -12,10 +15,15 @@ import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 
+import static java.lang.String.format;
 import static java.util.Collections.emptyList;
 import static java.util.stream.Collectors.toSet;
 import static org.springframework.boot.actuate.health.Health.*;
@@ -23,6 +31,11 @@ import static org.springframework.boot.actuate.health.Health.*;
 /**
  * A Spring Boot HealthIndicator that is healthy after finishing all events of an
  * {@link de.otto.synapse.eventsource.EventSource} for the first time.
+ * <p>
+ *     If the EventSources are started by an {@link EventSourceStartupOrchestrator}, channels that are reported
+ *     as ready by the orchestrator are healthy as well, and the startup phase and timings of every channel are
+ *     added to the details of the health.
+ * </p>
  */
 @Component
 @ConditionalOnProperty(
@@ -36,9 +49,16 @@ public class StartupHealthIndicator implements HealthIndicator {
     public static final long TEN_SECONDS = 10000L;
     private Set<String> allChannels;
     private Set<String> healthyChannels;
+    private final EventSourceStartupOrchestrator startupOrchestrator;
 
-    @Autowired
     public StartupHealthIndicator(final Optional<List<EventSource>> eventSources) {
+        this(eventSources, Optional.empty());
+    }
+
+    @Autowired
+    public StartupHealthIndicator(final Optional<List<EventSource>> eventSources,
+                                  final Optional<EventSourceStartupOrchestrator> startupOrchestrator) {
+        this.startupOrchestrator = startupOrchestrator.orElse(null);
         allChannels = eventSources.orElse(emptyList())
                 .stream()
                 .map(EventSource::getChannelName)
@@ -59,12 +79,30 @@ public class StartupHealthIndicator implements HealthIndicator {
 
         @Override
     public Health health() {
+        final Set<String> readyChannels = new HashSet<>(healthyChannels);
+        final List<EventSourceStartup> startupStates = startupOrchestrator != null
+                ? startupOrchestrator.getStartupStates()
+                : emptyList();
+        startupStates.stream()
+                .filter(EventSourceStartup::isReady)
+                .forEach(startup -> readyChannels.add(startup.getChannelName()));
         final Builder healthBuilder;
-        if (healthyChannels.containsAll(allChannels)) {
+        if (readyChannels.containsAll(allChannels)) {
             healthBuilder = up().withDetail("message", "All channels up to date");
         } else {
             healthBuilder = down().withDetail("message", "Channel(s) not yet up to date");
         }
+        if (!startupStates.isEmpty()) {
+            final Instant now = Instant.now();
+            final Map<String, String> channels = new LinkedHashMap<>();
+            startupStates.forEach(startup -> channels.put(startup.getChannelName(), format(
+                    "%s (queued %s, starting %s, catching up %s)",
+                    startup.getPhase(),
+                    startup.getDuration(StartupPhase.QUEUED, now),
+                    startup.getDuration(StartupPhase.STARTING, now),
+                    startup.getDuration(StartupPhase.CATCHING_UP, now))));
+            healthBuilder.withDetail("channels", channels);
+        }
         return healthBuilder.build();
     }
 
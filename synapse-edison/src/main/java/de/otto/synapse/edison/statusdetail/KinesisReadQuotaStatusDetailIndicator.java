@@ -0,0 +1,59 @@
+package de.otto.synapse.edison.statusdetail;
+
+import de.otto.edison.status.domain.Status;
+import de.otto.edison.status.domain.StatusDetail;
+import de.otto.edison.status.indicator.StatusDetailIndicator;
+import de.otto.synapse.endpoint.receiver.aws.KinesisReadQuota;
+import de.otto.synapse.endpoint.receiver.aws.KinesisShardReadMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static java.lang.String.format;
+import static java.util.Collections.emptyList;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Reports the {@link KinesisShardReadMetrics} of the {@link KinesisReadQuota} per Kinesis shard, like the record
+ * limit of the {@code GetRecords} requests, the size of the responses and the number of throttled calls.
+ */
+@Component
+public class KinesisReadQuotaStatusDetailIndicator implements StatusDetailIndicator {
+
+    private final KinesisReadQuota readQuota;
+
+    @Autowired
+    public KinesisReadQuotaStatusDetailIndicator(final Optional<KinesisReadQuota> readQuota) {
+        this.readQuota = readQuota.orElse(null);
+    }
+
+    @Override
+    public StatusDetail statusDetail() {
+        return null;
+    }
+
+    @Override
+    public List<StatusDetail> statusDetails() {
+        if (readQuota == null) {
+            return emptyList();
+        }
+        return readQuota.getMetrics()
+                .stream()
+                .map(this::statusDetailOf)
+                .collect(toList());
+    }
+
+    private StatusDetail statusDetailOf(final KinesisShardReadMetrics metrics) {
+        final String name = format("Kinesis reads %s/%s", metrics.getChannelName(), metrics.getShardName());
+        final Map<String, String> details = new LinkedHashMap<>();
+        details.put("recordLimit", String.valueOf(metrics.getRecordLimit()));
+        details.put("averageRecordBytes", String.valueOf(metrics.getAverageRecordBytes()));
+        details.put("lastResponseBytes", String.valueOf(metrics.getLastResponseBytes()));
+        details.put("throttledCalls", String.valueOf(metrics.getThrottledCalls()));
+        return StatusDetail.statusDetail(name, Status.OK, format("%d records per request, %d throttled calls", metrics.getRecordLimit(), metrics.getThrottledCalls()), details);
+    }
+}
@@ -0,0 +1,71 @@
+package de.otto.synapse.edison.statusdetail;
+
+import de.otto.edison.status.domain.Status;
+import de.otto.edison.status.domain.StatusDetail;
+import de.otto.edison.status.indicator.StatusDetailIndicator;
+import de.otto.synapse.info.StorageMetrics;
+import de.otto.synapse.info.StorageMetricsProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static java.lang.String.format;
+import static java.util.Collections.emptyMap;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Reports the {@link StorageMetrics} of all beans implementing {@link StorageMetricsProvider}, like
+ * state repositories and message stores, as status details.
+ * <p>
+ *     The status is {@link Status#WARNING}, if the fill ratio of the storage exceeds {@value #WARNING_FILL_RATIO},
+ *     or if one of its segments is filled beyond its share of the configured capacity.
+ * </p>
+ */
+@Component
+public class StorageMetricsStatusDetailIndicator implements StatusDetailIndicator {
+
+    private static final double WARNING_FILL_RATIO = 0.9;
+    private static final double WARNING_SEGMENT_FILL_RATIO = 1.0;
+
+    private final Map<String, StorageMetricsProvider> providers;
+
+    @Autowired
+    public StorageMetricsStatusDetailIndicator(final Optional<Map<String, StorageMetricsProvider>> providers) {
+        this.providers = providers.orElse(emptyMap());
+    }
+
+    @Override
+    public StatusDetail statusDetail() {
+        return null;
+    }
+
+    @Override
+    public List<StatusDetail> statusDetails() {
+        return providers.entrySet()
+                .stream()
+                .sorted(Map.Entry.comparingByKey())
+                .map(entry -> statusDetailOf(entry.getKey(), entry.getValue().getStorageMetrics()))
+                .collect(toList());
+    }
+
+    private StatusDetail statusDetailOf(final String name, final StorageMetrics metrics) {
+        final Map<String, String> details = new LinkedHashMap<>();
+        details.put("entryCount", String.valueOf(metrics.getEntryCount()));
+        details.put("offHeapBytesAllocated", String.valueOf(metrics.getOffHeapBytesAllocated()));
+        details.put("offHeapBytesUsed", String.valueOf(metrics.getOffHeapBytesUsed()));
+        details.put("averageKeySize", String.valueOf(metrics.getAverageKeySize()));
+        details.put("averageValueSize", String.valueOf(metrics.getAverageValueSize()));
+        details.put("segments", String.valueOf(metrics.getSegments()));
+        details.put("fillRatio", String.valueOf(metrics.getFillRatio()));
+        details.put("maxSegmentFillRatio", String.valueOf(metrics.getMaxSegmentFillRatio()));
+        details.put("estimatedOnHeapBytes", String.valueOf(metrics.getEstimatedOnHeapBytes()));
+        if (metrics.getFillRatio() > WARNING_FILL_RATIO || metrics.getMaxSegmentFillRatio() > WARNING_SEGMENT_FILL_RATIO) {
+            return StatusDetail.statusDetail(name, Status.WARNING, "Storage is outgrowing its configured capacity.", details);
+        }
+        return StatusDetail.statusDetail(name, Status.OK, format("%d entries", metrics.getEntryCount()), details);
+    }
+}
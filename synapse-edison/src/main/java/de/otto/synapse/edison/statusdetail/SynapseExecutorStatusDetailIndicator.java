@@ -0,0 +1,66 @@
+package de.otto.synapse.edison.statusdetail;
+
+import de.otto.edison.status.domain.Status;
+import de.otto.edison.status.domain.StatusDetail;
+import de.otto.edison.status.indicator.StatusDetailIndicator;
+import de.otto.synapse.executor.ChannelExecutorMetrics;
+import de.otto.synapse.executor.SynapseExecutor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static java.lang.String.format;
+import static java.util.Collections.emptyList;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Reports the {@link ChannelExecutorMetrics} of the {@link SynapseExecutor} per channel.
+ * <p>
+ *     The status is {@link Status#WARNING}, if tasks of a channel are queued because all threads of the executor
+ *     are busy.
+ * </p>
+ */
+@Component
+public class SynapseExecutorStatusDetailIndicator implements StatusDetailIndicator {
+
+    private final SynapseExecutor synapseExecutor;
+
+    @Autowired
+    public SynapseExecutorStatusDetailIndicator(final Optional<SynapseExecutor> synapseExecutor) {
+        this.synapseExecutor = synapseExecutor.orElse(null);
+    }
+
+    @Override
+    public StatusDetail statusDetail() {
+        return null;
+    }
+
+    @Override
+    public List<StatusDetail> statusDetails() {
+        if (synapseExecutor == null) {
+            return emptyList();
+        }
+        return synapseExecutor.getMetrics()
+                .stream()
+                .map(this::statusDetailOf)
+                .collect(toList());
+    }
+
+    private StatusDetail statusDetailOf(final ChannelExecutorMetrics metrics) {
+        final String name = format("Executor %s", metrics.getChannelName());
+        final Map<String, String> details = new LinkedHashMap<>();
+        details.put("submittedTasks", String.valueOf(metrics.getSubmittedTasks()));
+        details.put("queuedTasks", String.valueOf(metrics.getQueuedTasks()));
+        details.put("runningTasks", String.valueOf(metrics.getRunningTasks()));
+        details.put("completedTasks", String.valueOf(metrics.getCompletedTasks()));
+        details.put("virtualThreads", String.valueOf(synapseExecutor.isUsingVirtualThreads()));
+        if (metrics.getQueuedTasks() > 0) {
+            return StatusDetail.statusDetail(name, Status.WARNING, "Tasks are waiting for a thread. Consider increasing synapse.executor.max-threads.", details);
+        }
+        return StatusDetail.statusDetail(name, Status.OK, format("%d running tasks", metrics.getRunningTasks()), details);
+    }
+}
@@ -1,26 +1,52 @@
 package de.otto.synapse.edison.health;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import de.otto.synapse.channel.ChannelDurationBehind;
+import com.google.common.collect.ImmutableList;
+import de.otto.synapse.channel.ChannelPosition;
+import de.otto.synapse.endpoint.receiver.AbstractMessageLogReceiverEndpoint;
+import de.otto.synapse.endpoint.receiver.MessageLogReceiverEndpoint;
+import de.otto.synapse.eventsource.DefaultEventSource;
 import de.otto.synapse.eventsource.EventSource;
+import de.otto.synapse.eventsource.EventSourceStartup;
+import de.otto.synapse.eventsource.EventSourceStartupOrchestrator;
+import de.otto.synapse.eventsource.StartupPhase;
+import de.otto.synapse.info.MessageReceiverNotification;
+import de.otto.synapse.messagestore.MessageStore;
 import org.junit.Test;
 import org.springframework.boot.actuate.health.Health;
 import org.springframework.boot.actuate.health.Status;
+import org.springframework.context.ApplicationEventPublisher;
 
 import java.time.Duration;
+import java.time.Instant;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 import static de.otto.synapse.channel.ChannelDurationBehind.channelDurationBehind;
 import static de.otto.synapse.channel.ChannelDurationBehind.unknown;
+import static de.otto.synapse.channel.ChannelPosition.fromHorizon;
 import static de.otto.synapse.info.MessageReceiverNotification.builder;
 import static de.otto.synapse.info.MessageReceiverStatus.FAILED;
 import static de.otto.synapse.info.MessageReceiverStatus.RUNNING;
+import static de.otto.synapse.message.Message.message;
 import static java.time.Duration.ofSeconds;
 import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
 import static java.util.Optional.of;
+import static java.util.concurrent.CompletableFuture.completedFuture;
 import static org.hamcrest.Matchers.hasEntry;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.startsWith;
 import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -193,6 +219,102 @@ public class StartupHealthIndicatorTest {
         assertThat(health.getDetails(), hasEntry("message", "All channels up to date"));
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldIndicateUpIfChannelsAreReadyAccordingToStartupOrchestrator() {
+        // given
+        final List<EventSource> eventSources = asList(
+                mockEventSource("some-stream"),
+                mockEventSource("other-stream"));
+        final EventSourceStartupOrchestrator orchestrator = mock(EventSourceStartupOrchestrator.class);
+        when(orchestrator.getStartupStates()).thenReturn(ImmutableList.of(
+                startup("some-stream", StartupPhase.READY),
+                startup("other-stream", StartupPhase.FINISHED)));
+        final StartupHealthIndicator healthCheck = new StartupHealthIndicator(of(eventSources), of(orchestrator));
+
+        // when
+        final Health health = healthCheck.health();
+
+        // then
+        assertThat(health.getStatus(), is(Status.UP));
+        assertThat((Map<String, String>) health.getDetails().get("channels"), hasEntry(is("some-stream"), startsWith("READY")));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldReportStartupPhasesOfChannels() {
+        // given
+        final List<EventSource> eventSources = asList(
+                mockEventSource("some-stream"),
+                mockEventSource("other-stream"));
+        final EventSourceStartupOrchestrator orchestrator = mock(EventSourceStartupOrchestrator.class);
+        when(orchestrator.getStartupStates()).thenReturn(ImmutableList.of(
+                startup("some-stream", StartupPhase.READY),
+                startup("other-stream", StartupPhase.QUEUED)));
+        final StartupHealthIndicator healthCheck = new StartupHealthIndicator(of(eventSources), of(orchestrator));
+
+        // when
+        final Health health = healthCheck.health();
+
+        // then
+        assertThat(health.getStatus(), is(Status.DOWN));
+        assertThat((Map<String, String>) health.getDetails().get("channels"), hasEntry(is("other-stream"), startsWith("QUEUED")));
+    }
+
+    @Test
+    public void shouldIndicateDownWhileMessageStoreIsReplayed() throws Exception {
+        // given
+        final StartupHealthIndicator healthCheck = new StartupHealthIndicator(of(singletonList(mockEventSource("some-stream"))));
+        final ApplicationEventPublisher eventPublisher = mock(ApplicationEventPublisher.class);
+        doAnswer(invocation -> {
+            healthCheck.on(invocation.getArgument(0));
+            return null;
+        }).when(eventPublisher).publishEvent(any(MessageReceiverNotification.class));
+        // and some message log that is up to date as soon as it is started:
+        final MessageLogReceiverEndpoint messageLog = new AbstractMessageLogReceiverEndpoint("some-stream", new ObjectMapper(), eventPublisher) {
+            @Override
+            public CompletableFuture<ChannelPosition> consumeUntil(final ChannelPosition startFrom,
+                                                                   final Instant until) {
+                publishEvent(RUNNING, "some message", channelDurationBehind().with("some-shard", ofSeconds(0)).build());
+                return completedFuture(startFrom);
+            }
+
+            @Override
+            public void stop() {
+            }
+        };
+        // and some message store that is replayed slowly:
+        final CountDownLatch replayLatch = new CountDownLatch(1);
+        final MessageStore messageStore = mock(MessageStore.class);
+        when(messageStore.getLatestChannelPosition()).thenReturn(fromHorizon());
+        when(messageStore.stream()).thenReturn(Stream.of(message("some-key", "some payload")).peek(m -> awaitQuietly(replayLatch)));
+        final DefaultEventSource eventSource = new DefaultEventSource(messageStore, messageLog, 10, null);
+
+        // when
+        final CompletableFuture<ChannelPosition> futurePosition = eventSource.consume();
+
+        // then
+        assertThat(healthCheck.health().getStatus(), is(Status.DOWN));
+        replayLatch.countDown();
+        futurePosition.get();
+        assertThat(healthCheck.health().getStatus(), is(Status.UP));
+    }
+
+    private static void awaitQuietly(final CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private EventSourceStartup startup(final String channelName, final StartupPhase phase) {
+        final Map<StartupPhase, Instant> timestamps = new EnumMap<>(StartupPhase.class);
+        timestamps.put(StartupPhase.QUEUED, Instant.now());
+        timestamps.put(phase, Instant.now());
+        return new EventSourceStartup(channelName, 0, phase, timestamps);
+    }
+
     private EventSource mockEventSource(final String channelName) {
         EventSource eventSource = mock(EventSource.class);
         when(eventSource.getChannelName()).thenReturn(channelName);
@@ -0,0 +1,50 @@
+package de.otto.synapse.edison.statusdetail;
+
+import de.otto.edison.status.domain.Status;
+import de.otto.edison.status.domain.StatusDetail;
+import de.otto.synapse.endpoint.receiver.aws.KinesisReadQuota;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class KinesisReadQuotaStatusDetailIndicatorTest {
+
+    @Test
+    public void shouldReportMetricsPerShard() {
+        // given
+        final KinesisReadQuota readQuota = new KinesisReadQuota();
+        readQuota.recordLimit("some-channel", "shard-1", 500, 2048);
+        readQuota.consumed("some-channel", "shard-1", 1024000);
+        readQuota.throttled("some-channel", "shard-1");
+        final KinesisReadQuotaStatusDetailIndicator indicator = new KinesisReadQuotaStatusDetailIndicator(Optional.of(readQuota));
+
+        // when
+        final List<StatusDetail> statusDetails = indicator.statusDetails();
+
+        // then
+        assertThat(statusDetails.size(), is(1));
+        assertThat(statusDetails.get(0).getName(), is("Kinesis reads some-channel/shard-1"));
+        assertThat(statusDetails.get(0).getStatus(), is(Status.OK));
+        assertThat(statusDetails.get(0).getDetails().get("recordLimit"), is("500"));
+        assertThat(statusDetails.get(0).getDetails().get("averageRecordBytes"), is("2048"));
+        assertThat(statusDetails.get(0).getDetails().get("lastResponseBytes"), is("1024000"));
+        assertThat(statusDetails.get(0).getDetails().get("throttledCalls"), is("1"));
+    }
+
+    @Test
+    public void shouldReportNothingWithoutReadQuota() {
+        // given
+        final KinesisReadQuotaStatusDetailIndicator indicator = new KinesisReadQuotaStatusDetailIndicator(Optional.empty());
+
+        // when
+        final List<StatusDetail> statusDetails = indicator.statusDetails();
+
+        // then
+        assertThat(statusDetails, is(empty()));
+    }
+}
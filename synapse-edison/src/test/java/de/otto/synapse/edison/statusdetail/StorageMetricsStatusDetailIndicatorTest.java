@@ -0,0 +1,65 @@
+package de.otto.synapse.edison.statusdetail;
+
+import com.google.common.collect.ImmutableMap;
+import de.otto.edison.status.domain.Status;
+import de.otto.edison.status.domain.StatusDetail;
+import de.otto.synapse.info.StorageMetricsProvider;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Optional;
+
+import static de.otto.synapse.info.StorageMetrics.storageMetricsBuilder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class StorageMetricsStatusDetailIndicatorTest {
+
+    @Test
+    public void shouldReportStorageMetrics() {
+        // given
+        final StorageMetricsProvider provider = () -> storageMetricsBuilder()
+                .withEntryCount(42)
+                .withOffHeapBytesAllocated(4711)
+                .withFillRatio(0.5)
+                .withMaxSegmentFillRatio(0.6)
+                .build();
+        final StorageMetricsStatusDetailIndicator indicator = new StorageMetricsStatusDetailIndicator(Optional.of(ImmutableMap.of("someRepository", provider)));
+
+        // when
+        final List<StatusDetail> statusDetails = indicator.statusDetails();
+
+        // then
+        assertThat(statusDetails.size(), is(1));
+        assertThat(statusDetails.get(0).getName(), is("someRepository"));
+        assertThat(statusDetails.get(0).getStatus(), is(Status.OK));
+        assertThat(statusDetails.get(0).getDetails().get("entryCount"), is("42"));
+        assertThat(statusDetails.get(0).getDetails().get("offHeapBytesAllocated"), is("4711"));
+        assertThat(statusDetails.get(0).getDetails().get("fillRatio"), is("0.5"));
+    }
+
+    @Test
+    public void shouldWarnIfStorageIsOutgrowingItsCapacity() {
+        // given
+        final StorageMetricsProvider provider = () -> storageMetricsBuilder()
+                .withEntryCount(42)
+                .withFillRatio(0.8)
+                .withMaxSegmentFillRatio(1.2)
+                .build();
+        final StorageMetricsStatusDetailIndicator indicator = new StorageMetricsStatusDetailIndicator(Optional.of(ImmutableMap.of("someRepository", provider)));
+
+        // when
+        final List<StatusDetail> statusDetails = indicator.statusDetails();
+
+        // then
+        assertThat(statusDetails.get(0).getStatus(), is(Status.WARNING));
+    }
+
+    @Test
+    public void shouldReportNothingWithoutProviders() {
+        final StorageMetricsStatusDetailIndicator indicator = new StorageMetricsStatusDetailIndicator(Optional.empty());
+
+        assertThat(indicator.statusDetails(), is(empty()));
+    }
+}
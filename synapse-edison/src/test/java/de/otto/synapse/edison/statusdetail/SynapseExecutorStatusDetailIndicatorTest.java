@@ -0,0 +1,48 @@
+package de.otto.synapse.edison.statusdetail;
+
+import de.otto.edison.status.domain.Status;
+import de.otto.edison.status.domain.StatusDetail;
+import de.otto.synapse.executor.SynapseExecutor;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import static de.otto.synapse.executor.SynapseExecutor.synapseExecutorBuilder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class SynapseExecutorStatusDetailIndicatorTest {
+
+    @Test
+    public void shouldReportMetricsPerChannel() throws Exception {
+        // given
+        final SynapseExecutor synapseExecutor = synapseExecutorBuilder().build();
+        CompletableFuture.runAsync(() -> {}, synapseExecutor.forChannel("some-channel")).get();
+        final SynapseExecutorStatusDetailIndicator indicator = new SynapseExecutorStatusDetailIndicator(Optional.of(synapseExecutor));
+
+        // when
+        final List<StatusDetail> statusDetails = indicator.statusDetails();
+
+        // then
+        assertThat(statusDetails.size(), is(1));
+        assertThat(statusDetails.get(0).getName(), is("Executor some-channel"));
+        assertThat(statusDetails.get(0).getStatus(), is(Status.OK));
+        assertThat(statusDetails.get(0).getDetails().get("submittedTasks"), is("1"));
+        synapseExecutor.close();
+    }
+
+    @Test
+    public void shouldReportNothingWithoutExecutor() {
+        // given
+        final SynapseExecutorStatusDetailIndicator indicator = new SynapseExecutorStatusDetailIndicator(Optional.empty());
+
+        // when
+        final List<StatusDetail> statusDetails = indicator.statusDetails();
+
+        // then
+        assertThat(statusDetails, is(empty()));
+    }
+}
@@ -6,6 +6,7 @@ import com.google.common.collect.Iterables;
 import de.otto.synapse.endpoint.receiver.AbstractMessageLogReceiverEndpoint;
 import de.otto.synapse.endpoint.receiver.MessageLogReceiverEndpoint;
 import de.otto.synapse.endpoint.receiver.MessageQueueReceiverEndpoint;
+import de.otto.synapse.executor.SynapseExecutor;
 import de.otto.synapse.info.MessageReceiverStatus;
 import de.otto.synapse.message.Message;
 import org.slf4j.Logger;
@@ -16,7 +17,6 @@ import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -24,7 +24,6 @@ import static de.otto.synapse.message.Header.responseHeader;
 import static java.time.Duration.between;
 import static java.time.Instant.now;
 import static java.util.Collections.synchronizedList;
-import static java.util.concurrent.Executors.newSingleThreadExecutor;
 import static org.slf4j.LoggerFactory.getLogger;
 
 public class InMemoryChannel extends AbstractMessageLogReceiverEndpoint implements MessageLogReceiverEndpoint, MessageQueueReceiverEndpoint {
@@ -32,17 +31,25 @@ public class InMemoryChannel extends AbstractMessageLogReceiverEndpoint implemen
     private static final Logger LOG = getLogger(InMemoryChannel.class);
     private final List<Message<String>> eventQueue;
     private final AtomicBoolean stopSignal = new AtomicBoolean(false);
+    private final SynapseExecutor synapseExecutor;
 
     public InMemoryChannel(final String channelName) {
-        super(channelName, new ObjectMapper().registerModule(new JavaTimeModule()), null);
-        this.eventQueue = synchronizedList(new ArrayList<>());
+        this(channelName, new ObjectMapper().registerModule(new JavaTimeModule()), null);
     }
 
     public InMemoryChannel(final String channelName,
                            final ObjectMapper objectMapper,
                            final ApplicationEventPublisher eventPublisher) {
+        this(channelName, objectMapper, eventPublisher, SynapseExecutor.defaultExecutor());
+    }
+
+    public InMemoryChannel(final String channelName,
+                           final ObjectMapper objectMapper,
+                           final ApplicationEventPublisher eventPublisher,
+                           final SynapseExecutor synapseExecutor) {
         super(channelName, objectMapper, eventPublisher);
         this.eventQueue = synchronizedList(new ArrayList<>());
+        this.synapseExecutor = synapseExecutor;
     }
 
     public synchronized void send(final Message<String> message) {
@@ -92,7 +99,7 @@ public class InMemoryChannel extends AbstractMessageLogReceiverEndpoint implemen
             } while (!shouldStop && !stopSignal.get());
             publishEvent(MessageReceiverStatus.FINISHED, "Finished InMemoryChannel " + getChannelName(), durationBehind);
             return ChannelPosition.channelPosition(ShardPosition.fromPosition(getChannelName(), String.valueOf(pos)));
-        }, newSingleThreadExecutor());
+        }, synapseExecutor.forChannel(getChannelName()));
     }
 
     @Override
@@ -127,7 +134,7 @@ public class InMemoryChannel extends AbstractMessageLogReceiverEndpoint implemen
             } while (!stopSignal.get());
             publishEvent(MessageReceiverStatus.FINISHED, "Finished InMemoryChannel " + getChannelName(), durationBehind);
             return null;
-        }, Executors.newSingleThreadExecutor());
+        }, synapseExecutor.forChannel(getChannelName()));
     }
 
     @Override
@@ -1,6 +1,7 @@
 package de.otto.synapse.channel;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import de.otto.synapse.executor.SynapseExecutor;
 import org.springframework.context.ApplicationEventPublisher;
 
 import java.util.concurrent.ConcurrentHashMap;
@@ -11,16 +12,23 @@ public class InMemoryChannels {
     private final ConcurrentMap<String,InMemoryChannel> channels = new ConcurrentHashMap<>();
     private final ObjectMapper objectMapper;
     private final ApplicationEventPublisher eventPublisher;
+    private final SynapseExecutor synapseExecutor;
 
     public InMemoryChannels(final ObjectMapper objectMapper,
                             final ApplicationEventPublisher eventPublisher) {
+        this(objectMapper, eventPublisher, SynapseExecutor.defaultExecutor());
+    }
+
+    public InMemoryChannels(final ObjectMapper objectMapper,
+                            final ApplicationEventPublisher eventPublisher,
+                            final SynapseExecutor synapseExecutor) {
         this.objectMapper = objectMapper;
         this.eventPublisher = eventPublisher;
+        this.synapseExecutor = synapseExecutor;
     }
 
     public InMemoryChannel getChannel(final String channelName) {
-        channels.putIfAbsent(channelName, new InMemoryChannel(channelName, objectMapper, eventPublisher));
-        return channels.get(channelName);
+        return channels.computeIfAbsent(channelName, name -> new InMemoryChannel(name, objectMapper, eventPublisher, synapseExecutor));
     }
 
 }
@@ -2,15 +2,19 @@ package de.otto.synapse.configuration;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import de.otto.synapse.channel.InMemoryChannels;
+import de.otto.synapse.executor.SynapseExecutor;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Bean;
 
+import java.util.Optional;
+
 public class InMemoryChannelTestConfiguration {
 
     @Bean
     public InMemoryChannels inMemoryChannels(final ObjectMapper objectMapper,
-                                             final ApplicationEventPublisher eventPublisher) {
-        return new InMemoryChannels(objectMapper, eventPublisher);
+                                             final ApplicationEventPublisher eventPublisher,
+                                             final Optional<SynapseExecutor> synapseExecutor) {
+        return new InMemoryChannels(objectMapper, eventPublisher, synapseExecutor.orElseGet(SynapseExecutor::defaultExecutor));
     }
 
 }